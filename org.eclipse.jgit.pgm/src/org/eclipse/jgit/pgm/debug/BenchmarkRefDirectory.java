@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2019, Google LLC.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.pgm.debug;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.pgm.Command;
+import org.eclipse.jgit.pgm.TextBuiltin;
+import org.eclipse.jgit.util.FileUtils;
+import org.kohsuke.args4j.Option;
+
+@Command(usage = "usage_BenchmarkRefDirectory")
+class BenchmarkRefDirectory extends TextBuiltin {
+	@Option(name = "--refs", metaVar = "N", usage = "Number of packed references")
+	private int refs = 1000000;
+
+	@Option(name = "--loose", metaVar = "N", usage = "Number of loose references")
+	private int loose = 1000;
+
+	@Option(name = "--tries", metaVar = "N", usage = "Number of times the references are read")
+	private int tries = 5;
+
+	@Option(name = "--prefix", metaVar = "PREFIX", usage = "Prefix of the references to read")
+	private String prefix = "refs/changes/12/"; //$NON-NLS-1$
+
+	/** {@inheritDoc} */
+	@Override
+	protected boolean requiresRepository() {
+		return false;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	protected void run() throws Exception {
+		File dir = FileUtils.createTempDir("bench", ".git", null); //$NON-NLS-1$ //$NON-NLS-2$
+		try {
+			try (FileRepository repo = new FileRepository(dir)) {
+				repo.create(true);
+			}
+			writeRefs(dir);
+
+			run("getRefs", dir, false, false); //$NON-NLS-1$
+			run("getRefsByPrefix", dir, false, true); //$NON-NLS-1$
+			run("getRefsByPrefix mmap", dir, true, true); //$NON-NLS-1$
+		} finally {
+			FileUtils.delete(dir, FileUtils.RECURSIVE);
+		}
+	}
+
+	@SuppressWarnings("nls")
+	private void writeRefs(File dir) throws IOException {
+		ObjectId id = ObjectId
+				.fromString("a54a1fc7a7e4d7cd6e5c3ff7e8a0c0e0b0d5a1f3");
+		List<String> names = new ArrayList<>(refs);
+		for (int i = 0; i < refs; i++) {
+			names.add(String.format("refs/changes/%02d/%d/1", i % 100, i));
+		}
+		Collections.sort(names);
+
+		try (OutputStream out = Files
+				.newOutputStream(new File(dir, "packed-refs").toPath());
+				Writer w = new BufferedWriter(
+						new OutputStreamWriter(out, UTF_8))) {
+			w.write("# pack-refs with: peeled fully-peeled sorted \n");
+			for (String name : names) {
+				w.write(id.name());
+				w.write(' ');
+				w.write(name);
+				w.write('\n');
+			}
+		}
+
+		byte[] content = (id.name() + '\n').getBytes(UTF_8);
+		for (int i = 0; i < loose; i++) {
+			File f = new File(dir,
+					String.format("refs/changes/%02d/%d/2", i % 100, i));
+			FileUtils.mkdirs(f.getParentFile(), true);
+			Files.write(f.toPath(), content);
+		}
+	}
+
+	@SuppressWarnings({ "nls", "boxing" })
+	private void run(String name, File dir, boolean mmap, boolean byPrefix)
+			throws IOException {
+		int found = 0;
+		long start = System.nanoTime();
+		for (int i = 0; i < tries; i++) {
+			try (FileRepository repo = new FileRepository(dir)) {
+				repo.getConfig().setBoolean(
+						ConfigConstants.CONFIG_CORE_SECTION, null,
+						ConfigConstants.CONFIG_KEY_PACKED_REFS_MMAP, mmap);
+				found = byPrefix ? readByPrefix(repo) : readAll(repo);
+			}
+		}
+		long ns = System.nanoTime() - start;
+		errw.println(String.format("%-22s %10d ms  %9.1f ms/run  %7d refs",
+				name, ns / 1000000, (ns / 1e6) / tries, found));
+	}
+
+	private int readByPrefix(FileRepository repo) throws IOException {
+		return repo.getRefDatabase().getRefsByPrefix(prefix).size();
+	}
+
+	private int readAll(FileRepository repo) throws IOException {
+		int n = 0;
+		for (Ref r : repo.getRefDatabase().getRefs()) {
+			if (r.getName().startsWith(prefix)) {
+				n++;
+			}
+		}
+		return n;
+	}
+}
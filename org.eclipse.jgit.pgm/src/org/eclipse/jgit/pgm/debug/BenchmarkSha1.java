@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2019, Google LLC.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.pgm.debug;
+
+import java.io.IOException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.jgit.pgm.Command;
+import org.eclipse.jgit.pgm.TextBuiltin;
+import org.eclipse.jgit.util.sha1.SHA1;
+import org.eclipse.jgit.util.sha1.SHA1.Sha1Implementation;
+import org.kohsuke.args4j.Option;
+
+@Command(usage = "usage_BenchmarkSha1")
+class BenchmarkSha1 extends TextBuiltin {
+	@Option(name = "--size", metaVar = "SIZE", usage = "Size of the data to hash in KiB")
+	private int size = 16 * 1024;
+
+	@Option(name = "--tries", metaVar = "N", usage = "Number of times the data is hashed")
+	private int tries = 20;
+
+	@Option(name = "--implementation", metaVar = "NAME", usage = "Only test the given implementation (java, java-nodetect, jdknative)")
+	private List<String> implementations = new ArrayList<>();
+
+	/** {@inheritDoc} */
+	@Override
+	protected boolean requiresRepository() {
+		return false;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	protected void run() throws Exception {
+		byte[] data = new byte[size * 1024];
+		new SecureRandom().nextBytes(data);
+
+		if (enabled("java")) { //$NON-NLS-1$
+			run("java", data, Sha1Implementation.JAVA, true); //$NON-NLS-1$
+		}
+		if (enabled("java-nodetect")) { //$NON-NLS-1$
+			run("java-nodetect", data, Sha1Implementation.JAVA, false); //$NON-NLS-1$
+		}
+		if (enabled("jdknative")) { //$NON-NLS-1$
+			run("jdknative", data, Sha1Implementation.JDKNATIVE, false); //$NON-NLS-1$
+		}
+	}
+
+	private boolean enabled(String name) {
+		return implementations.isEmpty() || implementations.contains(name);
+	}
+
+	@SuppressWarnings({ "nls", "boxing" })
+	private void run(String name, byte[] data, Sha1Implementation impl,
+			boolean detectCollision) throws IOException {
+		// Warm up the JIT before measuring.
+		for (int i = 0; i < 5; i++) {
+			hash(data, impl, detectCollision);
+		}
+
+		long start = System.nanoTime();
+		for (int i = 0; i < tries; i++) {
+			hash(data, impl, detectCollision);
+		}
+		long ns = Math.max(1, System.nanoTime() - start);
+		double mib = ((double) data.length * tries) / (1024 * 1024);
+		errw.println(String.format("%-14s %10d ms  %10.1f MiB/s", name,
+				ns / 1000000, mib / (ns / 1e9)));
+	}
+
+	private static void hash(byte[] data, Sha1Implementation impl,
+			boolean detectCollision) {
+		SHA1 s = SHA1.newInstance(impl).setDetectCollision(detectCollision);
+		s.update(data);
+		s.digest();
+	}
+}
@@ -263,6 +263,7 @@ public static String fatalError(String message) {
 	/***/ public String noSystemConsoleAvailable;
 	/***/ public String notABranch;
 	/***/ public String notACommit;
+	/***/ public String notAFileRepository;
 	/***/ public String notAGitRepository;
 	/***/ public String notAJgitCommand;
 	/***/ public String notARevision;
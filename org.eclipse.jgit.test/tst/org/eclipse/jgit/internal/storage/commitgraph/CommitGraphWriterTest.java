@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2019, Google LLC.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.commitgraph;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.eclipse.jgit.internal.storage.dfs.DfsRepositoryDescription;
+import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.revwalk.RevBlob;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevTag;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CommitGraphWriterTest {
+	private TestRepository<InMemoryRepository> tr;
+
+	@Before
+	public void setUp() throws Exception {
+		tr = new TestRepository<>(new InMemoryRepository(
+				new DfsRepositoryDescription("test")));
+	}
+
+	@Test
+	public void emptyGraph() throws Exception {
+		CommitGraph graph = writeAndRead(Collections.emptySet());
+		assertEquals(0, graph.getCommitCnt());
+		assertEquals(-1, graph.findGraphPosition(ObjectId.zeroId()));
+	}
+
+	@Test
+	public void linearHistory() throws Exception {
+		RevCommit a = tr.commit().add("a", "a").create();
+		RevCommit b = tr.commit().parent(a).add("b", "b").create();
+		RevCommit c = tr.commit().parent(b).add("c", "c").create();
+
+		CommitGraph graph = writeAndRead(Collections.singleton(c));
+		assertEquals(3, graph.getCommitCnt());
+		assertCommit(graph, a, 1);
+		assertCommit(graph, b, 2);
+		assertCommit(graph, c, 3);
+	}
+
+	@Test
+	public void mergeAndOctopus() throws Exception {
+		RevCommit root = tr.commit().create();
+		RevCommit x = tr.commit().parent(root).add("x", "x").create();
+		RevCommit y = tr.commit().parent(root).add("y", "y").create();
+		RevCommit z = tr.commit().parent(x).add("z", "z").create();
+		RevCommit merge = tr.commit().parent(x).parent(y).create();
+		RevCommit octopus = tr.commit().parent(merge).parent(z).parent(y)
+				.parent(root).create();
+
+		CommitGraph graph = writeAndRead(Collections.singleton(octopus));
+		assertEquals(6, graph.getCommitCnt());
+		assertCommit(graph, root, 1);
+		assertCommit(graph, x, 2);
+		assertCommit(graph, y, 2);
+		assertCommit(graph, z, 3);
+		assertCommit(graph, merge, 3);
+		assertCommit(graph, octopus, 4);
+	}
+
+	@Test
+	public void tagsArePeeledAndBlobsIgnored() throws Exception {
+		RevCommit a = tr.commit().create();
+		RevTag tag = tr.tag("v1", a);
+		RevBlob blob = tr.blob("content");
+
+		Set<ObjectId> tips = new HashSet<>();
+		tips.add(tag);
+		tips.add(blob);
+		CommitGraph graph = writeAndRead(tips);
+		assertEquals(1, graph.getCommitCnt());
+		assertCommit(graph, a, 1);
+		assertEquals(-1, graph.findGraphPosition(tag));
+		assertEquals(-1, graph.findGraphPosition(blob));
+		assertNull(graph.getCommitData(1));
+	}
+
+	@Test
+	public void rejectsGarbage() throws Exception {
+		try {
+			CommitGraphLoader
+					.read(new ByteArrayInputStream(new byte[] { 'C', 'G', 'P',
+							'X', 1, 1, 0, 0 }));
+			fail("accepted a file without the commit-graph signature");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	private CommitGraph writeAndRead(Set<? extends ObjectId> tips)
+			throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (ObjectReader reader = tr.getRepository().newObjectReader()) {
+			CommitGraphWriter writer = new CommitGraphWriter(reader);
+			writer.prepareCommitGraph(NullProgressMonitor.INSTANCE, tips);
+			writer.writeCommitGraph(NullProgressMonitor.INSTANCE, out);
+		}
+		return CommitGraphLoader
+				.read(new ByteArrayInputStream(out.toByteArray()));
+	}
+
+	private void assertCommit(CommitGraph graph, RevCommit c,
+			int generation) throws Exception {
+		tr.getRevWalk().parseHeaders(c);
+		int pos = graph.findGraphPosition(c);
+		assertEquals(c, graph.getObjectId(pos));
+
+		CommitGraph.CommitData data = graph.getCommitData(pos);
+		assertEquals(c.getTree(), data.getTree());
+		assertEquals(c.getCommitTime(), data.getCommitTime());
+		assertEquals(generation, data.getGeneration());
+
+		int[] expected = new int[c.getParentCount()];
+		for (int i = 0; i < expected.length; i++) {
+			expected[i] = graph.findGraphPosition(c.getParent(i));
+		}
+		assertArrayEquals(expected, data.getParents());
+	}
+}
@@ -38,10 +38,13 @@
 
 package org.eclipse.jgit.internal.storage.dfs;
 
+import static org.eclipse.jgit.internal.storage.pack.PackExt.INDEX;
+import static org.eclipse.jgit.internal.storage.pack.PackExt.PACK;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.is;
 
 import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.lib.Config;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
@@ -85,4 +88,22 @@ public void validBlockSize() {
 
 		assertThat(config.getBlockSize(), is(65536));
 	}
+
+	@Test
+	@SuppressWarnings("boxing")
+	public void packExtBlockLimitFromConfig() {
+		Config rc = new Config();
+		rc.setLong("core", "dfs", "idxBlockLimit", 1 << 20);
+		DfsBlockCacheConfig config = new DfsBlockCacheConfig().fromConfig(rc);
+
+		assertThat(config.getPackExtBlockLimit(INDEX), is(1L << 20));
+		assertThat(config.getPackExtBlockLimit(PACK), is(0L));
+	}
+
+	@Test
+	public void negativePackExtBlockLimitExpectsException() {
+		thrown.expect(IllegalArgumentException.class);
+
+		new DfsBlockCacheConfig().setPackExtBlockLimit(PACK, -1);
+	}
 }
@@ -43,8 +43,11 @@
 
 package org.eclipse.jgit.internal.storage.dfs;
 
+import static org.eclipse.jgit.internal.storage.pack.PackExt.INDEX;
+import static org.eclipse.jgit.internal.storage.pack.PackExt.PACK;
 import static org.eclipse.jgit.lib.Constants.OBJ_BLOB;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.util.Arrays;
@@ -136,6 +139,51 @@ public void weirdBlockSize() throws Exception {
 		}
 	}
 
+	@Test
+	public void packExtBlockLimitEvictsOwnBlocksFirst() {
+		DfsBlockCache.reconfigure(new DfsBlockCacheConfig()
+				.setBlockSize(512)
+				.setBlockLimit(1 << 20)
+				.setPackExtBlockLimit(PACK, 4096));
+		cache = DfsBlockCache.getInstance();
+
+		DfsRepositoryDescription repo = new DfsRepositoryDescription("test");
+		DfsStreamKey idx = DfsStreamKey.of(repo, "a.idx", INDEX);
+		DfsStreamKey pack = DfsStreamKey.of(repo, "a.pack", PACK);
+		cache.putRef(idx, 1024, "idx");
+		for (int i = 0; i < 100; i++) {
+			cache.put(pack, i * 512L, 512, "block" + i);
+		}
+
+		assertEquals("idx", cache.get(idx, 0));
+		assertTrue(cache.getCurrentSize()[PACK.getPosition()] <= 4096);
+		assertTrue(cache.getEvictions()[PACK.getPosition()] > 0);
+		assertEquals(0, cache.getEvictions()[INDEX.getPosition()]);
+	}
+
+	@Test
+	public void evictionPolicyKeepsHotExtensionLonger() {
+		assertNull(fillAfterIndex(DfsBlockCacheConfig.EvictionPolicy.CLOCK));
+		assertEquals("idx", fillAfterIndex(ext -> ext == INDEX ? 100 : 1));
+	}
+
+	private String fillAfterIndex(DfsBlockCacheConfig.EvictionPolicy policy) {
+		DfsBlockCache.reconfigure(new DfsBlockCacheConfig()
+				.setBlockSize(512)
+				.setBlockLimit(4096)
+				.setEvictionPolicy(policy));
+		cache = DfsBlockCache.getInstance();
+
+		DfsRepositoryDescription repo = new DfsRepositoryDescription("test");
+		DfsStreamKey idx = DfsStreamKey.of(repo, "a.idx", INDEX);
+		DfsStreamKey pack = DfsStreamKey.of(repo, "a.pack", PACK);
+		cache.putRef(idx, 512, "idx");
+		for (int i = 0; i < 20; i++) {
+			cache.put(pack, i * 512L, 512, "block" + i);
+		}
+		return cache.get(idx, 0);
+	}
+
 	private void resetCache() {
 		DfsBlockCache.reconfigure(new DfsBlockCacheConfig()
 				.setBlockSize(512)
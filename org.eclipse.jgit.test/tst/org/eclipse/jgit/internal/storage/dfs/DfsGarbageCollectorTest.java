@@ -1,9 +1,11 @@
 package org.eclipse.jgit.internal.storage.dfs;
 
+import static org.eclipse.jgit.internal.storage.dfs.DfsObjDatabase.PackSource.COMPACT;
 import static org.eclipse.jgit.internal.storage.dfs.DfsObjDatabase.PackSource.GC;
 import static org.eclipse.jgit.internal.storage.dfs.DfsObjDatabase.PackSource.GC_REST;
 import static org.eclipse.jgit.internal.storage.dfs.DfsObjDatabase.PackSource.INSERT;
 import static org.eclipse.jgit.internal.storage.dfs.DfsObjDatabase.PackSource.UNREACHABLE_GARBAGE;
+import static org.eclipse.jgit.internal.storage.pack.PackExt.INCREMENTAL_BITMAP_INDEX;
 import static org.eclipse.jgit.internal.storage.pack.PackExt.PACK;
 import static org.eclipse.jgit.internal.storage.pack.PackExt.REFTABLE;
 import static org.junit.Assert.assertEquals;
@@ -28,6 +30,8 @@
 import org.eclipse.jgit.junit.TestRepository;
 import org.eclipse.jgit.lib.AnyObjectId;
 import org.eclipse.jgit.lib.BatchRefUpdate;
+import org.eclipse.jgit.lib.BitmapIndex;
+import org.eclipse.jgit.lib.BitmapIndex.Bitmap;
 import org.eclipse.jgit.lib.NullProgressMonitor;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectIdRef;
@@ -35,6 +39,7 @@
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevBlob;
 import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevTag;
 import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.jgit.storage.pack.PackConfig;
 import org.eclipse.jgit.transport.ReceiveCommand;
@@ -90,6 +95,66 @@ public void testCollectionWithNoGarbage() throws Exception {
 		assertTrue("commit1 in pack", isObjectInPack(commit1, pack));
 	}
 
+	@Test
+	public void testRefreshBitmapsNeedsGcBitmaps() throws Exception {
+		RevCommit commit0 = commit().message("0").create();
+		git.update("master", commit0);
+
+		DfsGarbageCollector gc = new DfsGarbageCollector(repo);
+		assertFalse("no layer without GC", gc.refreshBitmaps(null));
+		assertEquals(0, countPacks(COMPACT));
+	}
+
+	@Test
+	public void testRefreshBitmapsLayersOverGcPack() throws Exception {
+		RevBlob blob0 = git.blob("0");
+		RevCommit commit0 = commit().message("0").add("f", blob0).create();
+		git.update("master", commit0);
+		gcNoTtl();
+		assertFalse("nothing new", new DfsGarbageCollector(repo)
+				.refreshBitmaps(null));
+
+		RevBlob blob1 = git.blob("1");
+		RevCommit commit1 = commit().message("1").parent(commit0)
+				.add("f", blob1).create();
+		RevCommit commit2 = commit().message("2").parent(commit1).create();
+		RevTag tag = git.tag("v1", commit1);
+		git.update("master", commit2);
+		git.update("refs/tags/v1", tag);
+
+		DfsGarbageCollector gc = new DfsGarbageCollector(repo);
+		assertTrue("layer written", gc.refreshBitmaps(null));
+		odb.clearCache();
+		assertEquals(1, countPacks(GC));
+		assertEquals(1, countPacks(COMPACT));
+		assertEquals(0, countPacks(INSERT));
+		for (DfsPackFile pack : odb.getPacks()) {
+			if (pack.getPackDescription().getPackSource() == COMPACT) {
+				assertTrue(pack.getPackDescription()
+						.hasFileExt(INCREMENTAL_BITMAP_INDEX));
+				assertFalse("GC objects not copied",
+						isObjectInPack(commit0, pack));
+			}
+		}
+
+		try (DfsReader reader = odb.newReader()) {
+			BitmapIndex index = reader.getBitmapIndex();
+			assertNotNull(index);
+			Bitmap tip = index.getBitmap(commit2);
+			assertNotNull("bitmap for master", tip);
+			assertNotNull("bitmap for peeled tag", index.getBitmap(commit1));
+			assertTrue(index.newBitmapBuilder().or(tip).contains(commit0));
+			assertTrue(index.newBitmapBuilder().or(tip).contains(blob0));
+			assertTrue(index.newBitmapBuilder().or(tip).contains(blob1));
+			assertFalse(index.newBitmapBuilder().or(tip).contains(tag));
+		}
+
+		gcNoTtl();
+		assertEquals(0, countPacks(COMPACT));
+		assertTrue("commit2 in GC pack",
+				isObjectInPack(commit2, odb.getPacks()[0]));
+	}
+
 	@Test
 	public void testRacyNoReusePrefersSmaller() throws Exception {
 		StringBuilder msg = new StringBuilder();
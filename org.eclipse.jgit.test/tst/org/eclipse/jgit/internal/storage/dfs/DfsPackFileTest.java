@@ -133,6 +133,16 @@ public void testCopyPackThroughCacheLargeNoCache() throws IOException {
 		assertPackSize();
 	}
 
+	@Test
+	public void testCopyPackThroughCacheLargeNoCachePrefetch()
+			throws IOException {
+		bypassCache = false;
+		clearCache = true;
+		setupPack(512, 8000);
+		db.getObjectDatabase().getReaderOptions().setPrefetchDepth(4);
+		assertPackSize();
+	}
+
 	private void setupPack(int bs, int ps) throws IOException {
 		DfsBlockCacheConfig cfg = new DfsBlockCacheConfig().setBlockSize(bs)
 				.setBlockLimit(bs * 100).setStreamRatio(bypassCache ? 0F : 1F);
@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2019, Google LLC.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.dfs;
+
+import static org.eclipse.jgit.internal.storage.pack.PackExt.PACK;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
+
+import org.eclipse.jgit.internal.storage.pack.PackWriter;
+import org.eclipse.jgit.junit.TestRng;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.util.LongList;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DfsPrefetcherTest {
+	private InMemoryRepository db;
+
+	private List<ObjectId> blobs;
+
+	@Before
+	public void setUp() throws IOException {
+		DfsBlockCacheConfig cfg = new DfsBlockCacheConfig().setBlockSize(512)
+				.setBlockLimit(512 * 1000);
+		DfsBlockCache.reconfigure(cfg);
+		db = new InMemoryRepository(new DfsRepositoryDescription("test"));
+
+		TestRng rng = new TestRng("prefetch");
+		blobs = new ArrayList<>();
+		DfsInserter ins = (DfsInserter) db.newObjectInserter();
+		ins.setCompressionLevel(Deflater.NO_COMPRESSION);
+		for (int i = 0; i < 50; i++) {
+			blobs.add(ins.insert(Constants.OBJ_BLOB, rng.nextBytes(700)));
+		}
+		ins.flush();
+
+		DfsBlockCache.reconfigure(cfg);
+		db.getObjectDatabase().clearCache();
+	}
+
+	@Test
+	public void prefetchLoadsBlock() throws Exception {
+		DfsPackFile pack = db.getObjectDatabase().getPacks()[0];
+		try (DfsReader ctx = db.getObjectDatabase().newReader();
+				DfsPrefetcher prefetcher = new DfsPrefetcher(ctx, 2)) {
+			DfsBlockCache cache = DfsBlockCache.getInstance();
+			assertFalse(cache.contains(pack.key, 1024));
+
+			prefetcher.prefetch(pack, 1100, 0);
+			assertFalse(prefetcher.isFull());
+			prefetcher.prefetch(pack, 2048, 1);
+			assertTrue(prefetcher.isFull());
+			prefetcher.flush();
+
+			for (int i = 0; i < 1000 && !cache.contains(pack.key, 1024); i++) {
+				Thread.sleep(10);
+			}
+			assertTrue(cache.contains(pack.key, 1024));
+			for (int i = 0; i < 1000 && !cache.contains(pack.key, 2048); i++) {
+				Thread.sleep(10);
+			}
+			assertTrue(cache.contains(pack.key, 2048));
+
+			prefetcher.advance(1);
+			assertFalse(prefetcher.isFull());
+		}
+	}
+
+	@Test
+	public void prefetchIsDroppedWhenThreadsAreBusy() throws Exception {
+		DfsBlockCache.reconfigure(new DfsBlockCacheConfig().setBlockSize(512)
+				.setBlockLimit(512 * 1000).setPrefetchThreads(1));
+		db.getObjectDatabase().clearCache();
+		DfsBlockCache cache = DfsBlockCache.getInstance();
+		DfsPackFile pack = db.getObjectDatabase().getPacks()[0];
+
+		CountDownLatch busy = new CountDownLatch(1);
+		Future<?> blocker = cache.getPrefetchExecutor().submit(() -> {
+			busy.await();
+			return null;
+		});
+		try (DfsReader ctx = db.getObjectDatabase().newReader();
+				DfsPrefetcher prefetcher = new DfsPrefetcher(ctx, 2)) {
+			prefetcher.prefetch(pack, 1100, 0);
+			prefetcher.flush();
+		} finally {
+			busy.countDown();
+		}
+		blocker.get();
+		assertFalse(cache.contains(pack.key, 1024));
+	}
+
+	@Test
+	public void loadBlocksReadsAllRanges() throws Exception {
+		DfsPackFile pack = db.getObjectDatabase().getPacks()[0];
+		DfsBlockCache cache = DfsBlockCache.getInstance();
+		LongList positions = new LongList();
+		positions.add(100);
+		positions.add(5000);
+		positions.add(pack.getPackDescription().getFileSize(PACK) - 1);
+		try (DfsReader ctx = db.getObjectDatabase().newReader()) {
+			pack.loadBlocks(positions, ctx);
+			assertEquals(3, ctx.getIoStats().getReadBlocksCount());
+
+			long last = (positions.get(2) / 512) * 512;
+			assertTrue(cache.contains(pack.key, 0));
+			assertTrue(cache.contains(pack.key, 4608));
+			assertTrue(cache.contains(pack.key, last));
+			assertArrayEquals(readBlock(pack, 4608, ctx),
+					copyOfBlock(pack, 4608, ctx));
+
+			pack.loadBlocks(positions, ctx);
+			assertEquals(3, ctx.getIoStats().getReadBlocksCount());
+		}
+	}
+
+	@Test
+	public void writeObjectsWithPrefetch() throws Exception {
+		byte[] expect = writePack();
+
+		DfsBlockCache.reconfigure(new DfsBlockCacheConfig().setBlockSize(512)
+				.setBlockLimit(512 * 1000));
+		db.getObjectDatabase().clearCache();
+		db.getObjectDatabase().getReaderOptions().setPrefetchDepth(8);
+		assertArrayEquals(expect, writePack());
+	}
+
+	private static byte[] readBlock(DfsPackFile pack, long pos, DfsReader ctx)
+			throws IOException {
+		try (ReadableChannel rc = ctx.db.openFile(pack.getPackDescription(),
+				PACK)) {
+			ByteBuffer buf = ByteBuffer.allocate(512);
+			rc.position(pos);
+			rc.read(buf);
+			return buf.array();
+		}
+	}
+
+	private static byte[] copyOfBlock(DfsPackFile pack, long pos,
+			DfsReader ctx) throws IOException {
+		byte[] b = new byte[512];
+		pack.getOrLoadBlock(pos, ctx).copy(pos, b, 0, b.length);
+		return b;
+	}
+
+	private byte[] writePack() throws IOException {
+		try (DfsReader ctx = db.getObjectDatabase().newReader();
+				PackWriter pw = new PackWriter(ctx);
+				RevWalk rw = new RevWalk(ctx)) {
+			for (ObjectId id : blobs) {
+				pw.addObject(rw.lookupBlob(id));
+			}
+			ByteArrayOutputStream os = new ByteArrayOutputStream();
+			pw.writePack(NullProgressMonitor.INSTANCE,
+					NullProgressMonitor.INSTANCE, os);
+			return os.toByteArray();
+		}
+	}
+}
@@ -0,0 +1,305 @@
+/*
+ * Copyright (C) 2019, Google LLC.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.file;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.List;
+
+import org.eclipse.jgit.junit.LocalDiskRepositoryTestCase;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.BatchRefUpdate;
+import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefRename;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.RefUpdate.Result;
+import org.eclipse.jgit.lib.ReflogEntry;
+import org.eclipse.jgit.lib.RepositoryCache.FileKey;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.transport.ReceiveCommand;
+import org.eclipse.jgit.util.FS;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FileReftableTest extends LocalDiskRepositoryTestCase {
+	private FileRepository db;
+
+	private TestRepository<FileRepository> tr;
+
+	private RevCommit a;
+
+	private RevCommit b;
+
+	@Override
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		db = createWorkRepository();
+		addRepoToClose(db);
+		tr = new TestRepository<>(db);
+		a = tr.commit().add("a", "a").create();
+		b = tr.commit().parent(a).add("b", "b").create();
+		db.convertRefStorage(ConfigConstants.CONFIG_REF_STORAGE_REFTABLE,
+				true, false);
+	}
+
+	@Test
+	public void convertedRepositoryIsReftable() throws Exception {
+		assertTrue(db.getRefDatabase() instanceof FileReftableDatabase);
+		assertTrue(new File(db.getDirectory(), "reftable/tables.list")
+				.isFile());
+		assertFalse(new File(db.getDirectory(), "packed-refs").exists());
+		assertTrue(FileKey.isGitRepository(db.getDirectory(), FS.DETECTED));
+
+		try (FileRepository reopened = new FileRepository(db.getDirectory())) {
+			assertTrue(
+					reopened.getRefDatabase() instanceof FileReftableDatabase);
+			Ref head = reopened.exactRef(Constants.HEAD);
+			assertTrue(head.isSymbolic());
+			assertEquals("refs/heads/master", head.getTarget().getName());
+			assertNull(head.getObjectId());
+		}
+	}
+
+	@Test
+	public void updateDeleteAndLink() throws Exception {
+		RefUpdate u = db.updateRef("refs/heads/master");
+		u.setNewObjectId(a);
+		u.setRefLogMessage("create", true);
+		assertEquals(Result.NEW, u.update());
+
+		u = db.updateRef(Constants.HEAD);
+		u.setNewObjectId(b);
+		u.setRefLogMessage("advance", true);
+		assertEquals(Result.FAST_FORWARD, u.update());
+		assertEquals(b, db.resolve("master"));
+		assertEquals(b, db.resolve(Constants.HEAD));
+
+		List<ReflogEntry> log = db.getReflogReader("refs/heads/master")
+				.getReverseEntries();
+		assertEquals(2, log.size());
+		assertEquals("advance: fast-forward", log.get(0).getComment());
+		assertEquals(b, log.get(0).getNewId());
+		assertEquals(a, log.get(0).getOldId());
+		assertEquals("create: created", log.get(1).getComment());
+		assertEquals("advance: fast-forward",
+				db.getReflogReader(Constants.HEAD).getLastEntry()
+						.getComment());
+
+		u = db.updateRef("refs/heads/other");
+		u.setNewObjectId(a);
+		assertEquals(Result.NEW, u.update());
+		u = db.updateRef(Constants.HEAD);
+		assertEquals(Result.FORCED, u.link("refs/heads/other"));
+		assertEquals(a, db.resolve(Constants.HEAD));
+
+		u = db.updateRef("refs/heads/master");
+		u.setForceUpdate(true);
+		assertEquals(Result.FORCED, u.delete());
+		assertNull(db.exactRef("refs/heads/master"));
+	}
+
+	@Test
+	public void staleExpectedValueIsRejected() throws Exception {
+		RefUpdate u = db.updateRef("refs/heads/master");
+		u.setNewObjectId(b);
+		u.setExpectedOldObjectId(a);
+		assertEquals(Result.LOCK_FAILURE, u.update());
+		assertNull(db.exactRef("refs/heads/master"));
+	}
+
+	@Test
+	public void atomicBatchUpdate() throws Exception {
+		BatchRefUpdate bru = db.getRefDatabase().newBatchUpdate();
+		bru.addCommand(
+				new ReceiveCommand(ObjectId.zeroId(), a, "refs/heads/x"),
+				new ReceiveCommand(ObjectId.zeroId(), b, "refs/heads/y"));
+		execute(bru);
+		assertEquals(a, db.resolve("refs/heads/x"));
+		assertEquals(b, db.resolve("refs/heads/y"));
+
+		// The second command expects a wrong old value, neither applies.
+		bru = db.getRefDatabase().newBatchUpdate();
+		ReceiveCommand ok = new ReceiveCommand(a, b, "refs/heads/x");
+		ReceiveCommand stale = new ReceiveCommand(a, b, "refs/heads/y");
+		bru.addCommand(ok, stale);
+		execute(bru);
+		assertEquals(ReceiveCommand.Result.LOCK_FAILURE, stale.getResult());
+		assertEquals(ReceiveCommand.Result.REJECTED_OTHER_REASON,
+				ok.getResult());
+		assertEquals(a, db.resolve("refs/heads/x"));
+	}
+
+	@Test
+	public void nonAtomicBatchSkipsConflictingCommand() throws Exception {
+		BatchRefUpdate bru = db.getRefDatabase().newBatchUpdate();
+		bru.addCommand(
+				new ReceiveCommand(ObjectId.zeroId(), a, "refs/heads/x"));
+		execute(bru);
+
+		bru = db.getRefDatabase().newBatchUpdate();
+		bru.setAtomic(false);
+		ReceiveCommand ok = new ReceiveCommand(ObjectId.zeroId(), b,
+				"refs/heads/y");
+		ReceiveCommand conflict = new ReceiveCommand(ObjectId.zeroId(), b,
+				"refs/heads/x/z");
+		bru.addCommand(ok, conflict);
+		execute(bru);
+		assertEquals(ReceiveCommand.Result.LOCK_FAILURE, conflict.getResult());
+		assertEquals(ReceiveCommand.Result.OK, ok.getResult());
+		assertEquals(b, db.resolve("refs/heads/y"));
+		assertNull(db.exactRef("refs/heads/x/z"));
+		assertEquals(a, db.resolve("refs/heads/x"));
+	}
+
+	@Test
+	public void rename() throws Exception {
+		RefUpdate u = db.updateRef("refs/heads/master");
+		u.setNewObjectId(a);
+		assertEquals(Result.NEW, u.update());
+
+		RefRename r = db.renameRef("refs/heads/master", "refs/heads/main");
+		assertEquals(Result.RENAMED, r.rename());
+		assertNull(db.exactRef("refs/heads/master"));
+		assertEquals(a, db.resolve("refs/heads/main"));
+		assertEquals("refs/heads/main",
+				db.exactRef(Constants.HEAD).getTarget().getName());
+	}
+
+	@Test
+	public void stackIsCompacted() throws Exception {
+		FileReftableDatabase refdb = (FileReftableDatabase) db
+				.getRefDatabase();
+		for (int i = 0; i < 64; i++) {
+			RefUpdate u = db.updateRef("refs/heads/b" + i);
+			u.setNewObjectId(i % 2 == 0 ? a : b);
+			assertEquals(Result.NEW, u.update());
+		}
+		assertTrue(refdb.getTableCount() <= 8);
+		assertEquals(64, db.getRefDatabase()
+				.getRefsByPrefix(Constants.R_HEADS).size());
+
+		assertTrue(refdb.compactFully());
+		assertEquals(1, refdb.getTableCount());
+		assertEquals(64, db.getRefDatabase()
+				.getRefsByPrefix(Constants.R_HEADS).size());
+		assertEquals(a, db.resolve("refs/heads/b0"));
+	}
+
+	@Test
+	public void updatesAreVisibleToOtherInstances() throws Exception {
+		try (FileRepository other = new FileRepository(db.getDirectory())) {
+			assertNull(other.exactRef("refs/heads/master"));
+			RefUpdate u = db.updateRef("refs/heads/master");
+			u.setNewObjectId(a);
+			assertEquals(Result.NEW, u.update());
+			assertEquals(a, other.resolve("refs/heads/master"));
+
+			// The other instance has not seen the update, but its write
+			// must not be lost.
+			u = other.updateRef("refs/heads/other");
+			u.setNewObjectId(b);
+			assertEquals(Result.NEW, u.update());
+			assertEquals(b, db.resolve("refs/heads/other"));
+			assertEquals(a, db.resolve("refs/heads/master"));
+		}
+	}
+
+	@Test
+	public void convertBackToRefDirectory() throws Exception {
+		RefUpdate u = db.updateRef("refs/heads/master");
+		u.setNewObjectId(a);
+		u.setRefLogMessage("create", false);
+		assertEquals(Result.NEW, u.update());
+		u = db.updateRef("refs/tags/t");
+		u.setNewObjectId(b);
+		assertEquals(Result.NEW, u.update());
+
+		db.convertRefStorage("refdir", true, true);
+		assertTrue(db.getRefDatabase() instanceof RefDirectory);
+		assertFalse(new File(db.getDirectory(), "reftable").exists());
+		assertTrue(new File(db.getDirectory(), "reftable.old").isDirectory());
+
+		try (FileRepository reopened = new FileRepository(db.getDirectory())) {
+			assertTrue(reopened.getRefDatabase() instanceof RefDirectory);
+			assertEquals(a, reopened.resolve(Constants.HEAD));
+			assertEquals(b, reopened.resolve("refs/tags/t"));
+			assertEquals("create", reopened.getReflogReader("master")
+					.getLastEntry().getComment());
+		}
+	}
+
+	@Test
+	public void createWithDefaultRefFormat() throws Exception {
+		File dir = createUniqueTestGitDir(true);
+		try (FileRepository repo = new FileRepository(dir)) {
+			repo.getConfig().setString(ConfigConstants.CONFIG_INIT_SECTION,
+					null, ConfigConstants.CONFIG_KEY_DEFAULT_REF_FORMAT,
+					ConfigConstants.CONFIG_REF_STORAGE_REFTABLE);
+			repo.create(true);
+			assertTrue(repo.getRefDatabase() instanceof FileReftableDatabase);
+		}
+		try (FileRepository repo = new FileRepository(dir)) {
+			assertTrue(repo.getRefDatabase() instanceof FileReftableDatabase);
+			assertEquals("refs/heads/master",
+					repo.exactRef(Constants.HEAD).getTarget().getName());
+			assertNull(repo.exactRef("refs/heads/master"));
+		}
+	}
+
+	private void execute(BatchRefUpdate bru) throws Exception {
+		try (RevWalk rw = new RevWalk(db)) {
+			bru.execute(rw, NullProgressMonitor.INSTANCE);
+		}
+	}
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2019, Google LLC.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.file;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.eclipse.jgit.internal.storage.commitgraph.CommitGraph;
+import org.eclipse.jgit.internal.storage.commitgraph.CommitGraphProvider;
+import org.eclipse.jgit.junit.TestRepository.BranchBuilder;
+import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.storage.file.FileBasedConfig;
+import org.junit.Test;
+
+public class GcCommitGraphTest extends GcTestCase {
+	@Test
+	public void noCommitGraphByDefault() throws Exception {
+		tr.branch("refs/heads/master").commit().add("a", "a").create();
+		gc.gc();
+		assertFalse(repo.getObjectDatabase().getCommitGraphFile().exists());
+		try (ObjectReader reader = repo.newObjectReader()) {
+			assertNull(((CommitGraphProvider) reader).getCommitGraph());
+		}
+	}
+
+	@Test
+	public void gcWritesCommitGraph() throws Exception {
+		enableCommitGraph();
+		BranchBuilder bb = tr.branch("refs/heads/master");
+		RevCommit a = bb.commit().add("a", "a").create();
+		RevCommit b = bb.commit().add("b", "b").create();
+		RevCommit c = tr.branch("refs/heads/side").commit().parent(a)
+				.add("c", "c").create();
+		RevCommit merge = bb.commit().parent(c).create();
+
+		gc.gc();
+		File graphFile = repo.getObjectDatabase().getCommitGraphFile();
+		assertTrue(graphFile.exists());
+
+		try (ObjectReader reader = repo.newObjectReader()) {
+			CommitGraph graph = ((CommitGraphProvider) reader)
+					.getCommitGraph();
+			assertNotNull(graph);
+			assertEquals(4, graph.getCommitCnt());
+			assertTrue(graph.findGraphPosition(merge) >= 0);
+			assertEquals(3, graph.getCommitData(graph.findGraphPosition(merge))
+					.getGeneration());
+		}
+
+		try (RevWalk rw = new RevWalk(repo)) {
+			rw.setRetainBody(false);
+			RevCommit parsed = rw.lookupCommit(merge);
+			rw.parseHeaders(parsed);
+			assertEquals(2, parsed.getParentCount());
+			assertEquals(b, parsed.getParent(0));
+			assertEquals(c, parsed.getParent(1));
+			assertEquals(merge.getTree(), parsed.getTree());
+			assertEquals(merge.getCommitTime(), parsed.getCommitTime());
+
+			rw.parseBody(parsed);
+			assertEquals(merge.getFullMessage(), parsed.getFullMessage());
+		}
+	}
+
+	@Test
+	public void commitGraphCanBeDisabled() throws Exception {
+		enableCommitGraph();
+		tr.branch("refs/heads/master").commit().add("a", "a").create();
+		gc.gc();
+		assertTrue(repo.getObjectDatabase().getCommitGraphFile().exists());
+
+		FileBasedConfig config = repo.getConfig();
+		config.setBoolean(ConfigConstants.CONFIG_CORE_SECTION, null,
+				ConfigConstants.CONFIG_KEY_COMMIT_GRAPH, false);
+		try (ObjectReader reader = repo.newObjectReader()) {
+			assertNull(((CommitGraphProvider) reader).getCommitGraph());
+		}
+	}
+
+	private void enableCommitGraph() throws Exception {
+		FileBasedConfig config = repo.getConfig();
+		config.setBoolean(ConfigConstants.CONFIG_GC_SECTION, null,
+				ConfigConstants.CONFIG_KEY_WRITE_COMMIT_GRAPH, true);
+		config.save();
+	}
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2019, Google LLC.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.file;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+
+import org.eclipse.jgit.internal.storage.pack.DeltaSearchCache;
+import org.eclipse.jgit.internal.storage.pack.PackExt;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.storage.pack.PackConfig;
+import org.junit.Test;
+
+public class GcDeltaSearchCacheTest extends GcTestCase {
+	@Test
+	public void noCacheByDefault() throws Exception {
+		tr.branch("refs/heads/master").commit().add("a", "a").create();
+		gc.gc();
+
+		PackFile pack = repo.getObjectDatabase().getPacks().iterator().next();
+		assertFalse(cacheFile(pack).exists());
+	}
+
+	@Test
+	public void cacheIsWrittenNextToPack() throws Exception {
+		PackConfig pc = new PackConfig(repo);
+		pc.setCacheDeltaSearch(true);
+		pc.setReuseDeltas(false);
+		gc.setPackConfig(pc);
+		gc.setPackExpireAgeMillis(0);
+
+		RevCommit first = tr.branch("refs/heads/master").commit()
+				.add("a", deltableData(1000)).add("b", deltableData(1005))
+				.create();
+		gc.gc();
+		PackFile oldPack = repo.getObjectDatabase().getPacks().iterator()
+				.next();
+		File oldCache = cacheFile(oldPack);
+		assertTrue(oldCache.exists());
+
+		tr.branch("refs/heads/master").commit().parent(first)
+				.add("c", deltableData(1010)).create();
+		fsTick();
+		gc.gc();
+		assertEquals(1, repo.getObjectDatabase().getPacks().size());
+		PackFile newPack = repo.getObjectDatabase().getPacks().iterator()
+				.next();
+		File newCache = cacheFile(newPack);
+		assertTrue(newCache.exists());
+		assertFalse(oldCache.exists());
+
+		try (InputStream in = new FileInputStream(newCache)) {
+			new DeltaSearchCache().load(in);
+		}
+	}
+
+	private static File cacheFile(PackFile pack) {
+		String name = pack.getPackFile().getName();
+		return new File(pack.getPackFile().getParentFile(),
+				name.substring(0, name.lastIndexOf('.') + 1)
+						+ PackExt.DELTA_SEARCH_CACHE.getExtension());
+	}
+
+	private static String deltableData(int length) {
+		char[] data = { 'a', 'b', 'c', '\n' };
+		StringBuilder builder = new StringBuilder(length);
+		for (int i = 0; i < length; i++) {
+			builder.append(data[i % 4]);
+		}
+		return builder.toString();
+	}
+}
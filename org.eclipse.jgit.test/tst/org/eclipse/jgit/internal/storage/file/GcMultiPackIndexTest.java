@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2019, Google LLC.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.file;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+
+import org.eclipse.jgit.internal.storage.midx.MultiPackIndex;
+import org.eclipse.jgit.internal.storage.midx.MultiPackIndexLoader;
+import org.eclipse.jgit.junit.JGitTestUtil;
+import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.revwalk.RevBlob;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.storage.file.FileBasedConfig;
+import org.junit.Test;
+
+public class GcMultiPackIndexTest extends GcTestCase {
+	@Test
+	public void noMultiPackIndexByDefault() throws Exception {
+		tr.branch("refs/heads/master").commit().add("a", "a").create();
+		gc.gc();
+		assertFalse(repo.getObjectDatabase().getMultiPackIndexFile().exists());
+	}
+
+	@Test
+	public void gcWritesMultiPackIndex() throws Exception {
+		enableMultiPackIndex();
+		RevBlob blob = tr.blob("a");
+		RevCommit a = tr.branch("refs/heads/master").commit().add("a", blob)
+				.create();
+		tr.update("refs/other", tr.commit().add("b", "b").create());
+		gc.gc();
+
+		File midxFile = repo.getObjectDatabase().getMultiPackIndexFile();
+		assertTrue(midxFile.exists());
+		MultiPackIndex midx = MultiPackIndexLoader.open(midxFile);
+		Collection<PackFile> packs = repo.getObjectDatabase().getPacks();
+		assertEquals(2, packs.size());
+		assertEquals(packs.size(), midx.getPackNames().length);
+
+		int objects = 0;
+		for (PackFile p : packs) {
+			int packId = Arrays.asList(midx.getPackNames())
+					.indexOf(ObjectDirectory.indexName(p));
+			assertTrue(packId >= 0);
+			for (PackIndex.MutableEntry e : p) {
+				int pos = midx.findPosition(e.toObjectId());
+				assertEquals(packId, midx.getPackId(pos));
+				assertEquals(e.getOffset(), midx.getOffset(pos));
+				objects++;
+			}
+		}
+		assertEquals(objects, midx.getObjectCount());
+
+		try (FileRepository r = new FileRepository(repo.getDirectory())) {
+			assertTrue(r.getObjectDatabase().has(a));
+			assertEquals("a", new String(r.open(blob).getBytes(),
+					StandardCharsets.UTF_8));
+			ObjectDirectory.PackList list = r.getObjectDatabase().packList
+					.get();
+			assertNotNull(list.midx);
+			assertEquals(0, list.uncovered.length);
+		}
+	}
+
+	@Test
+	public void gcReplacesStaleMultiPackIndex() throws Exception {
+		enableMultiPackIndex();
+		tr.branch("refs/heads/master").commit().add("a", "a").create();
+		gc.gc();
+		String[] before = MultiPackIndexLoader
+				.open(repo.getObjectDatabase().getMultiPackIndexFile())
+				.getPackNames();
+
+		RevCommit b = tr.branch("refs/heads/master").commit().add("b", "b")
+				.create();
+		gc.setExpireAgeMillis(0);
+		fsTick();
+		gc.gc();
+		MultiPackIndex midx = MultiPackIndexLoader
+				.open(repo.getObjectDatabase().getMultiPackIndexFile());
+		assertFalse(Arrays.equals(before, midx.getPackNames()));
+		assertTrue(midx.findPosition(b) >= 0);
+		for (String name : midx.getPackNames()) {
+			assertTrue(new File(repo.getObjectDatabase().getPackDirectory(),
+					name).exists());
+		}
+	}
+
+	@Test
+	public void packInserterAddsToMultiPackIndex() throws Exception {
+		enableMultiPackIndex();
+		RevCommit a = tr.branch("refs/heads/master").commit().add("a", "a")
+				.create();
+		gc.gc();
+
+		ObjectId blob;
+		try (PackInserter ins = repo.getObjectDatabase().newPackInserter()) {
+			blob = ins.insert(Constants.OBJ_BLOB, Constants.encode("new"));
+			ins.flush();
+		}
+
+		MultiPackIndex midx = MultiPackIndexLoader
+				.open(repo.getObjectDatabase().getMultiPackIndexFile());
+		assertEquals(2, midx.getPackNames().length);
+		assertTrue(midx.findPosition(blob) >= 0);
+		assertTrue(midx.findPosition(a) >= 0);
+
+		try (FileRepository r = new FileRepository(repo.getDirectory());
+				ObjectReader reader = r.newObjectReader()) {
+			assertTrue(reader.has(a));
+			assertArrayEquals(Constants.encode("new"),
+					reader.open(blob).getBytes());
+			assertEquals(0,
+					r.getObjectDatabase().packList.get().uncovered.length);
+		}
+	}
+
+	@Test
+	public void packsNotCoveredAreSearched() throws Exception {
+		enableMultiPackIndex();
+		RevCommit a = tr.branch("refs/heads/master").commit().add("a", "a")
+				.create();
+		gc.gc();
+
+		repo.getConfig().setBoolean(ConfigConstants.CONFIG_CORE_SECTION, null,
+				ConfigConstants.CONFIG_KEY_MULTI_PACK_INDEX, false);
+		ObjectId blob;
+		try (PackInserter ins = repo.getObjectDatabase().newPackInserter()) {
+			blob = ins.insert(Constants.OBJ_BLOB, Constants.encode("new"));
+			ins.flush();
+		}
+		MultiPackIndex midx = MultiPackIndexLoader
+				.open(repo.getObjectDatabase().getMultiPackIndexFile());
+		assertEquals(-1, midx.findPosition(blob));
+
+		try (FileRepository r = new FileRepository(repo.getDirectory());
+				ObjectReader reader = r.newObjectReader()) {
+			assertTrue(reader.has(a));
+			assertTrue(reader.has(blob));
+			assertEquals(3, reader.getObjectSize(blob, Constants.OBJ_BLOB));
+			assertArrayEquals(Constants.encode("new"),
+					reader.open(blob).getBytes());
+			ObjectDirectory.PackList list = r.getObjectDatabase().packList
+					.get();
+			assertNotNull(list.midx);
+			assertEquals(1, list.uncovered.length);
+		}
+	}
+
+	@Test
+	public void damagedMultiPackIndexIsIgnored() throws Exception {
+		enableMultiPackIndex();
+		RevCommit a = tr.branch("refs/heads/master").commit().add("a", "a")
+				.create();
+		gc.gc();
+		File midxFile = repo.getObjectDatabase().getMultiPackIndexFile();
+		JGitTestUtil.write(midxFile, "garbage");
+
+		try (FileRepository r = new FileRepository(repo.getDirectory());
+				ObjectReader reader = r.newObjectReader()) {
+			assertTrue(reader.has(a));
+			assertNull(r.getObjectDatabase().packList.get().midx);
+		}
+	}
+
+	private void enableMultiPackIndex() throws Exception {
+		FileBasedConfig config = repo.getConfig();
+		config.setBoolean(ConfigConstants.CONFIG_GC_SECTION, null,
+				ConfigConstants.CONFIG_KEY_WRITE_MULTI_PACK_INDEX, true);
+		config.save();
+	}
+}
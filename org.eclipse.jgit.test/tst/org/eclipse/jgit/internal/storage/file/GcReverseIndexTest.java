@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2019, Google LLC.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.file;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.eclipse.jgit.internal.storage.file.PackIndex.MutableEntry;
+import org.eclipse.jgit.internal.storage.pack.PackExt;
+import org.eclipse.jgit.junit.JGitTestUtil;
+import org.eclipse.jgit.storage.pack.PackConfig;
+import org.eclipse.jgit.transport.PackedObjectInfo;
+import org.eclipse.jgit.util.FileUtils;
+import org.junit.Test;
+
+public class GcReverseIndexTest extends GcTestCase {
+	@Test
+	public void gcWritesReverseIndex() throws Exception {
+		tr.branch("refs/heads/master").commit().add("a", "a").add("b", "b")
+				.create();
+		gc.gc();
+
+		Collection<PackFile> packs = repo.getObjectDatabase().getPacks();
+		assertEquals(1, packs.size());
+		PackFile pack = packs.iterator().next();
+		File rev = revFile(pack);
+		assertTrue(rev.exists());
+
+		PackIndex idx = pack.getIndex();
+		assertReverseIndexMatches(idx, PackReverseIndex.open(rev, idx));
+	}
+
+	@Test
+	public void noReverseIndexWhenDisabled() throws Exception {
+		PackConfig pc = new PackConfig(repo);
+		pc.setWriteReverseIndex(false);
+		gc.setPackConfig(pc);
+		tr.branch("refs/heads/master").commit().add("a", "a").create();
+		gc.gc();
+
+		PackFile pack = repo.getObjectDatabase().getPacks().iterator().next();
+		assertFalse(revFile(pack).exists());
+	}
+
+	@Test
+	public void corruptReverseIndexIsIgnored() throws Exception {
+		tr.branch("refs/heads/master").commit().add("a", "a").create();
+		gc.gc();
+
+		PackFile pack = repo.getObjectDatabase().getPacks().iterator().next();
+		File rev = revFile(pack);
+		FileUtils.delete(rev);
+		try (OutputStream out = new FileOutputStream(rev)) {
+			out.write(new byte[] { 'R', 'I', 'D', 'X', 0, 0, 0, 9 });
+		}
+		try {
+			PackReverseIndex.open(rev, pack.getIndex());
+			fail("accepted a corrupt reverse index");
+		} catch (IOException e) {
+			// expected
+		}
+
+		try (FileRepository r = new FileRepository(repo.getDirectory())) {
+			PackFile reopened = r.getObjectDatabase().getPacks().iterator()
+					.next();
+			assertNotNull(reopened.getBitmapIndex());
+		}
+	}
+
+	@Test
+	public void writerHandlesLargeOffsets() throws Exception {
+		// index with both small (< 2^31) and big offsets
+		PackIndex idx = PackIndex.open(
+				JGitTestUtil.getTestResourceFile("pack-huge.idx"));
+		List<PackedObjectInfo> objs = new ArrayList<>();
+		for (MutableEntry e : idx) {
+			PackedObjectInfo oe = new PackedObjectInfo(e.toObjectId());
+			oe.setOffset(e.getOffset());
+			objs.add(oe);
+		}
+
+		File rev = new File(repo.getDirectory(), "pack-huge.rev");
+		try (OutputStream out = new FileOutputStream(rev)) {
+			new PackReverseIndexWriter(out).write(objs, idx.packChecksum);
+		}
+		assertReverseIndexMatches(idx, PackReverseIndex.open(rev, idx));
+	}
+
+	private static File revFile(PackFile pack) {
+		String name = pack.getPackFile().getName();
+		return new File(pack.getPackFile().getParentFile(),
+				name.substring(0, name.lastIndexOf('.') + 1)
+						+ PackExt.REVERSE_INDEX.getExtension());
+	}
+
+	private static void assertReverseIndexMatches(PackIndex idx,
+			PackReverseIndex fromDisk) throws Exception {
+		PackReverseIndex computed = new PackReverseIndex(idx);
+		assertEquals(idx.getObjectCount(), fromDisk.getObjectCount());
+		for (int n = 0; n < computed.getObjectCount(); n++) {
+			assertEquals(computed.getIndexPosition(n),
+					fromDisk.getIndexPosition(n));
+		}
+		for (MutableEntry e : idx) {
+			assertEquals(e.toObjectId(), fromDisk.findObject(e.getOffset()));
+			assertEquals(computed.findNextOffset(e.getOffset(), Long.MAX_VALUE),
+					fromDisk.findNextOffset(e.getOffset(), Long.MAX_VALUE));
+		}
+	}
+}
@@ -0,0 +1,275 @@
+/*
+ * Copyright (C) 2019, Google LLC.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.file;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import org.eclipse.jgit.junit.LocalDiskRepositoryTestCase;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.events.ListenerHandle;
+import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.RefUpdate.Result;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevTag;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MappedPackedRefsTest extends LocalDiskRepositoryTestCase {
+	private FileRepository db;
+
+	private RevCommit a;
+
+	private RevCommit b;
+
+	private RevTag t;
+
+	private File packedRefs;
+
+	private File overlay;
+
+	@Override
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		db = createBareRepository();
+		TestRepository<FileRepository> tr = new TestRepository<>(db);
+		a = tr.commit().create();
+		b = tr.commit().parent(a).create();
+		t = tr.tag("v1", b);
+		db.getConfig().setBoolean(ConfigConstants.CONFIG_CORE_SECTION, null,
+				ConfigConstants.CONFIG_KEY_PACKED_REFS_MMAP, true);
+		packedRefs = new File(db.getDirectory(), "packed-refs");
+		overlay = new File(db.getDirectory(), "packed-refs.overlay");
+	}
+
+	@Test
+	public void sortedFileIsSearched() throws Exception {
+		writePackedRefs("# pack-refs with: peeled fully-peeled sorted \n"
+				+ a.name() + " refs/heads/a\n"
+				+ b.name() + " refs/heads/b\n"
+				+ t.name() + " refs/tags/v1\n"
+				+ "^" + b.name() + "\n"
+				+ a.name() + " refs/tags/v2\n");
+		MappedPackedRefs mapped = MappedPackedRefs.open(packedRefs, overlay, null);
+		assertTrue(mapped.isSearchable());
+
+		Ref ref = mapped.get("refs/heads/b");
+		assertEquals(b, ref.getObjectId());
+		assertTrue(ref.isPeeled());
+		assertNull(ref.getPeeledObjectId());
+		assertTrue(ref.getStorage().isPacked());
+
+		ref = mapped.get("refs/tags/v1");
+		assertEquals(t, ref.getObjectId());
+		assertEquals(b, ref.getPeeledObjectId());
+		assertEquals(a, mapped.get("refs/tags/v2").getObjectId());
+		assertEquals(a, mapped.get("refs/heads/a").getObjectId());
+
+		assertNull(mapped.get("refs/heads/0"));
+		assertNull(mapped.get("refs/heads/aa"));
+		assertNull(mapped.get("refs/heads"));
+		assertNull(mapped.get("refs/tags/v3"));
+	}
+
+	@Test
+	public void unsortedFileIsNotSearchable() throws Exception {
+		writePackedRefs(b.name() + " refs/heads/b\n"
+				+ a.name() + " refs/heads/a\n");
+		assertFalse(MappedPackedRefs.open(packedRefs, overlay, null).isSearchable());
+		assertEquals(a, db.exactRef("refs/heads/a").getObjectId());
+		assertEquals(b, db.exactRef("refs/heads/b").getObjectId());
+	}
+
+	@Test
+	public void sortedFileWithoutTraitIsVerified() throws Exception {
+		writePackedRefs("# pack-refs with: peeled \n"
+				+ a.name() + " refs/heads/a\n"
+				+ b.name() + " refs/heads/b\n");
+		MappedPackedRefs mapped = MappedPackedRefs.open(packedRefs, overlay, null);
+		assertTrue(mapped.isSearchable());
+		assertEquals(b, mapped.get("refs/heads/b").getObjectId());
+	}
+
+	@Test
+	public void missingFileHasNoRefs() throws Exception {
+		MappedPackedRefs mapped = MappedPackedRefs.open(packedRefs, overlay, null);
+		assertTrue(mapped.isSearchable());
+		assertNull(mapped.get("refs/heads/a"));
+	}
+
+	@Test
+	public void exactRefUsesMappedFile() throws Exception {
+		StringBuilder s = new StringBuilder(
+				"# pack-refs with: peeled fully-peeled sorted \n");
+		for (int i = 0; i < 100; i++) {
+			s.append(i % 2 == 0 ? a.name() : b.name())
+					.append(String.format(" refs/heads/b%03d\n", i));
+		}
+		writePackedRefs(s.toString());
+
+		assertEquals(a, db.exactRef("refs/heads/b000").getObjectId());
+		assertEquals(b, db.exactRef("refs/heads/b099").getObjectId());
+		assertEquals(b, db.resolve("b051"));
+		assertNull(db.exactRef("refs/heads/b100"));
+
+		// A loose ref hides the packed one.
+		RefUpdate u = db.updateRef("refs/heads/b010");
+		u.setNewObjectId(b);
+		u.setForceUpdate(true);
+		assertEquals(Result.FORCED, u.update());
+		assertEquals(b, db.exactRef("refs/heads/b010").getObjectId());
+		assertTrue(db.exactRef("refs/heads/b010").getStorage().isLoose());
+
+		// Deleting the ref rewrites packed-refs, which is mapped again.
+		u = db.updateRef("refs/heads/b020");
+		u.setForceUpdate(true);
+		assertEquals(Result.FORCED, u.delete());
+		assertNull(db.exactRef("refs/heads/b020"));
+		assertEquals(a, db.exactRef("refs/heads/b022").getObjectId());
+	}
+
+	@Test
+	public void refsByPrefixAreSearched() throws Exception {
+		writePackedRefs("# pack-refs with: peeled fully-peeled sorted \n"
+				+ a.name() + " refs/changes/1/1/1\n"
+				+ a.name() + " refs/changes/12/1200/1\n"
+				+ b.name() + " refs/changes/12/1234/1\n"
+				+ t.name() + " refs/changes/12/1234/2\n"
+				+ "^" + b.name() + "\n"
+				+ a.name() + " refs/changes/13/1300/1\n"
+				+ b.name() + " refs/heads/master\n");
+		MappedPackedRefs mapped = MappedPackedRefs.open(packedRefs, overlay, null);
+		List<Ref> refs = mapped.getRefsByPrefix("refs/changes/12/").asList();
+		assertEquals(3, refs.size());
+		assertEquals("refs/changes/12/1200/1", refs.get(0).getName());
+		assertEquals("refs/changes/12/1234/2", refs.get(2).getName());
+		assertEquals(b, refs.get(2).getPeeledObjectId());
+		assertEquals(5, mapped.getRefsByPrefix("refs/changes/1").size());
+		assertEquals(6, mapped.getRefsByPrefix("").size());
+		assertTrue(mapped.getRefsByPrefix("refs/changes/2").isEmpty());
+		assertTrue(mapped.getRefsByPrefix("refs/tags/").isEmpty());
+
+		writeLooseRef("refs/changes/12/1234/3", a);
+		refs = db.getRefDatabase().getRefsByPrefix("refs/changes/12/");
+		assertEquals(4, refs.size());
+		assertEquals("refs/changes/12/1234/3", refs.get(3).getName());
+		assertTrue(refs.get(3).getStorage().isLoose());
+	}
+
+	@Test
+	public void overlayIsApplied() throws Exception {
+		db.getConfig().setBoolean(ConfigConstants.CONFIG_CORE_SECTION, null,
+				ConfigConstants.CONFIG_KEY_PACKED_REFS_OVERLAY, true);
+		StringBuilder s = new StringBuilder(
+				"# pack-refs with: peeled fully-peeled sorted \n");
+		for (int i = 0; i < 100; i++) {
+			s.append(a.name()).append(String.format(" refs/heads/b%03d\n", i));
+		}
+		writePackedRefs(s.toString());
+		assertEquals(a, db.exactRef("refs/heads/b020").getObjectId());
+
+		RefUpdate u = db.updateRef("refs/heads/b020");
+		u.setForceUpdate(true);
+		assertEquals(Result.FORCED, u.delete());
+		assertTrue(overlay.isFile());
+		assertNull(db.exactRef("refs/heads/b020"));
+		assertNull(MappedPackedRefs.open(packedRefs, overlay, null)
+				.get("refs/heads/b020"));
+		assertEquals(a, db.exactRef("refs/heads/b021").getObjectId());
+	}
+
+	@Test
+	public void writtenFileDeclaresSortedTrait() throws Exception {
+		writePackedRefs(a.name() + " refs/heads/a\n"
+				+ b.name() + " refs/heads/b\n");
+		RefUpdate u = db.updateRef("refs/heads/a");
+		u.setForceUpdate(true);
+		assertEquals(Result.FORCED, u.delete());
+		assertEquals("# pack-refs with: sorted\n" + b.name() + " refs/heads/b\n",
+				read(packedRefs));
+	}
+
+	@Test
+	public void changeOnDiskIsNotifiedOnce() throws Exception {
+		writePackedRefs("# pack-refs with: peeled fully-peeled sorted \n"
+				+ a.name() + " refs/heads/master\n");
+		RefDirectory refdir = (RefDirectory) db.getRefDatabase();
+		assertEquals(a, refdir.exactRef("refs/heads/master").getObjectId());
+		refdir.getRefs();
+
+		int[] count = new int[1];
+		ListenerHandle listener = db.getListenerList()
+				.addRefsChangedListener(event -> count[0]++);
+		try {
+			writePackedRefs("# pack-refs with: peeled fully-peeled sorted \n"
+					+ a.name() + " refs/heads/a\n"
+					+ b.name() + " refs/heads/master\n");
+			// Noticed through the mapped file, then while parsing the file.
+			assertEquals(b, refdir.exactRef("refs/heads/master").getObjectId());
+			// HEAD and the two branches.
+			assertEquals(3, refdir.getRefs().size());
+		} finally {
+			listener.remove();
+		}
+		assertEquals(1, count[0]);
+	}
+
+	private void writeLooseRef(String name, RevCommit id) throws IOException {
+		write(new File(db.getDirectory(), name), id.name() + "\n");
+	}
+
+	private void writePackedRefs(String content) throws IOException {
+		write(packedRefs, content);
+		packedRefs.setLastModified(System.currentTimeMillis() - 3600 * 1000);
+	}
+}
@@ -45,6 +45,7 @@
 
 import static org.eclipse.jgit.internal.storage.pack.PackWriter.NONE;
 import static org.eclipse.jgit.lib.Constants.OBJ_BLOB;
+import static org.eclipse.jgit.lib.Constants.R_HEADS;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
@@ -63,17 +64,21 @@
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 
 import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.internal.storage.file.PackIndex.MutableEntry;
+import org.eclipse.jgit.internal.storage.pack.DeltaSearchCache;
 import org.eclipse.jgit.internal.storage.pack.PackWriter;
 import org.eclipse.jgit.junit.JGitTestUtil;
 import org.eclipse.jgit.junit.TestRepository;
 import org.eclipse.jgit.junit.TestRepository.BranchBuilder;
+import org.eclipse.jgit.junit.TestRepository.CommitBuilder;
 import org.eclipse.jgit.lib.NullProgressMonitor;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectIdSet;
 import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.lib.Sets;
 import org.eclipse.jgit.revwalk.DepthWalk;
@@ -81,11 +86,13 @@
 import org.eclipse.jgit.revwalk.RevBlob;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevObject;
+import org.eclipse.jgit.revwalk.RevTag;
 import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.jgit.storage.pack.PackConfig;
 import org.eclipse.jgit.storage.pack.PackStatistics;
 import org.eclipse.jgit.test.resources.SampleDataRepositoryTestCase;
 import org.eclipse.jgit.transport.PackParser;
+import org.eclipse.jgit.treewalk.TreeWalk;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -486,6 +493,204 @@ public void testDeltaStatistics() throws Exception {
 		}
 	}
 
+	@Test
+	public void testDeltaStatisticsPipelined() throws Exception {
+		config.setDeltaCompress(true);
+		config.setPipelinedWrite(true);
+		FileRepository repo = createBareRepository();
+		ArrayList<RevObject> objects = new ArrayList<>();
+		try (TestRepository<FileRepository> testRepo = new TestRepository<>(
+				repo)) {
+			objects.add(testRepo.commit().add("a", genDeltableData(1000))
+					.add("b", genDeltableData(1005)).create());
+			objects.add(testRepo.blob(genDeltableData(1000)));
+			objects.add(testRepo.blob(genDeltableData(1005)));
+		}
+
+		try (PackWriter pw = new PackWriter(config,
+				repo.newObjectReader())) {
+			NullProgressMonitor m = NullProgressMonitor.INSTANCE;
+			pw.preparePack(objects.iterator());
+			pw.writePack(m, m, os);
+			PackStatistics stats = pw.getStatistics();
+			assertEquals(3, stats.getTotalObjects());
+			assertEquals(1, stats.getTotalDeltas());
+		}
+	}
+
+	@Test
+	public void testWritePackPipelined() throws Exception {
+		Set<ObjectId> want = new HashSet<>();
+		for (Ref r : db.getRefDatabase().getRefsByPrefix(R_HEADS))
+			want.add(r.getObjectId());
+
+		createVerifyOpenPack(want, NONE, false, false);
+		long expected = pack.getIndex().getObjectCount();
+		assertTrue(expected > 0);
+
+		tearDown();
+		setUp();
+		config.setPipelinedWrite(true);
+		createVerifyOpenPack(want, NONE, false, false);
+		assertEquals(expected, pack.getIndex().getObjectCount());
+		assertEquals(expected, writer.getStatistics().getTotalObjects());
+	}
+
+	@Test
+	public void testDeltaIslands() throws Exception {
+		FileRepository repo = createBareRepository();
+		List<Ref> refs = new ArrayList<>();
+		Set<ObjectId> want = new HashSet<>();
+		try (TestRepository<FileRepository> testRepo = new TestRepository<>(
+				repo)) {
+			RevCommit fork1 = testRepo.commit()
+					.add("a", genDeltableData(1001)).create();
+			RevCommit fork2 = testRepo.commit()
+					.add("b", genDeltableData(1002)).create();
+			testRepo.update("refs/virtual/1/heads/master", fork1);
+			testRepo.update("refs/virtual/2/heads/master", fork2);
+			refs.addAll(repo.getRefDatabase().getRefs());
+			want.add(fork1);
+			want.add(fork2);
+		}
+
+		assertEquals(1, writeDeltaIslandPack(repo, want, refs, null)
+				.getTotalDeltas());
+		assertEquals(0, writeDeltaIslandPack(repo, want, refs,
+				"refs/virtual/([0-9]+)/").getTotalDeltas());
+
+		// Without captured groups all matching references form one island.
+		assertEquals(1, writeDeltaIslandPack(repo, want, refs,
+				"refs/virtual/").getTotalDeltas());
+
+		// The last matching pattern defines the island.
+		config.setDeltaIslands(
+				Arrays.asList("refs/virtual/", "refs/virtual/(2)/"));
+		assertEquals(0, writeDeltaIslandPack(repo, want, refs, null)
+				.getTotalDeltas());
+	}
+
+	private PackStatistics writeDeltaIslandPack(FileRepository repo,
+			Set<ObjectId> want, List<Ref> refs, String island)
+			throws IOException {
+		if (island != null)
+			config.setDeltaIslands(Collections.singletonList(island));
+		try (PackWriter pw = new PackWriter(config,
+				repo.newObjectReader())) {
+			pw.setDeltaIslandRefs(refs);
+			NullProgressMonitor m = NullProgressMonitor.INSTANCE;
+			pw.preparePack(m, want, NONE);
+			pw.writePack(m, m, new ByteArrayOutputStream());
+			return pw.getStatistics();
+		}
+	}
+
+	@Test
+	public void testDeltaSearchCache() throws Exception {
+		FileRepository repo = createBareRepository();
+		ArrayList<RevObject> blobs = new ArrayList<>();
+		try (TestRepository<FileRepository> testRepo = new TestRepository<>(
+				repo)) {
+			blobs.add(testRepo.blob(genDeltableData(1000)));
+			blobs.add(testRepo.blob(genDeltableData(1005)));
+			blobs.add(testRepo.blob(genDeltableData(1010)));
+		}
+
+		DeltaSearchCache first = new DeltaSearchCache();
+		PackStatistics stats = writeDeltaSearchCachePack(repo, blobs, first);
+		assertEquals(2, stats.getTotalDeltas());
+		assertEquals(0, stats.getDeltaSearchCacheHits());
+		assertEquals(3, stats.getDeltaSearchCacheMisses());
+
+		ByteArrayOutputStream saved = new ByteArrayOutputStream();
+		first.write(saved);
+		DeltaSearchCache loaded = new DeltaSearchCache();
+		loaded.load(new ByteArrayInputStream(saved.toByteArray()));
+
+		stats = writeDeltaSearchCachePack(repo, blobs,
+				new DeltaSearchCache(loaded));
+		assertEquals(2, stats.getTotalDeltas());
+		assertEquals(2, stats.getDeltaSearchCacheHits());
+		assertEquals(1, stats.getDeltaSearchCacheMisses());
+
+		byte[] corrupt = saved.toByteArray();
+		corrupt[20]++;
+		try {
+			new DeltaSearchCache()
+					.load(new ByteArrayInputStream(corrupt));
+			fail("accepted a corrupt delta search cache");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testForkJoinDeltaSearch() throws Exception {
+		FileRepository repo = createBareRepository();
+		Set<ObjectId> want = new HashSet<>();
+		try (TestRepository<FileRepository> testRepo = new TestRepository<>(
+				repo)) {
+			BranchBuilder bb = testRepo.branch("refs/heads/master");
+			CommitBuilder first = bb.commit();
+			for (int i = 0; i < 20; i++)
+				first.add("p" + i, genDeltableData(1000 + 10 * i));
+			first.create();
+			CommitBuilder second = bb.commit();
+			for (int i = 0; i < 20; i++)
+				second.add("p" + i, genDeltableData(1005 + 10 * i));
+			want.add(second.create());
+		}
+
+		config.setThreads(4);
+		config.setDeltaSearchWindowSize(3);
+		PackStatistics stats = writeForkJoinPack(repo, want);
+		assertTrue(stats.getTotalDeltas() >= 20);
+		assertTrue(stats.getDeltaSearchBusyTimes().length > 0);
+
+		ForkJoinPool pool = new ForkJoinPool(2);
+		try {
+			config.setExecutor(pool);
+			stats = writeForkJoinPack(repo, want);
+			assertTrue(stats.getTotalDeltas() >= 20);
+			assertTrue(stats.getDeltaSearchBusyTimes().length > 0);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	private PackStatistics writeForkJoinPack(FileRepository repo,
+			Set<ObjectId> want) throws IOException {
+		try (PackWriter pw = new PackWriter(config,
+				repo.newObjectReader())) {
+			NullProgressMonitor m = NullProgressMonitor.INSTANCE;
+			pw.preparePack(m, want, NONE);
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			pw.writePack(m, m, out);
+			try (ObjectInserter ins = createBareRepository()
+					.newObjectInserter()) {
+				PackParser p = ins.newPackParser(
+						new ByteArrayInputStream(out.toByteArray()));
+				p.parse(m);
+				assertEquals(pw.getObjectCount(),
+						p.getSortedObjectList(null).size());
+			}
+			return pw.getStatistics();
+		}
+	}
+
+	private PackStatistics writeDeltaSearchCachePack(FileRepository repo,
+			List<RevObject> objects, DeltaSearchCache cache)
+			throws IOException {
+		try (PackWriter pw = new PackWriter(config,
+				repo.newObjectReader())) {
+			pw.setDeltaSearchCache(cache);
+			NullProgressMonitor m = NullProgressMonitor.INSTANCE;
+			pw.preparePack(objects.iterator());
+			pw.writePack(m, m, new ByteArrayOutputStream());
+			return pw.getStatistics();
+		}
+	}
+
 	// Generate consistent junk data for building files that delta well
 	private String genDeltableData(int length) {
 		assertTrue("Generated data must have a length > 0", length > 0);
@@ -555,6 +760,63 @@ public void testExclude() throws Exception {
 		}
 	}
 
+	@Test
+	public void testParallelCounting() throws Exception {
+		FileRepository repo = createBareRepository();
+		try (TestRepository<FileRepository> testRepo = new TestRepository<>(
+				repo)) {
+			BranchBuilder bb = testRepo.branch("refs/heads/master");
+			RevCommit a = bb.commit().add("a/b/c", "c").add("a/d", "d")
+					.add("e", "e").create();
+			RevCommit b = bb.commit().add("a/b/c", "c2").add("f/g", "d")
+					.create();
+			RevBlob loose = testRepo.blob("loose");
+			RevTag tag = testRepo.tag("t", testRepo.tree(
+					testRepo.file("x/y", testRepo.blob("tagged"))));
+
+			Set<ObjectId> want = new HashSet<>();
+			want.add(b);
+			want.add(loose);
+			want.add(tag);
+
+			Set<ObjectId> expected = new HashSet<>();
+			try (RevWalk rw = new RevWalk(repo)) {
+				for (RevCommit c : Arrays.asList(a, b)) {
+					expected.add(c);
+					collectTree(repo, rw.parseCommit(c).getTree(), expected);
+				}
+				expected.add(loose);
+				expected.add(tag);
+				collectTree(repo, rw.parseTree(rw.parseTag(tag).getObject()),
+						expected);
+			}
+
+			config.setParallelCounting(true);
+			config.setThreads(4);
+			try (PackWriter pw = new PackWriter(config,
+					repo.newObjectReader())) {
+				pw.preparePack(NullProgressMonitor.INSTANCE, want, NONE);
+				assertEquals(expected.size(), pw.getObjectCount());
+				for (ObjectId id : expected) {
+					assertTrue(pw.willInclude(id));
+				}
+			}
+		}
+	}
+
+	private static void collectTree(Repository repo, ObjectId tree,
+			Set<ObjectId> ids) throws IOException {
+		ids.add(tree);
+		try (TreeWalk tw = new TreeWalk(repo)) {
+			tw.addTree(tree);
+			tw.setRecursive(true);
+			tw.setPostOrderTraversal(true);
+			while (tw.next()) {
+				ids.add(tw.getObjectId(0));
+			}
+		}
+	}
+
 	private static void assertContent(PackIndex pi, List<ObjectId> expected) {
 		assertEquals("Pack index has wrong size.", expected.size(),
 				pi.getObjectCount());
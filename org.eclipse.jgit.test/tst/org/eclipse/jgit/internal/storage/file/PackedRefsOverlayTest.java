@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2019, Google LLC.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.file;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.text.MessageFormat;
+
+import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.junit.LocalDiskRepositoryTestCase;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.BatchRefUpdate;
+import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.RefUpdate.Result;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.transport.ReceiveCommand;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PackedRefsOverlayTest extends LocalDiskRepositoryTestCase {
+	private FileRepository db;
+
+	private RevCommit a;
+
+	private RevCommit b;
+
+	private File packedRefs;
+
+	private File overlay;
+
+	@Override
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		db = createBareRepository();
+		TestRepository<FileRepository> tr = new TestRepository<>(db);
+		a = tr.commit().create();
+		b = tr.commit().parent(a).create();
+		db.getConfig().setBoolean(ConfigConstants.CONFIG_CORE_SECTION, null,
+				ConfigConstants.CONFIG_KEY_PACKED_REFS_OVERLAY, true);
+		packedRefs = new File(db.getDirectory(), "packed-refs");
+		overlay = new File(db.getDirectory(), "packed-refs.overlay");
+	}
+
+	@Test
+	public void deleteIsRecordedInOverlay() throws Exception {
+		writePackedRefs(40);
+		byte[] before = Files.readAllBytes(packedRefs.toPath());
+
+		delete("refs/heads/b07");
+		assertTrue(overlay.isFile());
+		assertArrayEquals(before, Files.readAllBytes(packedRefs.toPath()));
+		assertNull(db.exactRef("refs/heads/b07"));
+		assertEquals(39, db.getRefDatabase().getRefs().size());
+
+		try (FileRepository other = new FileRepository(db.getDirectory())) {
+			assertNull(other.exactRef("refs/heads/b07"));
+			assertEquals(a, other.resolve("refs/heads/b06"));
+			assertEquals(39, other.getRefDatabase().getRefs().size());
+		}
+	}
+
+	@Test
+	public void batchUpdateIsRecordedInOverlay() throws Exception {
+		writePackedRefs(40);
+		byte[] before = Files.readAllBytes(packedRefs.toPath());
+
+		BatchRefUpdate bru = db.getRefDatabase().newBatchUpdate();
+		bru.addCommand(
+				new ReceiveCommand(ObjectId.zeroId(), b, "refs/heads/new"),
+				new ReceiveCommand(a, b, "refs/heads/b00"),
+				new ReceiveCommand(a, ObjectId.zeroId(), "refs/heads/b02"));
+		try (RevWalk rw = new RevWalk(db)) {
+			bru.execute(rw, NullProgressMonitor.INSTANCE);
+		}
+		for (ReceiveCommand cmd : bru.getCommands()) {
+			assertEquals(ReceiveCommand.Result.OK, cmd.getResult());
+		}
+		assertArrayEquals(before, Files.readAllBytes(packedRefs.toPath()));
+
+		try (FileRepository other = new FileRepository(db.getDirectory())) {
+			assertEquals(b, other.resolve("refs/heads/new"));
+			assertEquals(b, other.resolve("refs/heads/b00"));
+			assertNull(other.exactRef("refs/heads/b02"));
+			Ref ref = other.exactRef("refs/heads/new");
+			assertTrue(ref.getStorage().isPacked());
+			assertTrue(ref.isPeeled());
+		}
+	}
+
+	@Test
+	public void successiveUpdatesExtendOverlay() throws Exception {
+		writePackedRefs(40);
+		delete("refs/heads/b01");
+		delete("refs/heads/b03");
+		try (FileRepository other = new FileRepository(db.getDirectory())) {
+			assertNull(other.exactRef("refs/heads/b01"));
+			assertNull(other.exactRef("refs/heads/b03"));
+			delete(other, "refs/heads/b05");
+		}
+		assertNull(db.exactRef("refs/heads/b05"));
+		assertEquals(37, db.getRefDatabase().getRefs().size());
+	}
+
+	@Test
+	public void smallPackedRefsAreRewritten() throws Exception {
+		writePackedRefs(4);
+		delete("refs/heads/b01");
+		assertFalse(overlay.exists());
+		assertFalse(new String(Files.readAllBytes(packedRefs.toPath()), "UTF-8")
+				.contains("refs/heads/b01"));
+	}
+
+	@Test
+	public void packRefsFoldsOverlay() throws Exception {
+		writePackedRefs(40);
+		delete("refs/heads/b07");
+		assertTrue(overlay.isFile());
+
+		new GC(db).packRefs();
+		assertFalse(overlay.exists());
+		assertFalse(new String(Files.readAllBytes(packedRefs.toPath()), "UTF-8")
+				.contains("refs/heads/b07"));
+		assertEquals(39, db.getRefDatabase().getRefs().size());
+	}
+
+	@Test
+	public void disabledOverlayIsStillReadAndFolded() throws Exception {
+		writePackedRefs(40);
+		delete("refs/heads/b07");
+		db.getConfig().setBoolean(ConfigConstants.CONFIG_CORE_SECTION, null,
+				ConfigConstants.CONFIG_KEY_PACKED_REFS_OVERLAY, false);
+		assertNull(db.exactRef("refs/heads/b07"));
+
+		delete("refs/heads/b08");
+		assertFalse(overlay.exists());
+		assertNull(db.exactRef("refs/heads/b07"));
+		assertNull(db.exactRef("refs/heads/b08"));
+		assertEquals(38, db.getRefDatabase().getRefs().size());
+	}
+
+	@Test
+	public void overlayOfRewrittenPackedRefsIsIgnored() throws Exception {
+		writePackedRefs(40);
+		delete("refs/heads/b07");
+		assertTrue(overlay.isFile());
+
+		// Another tool rewrote packed-refs without knowing the overlay.
+		writePackedRefs(41);
+		try (FileRepository other = new FileRepository(db.getDirectory())) {
+			assertEquals(a, other.resolve("refs/heads/b07"));
+			assertEquals(41, other.getRefDatabase().getRefs().size());
+		}
+	}
+
+	@Test
+	public void emptyLineInOverlayIsCorrupt() throws Exception {
+		writePackedRefs(40);
+		delete("refs/heads/b07");
+		Files.write(overlay.toPath(), new byte[] { '\n' },
+				StandardOpenOption.APPEND);
+		try {
+			PackedRefsOverlay.read(overlay);
+			fail("expected IOException");
+		} catch (IOException e) {
+			assertEquals(MessageFormat.format(
+					JGitText.get().packedRefsCorruptionDetected,
+					overlay.getAbsolutePath()), e.getMessage());
+		}
+	}
+
+	private void delete(String name) throws IOException {
+		delete(db, name);
+	}
+
+	private static void delete(FileRepository repo, String name)
+			throws IOException {
+		RefUpdate u = repo.updateRef(name);
+		u.setForceUpdate(true);
+		assertEquals(Result.FORCED, u.delete());
+	}
+
+	private void writePackedRefs(int n) throws IOException {
+		StringBuilder s = new StringBuilder("# pack-refs with: peeled \n");
+		for (int i = 0; i < n; i++) {
+			s.append(a.name()).append(' ')
+					.append(String.format("refs/heads/b%02d", i)).append('\n');
+		}
+		write(packedRefs, s.toString());
+		packedRefs.setLastModified(System.currentTimeMillis() - 3600 * 1000);
+	}
+}
@@ -45,9 +45,11 @@
 
 import static org.eclipse.jgit.lib.Constants.HEAD;
 import static org.eclipse.jgit.lib.Constants.R_HEADS;
+import static org.eclipse.jgit.lib.Constants.R_REFS;
 import static org.eclipse.jgit.lib.Constants.R_TAGS;
 import static org.eclipse.jgit.lib.Ref.Storage.LOOSE;
 import static org.eclipse.jgit.lib.Ref.Storage.NEW;
+import static org.eclipse.jgit.lib.Ref.Storage.PACKED;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
@@ -514,6 +516,79 @@ public void testGetRefs_HeadsOnly_Mixed() throws IOException {
 		assertEquals(B, b.getObjectId());
 	}
 
+	@Test
+	public void testGetRefsByPrefix_Mixed() throws IOException {
+		writeLooseRef("refs/heads/A", A);
+		writeLooseRef("refs/heads/B", B);
+		writeLooseRef("refs/heads/other", "ref: refs/heads/master\n");
+		writePackedRefs("# pack-refs with: peeled \n" //
+				+ B.name() + " refs/heads/A\n" //
+				+ A.name() + " refs/heads/master\n" //
+				+ v1_0.name() + " refs/tags/v1.0\n" //
+				+ "^" + v1_0.getObject().name() + "\n");
+
+		List<Ref> heads = refdir.getRefsByPrefix(R_HEADS);
+		assertEquals(4, heads.size());
+		assertEquals("refs/heads/A", heads.get(0).getName());
+		assertEquals(A, heads.get(0).getObjectId());
+		assertSame(LOOSE, heads.get(0).getStorage());
+		assertEquals("refs/heads/B", heads.get(1).getName());
+		assertEquals("refs/heads/master", heads.get(2).getName());
+		assertSame(PACKED, heads.get(2).getStorage());
+		Ref other = heads.get(3);
+		assertEquals("refs/heads/other", other.getName());
+		assertTrue(other.isSymbolic());
+		assertEquals(A, other.getObjectId());
+
+		List<Ref> tags = refdir.getRefsByPrefix(R_TAGS);
+		assertEquals(1, tags.size());
+		assertEquals(v1_0.getObject(), tags.get(0).getPeeledObjectId());
+		assertEquals(refdir.getRefs(RefDatabase.ALL).size(),
+				refdir.getRefsByPrefix(R_REFS).size() + 1);
+	}
+
+	@Test
+	public void testGetRefsByPrefix_PartialName() throws IOException {
+		writeLooseRef("refs/changes/12/1234/1", A);
+		writeLooseRef("refs/changes/12/1234/2", B);
+		writeLooseRef("refs/changes/13/1335/1", A);
+		writeLooseRef("refs/heads/ma", B);
+		writePackedRefs("# pack-refs with: peeled \n" //
+				+ B.name() + " refs/changes/1/1/1\n" //
+				+ B.name() + " refs/changes/12/1200/1\n" //
+				+ A.name() + " refs/heads/main\n" //
+				+ A.name() + " refs/heads/master\n");
+
+		List<Ref> refs = refdir.getRefsByPrefix("refs/changes/12");
+		assertEquals(3, refs.size());
+		assertEquals("refs/changes/12/1200/1", refs.get(0).getName());
+		assertEquals("refs/changes/12/1234/1", refs.get(1).getName());
+		assertEquals("refs/changes/12/1234/2", refs.get(2).getName());
+
+		refs = refdir.getRefsByPrefix("refs/heads/ma");
+		assertEquals(3, refs.size());
+		assertEquals("refs/heads/ma", refs.get(0).getName());
+		assertEquals("refs/heads/main", refs.get(1).getName());
+		assertEquals("refs/heads/master", refs.get(2).getName());
+
+		assertTrue(refdir.getRefsByPrefix("refs/heads/x").isEmpty());
+		assertTrue(refdir.getRefsByPrefix("refs/notes/").isEmpty());
+	}
+
+	@Test
+	public void testGetRefsByPrefix_DiscoversDeletedLoose() throws IOException {
+		writeLooseRef("refs/heads/A", A);
+		writeLooseRef("refs/heads/B", B);
+		writeLooseRef("refs/tags/v1", B);
+		assertEquals(2, refdir.getRefsByPrefix(R_HEADS).size());
+
+		deleteLooseRef("refs/heads/A");
+		List<Ref> heads = refdir.getRefsByPrefix("refs/heads/");
+		assertEquals(1, heads.size());
+		assertEquals("refs/heads/B", heads.get(0).getName());
+		assertEquals(1, refdir.getRefsByPrefix(R_TAGS).size());
+	}
+
 	@Test
 	public void testFirstExactRef_Mixed() throws IOException {
 		writeLooseRef("refs/heads/A", A);
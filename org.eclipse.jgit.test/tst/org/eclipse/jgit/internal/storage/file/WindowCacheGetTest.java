@@ -52,8 +52,12 @@
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+
+import javax.management.ObjectName;
 
 import org.eclipse.jgit.errors.CorruptObjectException;
 import org.eclipse.jgit.junit.JGitTestUtil;
@@ -61,7 +65,11 @@
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectLoader;
 import org.eclipse.jgit.storage.file.WindowCacheConfig;
+import org.eclipse.jgit.storage.file.WindowCacheConfig.EvictionPolicy;
+import org.eclipse.jgit.storage.file.WindowCacheStats;
+import org.eclipse.jgit.storage.file.WindowCacheStatsMXBean;
 import org.eclipse.jgit.test.resources.SampleDataRepositoryTestCase;
+import org.eclipse.jgit.util.Monitoring;
 import org.eclipse.jgit.util.MutableInteger;
 import org.junit.Before;
 import org.junit.Test;
@@ -125,6 +133,134 @@ public void testCache_TooSmallLimit() throws IOException {
 		checkLimits(cfg);
 	}
 
+	@Test
+	public void testCache_Lru() throws IOException {
+		checkPolicy(EvictionPolicy.LRU);
+	}
+
+	@Test
+	public void testCache_TinyLfu() throws IOException {
+		checkPolicy(EvictionPolicy.TINY_LFU);
+	}
+
+	@Test
+	public void testCache_Direct() throws IOException {
+		WindowCacheConfig cfg = new WindowCacheConfig();
+		cfg.setPackedGitDirect(true);
+		cfg.install();
+		DirectBufferPool pool = WindowCache.getInstance()
+				.getDirectBufferPool();
+		assertNotNull(pool);
+		doCacheTests();
+		checkLimits(cfg);
+		assertTrue(0 < pool.getAllocatedBytes());
+		assertTrue(pool.getAllocatedBytes() <= cfg.getPackedGitLimit());
+
+		// Buffers of evicted windows return to the pool, unless a reader
+		// still uses the window.
+		PackFile pack = db.getObjectDatabase().getPacks().iterator().next();
+		try (WindowCursor curs = new WindowCursor(db.getObjectDatabase())) {
+			curs.pin(pack, 0);
+			new WindowCacheConfig().install();
+			assertEquals(pool.getAllocatedBytes() / pool.getBufferSize() - 1,
+					pool.getFreeBuffers());
+		}
+		assertEquals(pool.getAllocatedBytes() / pool.getBufferSize(),
+				pool.getFreeBuffers());
+	}
+
+	@Test
+	public void testCache_DirectLimit() throws IOException {
+		WindowCacheConfig cfg = new WindowCacheConfig();
+		cfg.setPackedGitDirect(true);
+		cfg.setPackedGitWindowSize(4096);
+		cfg.setPackedGitDirectLimit(2 * 4096);
+		cfg.install();
+		DirectBufferPool pool = WindowCache.getInstance()
+				.getDirectBufferPool();
+
+		// Windows beyond the limit are read into the heap instead.
+		for (TestObject o : toLoad) {
+			ObjectLoader or = db.open(o.id, o.type);
+			assertEquals(o.type, or.getType());
+			assertEquals(or.getSize(), or.getCachedBytes().length);
+		}
+		checkLimits(cfg);
+		assertEquals(2 * 4096, pool.getAllocatedBytes());
+	}
+
+	@Test
+	public void testStats() throws Exception {
+		checkStats(EvictionPolicy.SOFT_LRU);
+		checkStats(EvictionPolicy.TINY_LFU);
+	}
+
+	private void checkStats(EvictionPolicy policy) throws Exception {
+		WindowCacheConfig cfg = new WindowCacheConfig();
+		cfg.setEvictionPolicy(policy);
+		cfg.install();
+		WindowCacheStatsMXBean stats = WindowCacheStats.getStats();
+		stats.resetCounters();
+
+		doCacheTests();
+		long misses = stats.getMissCount();
+		assertTrue(misses > 0);
+		assertEquals(misses, stats.getLoadSuccessCount());
+		assertEquals(0, stats.getLoadFailureCount());
+		assertEquals(0, stats.getEvictionCount());
+		long histogram = 0;
+		for (long n : stats.getLoadTimeHistogram()) {
+			histogram += n;
+		}
+		assertEquals(misses, histogram);
+
+		doCacheTests();
+		assertEquals(misses, stats.getMissCount());
+		assertTrue(stats.getHitCount() > 0);
+		assertTrue(stats.getHitRatio() > 0.5);
+
+		Map<String, Long> perRepo = stats.getOpenByteCountPerRepository();
+		assertEquals(Long.valueOf(WindowCache.getInstance().getOpenBytes()),
+				perRepo.get(db.getObjectDatabase().getDirectory().getPath()));
+
+		for (PackFile pack : db.getObjectDatabase().getPacks()) {
+			WindowCache.purge(pack);
+		}
+		assertEquals(0, WindowCache.getInstance().getOpenBytes());
+		assertTrue(stats.getOpenByteCountPerRepository().isEmpty());
+
+		ObjectName name = Monitoring.objectName("WindowCacheStats");
+		assertEquals(Long.valueOf(misses), ManagementFactory
+				.getPlatformMBeanServer().getAttribute(name, "MissCount"));
+	}
+
+	private void checkPolicy(EvictionPolicy policy) throws IOException {
+		WindowCacheConfig cfg = new WindowCacheConfig();
+		cfg.setEvictionPolicy(policy);
+		cfg.install();
+		doCacheTests();
+		checkLimits(cfg);
+		final WindowCache cache = WindowCache.getInstance();
+		assertEquals(6, cache.getOpenFiles());
+		assertEquals(17346, cache.getOpenBytes());
+
+		cfg = new WindowCacheConfig();
+		cfg.setEvictionPolicy(policy);
+		cfg.setPackedGitOpenFiles(2);
+		cfg.install();
+		doCacheTests();
+		checkLimits(cfg);
+
+		cfg = new WindowCacheConfig();
+		cfg.setEvictionPolicy(policy);
+		cfg.setPackedGitWindowSize(4096);
+		cfg.setPackedGitLimit(4 * 4096);
+		cfg.install();
+		doCacheTests();
+		doCacheTests();
+		checkLimits(cfg);
+	}
+
 	private static void checkLimits(WindowCacheConfig cfg) {
 		final WindowCache cache = WindowCache.getInstance();
 		assertTrue(cache.getOpenFiles() <= cfg.getPackedGitOpenFiles());
@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2019, Google LLC.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.midx;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.jgit.internal.storage.file.PackIndex;
+import org.eclipse.jgit.internal.storage.file.PackIndexWriter;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.transport.PackedObjectInfo;
+import org.junit.Test;
+
+public class MultiPackIndexWriterTest {
+	private static final ObjectId A = id("aa");
+
+	private static final ObjectId B = id("bb");
+
+	private static final ObjectId C = id("0c");
+
+	private static final ObjectId D = id("dd");
+
+	@Test
+	public void emptyIndex() throws Exception {
+		MultiPackIndex midx = writeAndRead(new MultiPackIndexWriter());
+		assertEquals(0, midx.getObjectCount());
+		assertEquals(0, midx.getPackNames().length);
+		assertEquals(-1, midx.findPosition(A));
+	}
+
+	@Test
+	public void mergesPacks() throws Exception {
+		MultiPackIndexWriter writer = new MultiPackIndexWriter();
+		writer.addPack("pack-2.idx", index(A, 12, B, 34));
+		writer.addPack("pack-1.idx", index(C, 56, B, 78));
+		MultiPackIndex midx = writeAndRead(writer);
+
+		assertArrayEquals(new String[] { "pack-1.idx", "pack-2.idx" },
+				midx.getPackNames());
+		assertEquals(3, midx.getObjectCount());
+		assertEquals(C, midx.getObjectId(0));
+		assertEquals(A, midx.getObjectId(1));
+		assertEquals(B, midx.getObjectId(2));
+
+		assertObject(midx, A, 1, 12);
+		// Stored twice, the pack added first wins.
+		assertObject(midx, B, 1, 34);
+		assertObject(midx, C, 0, 56);
+		assertEquals(-1, midx.findPosition(D));
+	}
+
+	@Test
+	public void largeOffsets() throws Exception {
+		long big = 5L << 30;
+		MultiPackIndexWriter writer = new MultiPackIndexWriter();
+		writer.addPack("pack-1.idx", index(A, big, B, 12, C, big + 1));
+		MultiPackIndex midx = writeAndRead(writer);
+		assertObject(midx, A, 0, big);
+		assertObject(midx, B, 0, 12);
+		assertObject(midx, C, 0, big + 1);
+	}
+
+	@Test
+	public void addToExistingIndex() throws Exception {
+		MultiPackIndexWriter writer = new MultiPackIndexWriter();
+		writer.addPack("pack-1.idx", index(A, 12));
+		writer.addPack("pack-2.idx", index(B, 34));
+		writer.addPack("pack-3.idx", index(C, 56));
+		MultiPackIndex old = writeAndRead(writer);
+
+		writer = new MultiPackIndexWriter();
+		writer.addPack("pack-0.idx", index(D, 78, A, 90));
+		writer.addMultiPackIndex(old,
+				Arrays.asList("pack-1.idx", "pack-3.idx"));
+		assertEquals(3, writer.getPackCount());
+		MultiPackIndex midx = writeAndRead(writer);
+
+		assertArrayEquals(
+				new String[] { "pack-0.idx", "pack-1.idx", "pack-3.idx" },
+				midx.getPackNames());
+		assertEquals(3, midx.getObjectCount());
+		assertObject(midx, A, 0, 90);
+		assertEquals(-1, midx.findPosition(B));
+		assertObject(midx, C, 2, 56);
+		assertObject(midx, D, 0, 78);
+	}
+
+	@Test
+	public void rejectsGarbage() throws Exception {
+		try {
+			MultiPackIndexLoader.read(new ByteArrayInputStream(
+					new byte[] { 'M', 'I', 'D', 'Y', 1, 1, 0, 0, 0, 0, 0, 0 }));
+			fail("accepted a file without the multi-pack-index signature");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void rejectsTruncatedFile() throws Exception {
+		MultiPackIndexWriter writer = new MultiPackIndexWriter();
+		writer.addPack("pack-1.idx", index(A, 12));
+		byte[] data = write(writer);
+		try {
+			MultiPackIndexLoader.read(new ByteArrayInputStream(
+					Arrays.copyOf(data, data.length - 40)));
+			fail("accepted a truncated multi-pack-index");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	private static void assertObject(MultiPackIndex midx, ObjectId id,
+			int packId, long offset) {
+		int pos = midx.findPosition(id);
+		assertEquals(id, midx.getObjectId(pos));
+		assertEquals(packId, midx.getPackId(pos));
+		assertEquals(offset, midx.getOffset(pos));
+	}
+
+	private static PackIndex index(Object... idAndOffset) throws IOException {
+		List<PackedObjectInfo> objects = new ArrayList<>();
+		for (int i = 0; i < idAndOffset.length; i += 2) {
+			PackedObjectInfo info = new PackedObjectInfo(
+					(ObjectId) idAndOffset[i]);
+			info.setOffset(((Number) idAndOffset[i + 1]).longValue());
+			objects.add(info);
+		}
+		Collections.sort(objects);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		PackIndexWriter.createVersion(out, 2).write(objects, new byte[20]);
+		return PackIndex.read(new ByteArrayInputStream(out.toByteArray()));
+	}
+
+	private static byte[] write(MultiPackIndexWriter writer)
+			throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		writer.write(NullProgressMonitor.INSTANCE, out);
+		return out.toByteArray();
+	}
+
+	private static MultiPackIndex writeAndRead(MultiPackIndexWriter writer)
+			throws IOException {
+		return MultiPackIndexLoader
+				.read(new ByteArrayInputStream(write(writer)));
+	}
+
+	private static ObjectId id(String prefix) {
+		StringBuilder b = new StringBuilder(prefix);
+		while (b.length() < 40) {
+			b.append('1');
+		}
+		return ObjectId.fromString(b.toString());
+	}
+}
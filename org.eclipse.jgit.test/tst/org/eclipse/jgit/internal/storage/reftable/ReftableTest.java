@@ -43,6 +43,8 @@
 
 package org.eclipse.jgit.internal.storage.reftable;
 
+import static org.eclipse.jgit.internal.storage.reftable.ReftableConstants.INDEX_BLOCK_TYPE;
+import static org.eclipse.jgit.internal.storage.reftable.ReftableConstants.REF_BLOCK_TYPE;
 import static org.eclipse.jgit.lib.Constants.HEAD;
 import static org.eclipse.jgit.lib.Constants.OBJECT_ID_LENGTH;
 import static org.eclipse.jgit.lib.Constants.R_HEADS;
@@ -58,6 +60,7 @@
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -469,6 +472,12 @@ public void withReflog() throws IOException {
 
 			assertFalse(lc.next());
 		}
+		try (LogCursor lc = t.seekLog(NEXT)) {
+			assertTrue(lc.next());
+			assertEquals(NEXT, lc.getRefName());
+			assertEquals(id(2), lc.getReflogEntry().getNewId());
+			assertFalse(lc.next());
+		}
 	}
 
 	@Test
@@ -630,6 +639,99 @@ public void byObjectIdOneRefWithIndex() throws IOException {
 		}
 	}
 
+	@SuppressWarnings("boxing")
+	@Test
+	public void multiLevelIndexSeek() throws IOException {
+		List<Ref> refs = new ArrayList<>();
+		for (int i = 1; i <= 20000; i++) {
+			refs.add(ref(String.format("refs/heads/%05d", i), i));
+		}
+		ReftableConfig cfg = new ReftableConfig();
+		cfg.setRefBlockSize(1024);
+		byte[] table = write(cfg, refs);
+		int levels = stats.refIndexLevels();
+		assertTrue(levels > 1);
+
+		ReftableBlockCache cache = new ReftableBlockCache(1 << 20);
+		CountingSource src = new CountingSource(table);
+		try (ReftableReader t = new ReftableReader(src, cache, src)) {
+			try (RefCursor rc = t.seekRef("refs/heads/12345")) {
+				assertTrue(rc.next());
+				assertEquals(id(12345), rc.getRef().getObjectId());
+			}
+			// Footer, root index length and root index, then one block for
+			// each lower index level and the ref block.
+			assertEquals(levels + 3, src.reads);
+			assertEquals(levels + 1, cache.getMissCount());
+
+			try (RefCursor rc = t.seekRef("refs/heads/12345")) {
+				assertTrue(rc.next());
+				assertEquals(id(12345), rc.getRef().getObjectId());
+			}
+			assertEquals(levels + 3, src.reads);
+			assertEquals(levels - 1, cache.getHitCount(INDEX_BLOCK_TYPE));
+			assertEquals(1, cache.getHitCount(REF_BLOCK_TYPE));
+
+			assertSeek(refs, t);
+			assertScan(refs, t);
+		}
+		assertEquals(0, cache.getBlockCount());
+	}
+
+	@SuppressWarnings("boxing")
+	@Test
+	public void blockCacheIsBounded() throws IOException {
+		List<Ref> refs = new ArrayList<>();
+		for (int i = 1; i <= 5670; i++) {
+			refs.add(ref(String.format("refs/heads/%04d", i), i));
+		}
+		ReftableConfig cfg = new ReftableConfig();
+		cfg.setRefBlockSize(1024);
+		byte[] table = write(cfg, refs);
+
+		int limit = 16 * 1024;
+		ReftableBlockCache cache = new ReftableBlockCache(limit);
+		try (ReftableReader t = new ReftableReader(BlockSource.from(table),
+				cache, table)) {
+			assertScan(refs, t);
+			assertTrue(cache.getBlockCount() > 0);
+			assertTrue(cache.getCurrentSize() <= limit);
+			assertTrue(cache.getEvictions(REF_BLOCK_TYPE) > 0);
+			assertEquals(0, cache.getHitCount());
+		}
+		assertEquals(0, cache.getBlockCount());
+		assertEquals(0, cache.getCurrentSize());
+	}
+
+	@Test
+	public void blockCacheIsSharedByTable() throws IOException {
+		List<Ref> refs = new ArrayList<>();
+		for (int i = 1; i <= 500; i++) {
+			refs.add(ref(String.format("refs/heads/%03d", i), i));
+		}
+		byte[] table = write(refs);
+
+		ReftableBlockCache cache = new ReftableBlockCache(1 << 20);
+		Object name = "table";
+		try (ReftableReader a = new ReftableReader(BlockSource.from(table),
+				cache, name)) {
+			assertScan(refs, a);
+			int blocks = cache.getBlockCount();
+			assertTrue(blocks > 0);
+			assertEquals(0, cache.getHitCount());
+
+			try (ReftableReader b = new ReftableReader(
+					BlockSource.from(table), cache, name)) {
+				assertScan(refs, b);
+				assertEquals(blocks, cache.getBlockCount());
+				assertEquals(blocks, cache.getHitCount());
+			}
+			assertEquals(blocks, cache.getBlockCount());
+		}
+		assertEquals(0, cache.getBlockCount());
+		assertEquals(0, cache.getCurrentSize());
+	}
+
 	@Test
 	public void unpeeledDoesNotWrite() {
 		try {
@@ -731,12 +833,44 @@ private byte[] write(Ref... refs) throws IOException {
 	}
 
 	private byte[] write(Collection<Ref> refs) throws IOException {
+		return write(new ReftableConfig(), refs);
+	}
+
+	private byte[] write(ReftableConfig cfg, Collection<Ref> refs)
+			throws IOException {
 		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
 		stats = new ReftableWriter()
+				.setConfig(cfg)
 				.begin(buffer)
 				.sortAndWriteRefs(refs)
 				.finish()
 				.getStats();
 		return buffer.toByteArray();
 	}
+
+	private static class CountingSource extends BlockSource {
+		private final BlockSource src;
+
+		int reads;
+
+		CountingSource(byte[] table) {
+			src = BlockSource.from(table);
+		}
+
+		@Override
+		public ByteBuffer read(long pos, int cnt) throws IOException {
+			reads++;
+			return src.read(pos, cnt);
+		}
+
+		@Override
+		public long size() throws IOException {
+			return src.size();
+		}
+
+		@Override
+		public void close() {
+			src.close();
+		}
+	}
 }
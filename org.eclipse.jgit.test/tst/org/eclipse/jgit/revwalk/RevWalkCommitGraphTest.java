@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2019, Google LLC.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.revwalk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Optional;
+import java.util.Set;
+
+import org.eclipse.jgit.internal.storage.commitgraph.CommitGraph;
+import org.eclipse.jgit.internal.storage.file.GC;
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.Test;
+
+public class RevWalkCommitGraphTest extends RevWalkTestCase {
+	@Test
+	public void generationsFromCommitGraph() throws Exception {
+		RevCommit a = commit();
+		RevCommit b = commit(a);
+		RevCommit c = commit(a);
+		RevCommit m = commit(b, c);
+		writeCommitGraph(m);
+		RevCommit d = commit(m);
+
+		try (RevWalk walk = new RevWalk(db)) {
+			assertEquals(1, walk.getGeneration(walk.lookupCommit(a)));
+			assertEquals(2, walk.getGeneration(walk.lookupCommit(b)));
+			assertEquals(2, walk.getGeneration(walk.lookupCommit(c)));
+			assertEquals(3, walk.getGeneration(walk.lookupCommit(m)));
+			assertEquals(CommitGraph.GENERATION_UNKNOWN,
+					walk.getGeneration(walk.lookupCommit(d)));
+		}
+	}
+
+	@Test
+	public void mergedIntoWithGenerations() throws Exception {
+		RevCommit a = commit();
+		RevCommit b = commit(a);
+		RevCommit c = commit(a);
+		RevCommit m = commit(b, c);
+		RevCommit side = commit(c);
+		writeCommitGraph(m, side);
+		RevCommit d = commit(m);
+
+		try (RevWalk walk = new RevWalk(db)) {
+			assertTrue(walk.isMergedInto(lookup(walk, a), lookup(walk, m)));
+			assertTrue(walk.isMergedInto(lookup(walk, c), lookup(walk, m)));
+			assertTrue(walk.isMergedInto(lookup(walk, m), lookup(walk, m)));
+			assertTrue(walk.isMergedInto(lookup(walk, b), lookup(walk, d)));
+			assertFalse(walk.isMergedInto(lookup(walk, m), lookup(walk, b)));
+			assertFalse(walk.isMergedInto(lookup(walk, b), lookup(walk, c)));
+			assertFalse(walk.isMergedInto(lookup(walk, side), lookup(walk, m)));
+			assertFalse(walk.isMergedInto(lookup(walk, d), lookup(walk, m)));
+		}
+	}
+
+	@Test
+	public void mergedIntoSkipsHistoryBelowBase() throws Exception {
+		RevCommit root = commit();
+		RevCommit base = commit(commit(root));
+		RevCommit tip = commit(commit(commit(base)));
+		writeCommitGraph(tip);
+
+		try (RevWalk walk = new RevWalk(db)) {
+			RevCommit b = lookup(walk, base);
+			assertTrue(walk.isMergedInto(b, lookup(walk, tip)));
+			assertEquals(0, b.getParent(0).flags & RevWalk.PARSED);
+			assertEquals(0, walk.lookupCommit(root).flags & RevWalk.PARSED);
+		}
+	}
+
+	@Test
+	public void mergedIntoWithSkewedClock() throws Exception {
+		final int threeDaysInSecs = 3 * 24 * 60 * 60;
+		final RevCommit f = commit();
+		final RevCommit b = commit(f);
+		final RevCommit o = commit(-threeDaysInSecs, commit(commit(commit(b))));
+		final RevCommit n = commit(commit(commit(commit(commit(f)))));
+		final RevCommit t = commit(n, o);
+		writeCommitGraph(t);
+
+		try (RevWalk walk = new RevWalk(db)) {
+			assertTrue(walk.isMergedInto(lookup(walk, b), lookup(walk, t)));
+		}
+	}
+
+	@Test
+	public void reachabilityCheckerWithGenerations() throws Exception {
+		RevCommit a = commit();
+		RevCommit b1 = commit(a);
+		RevCommit b2 = commit(b1);
+		RevCommit c1 = commit(a);
+		RevCommit c2 = commit(c1);
+		RevCommit merge = commit(c2, b2);
+		RevCommit other = commit(c2);
+		writeCommitGraph(merge, other);
+
+		try (RevWalk walk = new RevWalk(db)) {
+			ReachabilityChecker checker = new PedestrianReachabilityChecker(
+					true, walk);
+			assertFalse(checker.areAllReachable(
+					Arrays.asList(lookup(walk, a), lookup(walk, b1),
+							lookup(walk, c2)),
+					Arrays.asList(lookup(walk, merge))).isPresent());
+			assertFalse(checker
+					.areAllReachable(Arrays.asList(lookup(walk, b2)),
+							Arrays.asList(lookup(walk, other),
+									lookup(walk, b2)))
+					.isPresent());
+
+			Optional<RevCommit> unreachable = checker.areAllReachable(
+					Arrays.asList(lookup(walk, c1), lookup(walk, b1)),
+					Arrays.asList(lookup(walk, other)));
+			assertEquals(b1, unreachable.get());
+			unreachable = checker.areAllReachable(
+					Arrays.asList(lookup(walk, merge)),
+					Arrays.asList(lookup(walk, b2)));
+			assertEquals(merge, unreachable.get());
+
+			// Flags are released, so the walk can be used again.
+			assertTrue(walk.isMergedInto(lookup(walk, a), lookup(walk, other)));
+		}
+	}
+
+	private void writeCommitGraph(RevCommit... tips) throws Exception {
+		Set<ObjectId> wants = new HashSet<>();
+		Collections.addAll(wants, tips);
+		new GC(db).writeCommitGraph(wants);
+	}
+
+	private static RevCommit lookup(RevWalk walk, RevCommit c)
+			throws Exception {
+		return walk.parseCommit(c);
+	}
+}
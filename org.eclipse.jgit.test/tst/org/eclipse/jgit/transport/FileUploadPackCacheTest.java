@@ -0,0 +1,259 @@
+/*
+ * Copyright (C) 2019, Google LLC.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.transport;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.eclipse.jgit.internal.storage.dfs.DfsRepositoryDescription;
+import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevBlob;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.storage.pack.PackStatistics;
+import org.eclipse.jgit.util.IO;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FileUploadPackCacheTest {
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	private TestProtocol<Object> testProtocol;
+
+	@After
+	public void tearDown() {
+		if (testProtocol != null) {
+			Transport.unregister(testProtocol);
+		}
+	}
+
+	@Test
+	public void storeAndOpen() throws Exception {
+		FileUploadPackCache cache = new FileUploadPackCache(tmp.getRoot(),
+				1024);
+		UploadPackCache.Key k = key("a");
+		assertNull(cache.open(k));
+
+		put(cache, k, 10);
+		assertEquals(1, cache.getCount());
+		assertEquals(10, cache.getSize());
+		assertArrayEquals(data(10), read(cache, k));
+	}
+
+	@Test
+	public void uncommittedWriterIsDiscarded() throws Exception {
+		FileUploadPackCache cache = new FileUploadPackCache(tmp.getRoot(),
+				1024);
+		UploadPackCache.Key k = key("a");
+		try (UploadPackCache.Writer w = cache.newWriter(k)) {
+			w.write(data(10));
+		}
+		assertNull(cache.open(k));
+		assertEquals(0, cache.getCount());
+		assertEquals(0, tmp.getRoot().list().length);
+	}
+
+	@Test
+	public void evictsLeastRecentlyUsed() throws Exception {
+		FileUploadPackCache cache = new FileUploadPackCache(tmp.getRoot(),
+				100);
+		UploadPackCache.Key a = key("a");
+		UploadPackCache.Key b = key("b");
+		UploadPackCache.Key c = key("c");
+		put(cache, a, 40);
+		put(cache, b, 40);
+		read(cache, a);
+		put(cache, c, 40);
+
+		assertNotNull(read(cache, a));
+		assertNull(cache.open(b));
+		assertNotNull(read(cache, c));
+		assertEquals(80, cache.getSize());
+
+		put(cache, key("d"), 101);
+		assertNull(cache.open(key("d")));
+		assertEquals(2, cache.getCount());
+	}
+
+	@Test
+	public void invalidateDropsEntriesAndPendingWriters() throws Exception {
+		FileUploadPackCache cache = new FileUploadPackCache(tmp.getRoot(),
+				1024);
+		UploadPackCache.Key a = key("a");
+		UploadPackCache.Key b = key("b");
+		put(cache, a, 10);
+		try (UploadPackCache.Writer w = cache.newWriter(b)) {
+			w.write(data(10));
+			cache.invalidate();
+			w.commit();
+		}
+		assertNull(cache.open(a));
+		assertNull(cache.open(b));
+		assertEquals(0, cache.getSize());
+	}
+
+	@Test
+	public void reloadsExistingEntries() throws Exception {
+		FileUploadPackCache cache = new FileUploadPackCache(tmp.getRoot(),
+				1024);
+		UploadPackCache.Key a = key("a");
+		put(cache, a, 10);
+
+		cache = new FileUploadPackCache(tmp.getRoot(), 1024);
+		assertEquals(1, cache.getCount());
+		assertArrayEquals(data(10), read(cache, a));
+	}
+
+	@Test
+	public void fetchReplaysCachedPack() throws Exception {
+		InMemoryRepository server = newRepo("server");
+		RevCommit tip;
+		try (TestRepository<InMemoryRepository> remote = new TestRepository<>(
+				server)) {
+			RevBlob blob = remote.blob("foo");
+			tip = remote.commit(remote.tree(remote.file("foo", blob)));
+			remote.update("master", tip);
+		}
+
+		FileUploadPackCache cache = new FileUploadPackCache(tmp.getRoot(),
+				1 << 20);
+		AtomicReference<UploadPack> last = new AtomicReference<>();
+		List<PackStatistics> uploads = new ArrayList<>();
+		testProtocol = new TestProtocol<>((Object req, Repository db) -> {
+			UploadPack up = new UploadPack(db);
+			up.setPackCache(cache);
+			up.setPostUploadHook(uploads::add);
+			last.set(up);
+			return up;
+		}, null);
+		URIish uri = testProtocol.register(new Object(), server);
+
+		InMemoryRepository client1 = newRepo("client1");
+		fetch(client1, uri, tip);
+		assertTrue(client1.getObjectDatabase().has(tip));
+		PackStatistics generated = last.get().getStatistics();
+		assertNotNull(generated);
+		assertFalse(generated.isPackCacheHit());
+		assertEquals(1, cache.getCount());
+
+		InMemoryRepository client2 = newRepo("client2");
+		fetch(client2, uri, tip);
+		assertTrue(client2.getObjectDatabase().has(tip));
+		PackStatistics replayed = last.get().getStatistics();
+		assertNotNull(replayed);
+		assertTrue(replayed.isPackCacheHit());
+		assertEquals(generated.getTotalBytes(), replayed.getTotalBytes());
+		assertEquals(Arrays.asList(generated, replayed), uploads);
+		assertEquals(1, cache.getCount());
+
+		cache.invalidate();
+		assertEquals(0, cache.getCount());
+	}
+
+	private void fetch(Repository client, URIish uri, ObjectId id)
+			throws Exception {
+		try (Transport tn = testProtocol.open(uri, client, "server")) {
+			tn.fetch(NullProgressMonitor.INSTANCE,
+					Collections.singletonList(new RefSpec(id.name())));
+		}
+	}
+
+	private static InMemoryRepository newRepo(String name) {
+		return new InMemoryRepository(new DfsRepositoryDescription(name));
+	}
+
+	private static UploadPackCache.Key key(String s) {
+		return new UploadPackCache.Key(ObjectId.fromRaw(
+				Constants.newMessageDigest().digest(Constants.encode(s))));
+	}
+
+	private static byte[] data(int len) {
+		byte[] b = new byte[len];
+		for (int i = 0; i < len; i++) {
+			b[i] = (byte) i;
+		}
+		return b;
+	}
+
+	private static void put(UploadPackCache cache, UploadPackCache.Key k,
+			int len) throws IOException {
+		try (UploadPackCache.Writer w = cache.newWriter(k)) {
+			w.write(data(len));
+			w.commit();
+		}
+	}
+
+	private static byte[] read(UploadPackCache cache, UploadPackCache.Key k)
+			throws IOException {
+		try (InputStream in = cache.open(k)) {
+			if (in == null) {
+				return null;
+			}
+			ByteBuffer buf = IO.readWholeStream(in, 0);
+			byte[] r = new byte[buf.remaining()];
+			buf.get(r);
+			return r;
+		}
+	}
+}
@@ -46,6 +46,7 @@
 
 package org.eclipse.jgit.transport;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -57,21 +58,29 @@
 import java.io.InputStream;
 import java.security.MessageDigest;
 import java.text.MessageFormat;
+import java.util.Collections;
+import java.util.List;
 import java.util.zip.Deflater;
 
 import org.eclipse.jgit.errors.TooLargeObjectInPackException;
 import org.eclipse.jgit.internal.JGitText;
 import org.eclipse.jgit.internal.storage.file.ObjectDirectoryPackParser;
+import org.eclipse.jgit.internal.storage.file.PackIndex;
+import org.eclipse.jgit.internal.storage.pack.PackWriter;
 import org.eclipse.jgit.internal.storage.file.PackFile;
 import org.eclipse.jgit.junit.JGitTestUtil;
 import org.eclipse.jgit.junit.RepositoryTestCase;
 import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.junit.TestRepository.CommitBuilder;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectChecker;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevBlob;
+import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.util.NB;
 import org.eclipse.jgit.util.TemporaryBuffer;
 import org.eclipse.jgit.util.io.UnionInputStream;
@@ -139,6 +148,99 @@ public void test2() throws  IOException {
 		}
 	}
 
+	@Test
+	public void testParallelDeltaResolution() throws IOException {
+		String name = "pack-df2982f284bbabb6bdb59ee3fcc6eb0983e20371";
+		PackIndex idx = PackIndex
+				.open(JGitTestUtil.getTestResourceFile(name + ".idx"));
+		File packFile = JGitTestUtil.getTestResourceFile(name + ".pack");
+		try (InputStream is = new FileInputStream(packFile)) {
+			PackParser p = index(is);
+			p.setIndexThreads(4);
+			assertEquals(4, p.getIndexThreads());
+			p.parse(NullProgressMonitor.INSTANCE);
+
+			assertEquals(idx.getObjectCount(), p.getObjectCount());
+			for (PackedObjectInfo info : p.getSortedObjectList(null)) {
+				assertEquals(idx.findOffset(info), info.getOffset());
+				if (idx.hasCRC32Support())
+					assertEquals(idx.findCRC32(info),
+							info.getCRC() & 0xffffffffL);
+			}
+		}
+	}
+
+	@Test
+	public void testParallelDeltaChains() throws Exception {
+		Repository src = createBareRepository();
+		byte[] pack = deltaChainPack(src);
+
+		PackParser p = index(new ByteArrayInputStream(pack));
+		p.setIndexThreads(4);
+		p.parse(NullProgressMonitor.INSTANCE);
+
+		List<PackedObjectInfo> objects = p.getSortedObjectList(null);
+		assertEquals(p.getObjectCount(), objects.size());
+		try (ObjectReader expected = src.newObjectReader();
+				ObjectReader actual = db.newObjectReader()) {
+			for (PackedObjectInfo info : objects) {
+				assertArrayEquals(expected.open(info).getCachedBytes(),
+						actual.open(info).getCachedBytes());
+			}
+		}
+	}
+
+	@Test
+	public void testParallelDeltaChainsCheckedAndKnown() throws Exception {
+		Repository src = createBareRepository();
+		byte[] pack = deltaChainPack(src);
+
+		for (int i = 0; i < 2; i++) {
+			// The second parse compares the objects with the stored ones.
+			ObjectChecker checker = new ObjectChecker();
+			PackParser p = index(new ByteArrayInputStream(pack));
+			p.setIndexThreads(4);
+			p.setObjectChecker(checker);
+			p.setCheckObjectCollisions(true);
+			p.parse(NullProgressMonitor.INSTANCE);
+			assertEquals(10, checker.getGitsubmodules().size());
+		}
+	}
+
+	private static byte[] deltaChainPack(Repository src) throws Exception {
+		RevCommit tip = null;
+		try (TestRepository<Repository> d = new TestRepository<>(src)) {
+			StringBuilder[] files = new StringBuilder[8];
+			for (int f = 0; f < files.length; f++) {
+				files[f] = new StringBuilder();
+				for (int line = 0; line < 200; line++)
+					files[f].append("file " + f + " line " + line + "\n");
+			}
+			for (int rev = 0; rev < 10; rev++) {
+				CommitBuilder cb = d.commit();
+				if (tip != null)
+					cb.parent(tip);
+				for (int f = 0; f < files.length; f++) {
+					files[f].append("revision " + rev + "\n");
+					cb.add("f" + f, files[f].toString());
+				}
+				cb.add(".gitmodules", "revision " + rev + "\n");
+				tip = cb.create();
+			}
+		}
+
+		TemporaryBuffer.Heap pack = new TemporaryBuffer.Heap(1 << 20);
+		try (PackWriter pw = new PackWriter(src)) {
+			pw.preparePack(NullProgressMonitor.INSTANCE,
+					Collections.singleton(tip.getId()),
+					Collections.<ObjectId> emptySet());
+			pw.writePack(NullProgressMonitor.INSTANCE,
+					NullProgressMonitor.INSTANCE, pack);
+			assertTrue(pw.getStatistics().getTotalDeltas() > 50);
+		}
+		return pack.toByteArray();
+	}
+
 	@Test
 	public void testTinyThinPack() throws Exception {
 		RevBlob a;
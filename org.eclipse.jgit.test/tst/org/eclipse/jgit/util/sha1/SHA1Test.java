@@ -45,6 +45,8 @@
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.junit.Assume.assumeTrue;
@@ -58,6 +60,7 @@
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.util.IO;
+import org.eclipse.jgit.util.sha1.SHA1.Sha1Implementation;
 import org.junit.Test;
 
 public class SHA1Test {
@@ -218,6 +221,71 @@ public void detectsShatteredByDefault() throws IOException {
 		}
 	}
 
+	@Test
+	public void jdkNativeMatchesJava() throws IOException {
+		for (String t : new String[] { "", TEST1, TEST2 }) {
+			SHA1 j = SHA1.newInstance(Sha1Implementation.JAVA);
+			SHA1 n = SHA1.newInstance(Sha1Implementation.JDKNATIVE);
+			j.update(t.getBytes(UTF_8));
+			n.update(t.getBytes(UTF_8));
+			assertEquals(j.toObjectId(), n.toObjectId());
+		}
+
+		byte[] pdf1 = read("shattered-1.pdf", 422435);
+		ObjectId id1 = blob(pdf1,
+				SHA1.newInstance(Sha1Implementation.JDKNATIVE));
+		assertEquals(
+				ObjectId.fromString("ba9aaa145ccd24ef760cf31c74d8f7ca1a2e47b0"),
+				id1);
+
+		// The JDK implementation cannot detect the SHAttered attack.
+		SHA1 n = SHA1.newInstance(Sha1Implementation.JDKNATIVE);
+		n.update(pdf1);
+		assertEquals(
+				ObjectId.fromString("38762cf7f55934b34d179ae6a4c80cadccbb7f0a"),
+				n.toObjectId());
+		assertFalse(n.hasCollision());
+
+		n.reset();
+		n.update(TEST1.getBytes(UTF_8));
+		assertEquals(
+				ObjectId.fromString("a9993e364706816aba3e25717850c26c9cd0d89d"),
+				n.toObjectId());
+	}
+
+	@Test
+	public void jdkNativeSwitchesToJavaToDetectCollisions() {
+		SHA1 n = SHA1.newInstance(Sha1Implementation.JDKNATIVE);
+		assertSame(n, n.setDetectCollision(false));
+		assertTrue(n.setDetectCollision(true) instanceof SHA1Java);
+
+		n.update(TEST1.getBytes(UTF_8));
+		try {
+			n.setDetectCollision(true);
+			fail("expected IllegalStateException");
+		} catch (IllegalStateException e) {
+			// Detection cannot be enabled after data was hashed.
+		}
+		n.reset();
+		assertTrue(n.setDetectCollision(true) instanceof SHA1Java);
+	}
+
+	@Test
+	public void setImplementation() {
+		Sha1Implementation old = SHA1.getImplementation();
+		try {
+			SHA1.setImplementation(Sha1Implementation.JDKNATIVE);
+			assertEquals(Sha1Implementation.JDKNATIVE,
+					SHA1.getImplementation());
+			assertTrue(SHA1.newInstance() instanceof SHA1Native);
+
+			SHA1.setImplementation(Sha1Implementation.JAVA);
+			assertTrue(SHA1.newInstance() instanceof SHA1Java);
+		} finally {
+			SHA1.setImplementation(old);
+		}
+	}
+
 	private static ObjectId blob(byte[] pdf1, SHA1 s) {
 		s.update(Constants.encodedTypeString(Constants.OBJ_BLOB));
 		s.update((byte) ' ');
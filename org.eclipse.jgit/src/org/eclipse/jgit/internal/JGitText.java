@@ -157,6 +157,7 @@ public static JGitText get() {
 	/***/ public String cannotReadBackDelta;
 	/***/ public String cannotReadBlob;
 	/***/ public String cannotReadCommit;
+	/***/ public String cannotReadDeltaSearchCache;
 	/***/ public String cannotReadFile;
 	/***/ public String cannotReadHEAD;
 	/***/ public String cannotReadIndex;
@@ -192,10 +193,14 @@ public static JGitText get() {
 	/***/ public String commandRejectedByHook;
 	/***/ public String commandWasCalledInTheWrongState;
 	/***/ public String commitAlreadyExists;
+	/***/ public String commitGraphChunkNeeded;
+	/***/ public String commitGraphChunkRepeated;
+	/***/ public String commitGraphFileIsTooLargeForJgit;
 	/***/ public String commitMessageNotSpecified;
 	/***/ public String commitOnRepoWithoutHEADCurrentlyNotSupported;
 	/***/ public String commitAmendOnInitialNotPossible;
 	/***/ public String compressingObjects;
+	/***/ public String computingCommitGeneration;
 	/***/ public String configSubsectionContainsNewline;
 	/***/ public String configSubsectionContainsNullByte;
 	/***/ public String configValueContainsNullByte;
@@ -203,7 +208,10 @@ public static JGitText get() {
 	/***/ public String connectionFailed;
 	/***/ public String connectionTimeOut;
 	/***/ public String contextMustBeNonNegative;
+	/***/ public String corruptCommitGraph;
+	/***/ public String corruptDeltaSearchCache;
 	/***/ public String corruptionDetectedReReadingAt;
+	/***/ public String corruptMultiPackIndex;
 	/***/ public String corruptObjectBadDate;
 	/***/ public String corruptObjectBadEmail;
 	/***/ public String corruptObjectBadStream;
@@ -263,6 +271,7 @@ public static JGitText get() {
 	/***/ public String corruptObjectTruncatedInObjectId;
 	/***/ public String corruptObjectZeroId;
 	/***/ public String corruptPack;
+	/***/ public String corruptReverseIndex;
 	/***/ public String corruptUseCnt;
 	/***/ public String couldNotCheckOutBecauseOfConflicts;
 	/***/ public String couldNotDeleteLockFileShouldNotHappen;
@@ -376,6 +385,7 @@ public static JGitText get() {
 	/***/ public String filterExecutionFailed;
 	/***/ public String filterExecutionFailedRc;
 	/***/ public String filterRequiresCapability;
+	/***/ public String findingCommitsForCommitGraph;
 	/***/ public String findingGarbage;
 	/***/ public String flagIsDisposed;
 	/***/ public String flagNotFromThis;
@@ -528,6 +538,9 @@ public static JGitText get() {
 	/***/ public String month;
 	/***/ public String months;
 	/***/ public String monthsAgo;
+	/***/ public String multiPackIndexChunkNeeded;
+	/***/ public String multiPackIndexChunkRepeated;
+	/***/ public String multiPackIndexFileIsTooLargeForJgit;
 	/***/ public String multipleMergeBasesFor;
 	/***/ public String nameMustNotBeNullOrEmpty;
 	/***/ public String need2Arguments;
@@ -550,10 +563,14 @@ public static JGitText get() {
 	/***/ public String noSuchSubmodule;
 	/***/ public String notABoolean;
 	/***/ public String notABundle;
+	/***/ public String notACommitGraph;
+	/***/ public String notADeltaSearchCache;
 	/***/ public String notADIRCFile;
 	/***/ public String notAGitDirectory;
+	/***/ public String notAMultiPackIndex;
 	/***/ public String notAPACKFile;
 	/***/ public String notARef;
+	/***/ public String notAReverseIndex;
 	/***/ public String notASCIIString;
 	/***/ public String notAuthorized;
 	/***/ public String notAValidPack;
@@ -588,6 +605,7 @@ public static JGitText get() {
 	/***/ public String packetSizeMustBeAtLeast;
 	/***/ public String packetSizeMustBeAtMost;
 	/***/ public String packedRefsCorruptionDetected;
+	/***/ public String packExtBlockLimitNegative;
 	/***/ public String packfileCorruptionDetected;
 	/***/ public String packFileInvalid;
 	/***/ public String packfileIsTruncated;
@@ -602,6 +620,7 @@ public static JGitText get() {
 	/***/ public String packTooLargeForIndexVersion1;
 	/***/ public String packWasDeleted;
 	/***/ public String packWriterStatistics;
+	/***/ public String packWriterStatisticsCached;
 	/***/ public String panicCantRenameIndexFile;
 	/***/ public String patchApplyException;
 	/***/ public String patchFormatException;
@@ -646,7 +665,9 @@ public static JGitText get() {
 	/***/ public String refAlreadyExists1;
 	/***/ public String reflogEntryNotFound;
 	/***/ public String refNotResolved;
+	/***/ public String reftableDirExists;
 	/***/ public String refUpdateReturnCodeWas;
+	/***/ public String registeringMBeanFailed;
 	/***/ public String remoteConfigHasNoURIAssociated;
 	/***/ public String remoteDoesNotHaveSpec;
 	/***/ public String remoteDoesNotSupportSmartHTTPPush;
@@ -681,6 +702,7 @@ public static JGitText get() {
 	/***/ public String resettingHead;
 	/***/ public String resolvingDeltas;
 	/***/ public String resultLengthIncorrect;
+	/***/ public String reverseIndexDoesNotMatchPack;
 	/***/ public String rewinding;
 	/***/ public String s3ActionDeletion;
 	/***/ public String s3ActionReading;
@@ -693,6 +715,7 @@ public static JGitText get() {
 	/***/ public String serviceNotEnabledNoName;
 	/***/ public String serviceNotPermitted;
 	/***/ public String sha1CollisionDetected;
+	/***/ public String sha1CollisionDetectionAfterUpdate;
 	/***/ public String shallowCommitsAlreadyInitialized;
 	/***/ public String shallowPacksRequireDepthWalk;
 	/***/ public String shortCompressedStreamAt;
@@ -810,6 +833,7 @@ public static JGitText get() {
 	/***/ public String unknownObjectInIndex;
 	/***/ public String unknownObjectType;
 	/***/ public String unknownObjectType2;
+	/***/ public String unknownRefStorageFormat;
 	/***/ public String unknownRepositoryFormat;
 	/***/ public String unknownRepositoryFormat2;
 	/***/ public String unknownTransportCommand;
@@ -818,21 +842,30 @@ public static JGitText get() {
 	/***/ public String unmergedPath;
 	/***/ public String unmergedPaths;
 	/***/ public String unpackException;
+	/***/ public String unreadableCommitGraph;
+	/***/ public String unreadableMultiPackIndex;
 	/***/ public String unreadablePackIndex;
 	/***/ public String unrecognizedRef;
 	/***/ public String unsetMark;
 	/***/ public String unsupportedAlternates;
 	/***/ public String unsupportedArchiveFormat;
 	/***/ public String unsupportedCommand0;
+	/***/ public String unsupportedCommitGraphHashVersion;
+	/***/ public String unsupportedCommitGraphVersion;
+	/***/ public String unsupportedDeltaSearchCacheVersion;
 	/***/ public String unsupportedEncryptionAlgorithm;
 	/***/ public String unsupportedEncryptionVersion;
 	/***/ public String unsupportedGC;
 	/***/ public String unsupportedMark;
+	/***/ public String unsupportedMultiPackIndexHashVersion;
+	/***/ public String unsupportedMultiPackIndexVersion;
 	/***/ public String unsupportedOperationNotAddAtEnd;
 	/***/ public String unsupportedPackIndexVersion;
 	/***/ public String unsupportedPackVersion;
 	/***/ public String unsupportedReftableVersion;
 	/***/ public String unsupportedRepositoryDescription;
+	/***/ public String unsupportedReverseIndexHashVersion;
+	/***/ public String unsupportedReverseIndexVersion;
 	/***/ public String updateRequiresOldIdAndNewId;
 	/***/ public String updatingHeadFailed;
 	/***/ public String updatingReferences;
@@ -855,6 +888,8 @@ public static JGitText get() {
 	/***/ public String writingNotPermitted;
 	/***/ public String writingNotSupported;
 	/***/ public String writingObjects;
+	/***/ public String writingOutCommitGraph;
+	/***/ public String writingOutMultiPackIndex;
 	/***/ public String wrongDecompressedLength;
 	/***/ public String wrongRepositoryState;
 	/***/ public String year;
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2019, Google LLC.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.commitgraph;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * The commit-graph stores the commit history structure (parents, root tree,
+ * commit time and generation number) in a compact binary file, making it
+ * possible to walk history without inflating and parsing commit objects.
+ * <p>
+ * Commits are identified by their position in the graph, which is the index
+ * of their {@link org.eclipse.jgit.lib.ObjectId} in the sorted list of all
+ * commits stored in the file.
+ *
+ * @see <a href=
+ *      "https://git-scm.com/docs/commit-graph-format">commit-graph-format</a>
+ */
+public interface CommitGraph {
+	/**
+	 * Generation number of a commit which is not covered by the graph.
+	 * <p>
+	 * Such a commit may be reachable from any commit, so walks must not use
+	 * its generation to prune the traversal.
+	 */
+	int GENERATION_UNKNOWN = Integer.MAX_VALUE;
+
+	/**
+	 * Generation number stored by writers which did not compute generations.
+	 * <p>
+	 * Like {@link #GENERATION_UNKNOWN} it cannot be used to prune a walk.
+	 */
+	int GENERATION_NOT_COMPUTED = 0;
+
+	/** Largest generation number representable by the file format. */
+	int GENERATION_MAX = 0x3FFFFFFF;
+
+	/**
+	 * Find the position of a commit in the graph.
+	 *
+	 * @param commit
+	 *            the commit to look for.
+	 * @return the position of the commit in the graph, or -1 if the commit is
+	 *         not stored in the graph.
+	 */
+	int findGraphPosition(AnyObjectId commit);
+
+	/**
+	 * Get the object id of the commit stored at a position.
+	 *
+	 * @param graphPos
+	 *            position in the graph, as returned by
+	 *            {@link #findGraphPosition(AnyObjectId)} or
+	 *            {@link CommitData#getParents()}.
+	 * @return the commit id.
+	 */
+	ObjectId getObjectId(int graphPos);
+
+	/**
+	 * Get the metadata of the commit stored at a position.
+	 *
+	 * @param graphPos
+	 *            position in the graph.
+	 * @return the commit metadata.
+	 */
+	CommitData getCommitData(int graphPos);
+
+	/**
+	 * Get the generation number of the commit stored at a position.
+	 * <p>
+	 * Cheaper than {@link #getCommitData(int)} as neither the tree nor the
+	 * parents are decoded.
+	 *
+	 * @param graphPos
+	 *            position in the graph.
+	 * @return the generation number, {@link #GENERATION_NOT_COMPUTED} if the
+	 *         writer did not compute it, or {@link #GENERATION_UNKNOWN} if the
+	 *         position is out of range.
+	 */
+	int getGeneration(int graphPos);
+
+	/**
+	 * Get the number of commits stored in the graph.
+	 *
+	 * @return the number of commits.
+	 */
+	long getCommitCnt();
+
+	/** Metadata of a single commit stored in the graph. */
+	interface CommitData {
+		/**
+		 * Get the root tree of the commit.
+		 *
+		 * @return the tree id.
+		 */
+		ObjectId getTree();
+
+		/**
+		 * Get the graph positions of the parents, in commit order.
+		 *
+		 * @return graph positions of the parents; empty for a root commit.
+		 */
+		int[] getParents();
+
+		/**
+		 * Get the committer time, in seconds since the epoch.
+		 *
+		 * @return the commit time.
+		 */
+		long getCommitTime();
+
+		/**
+		 * Get the generation number (topological level) of the commit.
+		 * <p>
+		 * A root commit has generation 1, any other commit has a generation
+		 * one larger than the maximum generation of its parents. A commit can
+		 * therefore never reach a commit with a larger generation number.
+		 *
+		 * @return the generation number, or
+		 *         {@link CommitGraph#GENERATION_NOT_COMPUTED}.
+		 */
+		int getGeneration();
+	}
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2019, Google LLC.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.commitgraph;
+
+import static org.eclipse.jgit.internal.storage.commitgraph.CommitGraphConstants.CHUNK_ID_COMMIT_DATA;
+import static org.eclipse.jgit.internal.storage.commitgraph.CommitGraphConstants.CHUNK_ID_EXTRA_EDGE_LIST;
+import static org.eclipse.jgit.internal.storage.commitgraph.CommitGraphConstants.CHUNK_ID_OID_FANOUT;
+import static org.eclipse.jgit.internal.storage.commitgraph.CommitGraphConstants.CHUNK_ID_OID_LOOKUP;
+import static org.eclipse.jgit.internal.storage.commitgraph.CommitGraphConstants.CHUNK_LOOKUP_WIDTH;
+import static org.eclipse.jgit.internal.storage.commitgraph.CommitGraphConstants.COMMIT_DATA_EXTRA_LENGTH;
+import static org.eclipse.jgit.internal.storage.commitgraph.CommitGraphConstants.COMMIT_GRAPH_MAGIC;
+import static org.eclipse.jgit.internal.storage.commitgraph.CommitGraphConstants.COMMIT_GRAPH_VERSION;
+import static org.eclipse.jgit.internal.storage.commitgraph.CommitGraphConstants.FANOUT;
+import static org.eclipse.jgit.internal.storage.commitgraph.CommitGraphConstants.FANOUT_LENGTH;
+import static org.eclipse.jgit.internal.storage.commitgraph.CommitGraphConstants.HEADER_LENGTH;
+import static org.eclipse.jgit.internal.storage.commitgraph.CommitGraphConstants.OID_HASH_VERSION;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.MessageFormat;
+
+import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.util.IO;
+import org.eclipse.jgit.util.NB;
+import org.eclipse.jgit.util.io.SilentFileInputStream;
+
+/**
+ * The loader returns the representation of the commit-graph file content.
+ */
+public class CommitGraphLoader {
+	/**
+	 * Open an existing commit-graph file for reading.
+	 * <p>
+	 * The format of the file will be automatically detected and a proper
+	 * access implementation for that format will be constructed and returned
+	 * to the caller. The file is not held open by the returned instance.
+	 *
+	 * @param graphFile
+	 *            existing commit-graph to read.
+	 * @return the commit-graph data.
+	 * @throws FileNotFoundException
+	 *             the file does not exist.
+	 * @throws java.io.IOException
+	 *             the file exists but could not be read due to security
+	 *             errors, unrecognized data version, or unexpected data
+	 *             corruption.
+	 */
+	public static CommitGraph open(File graphFile) throws IOException {
+		try (SilentFileInputStream fd = new SilentFileInputStream(
+				graphFile)) {
+			return read(fd);
+		} catch (FileNotFoundException e) {
+			throw e;
+		} catch (IOException ioe) {
+			throw new IOException(
+					MessageFormat.format(JGitText.get().unreadableCommitGraph,
+							graphFile.getAbsolutePath()),
+					ioe);
+		}
+	}
+
+	/**
+	 * Read an existing commit-graph file from a buffered stream.
+	 *
+	 * @param fd
+	 *            stream to read the commit-graph file from. The stream must
+	 *            be buffered as some small IOs are performed against the
+	 *            stream. The caller is responsible for closing the stream.
+	 * @return the commit-graph data.
+	 * @throws java.io.IOException
+	 *             the stream cannot be read, or does not contain a supported
+	 *             commit-graph.
+	 */
+	public static CommitGraph read(InputStream fd) throws IOException {
+		byte[] hdr = new byte[HEADER_LENGTH];
+		IO.readFully(fd, hdr, 0, hdr.length);
+
+		if (NB.decodeInt32(hdr, 0) != COMMIT_GRAPH_MAGIC) {
+			throw new IOException(JGitText.get().notACommitGraph);
+		}
+		int v = hdr[4];
+		if (v != COMMIT_GRAPH_VERSION) {
+			throw new IOException(MessageFormat.format(
+					JGitText.get().unsupportedCommitGraphVersion,
+					Integer.valueOf(v)));
+		}
+		int hashVersion = hdr[5];
+		if (hashVersion != OID_HASH_VERSION) {
+			throw new IOException(MessageFormat.format(
+					JGitText.get().unsupportedCommitGraphHashVersion,
+					Integer.valueOf(hashVersion)));
+		}
+		int numberOfChunks = hdr[6] & 0xff;
+
+		byte[] lookup = new byte[(numberOfChunks + 1) * CHUNK_LOOKUP_WIDTH];
+		IO.readFully(fd, lookup, 0, lookup.length);
+
+		byte[] oidFanout = null;
+		byte[] oidLookup = null;
+		byte[] commitData = null;
+		byte[] extraEdgeList = null;
+
+		// Chunks are stored back to back in the order of the lookup table;
+		// the terminating entry holds the offset of the trailing checksum.
+		long pos = HEADER_LENGTH + lookup.length;
+		for (int i = 0; i < numberOfChunks; i++) {
+			int p = i * CHUNK_LOOKUP_WIDTH;
+			int id = NB.decodeInt32(lookup, p);
+			long start = NB.decodeInt64(lookup, p + 4);
+			long end = NB.decodeInt64(lookup, p + 4 + CHUNK_LOOKUP_WIDTH);
+			if (start < pos || end < start) {
+				throw new IOException(MessageFormat.format(
+						JGitText.get().corruptCommitGraph,
+						Integer.toHexString(id)));
+			}
+			IO.skipFully(fd, start - pos);
+			long len = end - start;
+
+			switch (id) {
+			case CHUNK_ID_OID_FANOUT:
+				oidFanout = readChunk(fd, id, oidFanout, len);
+				break;
+			case CHUNK_ID_OID_LOOKUP:
+				oidLookup = readChunk(fd, id, oidLookup, len);
+				break;
+			case CHUNK_ID_COMMIT_DATA:
+				commitData = readChunk(fd, id, commitData, len);
+				break;
+			case CHUNK_ID_EXTRA_EDGE_LIST:
+				extraEdgeList = readChunk(fd, id, extraEdgeList, len);
+				break;
+			default:
+				// Optional chunks written by newer versions of Git (e.g.
+				// bloom filters or corrected commit dates) are not needed.
+				IO.skipFully(fd, len);
+				break;
+			}
+			pos = end;
+		}
+
+		if (oidFanout == null) {
+			throw chunkNeeded(CHUNK_ID_OID_FANOUT);
+		}
+		if (oidLookup == null) {
+			throw chunkNeeded(CHUNK_ID_OID_LOOKUP);
+		}
+		if (commitData == null) {
+			throw chunkNeeded(CHUNK_ID_COMMIT_DATA);
+		}
+
+		int[] fanout = new int[FANOUT];
+		if (oidFanout.length != FANOUT_LENGTH) {
+			throw corrupt(CHUNK_ID_OID_FANOUT);
+		}
+		for (int k = 0; k < FANOUT; k++) {
+			fanout[k] = NB.decodeInt32(oidFanout, k * 4);
+		}
+		int cnt = fanout[FANOUT - 1];
+		if (cnt < 0 || oidLookup.length != (long) cnt
+				* Constants.OBJECT_ID_LENGTH) {
+			throw corrupt(CHUNK_ID_OID_LOOKUP);
+		}
+		if (commitData.length != (long) cnt
+				* (Constants.OBJECT_ID_LENGTH + COMMIT_DATA_EXTRA_LENGTH)) {
+			throw corrupt(CHUNK_ID_COMMIT_DATA);
+		}
+		return new CommitGraphV1(fanout, oidLookup, commitData, extraEdgeList);
+	}
+
+	private static byte[] readChunk(InputStream fd, int id, byte[] current,
+			long len) throws IOException {
+		if (current != null) {
+			throw new IOException(MessageFormat.format(
+					JGitText.get().commitGraphChunkRepeated,
+					Integer.toHexString(id)));
+		}
+		if (len > Integer.MAX_VALUE - 8) { // http://stackoverflow.com/a/8381338
+			throw new IOException(
+					JGitText.get().commitGraphFileIsTooLargeForJgit);
+		}
+		byte[] buf = new byte[(int) len];
+		IO.readFully(fd, buf, 0, buf.length);
+		return buf;
+	}
+
+	private static IOException chunkNeeded(int id) {
+		return new IOException(MessageFormat.format(
+				JGitText.get().commitGraphChunkNeeded,
+				Integer.toHexString(id)));
+	}
+
+	private static IOException corrupt(int id) {
+		return new IOException(MessageFormat.format(
+				JGitText.get().corruptCommitGraph, Integer.toHexString(id)));
+	}
+
+	private CommitGraphLoader() {
+	}
+}
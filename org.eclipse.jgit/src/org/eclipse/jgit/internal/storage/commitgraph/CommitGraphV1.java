@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2019, Google LLC.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.commitgraph;
+
+import static org.eclipse.jgit.internal.storage.commitgraph.CommitGraphConstants.COMMIT_DATA_EXTRA_LENGTH;
+import static org.eclipse.jgit.internal.storage.commitgraph.CommitGraphConstants.GRAPH_EDGE_MASK;
+import static org.eclipse.jgit.internal.storage.commitgraph.CommitGraphConstants.GRAPH_EXTRA_EDGES_NEEDED;
+import static org.eclipse.jgit.internal.storage.commitgraph.CommitGraphConstants.GRAPH_LAST_EDGE;
+import static org.eclipse.jgit.internal.storage.commitgraph.CommitGraphConstants.GRAPH_NO_PARENT;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.util.NB;
+
+/**
+ * Support for the commit-graph v1 format.
+ */
+class CommitGraphV1 implements CommitGraph {
+	private static final int[] NO_PARENTS = {};
+
+	private static final int COMMIT_DATA_WIDTH = Constants.OBJECT_ID_LENGTH
+			+ COMMIT_DATA_EXTRA_LENGTH;
+
+	private final int[] fanout;
+
+	private final byte[] oidLookup;
+
+	private final byte[] commitData;
+
+	private final byte[] extraEdgeList;
+
+	CommitGraphV1(int[] fanout, byte[] oidLookup, byte[] commitData,
+			byte[] extraEdgeList) {
+		this.fanout = fanout;
+		this.oidLookup = oidLookup;
+		this.commitData = commitData;
+		this.extraEdgeList = extraEdgeList;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int findGraphPosition(AnyObjectId commit) {
+		int levelOne = commit.getFirstByte();
+		int low = levelOne == 0 ? 0 : fanout[levelOne - 1];
+		int high = fanout[levelOne];
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			int cmp = commit.compareTo(oidLookup,
+					mid * Constants.OBJECT_ID_LENGTH);
+			if (cmp < 0) {
+				high = mid;
+			} else if (cmp == 0) {
+				return mid;
+			} else {
+				low = mid + 1;
+			}
+		}
+		return -1;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public ObjectId getObjectId(int graphPos) {
+		if (graphPos < 0 || graphPos >= getCommitCnt()) {
+			return null;
+		}
+		return ObjectId.fromRaw(oidLookup,
+				graphPos * Constants.OBJECT_ID_LENGTH);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public CommitData getCommitData(int graphPos) {
+		if (graphPos < 0 || graphPos >= getCommitCnt()) {
+			return null;
+		}
+		int p = graphPos * COMMIT_DATA_WIDTH;
+		ObjectId tree = ObjectId.fromRaw(commitData, p);
+		p += Constants.OBJECT_ID_LENGTH;
+
+		int p1 = NB.decodeInt32(commitData, p);
+		int p2 = NB.decodeInt32(commitData, p + 4);
+		int[] parents;
+		if (p1 == GRAPH_NO_PARENT) {
+			parents = NO_PARENTS;
+		} else if (p2 == GRAPH_NO_PARENT) {
+			parents = new int[] { p1 };
+		} else if ((p2 & GRAPH_EXTRA_EDGES_NEEDED) == 0) {
+			parents = new int[] { p1, p2 };
+		} else {
+			parents = readOctopusParents(p1, p2 & GRAPH_EDGE_MASK);
+		}
+
+		int genAndTime = NB.decodeInt32(commitData, p + 8);
+		int generation = genAndTime >>> 2;
+		long commitTime = ((genAndTime & 0x3L) << 32)
+				| NB.decodeUInt32(commitData, p + 12);
+		return new CommitDataImpl(tree, parents, commitTime, generation);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int getGeneration(int graphPos) {
+		if (graphPos < 0 || graphPos >= getCommitCnt()) {
+			return GENERATION_UNKNOWN;
+		}
+		int p = graphPos * COMMIT_DATA_WIDTH + Constants.OBJECT_ID_LENGTH + 8;
+		return NB.decodeInt32(commitData, p) >>> 2;
+	}
+
+	private int[] readOctopusParents(int first, int edge) {
+		if (extraEdgeList == null) {
+			return new int[] { first };
+		}
+		int cnt = 0;
+		while (((edge + cnt) * 4) < extraEdgeList.length) {
+			int v = NB.decodeInt32(extraEdgeList, (edge + cnt) * 4);
+			cnt++;
+			if ((v & GRAPH_LAST_EDGE) != 0) {
+				break;
+			}
+		}
+		int[] parents = new int[cnt + 1];
+		parents[0] = first;
+		for (int i = 0; i < cnt; i++) {
+			parents[i + 1] = NB.decodeInt32(extraEdgeList, (edge + i) * 4)
+					& GRAPH_EDGE_MASK;
+		}
+		return parents;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getCommitCnt() {
+		return fanout[fanout.length - 1];
+	}
+
+	private static class CommitDataImpl implements CommitData {
+		private final ObjectId tree;
+
+		private final int[] parents;
+
+		private final long commitTime;
+
+		private final int generation;
+
+		CommitDataImpl(ObjectId tree, int[] parents, long commitTime,
+				int generation) {
+			this.tree = tree;
+			this.parents = parents;
+			this.commitTime = commitTime;
+			this.generation = generation;
+		}
+
+		@Override
+		public ObjectId getTree() {
+			return tree;
+		}
+
+		@Override
+		public int[] getParents() {
+			return parents;
+		}
+
+		@Override
+		public long getCommitTime() {
+			return commitTime;
+		}
+
+		@Override
+		public int getGeneration() {
+			return generation;
+		}
+	}
+}
@@ -0,0 +1,343 @@
+/*
+ * Copyright (C) 2019, Google LLC.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.commitgraph;
+
+import static org.eclipse.jgit.internal.storage.commitgraph.CommitGraphConstants.CHUNK_ID_COMMIT_DATA;
+import static org.eclipse.jgit.internal.storage.commitgraph.CommitGraphConstants.CHUNK_ID_EXTRA_EDGE_LIST;
+import static org.eclipse.jgit.internal.storage.commitgraph.CommitGraphConstants.CHUNK_ID_OID_FANOUT;
+import static org.eclipse.jgit.internal.storage.commitgraph.CommitGraphConstants.CHUNK_ID_OID_LOOKUP;
+import static org.eclipse.jgit.internal.storage.commitgraph.CommitGraphConstants.CHUNK_LOOKUP_WIDTH;
+import static org.eclipse.jgit.internal.storage.commitgraph.CommitGraphConstants.COMMIT_DATA_EXTRA_LENGTH;
+import static org.eclipse.jgit.internal.storage.commitgraph.CommitGraphConstants.COMMIT_GRAPH_MAGIC;
+import static org.eclipse.jgit.internal.storage.commitgraph.CommitGraphConstants.COMMIT_GRAPH_VERSION;
+import static org.eclipse.jgit.internal.storage.commitgraph.CommitGraphConstants.FANOUT;
+import static org.eclipse.jgit.internal.storage.commitgraph.CommitGraphConstants.FANOUT_LENGTH;
+import static org.eclipse.jgit.internal.storage.commitgraph.CommitGraphConstants.GRAPH_EXTRA_EDGES_NEEDED;
+import static org.eclipse.jgit.internal.storage.commitgraph.CommitGraphConstants.GRAPH_LAST_EDGE;
+import static org.eclipse.jgit.internal.storage.commitgraph.CommitGraphConstants.GRAPH_NO_PARENT;
+import static org.eclipse.jgit.internal.storage.commitgraph.CommitGraphConstants.HEADER_LENGTH;
+import static org.eclipse.jgit.internal.storage.commitgraph.CommitGraphConstants.OID_HASH_VERSION;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevObject;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.util.NB;
+
+/**
+ * Writes a commit-graph formatted file.
+ * <p>
+ * The writer first collects every commit reachable from a set of tips with
+ * {@link #prepareCommitGraph(ProgressMonitor, Set)}, computing the generation
+ * number of each commit, and then serializes the graph with
+ * {@link #writeCommitGraph(ProgressMonitor, OutputStream)}.
+ */
+public class CommitGraphWriter {
+	private static final int[] NO_PARENTS = {};
+
+	private final ObjectReader reader;
+
+	private RevCommit[] commits = {};
+
+	private int[][] parents = {};
+
+	private int[] generations = {};
+
+	private int extraEdgeCnt;
+
+	/**
+	 * Create a writer for a commit-graph.
+	 *
+	 * @param reader
+	 *            reader used to parse the commits. The reader is not closed
+	 *            by the writer.
+	 */
+	public CommitGraphWriter(ObjectReader reader) {
+		this.reader = reader;
+	}
+
+	/**
+	 * Collect all commits reachable from {@code tips}.
+	 *
+	 * @param pm
+	 *            progress monitor to report the number of commits found.
+	 * @param tips
+	 *            starting points of the walk. Annotated tags are peeled,
+	 *            trees and blobs are ignored.
+	 * @throws java.io.IOException
+	 *             a commit could not be read from the object database.
+	 */
+	public void prepareCommitGraph(ProgressMonitor pm,
+			Set<? extends ObjectId> tips) throws IOException {
+		List<RevCommit> found = new ArrayList<>();
+		@SuppressWarnings("resource") // The reader is owned by the caller.
+		RevWalk walk = new RevWalk(reader);
+		walk.setRetainBody(false);
+		for (ObjectId tip : tips) {
+			RevObject o = walk.peel(walk.parseAny(tip));
+			if (o instanceof RevCommit) {
+				walk.markStart((RevCommit) o);
+			}
+		}
+
+		pm.beginTask(JGitText.get().findingCommitsForCommitGraph,
+				ProgressMonitor.UNKNOWN);
+		for (RevCommit c; (c = walk.next()) != null;) {
+			found.add(c);
+			pm.update(1);
+		}
+		pm.endTask();
+
+		commits = found.toArray(new RevCommit[0]);
+		Arrays.sort(commits);
+
+		parents = new int[commits.length][];
+		extraEdgeCnt = 0;
+		for (int i = 0; i < commits.length; i++) {
+			RevCommit c = commits[i];
+			int n = c.getParentCount();
+			if (n == 0) {
+				parents[i] = NO_PARENTS;
+				continue;
+			}
+			int[] p = new int[n];
+			for (int k = 0; k < n; k++) {
+				p[k] = Arrays.binarySearch(commits, c.getParent(k));
+			}
+			parents[i] = p;
+			if (n > 2) {
+				extraEdgeCnt += n - 1;
+			}
+		}
+		computeGenerations(pm);
+	}
+
+	private void computeGenerations(ProgressMonitor pm) {
+		pm.beginTask(JGitText.get().computingCommitGeneration, commits.length);
+		generations = new int[commits.length];
+		int[] stack = new int[Math.max(commits.length, 1)];
+		for (int i = 0; i < commits.length; i++) {
+			if (generations[i] != 0) {
+				continue;
+			}
+			int top = 0;
+			stack[top++] = i;
+			while (top > 0) {
+				int pos = stack[top - 1];
+				if (generations[pos] != 0) {
+					top--;
+					continue;
+				}
+				int max = 0;
+				boolean ready = true;
+				for (int p : parents[pos]) {
+					int g = generations[p];
+					if (g == 0) {
+						if (top == stack.length) {
+							stack = Arrays.copyOf(stack, top * 2);
+						}
+						stack[top++] = p;
+						ready = false;
+					} else if (g > max) {
+						max = g;
+					}
+				}
+				if (ready) {
+					generations[pos] = Math.min(max + 1,
+							CommitGraph.GENERATION_MAX);
+					top--;
+					pm.update(1);
+				}
+			}
+		}
+		pm.endTask();
+	}
+
+	/**
+	 * Get the number of commits which will be written.
+	 *
+	 * @return number of commits collected by
+	 *         {@link #prepareCommitGraph(ProgressMonitor, Set)}.
+	 */
+	public int getCommitCount() {
+		return commits.length;
+	}
+
+	/**
+	 * Write the prepared commit-graph to the supplied stream.
+	 *
+	 * @param pm
+	 *            progress monitor to report the number of commits written.
+	 * @param dst
+	 *            output stream the commit-graph is written to. The stream is
+	 *            flushed but not closed.
+	 * @throws java.io.IOException
+	 *             the stream could not be written to.
+	 */
+	public void writeCommitGraph(ProgressMonitor pm, OutputStream dst)
+			throws IOException {
+		DigestOutputStream out = new DigestOutputStream(
+				dst instanceof BufferedOutputStream ? dst
+						: new BufferedOutputStream(dst),
+				Constants.newMessageDigest());
+		int numChunks = extraEdgeCnt > 0 ? 4 : 3;
+		long oidLookupLength = (long) commits.length
+				* Constants.OBJECT_ID_LENGTH;
+		long commitDataLength = (long) commits.length
+				* (Constants.OBJECT_ID_LENGTH + COMMIT_DATA_EXTRA_LENGTH);
+
+		byte[] tmp = new byte[Math.max(HEADER_LENGTH,
+				Constants.OBJECT_ID_LENGTH + COMMIT_DATA_EXTRA_LENGTH)];
+		NB.encodeInt32(tmp, 0, COMMIT_GRAPH_MAGIC);
+		tmp[4] = COMMIT_GRAPH_VERSION;
+		tmp[5] = OID_HASH_VERSION;
+		tmp[6] = (byte) numChunks;
+		tmp[7] = 0; // number of base commit-graphs
+		out.write(tmp, 0, HEADER_LENGTH);
+
+		long offset = HEADER_LENGTH + (numChunks + 1) * CHUNK_LOOKUP_WIDTH;
+		offset = writeChunkLookup(out, CHUNK_ID_OID_FANOUT, offset,
+				FANOUT_LENGTH);
+		offset = writeChunkLookup(out, CHUNK_ID_OID_LOOKUP, offset,
+				oidLookupLength);
+		offset = writeChunkLookup(out, CHUNK_ID_COMMIT_DATA, offset,
+				commitDataLength);
+		if (extraEdgeCnt > 0) {
+			offset = writeChunkLookup(out, CHUNK_ID_EXTRA_EDGE_LIST, offset,
+					extraEdgeCnt * 4L);
+		}
+		writeChunkLookup(out, 0, offset, 0);
+
+		writeFanout(out, tmp);
+		for (RevCommit c : commits) {
+			c.copyRawTo(out);
+		}
+
+		pm.beginTask(JGitText.get().writingOutCommitGraph, commits.length);
+		int edge = 0;
+		for (int i = 0; i < commits.length; i++) {
+			RevCommit c = commits[i];
+			c.getTree().copyRawTo(tmp, 0);
+			int[] p = parents[i];
+			int p1 = p.length > 0 ? p[0] : GRAPH_NO_PARENT;
+			int p2;
+			if (p.length < 2) {
+				p2 = GRAPH_NO_PARENT;
+			} else if (p.length == 2) {
+				p2 = p[1];
+			} else {
+				p2 = GRAPH_EXTRA_EDGES_NEEDED | edge;
+				edge += p.length - 1;
+			}
+			int ptr = Constants.OBJECT_ID_LENGTH;
+			NB.encodeInt32(tmp, ptr, p1);
+			NB.encodeInt32(tmp, ptr + 4, p2);
+
+			long time = c.getCommitTime() & 0x3FFFFFFFFL;
+			NB.encodeInt32(tmp, ptr + 8,
+					(generations[i] << 2) | (int) (time >>> 32));
+			NB.encodeInt32(tmp, ptr + 12, (int) time);
+			out.write(tmp, 0, ptr + COMMIT_DATA_EXTRA_LENGTH);
+			pm.update(1);
+		}
+
+		if (extraEdgeCnt > 0) {
+			for (int[] p : parents) {
+				if (p.length <= 2) {
+					continue;
+				}
+				for (int k = 1; k < p.length; k++) {
+					int v = p[k];
+					if (k == p.length - 1) {
+						v |= GRAPH_LAST_EDGE;
+					}
+					NB.encodeInt32(tmp, 0, v);
+					out.write(tmp, 0, 4);
+				}
+			}
+		}
+
+		out.on(false);
+		out.write(out.getMessageDigest().digest());
+		out.flush();
+		pm.endTask();
+	}
+
+	private static long writeChunkLookup(OutputStream out, int id,
+			long offset, long length) throws IOException {
+		byte[] buf = new byte[CHUNK_LOOKUP_WIDTH];
+		NB.encodeInt32(buf, 0, id);
+		NB.encodeInt64(buf, 4, offset);
+		out.write(buf);
+		return offset + length;
+	}
+
+	private void writeFanout(OutputStream out, byte[] tmp)
+			throws IOException {
+		int[] fanout = new int[FANOUT];
+		for (RevCommit c : commits) {
+			fanout[c.getFirstByte() & 0xff]++;
+		}
+		for (int i = 1; i < FANOUT; i++) {
+			fanout[i] += fanout[i - 1];
+		}
+		for (int n : fanout) {
+			NB.encodeInt32(tmp, 0, n);
+			out.write(tmp, 0, 4);
+		}
+	}
+}
@@ -47,9 +47,13 @@
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import org.eclipse.jgit.errors.PackInvalidException;
 import org.eclipse.jgit.internal.storage.pack.PackExt;
+import org.eclipse.jgit.util.LongList;
 
 /** Block based file stored in {@link DfsBlockCache}. */
 abstract class BlockBasedFile {
@@ -196,6 +200,73 @@ DfsBlock readOneBlock(long pos, DfsReader ctx, ReadableChannel rc)
 		}
 	}
 
+	/**
+	 * Load blocks into the cache with one vectored read.
+	 * <p>
+	 * Blocks already in the cache, and blocks found to be truncated, are
+	 * skipped; a reader pinning them later loads them itself.
+	 *
+	 * @param positions
+	 *            positions within the file of the blocks to load.
+	 * @param ctx
+	 *            reader to open the file with.
+	 * @throws IOException
+	 *             the file cannot be read.
+	 */
+	void loadBlocks(LongList positions, DfsReader ctx) throws IOException {
+		if (invalid) {
+			return;
+		}
+		try (ReadableChannel rc = ctx.db.openFile(desc, ext)) {
+			int size = blockSize(rc);
+			long len = length;
+			if (len < 0) {
+				len = rc.size();
+				if (0 <= len)
+					length = len;
+			}
+
+			List<ReadableChannel.Range> ranges = new ArrayList<>(
+					positions.size());
+			for (int i = 0; i < positions.size(); i++) {
+				long pos = (positions.get(i) / size) * size;
+				int n = size;
+				if (0 <= len) {
+					if (len <= pos)
+						continue;
+					n = (int) Math.min(size, len - pos);
+				}
+				if (!cache.contains(key, pos)) {
+					ranges.add(new ReadableChannel.Range(pos,
+							ByteBuffer.allocate(n)));
+				}
+			}
+			if (ranges.isEmpty()) {
+				return;
+			}
+
+			ctx.stats.readBlock += ranges.size();
+			long start = System.nanoTime();
+			try {
+				rc.readRanges(ranges);
+			} finally {
+				ctx.stats.readBlockMicros += elapsedMicros(start);
+			}
+			for (ReadableChannel.Range r : ranges) {
+				ByteBuffer buf = r.getBuffer();
+				int cnt = buf.position();
+				ctx.stats.readBlockBytes += cnt;
+				byte[] b = buf.array();
+				if (cnt == 0 || (cnt != b.length && 0 <= len)) {
+					continue;
+				} else if (cnt != b.length) {
+					b = Arrays.copyOf(b, cnt);
+				}
+				cache.put(new DfsBlock(key, r.getPosition(), b));
+			}
+		}
+	}
+
 	static int read(ReadableChannel rc, ByteBuffer buf) throws IOException {
 		int n;
 		do {
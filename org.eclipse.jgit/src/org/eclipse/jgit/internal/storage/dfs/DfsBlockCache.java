@@ -45,6 +45,11 @@
 package org.eclipse.jgit.internal.storage.dfs;
 
 import java.io.IOException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.atomic.AtomicReferenceArray;
@@ -74,7 +79,10 @@
  * typically doesn't yield a corresponding benefit to the application. This
  * cache implements a clock replacement algorithm, giving each block one chance
  * to have been accessed during a sweep of the cache to save itself from
- * eviction.
+ * eviction. The {@link DfsBlockCacheConfig.EvictionPolicy} may grant blocks of
+ * some pack file extensions more than one sweep, and per extension budgets
+ * ({@link DfsBlockCacheConfig#setPackExtBlockLimit(PackExt, long)}) make an
+ * extension over its budget evict its own blocks first.
  * <p>
  * Entities created by the cache are held under hard references, preventing the
  * Java VM from clearing anything. Blocks are discarded by the replacement
@@ -143,6 +151,21 @@ public static DfsBlockCache getInstance() {
 	/** Maximum number of bytes the cache should hold. */
 	private final long maxBytes;
 
+	/**
+	 * Maximum number of bytes each pack file extension may hold, indexed by
+	 * {@link PackExt#getPosition()}; 0 if only bounded by {@link #maxBytes}.
+	 */
+	private final long[] maxExtBytes;
+
+	/** Decides how many clock sweeps an accessed block survives. */
+	private final DfsBlockCacheConfig.EvictionPolicy evictionPolicy;
+
+	/** Sweeps an accessed block survives, by {@link PackExt#getPosition()}. */
+	private final int[] hotCounts;
+
+	/** Largest value of {@link #hotCounts}. */
+	private final int maxHotCount;
+
 	/** Pack files smaller than this size can be copied through the cache. */
 	private final long maxStreamThroughCache;
 
@@ -191,9 +214,18 @@ public static DfsBlockCache getInstance() {
 	 */
 	private final Consumer<Long> refLockWaitTime;
 
+	/**
+	 * Threads of {@link DfsPrefetcher}; tasks submitted while all are busy are
+	 * rejected.
+	 */
+	private final ThreadPoolExecutor prefetchExecutor;
+
 	/** Current position of the clock. */
 	private Ref clockHand;
 
+	/** Number of entries in the clock, including {@link #clockHand}. */
+	private int clockSize;
+
 	@SuppressWarnings("unchecked")
 	private DfsBlockCache(DfsBlockCacheConfig cfg) {
 		tableSize = tableSize(cfg);
@@ -212,6 +244,18 @@ private DfsBlockCache(DfsBlockCacheConfig cfg) {
 		}
 
 		maxBytes = cfg.getBlockLimit();
+		PackExt[] exts = PackExt.values();
+		maxExtBytes = new long[exts.length];
+		evictionPolicy = cfg.getEvictionPolicy();
+		hotCounts = new int[exts.length];
+		int maxHot = 1;
+		for (PackExt ext : exts) {
+			int pos = ext.getPosition();
+			maxExtBytes[pos] = cfg.getPackExtBlockLimit(ext);
+			hotCounts[pos] = Math.max(1, evictionPolicy.getHotCount(ext));
+			maxHot = Math.max(maxHot, hotCounts[pos]);
+		}
+		maxHotCount = maxHot;
 		maxStreamThroughCache = (long) (maxBytes * cfg.getStreamRatio());
 		blockSize = cfg.getBlockSize();
 		blockSizeShift = Integer.numberOfTrailingZeros(blockSize);
@@ -222,6 +266,7 @@ private DfsBlockCache(DfsBlockCacheConfig cfg) {
 				DfsStreamKey.of(new DfsRepositoryDescription(none), none, null),
 				-1, 0, null);
 		clockHand.next = clockHand;
+		clockSize = 1;
 
 		statHit = new AtomicReference<>(newCounters());
 		statMiss = new AtomicReference<>(newCounters());
@@ -229,6 +274,16 @@ private DfsBlockCache(DfsBlockCacheConfig cfg) {
 		liveBytes = new AtomicReference<>(newCounters());
 
 		refLockWaitTime = cfg.getRefLockWaitTimeConsumer();
+
+		int threads = cfg.getPrefetchThreads();
+		prefetchExecutor = new ThreadPoolExecutor(threads, threads, 60,
+				TimeUnit.SECONDS, new SynchronousQueue<>(),
+				new PrefetchThreadFactory());
+		prefetchExecutor.allowCoreThreadTimeOut(true);
+	}
+
+	ThreadPoolExecutor getPrefetchExecutor() {
+		return prefetchExecutor;
 	}
 
 	boolean shouldCopyThroughCache(long length) {
@@ -449,37 +504,20 @@ DfsBlock getOrLoad(BlockBasedFile file, long position, DfsReader ctx,
 		return getOrLoad(file, requestedPosition, ctx, fileChannel);
 	}
 
-	@SuppressWarnings("unchecked")
 	private void reserveSpace(int reserve, DfsStreamKey key) {
 		clockLock.lock();
 		try {
+			int pos = key.packExtPos;
+			long maxExt = pos < maxExtBytes.length ? maxExtBytes[pos] : 0;
+			if (maxExt > 0) {
+				long extLive = getStat(liveBytes, key).get() + reserve;
+				if (maxExt < extLive) {
+					evict(pos, extLive - maxExt);
+				}
+			}
 			long live = LongStream.of(getCurrentSize()).sum() + reserve;
 			if (maxBytes < live) {
-				Ref prev = clockHand;
-				Ref hand = clockHand.next;
-				do {
-					if (hand.hot) {
-						// Value was recently touched. Clear
-						// hot and give it another chance.
-						hand.hot = false;
-						prev = hand;
-						hand = hand.next;
-						continue;
-					} else if (prev == hand)
-						break;
-
-					// No recent access since last scan, kill
-					// value and remove from clock.
-					Ref dead = hand;
-					hand = hand.next;
-					prev.next = hand;
-					dead.next = null;
-					dead.value = null;
-					live -= dead.size;
-					getStat(liveBytes, dead.key).addAndGet(-dead.size);
-					getStat(statEvict, dead.key).incrementAndGet();
-				} while (maxBytes < live);
-				clockHand = prev;
+				evict(-1, live - maxBytes);
 			}
 			getStat(liveBytes, key).addAndGet(reserve);
 		} finally {
@@ -487,6 +525,70 @@ private void reserveSpace(int reserve, DfsStreamKey key) {
 		}
 	}
 
+	/**
+	 * Sweep the clock, evicting blocks until enough space was freed.
+	 * <p>
+	 * Must be called with {@link #clockLock} held. A block accessed since the
+	 * hand last passed it gets {@link #hotCounts} more sweeps before being
+	 * evicted.
+	 *
+	 * @param extPos
+	 *            only evict blocks of this {@link PackExt#getPosition()}; -1 to
+	 *            evict blocks of any extension.
+	 * @param need
+	 *            number of bytes to free.
+	 */
+	@SuppressWarnings("unchecked")
+	private void evict(int extPos, long need) {
+		// Bound the sweep in case too few blocks of extPos are evictable.
+		long visits = (long) clockSize * (maxHotCount + 1);
+		Ref prev = clockHand;
+		Ref hand = clockHand.next;
+		while (need > 0 && prev != hand && visits-- > 0) {
+			if (extPos >= 0 && hand.key.packExtPos != extPos) {
+				prev = hand;
+				hand = hand.next;
+				continue;
+			}
+			if (hand.hot) {
+				// Value was recently touched. Clear hot and give it
+				// another chance, or more as the policy decides.
+				hand.hot = false;
+				hand.sweeps = hotCount(hand.key.packExtPos) - 1;
+				prev = hand;
+				hand = hand.next;
+				continue;
+			} else if (hand.sweeps > 0) {
+				hand.sweeps--;
+				prev = hand;
+				hand = hand.next;
+				continue;
+			}
+
+			// No recent access since last scan, kill
+			// value and remove from clock.
+			Ref dead = hand;
+			hand = hand.next;
+			prev.next = hand;
+			dead.next = null;
+			dead.value = null;
+			clockSize--;
+			need -= dead.size;
+			getStat(liveBytes, dead.key).addAndGet(-dead.size);
+			getStat(statEvict, dead.key).incrementAndGet();
+		}
+		clockHand = prev;
+	}
+
+	private int hotCount(int extPos) {
+		if (extPos < hotCounts.length) {
+			return hotCounts[extPos];
+		}
+		// Extension registered after the cache was configured.
+		return Math.max(1,
+				evictionPolicy.getHotCount(PackExt.values()[extPos]));
+	}
+
 	private void creditSpace(int credit, DfsStreamKey key) {
 		clockLock.lock();
 		try {
@@ -507,6 +609,7 @@ private void addToClock(Ref ref, int credit) {
 			ref.next = ptr.next;
 			ptr.next = ref;
 			clockHand = ref;
+			clockSize++;
 		} finally {
 			clockLock.unlock();
 		}
@@ -725,6 +828,9 @@ private static final class HashEntry {
 		Ref next;
 		volatile boolean hot;
 
+		/** Sweeps left before eviction; guarded by the cache's clockLock. */
+		int sweeps;
+
 		Ref(DfsStreamKey key, long position, int size, T v) {
 			this.key = key;
 			this.position = position;
@@ -761,4 +867,17 @@ interface ReadableChannelSupplier {
 		 */
 		ReadableChannel get() throws IOException;
 	}
+
+	private static class PrefetchThreadFactory implements ThreadFactory {
+		private static final AtomicInteger cnt = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable r) {
+			int n = cnt.incrementAndGet();
+			Thread t = new Thread(r,
+					DfsPrefetcher.class.getSimpleName() + '-' + n);
+			t.setDaemon(true);
+			return t;
+		}
+	}
 }
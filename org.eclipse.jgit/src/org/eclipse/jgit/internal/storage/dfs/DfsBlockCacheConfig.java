@@ -48,12 +48,16 @@
 import static org.eclipse.jgit.lib.ConfigConstants.CONFIG_KEY_BLOCK_LIMIT;
 import static org.eclipse.jgit.lib.ConfigConstants.CONFIG_KEY_BLOCK_SIZE;
 import static org.eclipse.jgit.lib.ConfigConstants.CONFIG_KEY_CONCURRENCY_LEVEL;
+import static org.eclipse.jgit.lib.ConfigConstants.CONFIG_KEY_PREFETCH_THREADS;
 import static org.eclipse.jgit.lib.ConfigConstants.CONFIG_KEY_STREAM_RATIO;
 
 import java.text.MessageFormat;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.function.Consumer;
 
 import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.internal.storage.pack.PackExt;
 import org.eclipse.jgit.lib.Config;
 
 /**
@@ -71,6 +75,9 @@ public class DfsBlockCacheConfig {
 	private int blockSize;
 	private double streamRatio;
 	private int concurrencyLevel;
+	private int prefetchThreads;
+	private final Map<PackExt, Long> packExtBlockLimits = new HashMap<>();
+	private EvictionPolicy evictionPolicy = EvictionPolicy.CLOCK;
 
 	private Consumer<Long> refLock;
 
@@ -82,6 +89,7 @@ public DfsBlockCacheConfig() {
 		setBlockSize(64 * KB);
 		setStreamRatio(0.30);
 		setConcurrencyLevel(32);
+		setPrefetchThreads(8);
 	}
 
 	/**
@@ -148,6 +156,75 @@ public DfsBlockCacheConfig setBlockSize(int newSize) {
 		return this;
 	}
 
+	/**
+	 * Get the maximum number of bytes blocks of one pack file extension may
+	 * occupy.
+	 *
+	 * @param ext
+	 *            the pack file extension.
+	 * @return maximum number of bytes blocks of {@code ext} may occupy, or 0 if
+	 *         they are only bounded by {@link #getBlockLimit()}. <b>Default is
+	 *         0.</b>
+	 */
+	public long getPackExtBlockLimit(PackExt ext) {
+		Long limit = packExtBlockLimits.get(ext);
+		return limit != null ? limit.longValue() : 0;
+	}
+
+	/**
+	 * Set the maximum number of bytes blocks of one pack file extension may
+	 * occupy.
+	 * <p>
+	 * When loading a block of {@code ext} would exceed this budget, blocks of
+	 * the same extension are evicted first, so that a burst of reads of one
+	 * kind (typically {@link PackExt#PACK} data) cannot push out the indexes,
+	 * bitmaps and reftables every request needs. Budgets of all extensions
+	 * should add up to no more than {@link #getBlockLimit()} to fully isolate
+	 * them from each other.
+	 *
+	 * @param ext
+	 *            the pack file extension.
+	 * @param limit
+	 *            maximum number of bytes blocks of {@code ext} may occupy; 0
+	 *            to only bound them by {@link #getBlockLimit()}.
+	 * @return {@code this}
+	 */
+	public DfsBlockCacheConfig setPackExtBlockLimit(PackExt ext, long limit) {
+		if (limit < 0) {
+			throw new IllegalArgumentException(MessageFormat.format(
+					JGitText.get().packExtBlockLimitNegative,
+					ext.getExtension(), Long.valueOf(limit)));
+		}
+		if (limit == 0) {
+			packExtBlockLimits.remove(ext);
+		} else {
+			packExtBlockLimits.put(ext, Long.valueOf(limit));
+		}
+		return this;
+	}
+
+	/**
+	 * Get the policy deciding how long unused blocks stay in the cache.
+	 *
+	 * @return the eviction policy. <b>Default is
+	 *         {@link EvictionPolicy#CLOCK}.</b>
+	 */
+	public EvictionPolicy getEvictionPolicy() {
+		return evictionPolicy;
+	}
+
+	/**
+	 * Set the policy deciding how long unused blocks stay in the cache.
+	 *
+	 * @param policy
+	 *            the eviction policy.
+	 * @return {@code this}
+	 */
+	public DfsBlockCacheConfig setEvictionPolicy(EvictionPolicy policy) {
+		evictionPolicy = policy != null ? policy : EvictionPolicy.CLOCK;
+		return this;
+	}
+
 	/**
 	 * Get the estimated number of threads concurrently accessing the cache.
 	 *
@@ -172,6 +249,36 @@ public DfsBlockCacheConfig setConcurrencyLevel(
 		return this;
 	}
 
+	/**
+	 * Get the maximum number of threads loading blocks ahead of readers.
+	 *
+	 * @return the maximum number of threads loading blocks ahead of readers.
+	 *         <b>Default is 8.</b>
+	 * @since 5.4
+	 */
+	public int getPrefetchThreads() {
+		return prefetchThreads;
+	}
+
+	/**
+	 * Set the maximum number of threads loading blocks ahead of readers.
+	 * <p>
+	 * Threads are shared by all readers prefetching blocks (see
+	 * {@link DfsReaderOptions#setPrefetchDepth(int)}). Prefetching is only a
+	 * hint, so blocks requested while all threads are busy are not loaded
+	 * ahead of the reader.
+	 *
+	 * @param threads
+	 *            maximum number of threads; values smaller than 1 are treated
+	 *            as 1.
+	 * @return {@code this}
+	 * @since 5.4
+	 */
+	public DfsBlockCacheConfig setPrefetchThreads(int threads) {
+		prefetchThreads = Math.max(1, threads);
+		return this;
+	}
+
 	/**
 	 * Get highest percentage of {@link #getBlockLimit()} a single pack can
 	 * occupy while being copied by the pack reuse strategy.
@@ -257,6 +364,12 @@ public DfsBlockCacheConfig fromConfig(Config rc) {
 				CONFIG_KEY_CONCURRENCY_LEVEL,
 				getConcurrencyLevel()));
 
+		setPrefetchThreads(rc.getInt(
+				CONFIG_CORE_SECTION,
+				CONFIG_DFS_SECTION,
+				CONFIG_KEY_PREFETCH_THREADS,
+				getPrefetchThreads()));
+
 		String v = rc.getString(
 				CONFIG_CORE_SECTION,
 				CONFIG_DFS_SECTION,
@@ -272,6 +385,41 @@ public DfsBlockCacheConfig fromConfig(Config rc) {
 						CONFIG_KEY_STREAM_RATIO, v));
 			}
 		}
+
+		// Budgets are read from e.g. core.dfs.idxBlockLimit.
+		for (PackExt ext : PackExt.values()) {
+			setPackExtBlockLimit(ext, rc.getLong(
+					CONFIG_CORE_SECTION,
+					CONFIG_DFS_SECTION,
+					ext.getExtension() + CONFIG_KEY_BLOCK_LIMIT,
+					getPackExtBlockLimit(ext)));
+		}
 		return this;
 	}
+
+	/**
+	 * Policy deciding how long blocks stay in the
+	 * {@link org.eclipse.jgit.internal.storage.dfs.DfsBlockCache}.
+	 * <p>
+	 * The cache evicts with a clock algorithm: when space is needed the clock
+	 * hand sweeps over the cached blocks, and a block that was not accessed
+	 * since the hand last passed it is evicted. The policy decides how many
+	 * sweeps an accessed block survives, allowing expensive or frequently
+	 * needed blocks to stay resident longer than bulk pack data.
+	 */
+	@FunctionalInterface
+	public interface EvictionPolicy {
+		/** Classic clock, giving every accessed block one more sweep. */
+		EvictionPolicy CLOCK = ext -> 1;
+
+		/**
+		 * Get the number of clock sweeps a block survives after its last
+		 * access.
+		 *
+		 * @param ext
+		 *            extension of the file the block belongs to.
+		 * @return number of sweeps; values smaller than 1 are treated as 1.
+		 */
+		int getHotCount(PackExt ext);
+	}
 }
@@ -52,6 +52,7 @@
 import static org.eclipse.jgit.internal.storage.dfs.DfsObjDatabase.PackSource.UNREACHABLE_GARBAGE;
 import static org.eclipse.jgit.internal.storage.dfs.DfsPackCompactor.configureReftable;
 import static org.eclipse.jgit.internal.storage.pack.PackExt.BITMAP_INDEX;
+import static org.eclipse.jgit.internal.storage.pack.PackExt.INCREMENTAL_BITMAP_INDEX;
 import static org.eclipse.jgit.internal.storage.pack.PackExt.INDEX;
 import static org.eclipse.jgit.internal.storage.pack.PackExt.PACK;
 import static org.eclipse.jgit.internal.storage.pack.PackExt.REFTABLE;
@@ -402,6 +403,67 @@ public boolean pack(ProgressMonitor pm) throws IOException {
 		}
 	}
 
+	/**
+	 * Extend the bitmaps of the last garbage collection to recent history.
+	 * <p>
+	 * Packs created since the last garbage collection are compacted into a
+	 * single pack, which also carries a bitmap layer over the bitmap index of
+	 * the GC pack with a bitmap for every branch and tag tip. The GC pack is
+	 * not rewritten, making this much cheaper than {@link #pack(ProgressMonitor)}
+	 * while still letting fetches of recent tips be answered from bitmaps.
+	 * The layer is dropped by the next garbage collection.
+	 *
+	 * @param pm
+	 *            progress monitor to receive updates on, may be null.
+	 * @return true if a bitmap layer was written; false if there is no GC
+	 *         pack with bitmaps, or no new history to cover.
+	 * @throws java.io.IOException
+	 *             the packs cannot be compacted.
+	 */
+	public boolean refreshBitmaps(ProgressMonitor pm) throws IOException {
+		refdb.refresh();
+		DfsPackCompactor compactor = new DfsPackCompactor(repo);
+		boolean haveBitmaps = false;
+		try (DfsReader reader = objdb.newReader()) {
+			for (DfsPackFile pack : objdb.getPacks()) {
+				PackSource source = pack.getPackDescription().getPackSource();
+				if (source == GC || source == GC_REST) {
+					haveBitmaps |= pack.getBitmapIndex(reader) != null;
+					compactor.exclude(pack);
+				} else if (source == INSERT || source == RECEIVE
+						|| source == COMPACT) {
+					compactor.add(pack);
+				}
+			}
+		}
+		if (!haveBitmaps || compactor.getSourcePacks().isEmpty()) {
+			return false;
+		}
+
+		Set<ObjectId> tips = new HashSet<>();
+		for (Ref ref : refdb.getRefs()) {
+			if (ref.isSymbolic() || !(isHead(ref) || isTag(ref))) {
+				continue;
+			}
+			Ref peeled = refdb.peel(ref);
+			ObjectId id = peeled.getPeeledObjectId();
+			if (id == null) {
+				id = peeled.getObjectId();
+			}
+			if (id != null) {
+				tips.add(id);
+			}
+		}
+		compactor.setBitmapLayerTips(tips);
+		compactor.compact(pm);
+		for (DfsPackDescription desc : compactor.getNewPacks()) {
+			if (desc.hasFileExt(INCREMENTAL_BITMAP_INDEX)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
 	private Collection<Ref> getAllRefs() throws IOException {
 		Collection<Ref> refs = refdb.getRefs();
 		List<Ref> addl = refdb.getAdditionalRefs();
@@ -669,6 +731,7 @@ private PackWriter newPackWriter() {
 		PackWriter pw = new PackWriter(packConfig, ctx);
 		pw.setDeltaBaseAsOffset(true);
 		pw.setReuseDeltaCommits(false);
+		pw.setDeltaIslandRefs(refsBefore);
 		return pw;
 	}
 
@@ -45,6 +45,7 @@
 
 import static org.eclipse.jgit.internal.storage.dfs.DfsObjDatabase.PackSource.COMPACT;
 import static org.eclipse.jgit.internal.storage.dfs.DfsObjDatabase.PackSource.GC;
+import static org.eclipse.jgit.internal.storage.pack.PackExt.INCREMENTAL_BITMAP_INDEX;
 import static org.eclipse.jgit.internal.storage.pack.PackExt.INDEX;
 import static org.eclipse.jgit.internal.storage.pack.PackExt.PACK;
 import static org.eclipse.jgit.internal.storage.pack.PackExt.REFTABLE;
@@ -62,6 +63,8 @@
 
 import org.eclipse.jgit.errors.IncorrectObjectTypeException;
 import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.internal.storage.file.PackBitmapIndex;
+import org.eclipse.jgit.internal.storage.file.PackBitmapIndexLayerWriter;
 import org.eclipse.jgit.internal.storage.file.PackIndex;
 import org.eclipse.jgit.internal.storage.file.PackReverseIndex;
 import org.eclipse.jgit.internal.storage.pack.PackWriter;
@@ -106,6 +109,7 @@ public class DfsPackCompactor {
 
 	private int autoAddSize;
 	private ReftableConfig reftableConfig;
+	private Collection<? extends AnyObjectId> bitmapLayerTips;
 
 	private RevWalk rw;
 	private RevFlag added;
@@ -138,6 +142,27 @@ public DfsPackCompactor setReftableConfig(ReftableConfig cfg) {
 		return this;
 	}
 
+	/**
+	 * Set the commits to write bitmaps for in a bitmap layer.
+	 * <p>
+	 * When set, the compacted pack carries a bitmap layer extending the bitmap
+	 * index of the first pack not being compacted which has bitmaps (usually
+	 * the GC pack), with a bitmap for each commit of {@code tips} not already
+	 * covered by that index. Readers combine the layer with the base bitmaps
+	 * as long as the base pack exists. No layer is written if there is no
+	 * such base pack.
+	 *
+	 * @param tips
+	 *            commits to write bitmaps for; {@code null} (default) to not
+	 *            write a bitmap layer.
+	 * @return {@code this}
+	 */
+	public DfsPackCompactor setBitmapLayerTips(
+			Collection<? extends AnyObjectId> tips) {
+		bitmapLayerTips = tips;
+		return this;
+	}
+
 	/**
 	 * Add a pack to be compacted.
 	 * <p>
@@ -282,6 +307,9 @@ private void compactPacks(DfsReader ctx, ProgressMonitor pm)
 			try {
 				writePack(objdb, outDesc, pw, pm);
 				writeIndex(objdb, outDesc, pw);
+				if (bitmapLayerTips != null) {
+					writeBitmapLayer(objdb, outDesc, ctx, pm);
+				}
 
 				PackStatistics stats = pw.getStatistics();
 
@@ -497,6 +525,35 @@ private static void writeIndex(DfsObjDatabase objdb,
 		}
 	}
 
+	private void writeBitmapLayer(DfsObjDatabase objdb,
+			DfsPackDescription pack, DfsReader ctx, ProgressMonitor pm)
+			throws IOException {
+		for (DfsPackFile base : objdb.getPacks()) {
+			if (srcPacks.contains(base)) {
+				continue;
+			}
+			PackBitmapIndex idx = base.getBitmapIndex(ctx);
+			if (idx == null) {
+				continue;
+			}
+
+			PackBitmapIndexLayerWriter writer = new PackBitmapIndexLayerWriter(
+					idx, base.getPackDescription().getFileName(PACK));
+			if (writer.addBitmaps(ctx, bitmapLayerTips, pm) == 0) {
+				return;
+			}
+			try (DfsOutputStream out = objdb.writeFile(pack,
+					INCREMENTAL_BITMAP_INDEX)) {
+				CountingOutputStream cnt = new CountingOutputStream(out);
+				writer.write(cnt);
+				pack.addFileExt(INCREMENTAL_BITMAP_INDEX);
+				pack.setFileSize(INCREMENTAL_BITMAP_INDEX, cnt.getCount());
+				pack.setBlockSize(INCREMENTAL_BITMAP_INDEX, out.blockSize());
+			}
+			return;
+		}
+	}
+
 	private void writeReftable(DfsObjDatabase objdb, DfsPackDescription pack,
 			ReftableCompactor compact) throws IOException {
 		try (DfsOutputStream out = objdb.writeFile(pack, REFTABLE)) {
@@ -47,21 +47,25 @@
 
 import static org.eclipse.jgit.internal.storage.dfs.DfsObjDatabase.PackSource.UNREACHABLE_GARBAGE;
 import static org.eclipse.jgit.internal.storage.pack.PackExt.BITMAP_INDEX;
+import static org.eclipse.jgit.internal.storage.pack.PackExt.INCREMENTAL_BITMAP_INDEX;
 import static org.eclipse.jgit.internal.storage.pack.PackExt.INDEX;
 import static org.eclipse.jgit.internal.storage.pack.PackExt.PACK;
 
 import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.channels.Channels;
 import java.text.MessageFormat;
+import java.util.Collections;
 import java.util.Set;
 import java.util.zip.CRC32;
 import java.util.zip.DataFormatException;
 import java.util.zip.Inflater;
 
+import org.eclipse.jgit.annotations.Nullable;
 import org.eclipse.jgit.errors.CorruptObjectException;
 import org.eclipse.jgit.errors.LargeObjectException;
 import org.eclipse.jgit.errors.MissingObjectException;
@@ -69,9 +73,11 @@
 import org.eclipse.jgit.errors.StoredObjectRepresentationNotAvailableException;
 import org.eclipse.jgit.internal.JGitText;
 import org.eclipse.jgit.internal.storage.file.PackBitmapIndex;
+import org.eclipse.jgit.internal.storage.file.PackBitmapIndexLayer;
 import org.eclipse.jgit.internal.storage.file.PackIndex;
 import org.eclipse.jgit.internal.storage.file.PackReverseIndex;
 import org.eclipse.jgit.internal.storage.pack.BinaryDelta;
+import org.eclipse.jgit.internal.storage.pack.PackExt;
 import org.eclipse.jgit.internal.storage.pack.PackOutputStream;
 import org.eclipse.jgit.internal.storage.pack.StoredObjectRepresentation;
 import org.eclipse.jgit.lib.AbbreviatedObjectId;
@@ -106,6 +112,9 @@ public final class DfsPackFile extends BlockBasedFile {
 	/** Index of compressed bitmap mapping entire object graph. */
 	private volatile PackBitmapIndex bitmapIndex;
 
+	/** Bitmaps extending the bitmap index of another pack. */
+	private volatile PackBitmapIndexLayer bitmapLayer;
+
 	/**
 	 * Objects we have tried to read, and discovered to be corrupt.
 	 * <p>
@@ -201,17 +210,8 @@ private PackIndex idx(DfsReader ctx) throws IOException {
 								long start = System.nanoTime();
 								try (ReadableChannel rc = ctx.db.openFile(desc,
 										INDEX)) {
-									InputStream in = Channels
-											.newInputStream(rc);
-									int wantSize = 8192;
-									int bs = rc.blockSize();
-									if (0 < bs && bs < wantSize) {
-										bs = (wantSize / bs) * bs;
-									} else if (bs <= 0) {
-										bs = wantSize;
-									}
 									PackIndex idx = PackIndex.read(
-											new BufferedInputStream(in, bs));
+											openWholeFile(rc, INDEX, ctx));
 									int sz = (int) Math.min(
 											idx.getObjectCount() * REC_SIZE,
 											Integer.MAX_VALUE);
@@ -276,15 +276,8 @@ PackBitmapIndex getBitmapIndex(DfsReader ctx) throws IOException {
 							long size;
 							PackBitmapIndex bmidx;
 							try {
-								InputStream in = Channels.newInputStream(rc);
-								int wantSize = 8192;
-								int bs = rc.blockSize();
-								if (0 < bs && bs < wantSize) {
-									bs = (wantSize / bs) * bs;
-								} else if (bs <= 0) {
-									bs = wantSize;
-								}
-								in = new BufferedInputStream(in, bs);
+								InputStream in = openWholeFile(rc,
+										BITMAP_INDEX, ctx);
 								bmidx = PackBitmapIndex.read(in, idx, revidx);
 							} finally {
 								size = rc.position();
@@ -313,6 +306,90 @@ PackBitmapIndex getBitmapIndex(DfsReader ctx) throws IOException {
 		}
 	}
 
+	PackBitmapIndexLayer getBitmapLayer(DfsReader ctx) throws IOException {
+		if (invalid || isGarbage()
+				|| !desc.hasFileExt(INCREMENTAL_BITMAP_INDEX)) {
+			return null;
+		}
+
+		if (bitmapLayer != null) {
+			return bitmapLayer;
+		}
+
+		synchronized (initLock) {
+			if (bitmapLayer != null) {
+				return bitmapLayer;
+			}
+
+			DfsStreamKey layerKey = desc
+					.getStreamKey(INCREMENTAL_BITMAP_INDEX);
+			DfsBlockCache.Ref<PackBitmapIndexLayer> layerref = cache
+					.getOrLoadRef(layerKey, () -> {
+						ctx.stats.readBitmap++;
+						long start = System.nanoTime();
+						try (ReadableChannel rc = ctx.db.openFile(desc,
+								INCREMENTAL_BITMAP_INDEX)) {
+							long size;
+							PackBitmapIndexLayer layer;
+							try {
+								InputStream in = openWholeFile(rc,
+										INCREMENTAL_BITMAP_INDEX, ctx);
+								layer = PackBitmapIndexLayer.read(in);
+							} finally {
+								size = rc.position();
+								ctx.stats.readIdxBytes += size;
+								ctx.stats.readIdxMicros += elapsedMicros(start);
+							}
+							int sz = (int) Math.min(size, Integer.MAX_VALUE);
+							bitmapLayer = layer;
+							return new DfsBlockCache.Ref<>(layerKey, 0, sz,
+									layer);
+						} catch (EOFException e) {
+							throw new IOException(MessageFormat.format(
+									DfsText.get().shortReadOfIndex,
+									desc.getFileName(INCREMENTAL_BITMAP_INDEX)),
+									e);
+						} catch (IOException e) {
+							throw new IOException(MessageFormat.format(
+									DfsText.get().cannotReadIndex,
+									desc.getFileName(INCREMENTAL_BITMAP_INDEX)),
+									e);
+						}
+					});
+			PackBitmapIndexLayer layer = layerref.get();
+			if (bitmapLayer == null && layer != null) {
+				bitmapLayer = layer;
+			}
+			return bitmapLayer;
+		}
+	}
+
+	// Files no larger than the stream file threshold are fetched with a single
+	// ranged read rather than one read per buffer refill.
+	private InputStream openWholeFile(ReadableChannel rc, PackExt ext,
+			DfsReader ctx) throws IOException {
+		long size = desc.getFileSize(ext);
+		if (0 < size && size <= ctx.getOptions().getStreamFileThreshold()) {
+			ByteBuffer buf = ByteBuffer.allocate((int) size);
+			rc.readRanges(Collections
+					.singletonList(new ReadableChannel.Range(0, buf)));
+			if (buf.hasRemaining()) {
+				throw new EOFException();
+			}
+			return new ByteArrayInputStream(buf.array());
+		}
+
+		InputStream in = Channels.newInputStream(rc);
+		int wantSize = 8192;
+		int bs = rc.blockSize();
+		if (0 < bs && bs < wantSize) {
+			bs = (wantSize / bs) * bs;
+		} else if (bs <= 0) {
+			bs = wantSize;
+		}
+		return new BufferedInputStream(in, bs);
+	}
+
 	PackReverseIndex getReverseIdx(DfsReader ctx) throws IOException {
 		if (reverseIndex != null) {
 			return reverseIndex;
@@ -445,9 +522,35 @@ void copyPackAsIs(PackOutputStream out, DfsReader ctx) throws IOException {
 
 	private void copyPackThroughCache(PackOutputStream out, DfsReader ctx,
 			ReadableChannel rc) throws IOException {
+		int depth = ctx.getOptions().getPrefetchDepth();
+		if (depth == 0) {
+			copyPackThroughCache(out, ctx, rc, null);
+			return;
+		}
+		try (DfsPrefetcher prefetcher = new DfsPrefetcher(ctx, depth)) {
+			copyPackThroughCache(out, ctx, rc, prefetcher);
+		}
+	}
+
+	private void copyPackThroughCache(PackOutputStream out, DfsReader ctx,
+			ReadableChannel rc, @Nullable DfsPrefetcher prefetcher)
+			throws IOException {
 		long position = 12;
 		long remaining = length - (12 + 20);
+		long prefetched = position;
 		while (0 < remaining) {
+			if (prefetcher != null) {
+				prefetcher.advance(position);
+				int bs = blockSize > 0 ? blockSize : cache.getBlockSize();
+				if (prefetched <= position) {
+					prefetched = alignToBlock(position) + bs;
+				}
+				for (; !prefetcher.isFull() && prefetched < length - 20;
+						prefetched = alignToBlock(prefetched) + bs) {
+					prefetcher.prefetch(this, prefetched, prefetched);
+				}
+				prefetcher.flush();
+			}
 			DfsBlock b = cache.getOrLoad(this, position, ctx, () -> rc);
 			int ptr = (int) (position - b.start);
 			if (b.size() <= ptr) {
@@ -0,0 +1,273 @@
+/*
+ * Copyright (C) 2019, Google LLC.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.dfs;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.eclipse.jgit.internal.storage.pack.ObjectToPack;
+import org.eclipse.jgit.util.LongList;
+
+/**
+ * Loads blocks into the {@link DfsBlockCache} ahead of a reader.
+ * <p>
+ * Object stores with high per-request latency make a reader copying objects
+ * block by block spend most of its time waiting on sequential round trips.
+ * A prefetcher issues the reads of upcoming blocks in parallel on background
+ * threads, so they are already cached when the reader pins them. Requested
+ * blocks are batched by {@link #flush()} into one vectored read per file (see
+ * {@link ReadableChannel#readRanges(List)}). Each load uses its own
+ * {@link DfsReader}; errors are ignored as the reader will load the block
+ * again and report them. Loads run on the threads of the {@link DfsBlockCache}
+ * (see {@link DfsBlockCacheConfig#setPrefetchThreads(int)}); a load submitted
+ * while all of them are busy is dropped, leaving the reader to load its blocks.
+ * <p>
+ * Blocks are requested with a sequence number giving the order in which the
+ * reader will need them. At most {@code depth} blocks ahead of the sequence
+ * number last passed to {@link #advance(long)} are requested, bounding both
+ * the number of concurrent loads and the cache space used by blocks the
+ * reader does not need yet.
+ * <p>
+ * Instances are not thread-safe and belong to a single reader.
+ */
+final class DfsPrefetcher implements AutoCloseable {
+	/** Longest object header, including the base of a delta. */
+	private static final int MAX_HEADER = 32;
+
+	private final DfsObjDatabase db;
+
+	private final DfsBlockCache cache;
+
+	private final int depth;
+
+	private final ArrayDeque<Load> ahead;
+
+	private final List<Load> batch;
+
+	private BlockBasedFile lastFile;
+
+	private long lastPosition = -1;
+
+	private int nextObject;
+
+	private long nextObjectPosition = -1;
+
+	DfsPrefetcher(DfsReader ctx, int depth) {
+		this.db = ctx.db;
+		this.cache = DfsBlockCache.getInstance();
+		this.depth = depth;
+		this.ahead = new ArrayDeque<>(depth);
+		this.batch = new ArrayList<>(depth);
+	}
+
+	/**
+	 * Forget blocks needed before a point in the reader's order.
+	 *
+	 * @param sequence
+	 *            sequence number of the block the reader needs now.
+	 */
+	void advance(long sequence) {
+		while (!ahead.isEmpty() && ahead.peekFirst().sequence < sequence) {
+			ahead.removeFirst();
+		}
+	}
+
+	/**
+	 * Whether no more blocks can be requested until the reader advances.
+	 *
+	 * @return true if {@code depth} blocks are already requested ahead of the
+	 *         reader.
+	 */
+	boolean isFull() {
+		return ahead.size() >= depth;
+	}
+
+	/**
+	 * Request the block holding a position of a file.
+	 * <p>
+	 * The block is loaded once the request is sent by {@link #flush()}.
+	 *
+	 * @param file
+	 *            file to read.
+	 * @param position
+	 *            position within {@code file}.
+	 * @param sequence
+	 *            when the reader will need the block, relative to other
+	 *            requested blocks.
+	 */
+	void prefetch(BlockBasedFile file, long position, long sequence) {
+		long start = file.alignToBlock(position);
+		if (file == lastFile && start == lastPosition) {
+			return;
+		}
+		lastFile = file;
+		lastPosition = start;
+		if (file.invalid() || (0 <= file.length && file.length <= start)
+				|| cache.contains(file.key, start)) {
+			return;
+		}
+		Load l = new Load(file, start, sequence);
+		ahead.addLast(l);
+		batch.add(l);
+	}
+
+	/** Start loading the requested blocks, one vectored read per file. */
+	void flush() {
+		if (batch.isEmpty()) {
+			return;
+		}
+		Map<BlockBasedFile, List<Load>> byFile = new LinkedHashMap<>();
+		for (Load l : batch) {
+			byFile.computeIfAbsent(l.file, f -> new ArrayList<>()).add(l);
+		}
+		batch.clear();
+		for (Map.Entry<BlockBasedFile, List<Load>> e : byFile.entrySet()) {
+			BlockBasedFile file = e.getKey();
+			List<Load> loads = e.getValue();
+			LongList positions = new LongList(loads.size());
+			for (Load l : loads) {
+				positions.add(l.position);
+			}
+			Future<?> f;
+			try {
+				f = cache.getPrefetchExecutor()
+						.submit(() -> load(file, positions));
+			} catch (RejectedExecutionException busy) {
+				// All threads are busy; prefetching is only a hint.
+				continue;
+			}
+			for (Load l : loads) {
+				l.future = f;
+			}
+		}
+	}
+
+	/**
+	 * Start loading the blocks of objects following the one about to be
+	 * copied.
+	 * <p>
+	 * Only objects whose stored representation is copied as-is are read in
+	 * order; others are prefetched when their representation is selected.
+	 *
+	 * @param list
+	 *            objects being written, in order.
+	 * @param current
+	 *            index of the object in {@code list} about to be written.
+	 */
+	void prefetchObjects(List<ObjectToPack> list, int current) {
+		advance(current);
+		if (nextObject <= current) {
+			nextObject = current + 1;
+			nextObjectPosition = -1;
+		}
+		for (; nextObject < list.size(); nextObject++) {
+			DfsObjectToPack otp = (DfsObjectToPack) list.get(nextObject);
+			DfsPackFile pack = otp.pack;
+			if (pack == null || !otp.isReuseAsIs() || otp.isWritten()) {
+				continue;
+			}
+			long end = otp.offset + MAX_HEADER + otp.length;
+			long pos = nextObjectPosition < 0 ? otp.offset
+					: nextObjectPosition;
+			for (; pos < end; pos = pack.alignToBlock(pos)
+					+ blockSize(pack)) {
+				if (isFull()) {
+					nextObjectPosition = pos;
+					flush();
+					return;
+				}
+				prefetch(pack, pos, nextObject);
+			}
+			nextObjectPosition = -1;
+		}
+		flush();
+	}
+
+	private int blockSize(BlockBasedFile file) {
+		int size = file.blockSize;
+		return size > 0 ? size : cache.getBlockSize();
+	}
+
+	private void load(BlockBasedFile file, LongList positions) {
+		try (DfsReader ctx = db.newReader()) {
+			file.loadBlocks(positions, ctx);
+		} catch (IOException e) {
+			// The reader loads the block itself and reports the error.
+		}
+	}
+
+	/** Cancel loads which did not start yet. */
+	@Override
+	public void close() {
+		for (Load l : ahead) {
+			if (l.future != null) {
+				l.future.cancel(false);
+			}
+		}
+		ahead.clear();
+		batch.clear();
+	}
+
+	private static final class Load {
+		final BlockBasedFile file;
+
+		final long position;
+
+		final long sequence;
+
+		Future<?> future;
+
+		Load(BlockBasedFile file, long position, long sequence) {
+			this.file = file;
+			this.position = position;
+			this.sequence = sequence;
+		}
+	}
+}
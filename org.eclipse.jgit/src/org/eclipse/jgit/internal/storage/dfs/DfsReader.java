@@ -45,6 +45,7 @@
 package org.eclipse.jgit.internal.storage.dfs;
 
 import static org.eclipse.jgit.internal.storage.dfs.DfsObjDatabase.PackSource.UNREACHABLE_GARBAGE;
+import static org.eclipse.jgit.internal.storage.pack.PackExt.PACK;
 import static org.eclipse.jgit.lib.Constants.OBJECT_ID_LENGTH;
 
 import java.io.IOException;
@@ -67,6 +68,7 @@
 import org.eclipse.jgit.internal.storage.dfs.DfsObjDatabase.PackList;
 import org.eclipse.jgit.internal.storage.file.BitmapIndexImpl;
 import org.eclipse.jgit.internal.storage.file.PackBitmapIndex;
+import org.eclipse.jgit.internal.storage.file.PackBitmapIndexLayer;
 import org.eclipse.jgit.internal.storage.file.PackIndex;
 import org.eclipse.jgit.internal.storage.file.PackReverseIndex;
 import org.eclipse.jgit.internal.storage.pack.CachedPack;
@@ -149,11 +151,23 @@ public BitmapIndex getBitmapIndex() throws IOException {
 		for (DfsPackFile pack : db.getPacks()) {
 			PackBitmapIndex bitmapIndex = pack.getBitmapIndex(this);
 			if (bitmapIndex != null)
-				return new BitmapIndexImpl(bitmapIndex);
+				return new BitmapIndexImpl(withLayer(pack, bitmapIndex));
 		}
 		return null;
 	}
 
+	private PackBitmapIndex withLayer(DfsPackFile base,
+			PackBitmapIndex bitmapIndex) throws IOException {
+		String name = base.getPackDescription().getFileName(PACK);
+		for (DfsPackFile pack : db.getPacks()) {
+			PackBitmapIndexLayer layer = pack.getBitmapLayer(this);
+			if (layer != null && layer.isLayerOf(name, bitmapIndex)) {
+				return layer.layerOver(bitmapIndex);
+			}
+		}
+		return bitmapIndex;
+	}
+
 	/** {@inheritDoc} */
 	@Override
 	public Collection<CachedPack> getCachedPacksAndUpdate(
@@ -674,8 +688,19 @@ public void copyObjectAsIs(PackOutputStream out, ObjectToPack otp,
 	@Override
 	public void writeObjects(PackOutputStream out, List<ObjectToPack> list)
 			throws IOException {
-		for (ObjectToPack otp : list)
-			out.writeObject(otp);
+		int depth = getOptions().getPrefetchDepth();
+		if (depth == 0) {
+			for (ObjectToPack otp : list)
+				out.writeObject(otp);
+			return;
+		}
+
+		try (DfsPrefetcher prefetcher = new DfsPrefetcher(this, depth)) {
+			for (int i = 0; i < list.size(); i++) {
+				prefetcher.prefetchObjects(list, i);
+				out.writeObject(list.get(i));
+			}
+		}
 	}
 
 	/** {@inheritDoc} */
@@ -46,6 +46,7 @@
 import static org.eclipse.jgit.lib.ConfigConstants.CONFIG_CORE_SECTION;
 import static org.eclipse.jgit.lib.ConfigConstants.CONFIG_DFS_SECTION;
 import static org.eclipse.jgit.lib.ConfigConstants.CONFIG_KEY_DELTA_BASE_CACHE_LIMIT;
+import static org.eclipse.jgit.lib.ConfigConstants.CONFIG_KEY_PREFETCH_DEPTH;
 import static org.eclipse.jgit.lib.ConfigConstants.CONFIG_KEY_STREAM_BUFFER;
 import static org.eclipse.jgit.lib.ConfigConstants.CONFIG_KEY_STREAM_FILE_TRESHOLD;
 
@@ -67,6 +68,8 @@ public class DfsReaderOptions {
 
 	private int streamPackBufferSize;
 
+	private int prefetchDepth;
+
 	/**
 	 * Create a default reader configuration.
 	 */
@@ -145,6 +148,35 @@ public DfsReaderOptions setStreamPackBufferSize(int bufsz) {
 		return this;
 	}
 
+	/**
+	 * Get number of blocks to read ahead of the writer when copying objects
+	 * into a pack.
+	 *
+	 * @return number of blocks to read ahead of the writer when copying
+	 *         objects into a pack. If 0 blocks are only read when needed.
+	 */
+	public int getPrefetchDepth() {
+		return prefetchDepth;
+	}
+
+	/**
+	 * Set number of blocks to read ahead of the writer when copying objects
+	 * into a pack.
+	 * <p>
+	 * Blocks holding the next objects of the pack being written are loaded
+	 * into the {@link DfsBlockCache} by background threads while the current
+	 * object is written, hiding the latency of a remote object store. Each
+	 * reader has at most about this many blocks in flight.
+	 *
+	 * @param depth
+	 *            number of blocks to read ahead; 0 disables prefetching.
+	 * @return {@code this}
+	 */
+	public DfsReaderOptions setPrefetchDepth(int depth) {
+		prefetchDepth = Math.max(0, depth);
+		return this;
+	}
+
 	/**
 	 * Update properties by setting fields from the configuration.
 	 * <p>
@@ -177,6 +209,12 @@ public DfsReaderOptions fromConfig(Config rc) {
 				CONFIG_DFS_SECTION,
 				CONFIG_KEY_STREAM_BUFFER,
 				getStreamPackBufferSize()));
+
+		setPrefetchDepth(rc.getInt(
+				CONFIG_CORE_SECTION,
+				CONFIG_DFS_SECTION,
+				CONFIG_KEY_PREFETCH_DEPTH,
+				getPrefetchDepth()));
 		return this;
 	}
 }
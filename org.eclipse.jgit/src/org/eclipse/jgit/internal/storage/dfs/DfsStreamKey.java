@@ -44,6 +44,7 @@
 package org.eclipse.jgit.internal.storage.dfs;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.eclipse.jgit.internal.storage.pack.PackExt.REVERSE_INDEX;
 
 import java.util.Arrays;
 
@@ -133,7 +134,7 @@ static final class ForReverseIndex extends DfsStreamKey {
 		private final DfsStreamKey idxKey;
 
 		ForReverseIndex(DfsStreamKey idxKey) {
-			super(idxKey.hash + 1, null);
+			super(idxKey.hash + 1, REVERSE_INDEX);
 			this.idxKey = idxKey;
 		}
 
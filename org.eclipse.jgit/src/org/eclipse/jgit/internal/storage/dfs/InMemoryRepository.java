@@ -273,6 +273,20 @@ public int blockSize() {
 		public void setReadAheadBytes(int b) {
 			// Unnecessary on a byte array.
 		}
+
+		@Override
+		public void readRanges(List<Range> ranges) {
+			for (Range r : ranges) {
+				ByteBuffer buf = r.getBuffer();
+				long pos = r.getPosition();
+				int n = 0;
+				if (pos < data.length) {
+					n = (int) Math.min(buf.remaining(), data.length - pos);
+					buf.put(data, (int) pos, n);
+				}
+				position = (int) pos + n;
+			}
+		}
 	}
 
 	/** DfsRefDatabase used by InMemoryRepository. */
@@ -44,7 +44,9 @@
 package org.eclipse.jgit.internal.storage.dfs;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.channels.ReadableByteChannel;
+import java.util.List;
 
 /**
  * Readable random access byte channel from a file.
@@ -132,4 +134,72 @@ public interface ReadableChannel extends ReadableByteChannel {
 	 *             if the read ahead cannot be adjusted.
 	 */
 	void setReadAheadBytes(int bufferSize) throws IOException;
+
+	/**
+	 * Read several ranges of the channel in one call.
+	 * <p>
+	 * Each range is filled from its position until its buffer has no space
+	 * remaining or the end of the channel is reached; callers check the
+	 * buffers for short reads. Ranges may be given in any order and may
+	 * overlap. Afterwards the channel is positioned after the bytes read for
+	 * the last range.
+	 * <p>
+	 * The default implementation reads the ranges one by one. Channels of
+	 * object stores with high per-request latency should override this to
+	 * coalesce the ranges into as few requests as possible, such as a single
+	 * ranged GET.
+	 *
+	 * @param ranges
+	 *            ranges to read.
+	 * @throws java.io.IOException
+	 *             the ranges cannot be read.
+	 */
+	default void readRanges(List<Range> ranges) throws IOException {
+		for (Range r : ranges) {
+			position(r.getPosition());
+			ByteBuffer buf = r.getBuffer();
+			while (buf.hasRemaining() && read(buf) > 0) {
+				// Fill the buffer, stopping at the end of the channel.
+			}
+		}
+	}
+
+	/** A range of a channel to read by {@link #readRanges(List)}. */
+	final class Range {
+		private final long position;
+
+		private final ByteBuffer buffer;
+
+		/**
+		 * Create a range.
+		 *
+		 * @param position
+		 *            position of the channel to start reading from.
+		 * @param buffer
+		 *            buffer to read into; {@code buffer.remaining()} bytes
+		 *            are read.
+		 */
+		public Range(long position, ByteBuffer buffer) {
+			this.position = position;
+			this.buffer = buffer;
+		}
+
+		/**
+		 * Get the position of the channel to start reading from.
+		 *
+		 * @return the position of the channel to start reading from.
+		 */
+		public long getPosition() {
+			return position;
+		}
+
+		/**
+		 * Get the buffer to read into.
+		 *
+		 * @return the buffer to read into.
+		 */
+		public ByteBuffer getBuffer() {
+			return buffer;
+		}
+	}
 }
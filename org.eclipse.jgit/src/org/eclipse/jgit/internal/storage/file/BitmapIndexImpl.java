@@ -121,6 +121,18 @@ int findOrInsert(AnyObjectId objectId, int type) {
 		return position;
 	}
 
+	int getExtraObjectCount() {
+		return mutableIndex.revList.size();
+	}
+
+	AnyObjectId getExtraObject(int i) {
+		return mutableIndex.getObject(i);
+	}
+
+	int getExtraObjectType(int i) {
+		return mutableIndex.getObject(i).type;
+	}
+
 	private static final class ComboBitset {
 		private InflatingBitSet inflatingBitmap;
 
@@ -267,14 +279,25 @@ public int cardinality() {
 
 		@Override
 		public boolean removeAllOrNone(PackBitmapIndex index) {
-			if (!bitmapIndex.packIndex.equals(index))
+			// The objects of the base of a layered index are numbered
+			// first, the base can be removed like a plain index.
+			PackBitmapIndex packIndex = bitmapIndex.packIndex;
+			int count;
+			if (packIndex.equals(index)) {
+				count = bitmapIndex.indexObjectCount;
+			} else if (packIndex instanceof PackBitmapIndexLayer.Layered
+					&& ((PackBitmapIndexLayer.Layered) packIndex)
+							.getBase() == index) {
+				count = index.getObjectCount();
+			} else {
 				return false;
+			}
 
 			EWAHCompressedBitmap curr = bitset.combine()
-					.xor(ones(bitmapIndex.indexObjectCount));
+					.xor(ones(count));
 
 			IntIterator ii = curr.intIterator();
-			if (ii.hasNext() && ii.next() < bitmapIndex.indexObjectCount)
+			if (ii.hasNext() && ii.next() < count)
 				return false;
 			bitset = new ComboBitset(curr);
 			return true;
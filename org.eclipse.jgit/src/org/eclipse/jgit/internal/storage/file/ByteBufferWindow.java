@@ -101,4 +101,14 @@ protected int setInput(int pos, Inflater inf)
 		inf.setInput(tmp, 0, tmp.length);
 		return tmp.length;
 	}
+
+	@Override
+	int setInput(long pos, Inflater inf, byte[] tmp) {
+		final ByteBuffer s = buffer.slice();
+		s.position((int) (pos - start));
+		int n = Math.min(s.remaining(), tmp.length);
+		s.get(tmp, 0, n);
+		inf.setInput(tmp, 0, n);
+		return n;
+	}
 }
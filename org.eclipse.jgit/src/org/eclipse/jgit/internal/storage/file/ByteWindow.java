@@ -150,4 +150,50 @@ final int setInput(long pos, Inflater inf) throws DataFormatException {
 	 */
 	protected abstract int setInput(int pos, Inflater inf)
 			throws DataFormatException;
+
+	/**
+	 * Set the input of an inflater, copying through a caller owned buffer.
+	 * <p>
+	 * Windows which cannot hand out their storage as an array copy as much
+	 * of it as fits into {@code tmp}, instead of allocating a small array on
+	 * every call. The inflater keeps a reference to {@code tmp} until it
+	 * needs more input, so the buffer must not be shared between threads.
+	 *
+	 * @param pos
+	 *            offset within the file to start reading from.
+	 * @param inf
+	 *            an {@link java.util.zip.Inflater} object.
+	 * @param tmp
+	 *            buffer the window may copy its input to.
+	 * @return number of bytes given to the inflater.
+	 * @throws java.util.zip.DataFormatException
+	 *             if any.
+	 */
+	int setInput(long pos, Inflater inf, byte[] tmp)
+			throws DataFormatException {
+		return setInput(pos, inf);
+	}
+
+	/**
+	 * Take a reference on the window for a reader.
+	 * <p>
+	 * Windows whose storage is recycled when they are evicted from the cache
+	 * must not be recycled while still used by a reader. Each successful
+	 * call must be paired with a call to {@link #release()}.
+	 *
+	 * @return {@code false} if the window was already released by the cache
+	 *         and its storage may have been reused; the caller must load the
+	 *         window again.
+	 */
+	boolean tryRetain() {
+		return true;
+	}
+
+	/**
+	 * Drop a reference taken by {@link #tryRetain()}, or the reference of the
+	 * cache when the window is evicted.
+	 */
+	void release() {
+		// Heap and mapped windows are freed by the garbage collector.
+	}
 }
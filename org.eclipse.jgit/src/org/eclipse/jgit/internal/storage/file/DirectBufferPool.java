@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2019, Google LLC.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.file;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of equally sized direct {@link ByteBuffer}s backing the
+ * {@link DirectByteBufferWindow}s of a {@link WindowCache}.
+ * <p>
+ * Direct buffers live outside of the Java heap and are expensive to allocate
+ * and to free, so buffers of evicted windows are recycled instead of left to
+ * the garbage collector. The pool never allocates more than its limit, no
+ * matter how large the heap is; once the limit is reached
+ * {@link #acquire()} returns {@code null} until a buffer is released.
+ */
+final class DirectBufferPool {
+	private final int bufferSize;
+
+	private final long limit;
+
+	private final ConcurrentLinkedQueue<ByteBuffer> free;
+
+	private final AtomicLong allocated;
+
+	DirectBufferPool(int bufferSize, long limit) {
+		this.bufferSize = bufferSize;
+		this.limit = limit;
+		this.free = new ConcurrentLinkedQueue<>();
+		this.allocated = new AtomicLong();
+	}
+
+	/**
+	 * Take a buffer from the pool.
+	 *
+	 * @return a cleared buffer of {@link #getBufferSize()} bytes, or
+	 *         {@code null} if all buffers the limit permits are in use.
+	 */
+	ByteBuffer acquire() {
+		ByteBuffer b = free.poll();
+		if (b != null) {
+			return b;
+		}
+		for (;;) {
+			long n = allocated.get();
+			if (limit < n + bufferSize) {
+				return null;
+			}
+			if (allocated.compareAndSet(n, n + bufferSize)) {
+				return ByteBuffer.allocateDirect(bufferSize);
+			}
+		}
+	}
+
+	/**
+	 * Return a buffer obtained from {@link #acquire()} to the pool.
+	 *
+	 * @param b
+	 *            the buffer; must no longer be used by the caller.
+	 */
+	void release(ByteBuffer b) {
+		b.clear();
+		free.offer(b);
+	}
+
+	int getBufferSize() {
+		return bufferSize;
+	}
+
+	long getAllocatedBytes() {
+		return allocated.get();
+	}
+
+	int getFreeBuffers() {
+		return free.size();
+	}
+}
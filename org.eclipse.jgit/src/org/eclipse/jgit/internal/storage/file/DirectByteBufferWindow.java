@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2019, Google LLC.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.file;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.eclipse.jgit.internal.storage.pack.PackOutputStream;
+
+/**
+ * A window for accessing git packs using a pooled direct {@link ByteBuffer}
+ * for storage.
+ * <p>
+ * The window is reference counted: the cache holds one reference while the
+ * window is cached, and every {@link WindowCursor} using the window holds
+ * another. The buffer is returned to its {@link DirectBufferPool} once the
+ * last reference is released, so it is never overwritten while a reader
+ * still looks at it.
+ *
+ * @see ByteWindow
+ */
+final class DirectByteBufferWindow extends ByteWindow {
+	private final ByteBuffer buffer;
+
+	private final DirectBufferPool pool;
+
+	private final AtomicInteger refs;
+
+	DirectByteBufferWindow(PackFile pack, long o, ByteBuffer b,
+			DirectBufferPool pool) {
+		super(pack, o, b.remaining());
+		this.buffer = b;
+		this.pool = pool;
+		this.refs = new AtomicInteger(1);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	protected int copy(int p, byte[] b, int o, int n) {
+		final ByteBuffer s = buffer.duplicate();
+		s.position(p);
+		n = Math.min(s.remaining(), n);
+		s.get(b, o, n);
+		return n;
+	}
+
+	@Override
+	void write(PackOutputStream out, long pos, int cnt) throws IOException {
+		final ByteBuffer s = buffer.duplicate();
+		s.position((int) (pos - start));
+
+		while (0 < cnt) {
+			byte[] buf = out.getCopyBuffer();
+			int n = Math.min(cnt, buf.length);
+			s.get(buf, 0, n);
+			out.write(buf, 0, n);
+			cnt -= n;
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	protected int setInput(int pos, Inflater inf) throws DataFormatException {
+		final byte[] tmp = new byte[Math.min(size() - pos, 512)];
+		return setInput(pos, inf, tmp);
+	}
+
+	@Override
+	int setInput(long pos, Inflater inf, byte[] tmp) {
+		return setInput((int) (pos - start), inf, tmp);
+	}
+
+	private int setInput(int pos, Inflater inf, byte[] tmp) {
+		final ByteBuffer s = buffer.duplicate();
+		s.position(pos);
+		int n = Math.min(s.remaining(), tmp.length);
+		s.get(tmp, 0, n);
+		inf.setInput(tmp, 0, n);
+		return n;
+	}
+
+	@Override
+	boolean tryRetain() {
+		for (;;) {
+			int n = refs.get();
+			if (n == 0) {
+				return false;
+			}
+			if (refs.compareAndSet(n, n + 1)) {
+				return true;
+			}
+		}
+	}
+
+	@Override
+	void release() {
+		if (refs.decrementAndGet() == 0) {
+			pool.release(buffer);
+		}
+	}
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2019, Google LLC.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.file;
+
+import static org.eclipse.jgit.transport.ReceiveCommand.Result.LOCK_FAILURE;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.jgit.internal.storage.reftable.BaseReftableBatchRefUpdate;
+import org.eclipse.jgit.internal.storage.reftable.Reftable;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.transport.ReceiveCommand;
+
+/**
+ * {@link org.eclipse.jgit.lib.BatchRefUpdate} for
+ * {@link org.eclipse.jgit.internal.storage.file.FileReftableDatabase}.
+ * <p>
+ * All commands are written into a single table, which is added to the stack
+ * atomically.
+ */
+class FileReftableBatchRefUpdate extends BaseReftableBatchRefUpdate {
+	private final FileReftableDatabase refdb;
+
+	/**
+	 * Initialize batch update.
+	 *
+	 * @param refdb
+	 *            database the update will modify.
+	 */
+	FileReftableBatchRefUpdate(FileReftableDatabase refdb) {
+		super(refdb, refdb.getLock(), refdb.getRepository());
+		this.refdb = refdb;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	protected Reftable reader() throws IOException {
+		return refdb.reader();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	protected boolean isNameConflicting(String name) throws IOException {
+		return refdb.isNameConflicting(name);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	protected boolean applyUpdates(RevWalk rw, List<ReceiveCommand> pending)
+			throws IOException {
+		List<Ref> newRefs = toNewRefs(rw, pending);
+		List<ReceiveCommand> logged = new ArrayList<>(pending.size());
+		if (!isRefLogDisabled()) {
+			for (ReceiveCommand cmd : pending) {
+				if (refdb.shouldLog(cmd.getRefName(), isForceRefLog(cmd))) {
+					logged.add(cmd);
+				}
+			}
+		}
+		boolean ok = refdb.addReftable((w, updateIndex) -> {
+			w.sortAndWriteRefs(newRefs);
+			writeLog(w, updateIndex, logged);
+		});
+		if (!ok) {
+			pending.get(0).setResult(LOCK_FAILURE);
+		}
+		return ok;
+	}
+}
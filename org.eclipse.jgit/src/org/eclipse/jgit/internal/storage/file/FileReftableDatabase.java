@@ -0,0 +1,724 @@
+/*
+ * Copyright (C) 2019, Google LLC.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.file;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.eclipse.jgit.lib.Constants.HEAD;
+import static org.eclipse.jgit.lib.Constants.R_HEADS;
+import static org.eclipse.jgit.lib.Constants.R_NOTES;
+import static org.eclipse.jgit.lib.Constants.R_REMOTES;
+import static org.eclipse.jgit.lib.Ref.Storage.NEW;
+import static org.eclipse.jgit.lib.Ref.Storage.PACKED;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.eclipse.jgit.errors.LockFailedException;
+import org.eclipse.jgit.events.RefsChangedEvent;
+import org.eclipse.jgit.internal.storage.reftable.LogCursor;
+import org.eclipse.jgit.internal.storage.reftable.RefCursor;
+import org.eclipse.jgit.internal.storage.reftable.Reftable;
+import org.eclipse.jgit.internal.storage.reftable.ReftableConfig;
+import org.eclipse.jgit.internal.storage.reftable.ReftableWriter;
+import org.eclipse.jgit.lib.BatchRefUpdate;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.CoreConfig;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectIdRef;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefDatabase;
+import org.eclipse.jgit.lib.RefRename;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.ReflogEntry;
+import org.eclipse.jgit.lib.ReflogReader;
+import org.eclipse.jgit.lib.SymbolicRef;
+import org.eclipse.jgit.revwalk.RevObject;
+import org.eclipse.jgit.revwalk.RevTag;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.transport.ReceiveCommand;
+import org.eclipse.jgit.util.FileUtils;
+import org.eclipse.jgit.util.RefList;
+import org.eclipse.jgit.util.RefMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stores references of a {@link FileRepository} in a stack of reftables.
+ * <p>
+ * The tables live in the {@code reftable} directory of the repository. Every
+ * update, including a batch of updates, appends one table to the stack, which
+ * makes batch updates atomic and gives each update a unique update index.
+ * Reflogs are stored in the same tables. The stack is compacted automatically
+ * after updates, and fully by {@link #compactFully()}.
+ * <p>
+ * A repository uses this database if its configuration sets
+ * {@code extensions.refStorage} to {@code reftable}.
+ *
+ * @since 5.4
+ */
+public class FileReftableDatabase extends RefDatabase {
+	private static final Logger LOG = LoggerFactory
+			.getLogger(FileReftableDatabase.class);
+
+	/** Name of the directory holding the tables. */
+	static final String REFTABLE_DIR = "reftable"; //$NON-NLS-1$
+
+	private final FileRepository repo;
+
+	private final ReentrantLock lock = new ReentrantLock(true);
+
+	private final FileReftableStack reftableStack;
+
+	FileReftableDatabase(FileRepository repo) throws IOException {
+		this.repo = repo;
+		reftableStack = new FileReftableStack(
+				new File(repo.getDirectory(), REFTABLE_DIR),
+				this::getReftableConfig,
+				() -> repo.fireEvent(new RefsChangedEvent()));
+	}
+
+	FileRepository getRepository() {
+		return repo;
+	}
+
+	ReentrantLock getLock() {
+		return lock;
+	}
+
+	/**
+	 * Get configuration of newly written tables.
+	 *
+	 * @return configuration of newly written tables.
+	 */
+	public ReftableConfig getReftableConfig() {
+		return new ReftableConfig(repo.getConfig());
+	}
+
+	/**
+	 * Get the number of tables in the stack.
+	 *
+	 * @return number of tables currently in the stack.
+	 * @throws java.io.IOException
+	 *             the stack could not be read.
+	 */
+	public int getTableCount() throws IOException {
+		lock.lock();
+		try {
+			reftableStack.getMergedReftable();
+			return reftableStack.getTableCount();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Compact all tables into a single table.
+	 *
+	 * @return {@code false} if the stack was concurrently modified by another
+	 *         process and was not compacted.
+	 * @throws java.io.IOException
+	 *             the tables could not be compacted.
+	 */
+	public boolean compactFully() throws IOException {
+		lock.lock();
+		try {
+			return reftableStack.compactFully();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	Reftable reader() throws IOException {
+		lock.lock();
+		try {
+			return reftableStack.getMergedReftable();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Append a table to the stack and compact the top of the stack.
+	 * <p>
+	 * Callers must hold {@link #getLock()} and should have verified the
+	 * expected state of the references with {@link #reader()}.
+	 *
+	 * @param w
+	 *            writes the table.
+	 * @return {@code false} if another process modified the stack since it was
+	 *         last read.
+	 * @throws IOException
+	 *             the table could not be written.
+	 */
+	boolean addReftable(FileReftableStack.Writer w) throws IOException {
+		if (!reftableStack.addReftable(w)) {
+			reftableStack.reload();
+			return false;
+		}
+		try {
+			reftableStack.autoCompact();
+		} catch (IOException e) {
+			// The update is committed; a later update compacts again.
+			LOG.warn(e.getMessage(), e);
+		}
+		return true;
+	}
+
+	/**
+	 * Whether an update of a reference writes a reflog entry.
+	 * <p>
+	 * Mirrors {@link ReflogWriter}: logs are written for references which
+	 * already have a log, and for branches, remotes, notes and {@code HEAD} if
+	 * {@code core.logAllRefUpdates} is set.
+	 *
+	 * @param refName
+	 *            name of the reference.
+	 * @param force
+	 *            whether the caller forces a log entry.
+	 * @return whether to write a reflog entry.
+	 * @throws IOException
+	 *             the tables could not be read.
+	 */
+	boolean shouldLog(String refName, boolean force) throws IOException {
+		if (force) {
+			return true;
+		}
+		if (repo.getConfig().get(CoreConfig.KEY).isLogAllRefUpdates()
+				&& (refName.equals(HEAD) || refName.startsWith(R_HEADS)
+						|| refName.startsWith(R_REMOTES)
+						|| refName.startsWith(R_NOTES))) {
+			return true;
+		}
+		try (LogCursor lc = reader().seekLog(refName)) {
+			return lc.next();
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public boolean hasVersioning() {
+		return true;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public boolean performsAtomicTransactions() {
+		return true;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void create() throws IOException {
+		FileUtils.mkdir(new File(repo.getDirectory(), REFTABLE_DIR), true);
+		writeCompatibilityFiles(repo.getDirectory());
+	}
+
+	/**
+	 * Write {@code HEAD} and {@code refs} for tools expecting loose refs.
+	 * <p>
+	 * Repository discovery requires both to exist. {@code refs/heads} is a
+	 * file and {@code HEAD} points to an invalid branch name so that such
+	 * tools do not write loose references which this database would ignore.
+	 *
+	 * @param gitDir
+	 *            the repository directory.
+	 * @throws IOException
+	 *             the files could not be written.
+	 */
+	static void writeCompatibilityFiles(File gitDir) throws IOException {
+		File refsDir = new File(gitDir, Constants.R_REFS);
+		FileUtils.mkdir(refsDir, true);
+		writeFile(new File(refsDir, "heads"), //$NON-NLS-1$
+				"this repository uses the reftable format\n"); //$NON-NLS-1$
+		writeFile(new File(gitDir, HEAD), "ref: refs/heads/.invalid\n"); //$NON-NLS-1$
+	}
+
+	private static void writeFile(File f, String content) throws IOException {
+		LockFile lck = new LockFile(f);
+		try {
+			if (!lck.lock()) {
+				throw new LockFailedException(f);
+			}
+			lck.write(content.getBytes(UTF_8));
+			if (!lck.commit()) {
+				throw new LockFailedException(f);
+			}
+		} finally {
+			lck.unlock();
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void close() {
+		lock.lock();
+		try {
+			reftableStack.close();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public boolean isNameConflicting(String refName) throws IOException {
+		lock.lock();
+		try {
+			Reftable table = reader();
+
+			// Cannot be nested within an existing reference.
+			int lastSlash = refName.lastIndexOf('/');
+			while (0 < lastSlash) {
+				if (table.hasRef(refName.substring(0, lastSlash))) {
+					return true;
+				}
+				lastSlash = refName.lastIndexOf('/', lastSlash - 1);
+			}
+
+			// Cannot be the container of an existing reference.
+			return table.hasRefsWithPrefix(refName + '/');
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public RefUpdate newUpdate(String refName, boolean detach)
+			throws IOException {
+		boolean detachingSymbolicRef = false;
+		Ref ref = exactRef(refName);
+		if (ref == null) {
+			ref = new ObjectIdRef.Unpeeled(NEW, refName, null);
+		} else {
+			detachingSymbolicRef = detach && ref.isSymbolic();
+		}
+
+		FileReftableRefUpdate update = new FileReftableRefUpdate(ref);
+		if (detachingSymbolicRef) {
+			update.setDetachingSymbolicRef();
+		}
+		return update;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public RefRename newRename(String fromName, String toName)
+			throws IOException {
+		RefUpdate src = newUpdate(fromName, true);
+		RefUpdate dst = newUpdate(toName, true);
+		return new FileReftableRefRename(src, dst);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public BatchRefUpdate newBatchUpdate() {
+		return new FileReftableBatchRefUpdate(this);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Ref exactRef(String name) throws IOException {
+		lock.lock();
+		try {
+			Reftable table = reader();
+			Ref ref = table.exactRef(name);
+			if (ref != null && ref.isSymbolic()) {
+				return table.resolve(ref);
+			}
+			return ref;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Map<String, Ref> getRefs(String prefix) throws IOException {
+		RefList.Builder<Ref> all = new RefList.Builder<>();
+		lock.lock();
+		try {
+			Reftable table = reader();
+			try (RefCursor rc = ALL.equals(prefix) ? table.allRefs()
+					: (prefix.endsWith("/") ? table.seekRefsWithPrefix(prefix) //$NON-NLS-1$
+							: table.seekRef(prefix))) {
+				while (rc.next()) {
+					Ref ref = table.resolve(rc.getRef());
+					if (ref != null && ref.getObjectId() != null) {
+						all.add(ref);
+					}
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+
+		RefList<Ref> none = RefList.emptyList();
+		return new RefMap(prefix, all.toRefList(), none, none);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public List<Ref> getRefsByPrefix(String prefix) throws IOException {
+		List<Ref> all = new ArrayList<>();
+		lock.lock();
+		try {
+			Reftable table = reader();
+			try (RefCursor rc = ALL.equals(prefix) ? table.allRefs()
+					: table.seekRefsWithPrefix(prefix)) {
+				while (rc.next()) {
+					Ref ref = table.resolve(rc.getRef());
+					if (ref != null && ref.getObjectId() != null) {
+						all.add(ref);
+					}
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+
+		return Collections.unmodifiableList(all);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Set<Ref> getTipsWithSha1(ObjectId id) throws IOException {
+		if (!getReftableConfig().isIndexObjects()) {
+			return super.getTipsWithSha1(id);
+		}
+		lock.lock();
+		try (RefCursor cursor = reader().byObjectId(id)) {
+			Set<Ref> refs = new HashSet<>();
+			while (cursor.next()) {
+				refs.add(cursor.getRef());
+			}
+			return refs;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public List<Ref> getAdditionalRefs() throws IOException {
+		return Collections.emptyList();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Ref peel(Ref ref) throws IOException {
+		Ref oldLeaf = ref.getLeaf();
+		if (oldLeaf.isPeeled() || oldLeaf.getObjectId() == null) {
+			return ref;
+		}
+		return recreate(ref, doPeel(oldLeaf));
+	}
+
+	private Ref doPeel(Ref leaf) throws IOException {
+		try (RevWalk rw = new RevWalk(repo)) {
+			RevObject obj = rw.parseAny(leaf.getObjectId());
+			if (obj instanceof RevTag) {
+				return new ObjectIdRef.PeeledTag(leaf.getStorage(),
+						leaf.getName(), leaf.getObjectId(), rw.peel(obj).copy(),
+						leaf.getUpdateIndex());
+			}
+			return new ObjectIdRef.PeeledNonTag(leaf.getStorage(),
+					leaf.getName(), leaf.getObjectId(), leaf.getUpdateIndex());
+		}
+	}
+
+	private static Ref recreate(Ref old, Ref leaf) {
+		if (old.isSymbolic()) {
+			Ref dst = recreate(old.getTarget(), leaf);
+			return new SymbolicRef(old.getName(), dst, old.getUpdateIndex());
+		}
+		return leaf;
+	}
+
+	/**
+	 * Get a reader for the reflog of a reference.
+	 *
+	 * @param refName
+	 *            name of the reference.
+	 * @return reader for the reflog of {@code refName}.
+	 */
+	ReflogReader getReflogReader(String refName) {
+		return new ReftableReflogReader(this, refName);
+	}
+
+	/**
+	 * Collect the reflog entries of references, oldest first.
+	 *
+	 * @return reflog entries by reference name.
+	 * @throws IOException
+	 *             the tables could not be read.
+	 */
+	Map<String, List<ReflogEntry>> getReflogs() throws IOException {
+		Map<String, List<ReflogEntry>> logs = new TreeMap<>();
+		lock.lock();
+		try (LogCursor lc = reader().allLogs()) {
+			while (lc.next()) {
+				ReflogEntry e = lc.getReflogEntry();
+				if (e != null) {
+					logs.computeIfAbsent(lc.getRefName(),
+							n -> new ArrayList<>()).add(e);
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+		for (List<ReflogEntry> l : logs.values()) {
+			Collections.reverse(l);
+		}
+		return logs;
+	}
+
+	static Ref toNewRef(RevWalk rw, String name, ObjectId newId)
+			throws IOException {
+		RevObject obj = rw.parseAny(newId);
+		if (obj instanceof RevTag) {
+			return new ObjectIdRef.PeeledTag(PACKED, name, newId,
+					rw.peel(obj).copy());
+		}
+		return new ObjectIdRef.PeeledNonTag(PACKED, name, newId);
+	}
+
+	private static String toResultString(RefUpdate.Result status) {
+		switch (status) {
+		case FORCED:
+			return ReflogEntry.PREFIX_FORCED_UPDATE;
+		case FAST_FORWARD:
+			return ReflogEntry.PREFIX_FAST_FORWARD;
+		case NEW:
+			return ReflogEntry.PREFIX_CREATED;
+		default:
+			return null;
+		}
+	}
+
+	private class FileReftableRefUpdate extends RefUpdate {
+		private Ref dstRef;
+
+		private RevWalk rw;
+
+		FileReftableRefUpdate(Ref ref) {
+			super(ref);
+		}
+
+		@Override
+		protected FileReftableDatabase getRefDatabase() {
+			return FileReftableDatabase.this;
+		}
+
+		@Override
+		protected FileRepository getRepository() {
+			return repo;
+		}
+
+		@Override
+		protected boolean tryLock(boolean deref) throws IOException {
+			lock.lock();
+			dstRef = getRef();
+			if (deref) {
+				dstRef = dstRef.getLeaf();
+			}
+			// Re-read the reference, the stack may have changed since
+			// this update was created.
+			Ref cur = reader().exactRef(dstRef.getName());
+			if (cur == null || cur.isSymbolic()) {
+				setOldObjectId(null);
+			} else {
+				setOldObjectId(cur.getObjectId());
+			}
+			return true;
+		}
+
+		@Override
+		protected void unlock() {
+			if (lock.isHeldByCurrentThread()) {
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public Result update(RevWalk walk) throws IOException {
+			try {
+				rw = walk;
+				return super.update(walk);
+			} finally {
+				rw = null;
+			}
+		}
+
+		@Override
+		protected Result doUpdate(Result desiredResult) throws IOException {
+			Ref newRef = toNewRef(rw, dstRef.getName(), getNewObjectId());
+			if (write(newRef, desiredResult)) {
+				return desiredResult;
+			}
+			return Result.LOCK_FAILURE;
+		}
+
+		@Override
+		protected Result doDelete(Result desiredResult) throws IOException {
+			if (dstRef.getStorage() == NEW) {
+				return desiredResult;
+			}
+			Ref newRef = new ObjectIdRef.Unpeeled(NEW, dstRef.getName(), null);
+			if (write(newRef, desiredResult)) {
+				return desiredResult;
+			}
+			return Result.LOCK_FAILURE;
+		}
+
+		@Override
+		protected Result doLink(String target) throws IOException {
+			Ref newRef = new SymbolicRef(dstRef.getName(),
+					new ObjectIdRef.Unpeeled(NEW, target, null));
+			if (!write(newRef, Result.FORCED)) {
+				return Result.LOCK_FAILURE;
+			}
+			return getRef().getStorage() == NEW ? Result.NEW : Result.FORCED;
+		}
+
+		private boolean write(Ref newRef, Result status) throws IOException {
+			List<String> logNames = new ArrayList<>(2);
+			String msg = getRefLogMessage();
+			if (msg != null) {
+				if (isRefLogIncludingResult()) {
+					String strResult = toResultString(status);
+					if (strResult != null) {
+						msg = msg.isEmpty() ? strResult
+								: msg + ": " + strResult; //$NON-NLS-1$
+					}
+				}
+				String name = newRef.getName();
+				if (shouldLog(name, isForceRefLog())) {
+					logNames.add(name);
+				}
+				// Like RefDirectory, an update through a symbolic
+				// reference is also logged for the symbolic reference.
+				if (!newRef.isSymbolic() && getRef().isSymbolic()
+						&& !name.equals(getRef().getName())
+						&& shouldLog(getRef().getName(), isForceRefLog())) {
+					logNames.add(getRef().getName());
+				}
+				Collections.sort(logNames);
+			}
+
+			PersonIdent ident = getRefLogIdent();
+			if (ident == null) {
+				ident = new PersonIdent(repo);
+			}
+			ObjectId oldId = getOldObjectId() != null ? getOldObjectId()
+					: ObjectId.zeroId();
+			ObjectId newId = newRef.getObjectId() != null
+					? newRef.getObjectId()
+					: ObjectId.zeroId();
+			String logMsg = msg;
+			PersonIdent who = ident;
+			return addReftable((ReftableWriter w, long updateIndex) -> {
+				w.sortAndWriteRefs(Collections.singleton(newRef));
+				for (String name : logNames) {
+					w.writeLog(name, updateIndex, who, oldId, newId, logMsg);
+				}
+			});
+		}
+	}
+
+	private class FileReftableRefRename extends RefRename {
+		FileReftableRefRename(RefUpdate src, RefUpdate dst) {
+			super(src, dst);
+		}
+
+		@Override
+		protected RefUpdate.Result doRename() throws IOException {
+			Ref src = source.getRef();
+			if (src.isSymbolic() || src.getObjectId() == null) {
+				return RefUpdate.Result.IO_FAILURE; // not supported
+			}
+			ObjectId id = src.getObjectId();
+			List<ReceiveCommand> cmds = new ArrayList<>(3);
+			cmds.add(new ReceiveCommand(id, ObjectId.zeroId(),
+					source.getName()));
+			cmds.add(new ReceiveCommand(ObjectId.zeroId(), id,
+					destination.getName()));
+			if (needToUpdateHEAD()) {
+				cmds.add(ReceiveCommand.link(source.getName(),
+						destination.getName(), HEAD));
+			}
+
+			BatchRefUpdate batch = newBatchUpdate();
+			batch.setAtomic(true);
+			batch.setAllowNonFastForwards(true);
+			batch.setRefLogIdent(getRefLogIdent());
+			if (getRefLogMessage() != null) {
+				batch.setRefLogMessage(getRefLogMessage(), false);
+			} else {
+				batch.disableRefLog();
+			}
+			batch.addCommand(cmds);
+			try (RevWalk walk = new RevWalk(repo)) {
+				walk.setRetainBody(false);
+				batch.execute(walk, NullProgressMonitor.INSTANCE);
+			}
+			for (ReceiveCommand cmd : cmds) {
+				if (cmd.getResult() != ReceiveCommand.Result.OK) {
+					return RefUpdate.Result.LOCK_FAILURE;
+				}
+			}
+			return RefUpdate.Result.RENAMED;
+		}
+	}
+}
@@ -0,0 +1,532 @@
+/*
+ * Copyright (C) 2019, Google LLC.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.file;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import org.eclipse.jgit.errors.LockFailedException;
+import org.eclipse.jgit.internal.storage.io.BlockSource;
+import org.eclipse.jgit.internal.storage.reftable.MergedReftable;
+import org.eclipse.jgit.internal.storage.reftable.Reftable;
+import org.eclipse.jgit.internal.storage.reftable.ReftableBlockCache;
+import org.eclipse.jgit.internal.storage.reftable.ReftableCompactor;
+import org.eclipse.jgit.internal.storage.reftable.ReftableConfig;
+import org.eclipse.jgit.internal.storage.reftable.ReftableReader;
+import org.eclipse.jgit.internal.storage.reftable.ReftableWriter;
+import org.eclipse.jgit.util.FileUtils;
+import org.eclipse.jgit.util.IO;
+import org.eclipse.jgit.util.RawParseUtils;
+
+/**
+ * A stack of reftables stored in a directory.
+ * <p>
+ * The file {@code tables.list} names the tables of the stack, oldest first.
+ * Tables are named after the range of update indexes they contain. New tables
+ * are added by locking {@code tables.list}, writing the table and appending
+ * its name; readers of the stack never take a lock.
+ * <p>
+ * After each addition the top of the stack is compacted such that every table
+ * is more than twice as large as all tables above it, keeping the number of
+ * tables logarithmic in the number of updates.
+ * <p>
+ * Instances are not thread-safe, callers must serialize access.
+ */
+class FileReftableStack implements AutoCloseable {
+	/** Name of the file listing the tables of the stack. */
+	static final String TABLES_LIST = "tables.list"; //$NON-NLS-1$
+
+	private static final int MAX_RELOAD_ATTEMPTS = 10;
+
+	/** Writes the content of a new table added to the stack. */
+	interface Writer {
+		/**
+		 * Write the table.
+		 *
+		 * @param w
+		 *            writer, already started with the update index.
+		 * @param updateIndex
+		 *            update index of the table.
+		 * @throws IOException
+		 *             the table could not be written.
+		 */
+		void call(ReftableWriter w, long updateIndex) throws IOException;
+	}
+
+	private static class StackEntry {
+		final String name;
+
+		final ReftableReader reader;
+
+		StackEntry(String name, ReftableReader reader) {
+			this.name = name;
+			this.reader = reader;
+		}
+	}
+
+	private final File reftableDir;
+
+	private final File stackPath;
+
+	private final Supplier<ReftableConfig> configSupplier;
+
+	private final Runnable onChange;
+
+	private List<StackEntry> stack = Collections.emptyList();
+
+	private FileSnapshot snapshot = FileSnapshot.MISSING_FILE;
+
+	private MergedReftable merged;
+
+	/**
+	 * Open the stack stored in a directory.
+	 *
+	 * @param reftableDir
+	 *            directory holding the tables and {@code tables.list}. The
+	 *            directory does not need to exist yet.
+	 * @param configSupplier
+	 *            configuration of newly written tables.
+	 * @param onChange
+	 *            invoked whenever a later reload finds a different set of
+	 *            tables.
+	 * @throws IOException
+	 *             the tables could not be opened.
+	 */
+	FileReftableStack(File reftableDir,
+			Supplier<ReftableConfig> configSupplier, Runnable onChange)
+			throws IOException {
+		this.reftableDir = reftableDir;
+		this.stackPath = new File(reftableDir, TABLES_LIST);
+		this.configSupplier = configSupplier;
+		this.onChange = onChange;
+		reload();
+	}
+
+	/**
+	 * Get a view of all tables, reloading the stack if it was modified.
+	 *
+	 * @return merged view of the tables of the stack.
+	 * @throws IOException
+	 *             the tables could not be opened.
+	 */
+	MergedReftable getMergedReftable() throws IOException {
+		if (snapshot.isModified(stackPath)) {
+			reload();
+		}
+		return merged;
+	}
+
+	/**
+	 * Get the number of tables in the stack.
+	 *
+	 * @return number of tables in the stack.
+	 */
+	int getTableCount() {
+		return stack.size();
+	}
+
+	/**
+	 * Get the update index the next table added to the stack uses.
+	 *
+	 * @return the next update index.
+	 * @throws IOException
+	 *             the tables could not be read.
+	 */
+	long nextUpdateIndex() throws IOException {
+		return stack.isEmpty() ? 1
+				: stack.get(stack.size() - 1).reader.maxUpdateIndex() + 1;
+	}
+
+	/**
+	 * Re-read {@code tables.list} and open the tables it names.
+	 * <p>
+	 * Readers of tables which are still listed are reused.
+	 *
+	 * @throws IOException
+	 *             the tables could not be opened.
+	 */
+	void reload() throws IOException {
+		for (int attempt = 0;; attempt++) {
+			FileSnapshot s = FileSnapshot.save(stackPath);
+			List<String> names = readTableNames();
+			if (sameNames(names)) {
+				snapshot = s;
+				return;
+			}
+
+			Map<String, ReftableReader> current = new HashMap<>();
+			for (StackEntry e : stack) {
+				current.put(e.name, e.reader);
+			}
+			List<StackEntry> opened = new ArrayList<>(names.size());
+			try {
+				for (String name : names) {
+					ReftableReader r = current.remove(name);
+					if (r == null) {
+						r = open(new File(reftableDir, name));
+					}
+					opened.add(new StackEntry(name, r));
+				}
+			} catch (FileNotFoundException e) {
+				// A concurrent compaction removed a table after we read
+				// the list. Close what was opened here and retry.
+				for (StackEntry o : opened) {
+					if (!isOpen(o.reader)) {
+						close(o.reader);
+					}
+				}
+				if (attempt + 1 >= MAX_RELOAD_ATTEMPTS) {
+					throw e;
+				}
+				continue;
+			}
+
+			for (ReftableReader r : current.values()) {
+				close(r);
+			}
+			boolean initial = merged == null;
+			stack = opened;
+			snapshot = s;
+			List<Reftable> readers = new ArrayList<>(opened.size());
+			for (StackEntry e : opened) {
+				readers.add(e.reader);
+			}
+			merged = new MergedReftable(readers);
+			if (!initial) {
+				onChange.run();
+			}
+			return;
+		}
+	}
+
+	private boolean sameNames(List<String> names) {
+		if (merged == null || names.size() != stack.size()) {
+			return false;
+		}
+		for (int i = 0; i < names.size(); i++) {
+			if (!names.get(i).equals(stack.get(i).name)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean isOpen(ReftableReader r) {
+		for (StackEntry e : stack) {
+			if (e.reader == r) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private List<String> readTableNames() throws IOException {
+		byte[] buf;
+		try {
+			buf = IO.readFully(stackPath);
+		} catch (FileNotFoundException e) {
+			if (stackPath.exists()) {
+				throw e;
+			}
+			return Collections.emptyList();
+		}
+		List<String> names = new ArrayList<>();
+		for (String line : IO.readLines(RawParseUtils.decode(buf))) {
+			if (!line.isEmpty()) {
+				names.add(line);
+			}
+		}
+		return names;
+	}
+
+	private static ReftableReader open(File f) throws IOException {
+		FileInputStream in = new FileInputStream(f);
+		// Compacting may write a table under a name used before, the size
+		// and modification time tell such tables apart in the shared cache.
+		String table = f.getAbsolutePath() + ':' + f.length() + ':'
+				+ f.lastModified();
+		return new ReftableReader(BlockSource.from(in),
+				ReftableBlockCache.getInstance(), table);
+	}
+
+	private static void close(ReftableReader r) {
+		try {
+			r.close();
+		} catch (IOException e) {
+			// Closing a file cannot fail in a way that matters here.
+		}
+	}
+
+	/**
+	 * Add a new table on top of the stack.
+	 *
+	 * @param w
+	 *            writes the content of the table.
+	 * @return {@code false} if {@code tables.list} is locked or was modified
+	 *         since the stack was last loaded; the caller should reload and
+	 *         retry.
+	 * @throws IOException
+	 *             the table could not be written.
+	 */
+	boolean addReftable(Writer w) throws IOException {
+		LockFile lock = new LockFile(stackPath);
+		try {
+			if (!lock.lockForAppend() || !isUpToDate()) {
+				return false;
+			}
+
+			long updateIndex = nextUpdateIndex();
+			String name = filename(updateIndex, updateIndex);
+			File tmp = File.createTempFile(name + "_", null, reftableDir); //$NON-NLS-1$
+			try {
+				try (FileOutputStream out = new FileOutputStream(tmp)) {
+					ReftableWriter writer = new ReftableWriter(
+							configSupplier.get())
+									.setMinUpdateIndex(updateIndex)
+									.setMaxUpdateIndex(updateIndex)
+									.begin(out);
+					w.call(writer, updateIndex);
+					writer.finish();
+				}
+				File dst = new File(reftableDir, name);
+				FileUtils.rename(tmp, dst, StandardCopyOption.ATOMIC_MOVE);
+				lock.write(encodeName(name));
+				if (!lock.commit()) {
+					FileUtils.delete(dst, FileUtils.SKIP_MISSING);
+					return false;
+				}
+			} finally {
+				FileUtils.delete(tmp, FileUtils.SKIP_MISSING);
+			}
+		} finally {
+			lock.unlock();
+		}
+		reload();
+		return true;
+	}
+
+	private boolean isUpToDate() throws IOException {
+		return sameNames(readTableNames());
+	}
+
+	/**
+	 * Compact the top of the stack until its table sizes are geometric.
+	 *
+	 * @return {@code false} if the stack was modified concurrently.
+	 * @throws IOException
+	 *             the tables could not be compacted.
+	 */
+	boolean autoCompact() throws IOException {
+		int n = stack.size();
+		if (n < 2) {
+			return true;
+		}
+		long[] sizes = new long[n];
+		for (int i = 0; i < n; i++) {
+			sizes[i] = stack.get(i).reader.size();
+		}
+		int first = n - 1;
+		long sum = sizes[first];
+		while (first > 0 && sizes[first - 1] <= 2 * sum) {
+			first--;
+			sum += sizes[first];
+		}
+		if (first == n - 1) {
+			return true;
+		}
+		return compactRange(first, n - 1);
+	}
+
+	/**
+	 * Compact all tables of the stack into a single table.
+	 *
+	 * @return {@code false} if the stack was modified concurrently.
+	 * @throws IOException
+	 *             the tables could not be compacted.
+	 */
+	boolean compactFully() throws IOException {
+		reload();
+		if (stack.size() < 2) {
+			return true;
+		}
+		return compactRange(0, stack.size() - 1);
+	}
+
+	private boolean compactRange(int first, int last) throws IOException {
+		List<StackEntry> tables = stack.subList(first, last + 1);
+		List<String> obsolete = new ArrayList<>(tables.size());
+		LockFile lock = new LockFile(stackPath);
+		try {
+			if (!lock.lock() || !isUpToDate()) {
+				return false;
+			}
+
+			List<ReftableReader> readers = new ArrayList<>(tables.size());
+			for (StackEntry e : tables) {
+				readers.add(e.reader);
+				obsolete.add(e.name);
+			}
+			String name = filename(readers.get(0).minUpdateIndex(),
+					readers.get(readers.size() - 1).maxUpdateIndex());
+			File tmp = File.createTempFile(name + "_", null, reftableDir); //$NON-NLS-1$
+			try {
+				try (FileOutputStream out = new FileOutputStream(tmp)) {
+					ReftableCompactor c = new ReftableCompactor();
+					c.setConfig(configSupplier.get());
+					// Deletions only need to shadow tables further down.
+					c.setIncludeDeletes(first > 0);
+					c.addAll(readers);
+					c.compact(out);
+				}
+				File dst = new File(reftableDir, name);
+				FileUtils.rename(tmp, dst, StandardCopyOption.ATOMIC_MOVE);
+
+				StringBuilder list = new StringBuilder();
+				for (int i = 0; i < first; i++) {
+					list.append(stack.get(i).name).append('\n');
+				}
+				list.append(name).append('\n');
+				for (int i = last + 1; i < stack.size(); i++) {
+					list.append(stack.get(i).name).append('\n');
+				}
+				lock.write(list.toString().getBytes(UTF_8));
+				if (!lock.commit()) {
+					FileUtils.delete(dst, FileUtils.SKIP_MISSING);
+					return false;
+				}
+			} finally {
+				FileUtils.delete(tmp, FileUtils.SKIP_MISSING);
+			}
+		} finally {
+			lock.unlock();
+		}
+
+		reload();
+		for (String name : obsolete) {
+			// Concurrent readers on other platforms may still hold the file
+			// open; they retry the reload when the file is gone.
+			new File(reftableDir, name).delete();
+		}
+		return true;
+	}
+
+	/**
+	 * Create a stack consisting of a single table.
+	 * <p>
+	 * Used to initialize the stack when converting a repository.
+	 *
+	 * @param reftableDir
+	 *            directory of the stack; must not contain a stack yet.
+	 * @param cfg
+	 *            configuration of the table.
+	 * @param minUpdateIndex
+	 *            minimum update index of the table.
+	 * @param maxUpdateIndex
+	 *            maximum update index of the table.
+	 * @param w
+	 *            writes the content of the table; the update index passed to
+	 *            it is {@code maxUpdateIndex}.
+	 * @throws IOException
+	 *             the stack could not be created.
+	 */
+	static void create(File reftableDir, ReftableConfig cfg,
+			long minUpdateIndex, long maxUpdateIndex, Writer w)
+			throws IOException {
+		FileUtils.mkdirs(reftableDir, true);
+		String name = filename(minUpdateIndex, maxUpdateIndex);
+		File dst = new File(reftableDir, name);
+		try (FileOutputStream out = new FileOutputStream(dst)) {
+			ReftableWriter writer = new ReftableWriter(cfg)
+					.setMinUpdateIndex(minUpdateIndex)
+					.setMaxUpdateIndex(maxUpdateIndex).begin(out);
+			w.call(writer, maxUpdateIndex);
+			writer.finish();
+		}
+		File list = new File(reftableDir, TABLES_LIST);
+		LockFile lock = new LockFile(list);
+		try {
+			if (!lock.lock()) {
+				throw new LockFailedException(list);
+			}
+			lock.write(encodeName(name));
+			if (!lock.commit()) {
+				throw new LockFailedException(list);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private static byte[] encodeName(String name) {
+		return (name + '\n').getBytes(UTF_8);
+	}
+
+	static String filename(long minUpdateIndex, long maxUpdateIndex) {
+		return String.format("%012x-%012x.ref", //$NON-NLS-1$
+				Long.valueOf(minUpdateIndex), Long.valueOf(maxUpdateIndex));
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void close() {
+		for (StackEntry e : stack) {
+			close(e.reader);
+		}
+		stack = Collections.emptyList();
+		merged = null;
+		snapshot = FileSnapshot.MISSING_FILE;
+	}
+}
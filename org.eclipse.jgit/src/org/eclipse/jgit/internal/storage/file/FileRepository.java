@@ -52,20 +52,28 @@
 import java.io.IOException;
 import java.text.MessageFormat;
 import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.TreeMap;
 
 import org.eclipse.jgit.annotations.Nullable;
 import org.eclipse.jgit.api.errors.JGitInternalException;
 import org.eclipse.jgit.attributes.AttributesNode;
 import org.eclipse.jgit.attributes.AttributesNodeProvider;
 import org.eclipse.jgit.errors.ConfigInvalidException;
+import org.eclipse.jgit.errors.LockFailedException;
 import org.eclipse.jgit.events.IndexChangedEvent;
+import org.eclipse.jgit.events.RefsChangedEvent;
 import org.eclipse.jgit.internal.JGitText;
 import org.eclipse.jgit.internal.storage.file.ObjectDirectory.AlternateHandle;
 import org.eclipse.jgit.internal.storage.file.ObjectDirectory.AlternateRepository;
+import org.eclipse.jgit.internal.storage.reftable.ReftableConfig;
 import org.eclipse.jgit.internal.storage.reftree.RefTreeDatabase;
 import org.eclipse.jgit.lib.BaseRepositoryBuilder;
 import org.eclipse.jgit.lib.ConfigConstants;
@@ -73,12 +81,15 @@
 import org.eclipse.jgit.lib.CoreConfig.HideDotFiles;
 import org.eclipse.jgit.lib.CoreConfig.SymLinks;
 import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectIdRef;
 import org.eclipse.jgit.lib.ProgressMonitor;
 import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.RefDatabase;
 import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.ReflogEntry;
 import org.eclipse.jgit.lib.ReflogReader;
 import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.SymbolicRef;
 import org.eclipse.jgit.storage.file.FileBasedConfig;
 import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
 import org.eclipse.jgit.storage.pack.PackConfig;
@@ -119,7 +130,7 @@ public class FileRepository extends Repository {
 	private final FileBasedConfig systemConfig;
 	private final FileBasedConfig userConfig;
 	private final FileBasedConfig repoConfig;
-	private final RefDatabase refs;
+	private RefDatabase refs;
 	private final ObjectDirectory objectDatabase;
 
 	private final Object snapshotLock = new Object();
@@ -211,9 +222,13 @@ public boolean isOutdated() {
 				ConfigConstants.CONFIG_KEY_REPO_FORMAT_VERSION, 0);
 
 		String reftype = repoConfig.getString(
-				"extensions", null, "refStorage"); //$NON-NLS-1$ //$NON-NLS-2$
+				ConfigConstants.CONFIG_EXTENSIONS_SECTION, null,
+				ConfigConstants.CONFIG_KEY_REF_STORAGE);
 		if (repositoryFormatVersion >= 1 && reftype != null) {
-			if (StringUtils.equalsIgnoreCase(reftype, "reftree")) { //$NON-NLS-1$
+			if (StringUtils.equalsIgnoreCase(reftype,
+					ConfigConstants.CONFIG_REF_STORAGE_REFTABLE)) {
+				refs = new FileReftableDatabase(this);
+			} else if (StringUtils.equalsIgnoreCase(reftype, "reftree")) { //$NON-NLS-1$
 				refs = new RefTreeDatabase(this, new RefDirectory(this));
 			} else {
 				throw new IOException(JGitText.get().unknownRepositoryFormat);
@@ -275,6 +290,9 @@ private void loadRepoConfig() throws IOException {
 	 * <p>
 	 * Create a new Git repository initializing the necessary files and
 	 * directories.
+	 * <p>
+	 * References are stored in reftables if {@code extensions.refStorage} or
+	 * {@code init.defaultRefFormat} is set to {@code reftable}.
 	 */
 	@Override
 	public void create(boolean bare) throws IOException {
@@ -291,6 +309,10 @@ public void create(boolean bare) throws IOException {
 		if (hideDotFiles != HideDotFiles.FALSE && !isBare()
 				&& getDirectory().getName().startsWith(".")) //$NON-NLS-1$
 			getFS().setHidden(getDirectory(), true);
+		boolean reftable = isReftableRequested(cfg);
+		if (reftable && !(refs instanceof FileReftableDatabase)) {
+			refs = new FileReftableDatabase(this);
+		}
 		refs.create();
 		objectDatabase.create();
 
@@ -333,7 +355,12 @@ && getDirectory().getName().startsWith(".")) //$NON-NLS-1$
 					ConfigConstants.CONFIG_KEY_SYMLINKS, symLinks.name()
 							.toLowerCase(Locale.ROOT));
 		cfg.setInt(ConfigConstants.CONFIG_CORE_SECTION, null,
-				ConfigConstants.CONFIG_KEY_REPO_FORMAT_VERSION, 0);
+				ConfigConstants.CONFIG_KEY_REPO_FORMAT_VERSION, reftable ? 1 : 0);
+		if (reftable) {
+			cfg.setString(ConfigConstants.CONFIG_EXTENSIONS_SECTION, null,
+					ConfigConstants.CONFIG_KEY_REF_STORAGE,
+					ConfigConstants.CONFIG_REF_STORAGE_REFTABLE);
+		}
 		cfg.setBoolean(ConfigConstants.CONFIG_CORE_SECTION, null,
 				ConfigConstants.CONFIG_KEY_FILEMODE, fileMode);
 		if (bare)
@@ -367,6 +394,209 @@ ConfigConstants.CONFIG_KEY_WORKTREE, getWorkTree()
 		cfg.save();
 	}
 
+	private static boolean isReftableRequested(FileBasedConfig cfg) {
+		return isReftable(cfg.getString(
+				ConfigConstants.CONFIG_EXTENSIONS_SECTION, null,
+				ConfigConstants.CONFIG_KEY_REF_STORAGE))
+				|| isReftable(cfg.getString(ConfigConstants.CONFIG_INIT_SECTION,
+						null, ConfigConstants.CONFIG_KEY_DEFAULT_REF_FORMAT));
+	}
+
+	private static boolean isReftable(@Nullable String format) {
+		return format != null && StringUtils.equalsIgnoreCase(format,
+				ConfigConstants.CONFIG_REF_STORAGE_REFTABLE);
+	}
+
+	/**
+	 * Convert the reference storage of this repository.
+	 * <p>
+	 * The repository must not be used concurrently while it is converted.
+	 *
+	 * @param format
+	 *            the new format, either {@code reftable} or {@code refdir}
+	 *            for loose and packed references.
+	 * @param writeLogs
+	 *            whether to convert the reflogs.
+	 * @param backup
+	 *            whether to keep the files of the old format, renamed with a
+	 *            {@code .old} suffix.
+	 * @throws java.io.IOException
+	 *             the references could not be converted, or {@code format}
+	 *             is unknown.
+	 * @since 5.4
+	 */
+	public void convertRefStorage(String format, boolean writeLogs,
+			boolean backup) throws IOException {
+		if (format.equals(ConfigConstants.CONFIG_REF_STORAGE_REFTABLE)) {
+			if (refs instanceof RefDirectory) {
+				convertToReftable(writeLogs, backup);
+			}
+		} else if (format.equals("refdir")) { //$NON-NLS-1$
+			if (refs instanceof FileReftableDatabase) {
+				convertToPackedRefs(writeLogs, backup);
+			}
+		} else {
+			throw new IOException(MessageFormat.format(
+					JGitText.get().unknownRefStorageFormat, format));
+		}
+	}
+
+	private void convertToReftable(boolean writeLogs, boolean backup)
+			throws IOException {
+		File reftableDir = new File(getDirectory(),
+				FileReftableDatabase.REFTABLE_DIR);
+		File tablesList = new File(reftableDir, FileReftableStack.TABLES_LIST);
+		if (tablesList.exists()) {
+			throw new IOException(MessageFormat.format(
+					JGitText.get().reftableDirExists, reftableDir));
+		}
+
+		Map<String, Ref> all = new TreeMap<>();
+		for (Ref r : refs.getRefsByPrefix(RefDatabase.ALL)) {
+			all.put(r.getName(), r);
+		}
+		Ref head = refs.exactRef(Constants.HEAD);
+		if (head != null) {
+			all.put(head.getName(), head);
+		}
+		List<Ref> newRefs = new ArrayList<>(all.size());
+		for (Ref r : all.values()) {
+			if (r.isSymbolic()) {
+				newRefs.add(new SymbolicRef(r.getName(),
+						new ObjectIdRef.Unpeeled(Ref.Storage.NEW,
+								r.getTarget().getName(), null)));
+			} else {
+				newRefs.add(r);
+			}
+		}
+
+		Map<String, List<ReflogEntry>> logs = new TreeMap<>();
+		int maxLog = 0;
+		if (writeLogs) {
+			for (String name : all.keySet()) {
+				List<ReflogEntry> entries = new ReflogReaderImpl(this, name)
+						.getReverseEntries();
+				if (!entries.isEmpty()) {
+					logs.put(name, entries);
+					maxLog = Math.max(maxLog, entries.size());
+				}
+			}
+		}
+
+		// Log entries of a reference need distinct update indexes; the
+		// references themselves are written at the highest one.
+		FileReftableStack.create(reftableDir, new ReftableConfig(getConfig()),
+				1, maxLog + 1, (w, updateIndex) -> {
+					w.sortAndWriteRefs(newRefs);
+					for (Map.Entry<String, List<ReflogEntry>> e : logs
+							.entrySet()) {
+						long idx = e.getValue().size();
+						for (ReflogEntry entry : e.getValue()) {
+							w.writeLog(e.getKey(), idx--, entry.getWho(),
+									entry.getOldId(), entry.getNewId(),
+									entry.getComment());
+						}
+					}
+				});
+
+		FileBasedConfig cfg = getConfig();
+		cfg.setInt(ConfigConstants.CONFIG_CORE_SECTION, null,
+				ConfigConstants.CONFIG_KEY_REPO_FORMAT_VERSION, 1);
+		cfg.setString(ConfigConstants.CONFIG_EXTENSIONS_SECTION, null,
+				ConfigConstants.CONFIG_KEY_REF_STORAGE,
+				ConfigConstants.CONFIG_REF_STORAGE_REFTABLE);
+		cfg.save();
+
+		refs.close();
+		retire(new File(getDirectory(), Constants.PACKED_REFS), backup);
+		retire(new File(getDirectory(), PackedRefsOverlay.OVERLAY_FILE),
+				backup);
+		retire(new File(getDirectory(), Constants.LOGS), backup);
+		retire(new File(getDirectory(), Constants.R_REFS), backup);
+		retire(new File(getDirectory(), Constants.HEAD), backup);
+		FileReftableDatabase.writeCompatibilityFiles(getDirectory());
+		refs = new FileReftableDatabase(this);
+		fireEvent(new RefsChangedEvent());
+	}
+
+	private void convertToPackedRefs(boolean writeLogs, boolean backup)
+			throws IOException {
+		FileReftableDatabase oldDb = (FileReftableDatabase) refs;
+		List<Ref> all = new ArrayList<>(
+				oldDb.getRefsByPrefix(RefDatabase.ALL));
+		Ref head = oldDb.exactRef(Constants.HEAD);
+		if (head != null && head.getObjectId() == null) {
+			// Unborn branch, not listed by getRefsByPrefix.
+			all.add(head);
+		}
+		Map<String, List<ReflogEntry>> logs = writeLogs ? oldDb.getReflogs()
+				: Collections.emptyMap();
+
+		// refs/heads is a file in a reftable repository.
+		FileUtils.delete(new File(getDirectory(), Constants.R_REFS),
+				FileUtils.RECURSIVE | FileUtils.SKIP_MISSING);
+		RefDirectory refDir = new RefDirectory(this);
+		refDir.create();
+		List<String> packed = new ArrayList<>(all.size());
+		for (Ref r : all) {
+			File f = refDir.fileFor(r.getName());
+			FileUtils.mkdirs(f.getParentFile(), true);
+			LockFile lck = new LockFile(f);
+			try {
+				if (!lck.lock()) {
+					throw new LockFailedException(f);
+				}
+				if (r.isSymbolic()) {
+					lck.write(Constants.encode(RefDirectory.SYMREF
+							+ r.getTarget().getName() + '\n'));
+				} else {
+					lck.write(r.getObjectId());
+					if (!r.getName().equals(Constants.HEAD)) {
+						packed.add(r.getName());
+					}
+				}
+				if (!lck.commit()) {
+					throw new LockFailedException(f);
+				}
+			} finally {
+				lck.unlock();
+			}
+		}
+		refDir.pack(packed);
+
+		ReflogWriter logWriter = new ReflogWriter(refDir, true);
+		for (Map.Entry<String, List<ReflogEntry>> e : logs.entrySet()) {
+			for (ReflogEntry entry : e.getValue()) {
+				logWriter.log(e.getKey(), entry);
+			}
+		}
+
+		FileBasedConfig cfg = getConfig();
+		cfg.setInt(ConfigConstants.CONFIG_CORE_SECTION, null,
+				ConfigConstants.CONFIG_KEY_REPO_FORMAT_VERSION, 0);
+		cfg.unset(ConfigConstants.CONFIG_EXTENSIONS_SECTION, null,
+				ConfigConstants.CONFIG_KEY_REF_STORAGE);
+		cfg.save();
+
+		oldDb.close();
+		retire(new File(getDirectory(), FileReftableDatabase.REFTABLE_DIR),
+				backup);
+		refs = refDir;
+		fireEvent(new RefsChangedEvent());
+	}
+
+	private static void retire(File f, boolean backup) throws IOException {
+		if (!f.exists()) {
+			return;
+		}
+		if (backup) {
+			FileUtils.rename(f, new File(f.getParentFile(),
+					f.getName() + ".old")); //$NON-NLS-1$
+		} else {
+			FileUtils.delete(f, FileUtils.RECURSIVE);
+		}
+	}
+
 	/**
 	 * Get the directory containing the objects owned by this repository
 	 *
@@ -570,9 +800,13 @@ public void notifyIndexChanged(boolean internal) {
 	@Override
 	public ReflogReader getReflogReader(String refName) throws IOException {
 		Ref ref = findRef(refName);
-		if (ref != null)
-			return new ReflogReaderImpl(this, ref.getName());
-		return null;
+		if (ref == null) {
+			return null;
+		}
+		if (refs instanceof FileReftableDatabase) {
+			return ((FileReftableDatabase) refs).getReflogReader(ref.getName());
+		}
+		return new ReflogReaderImpl(this, ref.getName());
 	}
 
 	/** {@inheritDoc} */
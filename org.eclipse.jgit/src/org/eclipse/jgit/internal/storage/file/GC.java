@@ -44,11 +44,16 @@
 package org.eclipse.jgit.internal.storage.file;
 
 import static org.eclipse.jgit.internal.storage.pack.PackExt.BITMAP_INDEX;
+import static org.eclipse.jgit.internal.storage.pack.PackExt.DELTA_SEARCH_CACHE;
 import static org.eclipse.jgit.internal.storage.pack.PackExt.INDEX;
+import static org.eclipse.jgit.internal.storage.pack.PackExt.REVERSE_INDEX;
 
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
@@ -91,6 +96,9 @@
 import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.errors.NoWorkTreeException;
 import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.internal.storage.commitgraph.CommitGraphWriter;
+import org.eclipse.jgit.internal.storage.midx.MultiPackIndexWriter;
+import org.eclipse.jgit.internal.storage.pack.DeltaSearchCache;
 import org.eclipse.jgit.internal.storage.pack.PackExt;
 import org.eclipse.jgit.internal.storage.pack.PackWriter;
 import org.eclipse.jgit.internal.storage.reftree.RefTreeNames;
@@ -148,6 +156,12 @@ public class GC {
 
 	private static final String INDEX_EXT = "." + PackExt.INDEX.getExtension(); //$NON-NLS-1$
 
+	private static final String REVERSE_INDEX_EXT = "." //$NON-NLS-1$
+			+ PackExt.REVERSE_INDEX.getExtension();
+
+	private static final String DELTA_SEARCH_CACHE_EXT = "." //$NON-NLS-1$
+			+ PackExt.DELTA_SEARCH_CACHE.getExtension();
+
 	private static final int DEFAULT_AUTOPACKLIMIT = 50;
 
 	private static final int DEFAULT_AUTOLIMIT = 6700;
@@ -767,13 +781,28 @@ private static boolean equals(Ref r1, Ref r2) {
 	}
 
 	/**
-	 * Packs all non-symbolic, loose refs into packed-refs.
+	 * Packs all non-symbolic, loose refs into packed-refs. Changes recorded in
+	 * the packed-refs overlay are folded into packed-refs.
+	 * <p>
+	 * If the repository stores its references in reftables the stack of
+	 * tables is compacted into a single table instead.
 	 *
 	 * @throws java.io.IOException
 	 */
 	public void packRefs() throws IOException {
-		Collection<Ref> refs = repo.getRefDatabase()
-				.getRefsByPrefix(Constants.R_REFS);
+		RefDatabase refDb = repo.getRefDatabase();
+		if (refDb instanceof FileReftableDatabase) {
+			// Reftables have no loose refs, compact the stack instead.
+			pm.beginTask(JGitText.get().packRefs, 1);
+			try {
+				((FileReftableDatabase) refDb).compactFully();
+			} finally {
+				pm.endTask();
+			}
+			return;
+		}
+
+		Collection<Ref> refs = refDb.getRefsByPrefix(Constants.R_REFS);
 		List<String> refsToBePacked = new ArrayList<>(refs.size());
 		pm.beginTask(JGitText.get().packRefs, refs.size());
 		try {
@@ -783,7 +812,8 @@ public void packRefs() throws IOException {
 					refsToBePacked.add(ref.getName());
 				pm.update(1);
 			}
-			((RefDirectory) repo.getRefDatabase()).pack(refsToBePacked);
+			((RefDirectory) refDb).pack(refsToBePacked);
+			((RefDirectory) refDb).foldPackedRefsOverlay();
 		} finally {
 			pm.endTask();
 		}
@@ -860,11 +890,13 @@ public Collection<PackFile> repack() throws IOException {
 			nonHeads.clear();
 		}
 
+		DeltaSearchCache deltaSearches = readDeltaSearchCache(toBeDeleted);
+
 		List<PackFile> ret = new ArrayList<>(2);
 		PackFile heads = null;
 		if (!allHeadsAndTags.isEmpty()) {
 			heads = writePack(allHeadsAndTags, PackWriter.NONE, allTags,
-					tagTargets, excluded);
+					tagTargets, excluded, refsBefore, deltaSearches);
 			if (heads != null) {
 				ret.add(heads);
 				excluded.add(0, heads.getIndex());
@@ -872,13 +904,13 @@ public Collection<PackFile> repack() throws IOException {
 		}
 		if (!nonHeads.isEmpty()) {
 			PackFile rest = writePack(nonHeads, allHeadsAndTags, PackWriter.NONE,
-					tagTargets, excluded);
+					tagTargets, excluded, refsBefore, deltaSearches);
 			if (rest != null)
 				ret.add(rest);
 		}
 		if (!txnHeads.isEmpty()) {
 			PackFile txn = writePack(txnHeads, PackWriter.NONE, PackWriter.NONE,
-					null, excluded);
+					null, excluded, null, null);
 			if (txn != null)
 				ret.add(txn);
 		}
@@ -895,11 +927,113 @@ public Collection<PackFile> repack() throws IOException {
 		deleteOrphans();
 		deleteTempPacksIdx();
 
+		if (shouldWriteCommitGraph()) {
+			Set<ObjectId> tips = new HashSet<>(allHeadsAndTags);
+			tips.addAll(nonHeads);
+			writeCommitGraph(tips);
+		}
+		if (shouldWriteMultiPackIndex()) {
+			writeMultiPackIndex();
+		}
+
 		lastPackedRefs = refsBefore;
 		lastRepackTime = time;
 		return ret;
 	}
 
+	private boolean shouldWriteCommitGraph() {
+		return repo.getConfig().getBoolean(ConfigConstants.CONFIG_GC_SECTION,
+				ConfigConstants.CONFIG_KEY_WRITE_COMMIT_GRAPH, false);
+	}
+
+	private boolean shouldWriteMultiPackIndex() {
+		// An existing multi-pack-index is kept up to date even if writing
+		// one is not enabled, as it would otherwise only cover deleted packs.
+		return repo.getConfig().getBoolean(ConfigConstants.CONFIG_GC_SECTION,
+				ConfigConstants.CONFIG_KEY_WRITE_MULTI_PACK_INDEX, false)
+				|| repo.getObjectDatabase().getMultiPackIndexFile().exists();
+	}
+
+	/**
+	 * Write a new multi-pack-index covering all packs of the repository,
+	 * replacing any existing multi-pack-index.
+	 * <p>
+	 * If the repository has no packs any existing multi-pack-index is
+	 * deleted.
+	 *
+	 * @throws java.io.IOException
+	 *             the pack indexes could not be read or the multi-pack-index
+	 *             could not be written.
+	 * @since 5.4
+	 */
+	public void writeMultiPackIndex() throws IOException {
+		checkCancelled();
+		ObjectDirectory odb = repo.getObjectDatabase();
+		Collection<PackFile> packs = odb.getPacks();
+		if (packs.isEmpty()) {
+			FileUtils.delete(odb.getMultiPackIndexFile(),
+					FileUtils.SKIP_MISSING);
+			return;
+		}
+
+		// Packs are sorted newest first, so objects stored more than once
+		// are attributed to the most recent pack.
+		MultiPackIndexWriter writer = new MultiPackIndexWriter();
+		for (PackFile p : packs) {
+			checkCancelled();
+			writer.addPack(ObjectDirectory.indexName(p), p.getIndex());
+		}
+		odb.writeMultiPackIndex(writer, pm);
+	}
+
+	/**
+	 * Write a new commit-graph file describing all commits reachable from the
+	 * given tips, replacing any existing commit-graph of the repository.
+	 * <p>
+	 * Nothing is written for a shallow repository, as the parents of its
+	 * shallow commits would be recorded wrongly.
+	 *
+	 * @param wants
+	 *            the tips whose history is stored in the commit-graph.
+	 *            Annotated tags are peeled, other non-commits are ignored.
+	 * @throws java.io.IOException
+	 *             the commits could not be read or the commit-graph could not
+	 *             be written.
+	 * @since 5.4
+	 */
+	public void writeCommitGraph(@NonNull Set<? extends ObjectId> wants)
+			throws IOException {
+		checkCancelled();
+		ObjectDirectory odb = repo.getObjectDatabase();
+		if (wants.isEmpty() || !odb.getShallowCommits().isEmpty()) {
+			return;
+		}
+
+		File graphFile = odb.getCommitGraphFile();
+		FileUtils.mkdirs(graphFile.getParentFile(), true);
+		LockFile lock = new LockFile(graphFile);
+		if (!lock.lock()) {
+			throw new IOException(MessageFormat
+					.format(JGitText.get().cannotLock, graphFile));
+		}
+		try (ObjectReader reader = repo.newObjectReader()) {
+			CommitGraphWriter writer = new CommitGraphWriter(reader);
+			writer.prepareCommitGraph(pm, wants);
+			checkCancelled();
+
+			lock.setFSync(true);
+			try (OutputStream out = lock.getOutputStream()) {
+				writer.writeCommitGraph(pm, out);
+			}
+			if (!lock.commit()) {
+				throw new IOException(MessageFormat.format(
+						JGitText.get().cannotCommitWriteTo, graphFile));
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
 	private static boolean isHead(Ref ref) {
 		return ref.getName().startsWith(Constants.R_HEADS);
 	}
@@ -963,8 +1097,9 @@ private void delete(Path d) {
 	/**
 	 * Deletes orphans
 	 * <p>
-	 * A file is considered an orphan if it is either a "bitmap" or an index
-	 * file, and its corresponding pack file is missing in the list.
+	 * A file is considered an orphan if it is either a "bitmap", a reverse
+	 * index or an index file, and its corresponding pack file is missing in
+	 * the list.
 	 * </p>
 	 */
 	private void deleteOrphans() {
@@ -974,8 +1109,9 @@ private void deleteOrphans() {
 			fileNames = files.map(path -> path.getFileName().toString())
 					.filter(name -> (name.endsWith(PACK_EXT)
 							|| name.endsWith(BITMAP_EXT)
+							|| name.endsWith(REVERSE_INDEX_EXT)
+							|| name.endsWith(DELTA_SEARCH_CACHE_EXT)
 							|| name.endsWith(INDEX_EXT)))
-					.sorted(Collections.reverseOrder())
 					.collect(Collectors.toList());
 		} catch (IOException e1) {
 			// ignore
@@ -984,17 +1120,16 @@ private void deleteOrphans() {
 			return;
 		}
 
-		String base = null;
+		Set<String> bases = fileNames.stream()
+				.filter(n -> n.endsWith(PACK_EXT))
+				.map(n -> n.substring(0, n.lastIndexOf('.')))
+				.collect(Collectors.toSet());
 		for (String n : fileNames) {
-			if (n.endsWith(PACK_EXT)) {
-				base = n.substring(0, n.lastIndexOf('.'));
-			} else {
-				if (base == null || !n.startsWith(base)) {
-					try {
-						Files.delete(packDir.resolve(n));
-					} catch (IOException e) {
-						LOG.error(e.getMessage(), e);
-					}
+			if (!bases.contains(n.substring(0, n.lastIndexOf('.')))) {
+				try {
+					Files.delete(packDir.resolve(n));
+				} catch (IOException e) {
+					LOG.error(e.getMessage(), e);
 				}
 			}
 		}
@@ -1137,9 +1272,36 @@ private Set<ObjectId> listNonHEADIndexObjects()
 		}
 	}
 
+	private DeltaSearchCache readDeltaSearchCache(Collection<PackFile> packs)
+			throws IOException {
+		PackConfig cfg = (pconfig == null) ? new PackConfig(repo) : pconfig;
+		if (!cfg.isCacheDeltaSearch()) {
+			return null;
+		}
+		DeltaSearchCache cache = new DeltaSearchCache();
+		for (PackFile p : packs) {
+			checkCancelled();
+			File f = nameFor(p.getPackName(),
+					"." + DELTA_SEARCH_CACHE.getExtension()); //$NON-NLS-1$
+			if (!f.exists()) {
+				continue;
+			}
+			try (InputStream in = new BufferedInputStream(
+					new FileInputStream(f))) {
+				cache.load(in);
+			} catch (IOException e) {
+				// The cache only saves work, search these objects again.
+				LOG.warn(MessageFormat.format(
+						JGitText.get().cannotReadDeltaSearchCache, f), e);
+			}
+		}
+		return cache;
+	}
+
 	private PackFile writePack(@NonNull Set<? extends ObjectId> want,
 			@NonNull Set<? extends ObjectId> have, @NonNull Set<ObjectId> tags,
-			Set<ObjectId> tagTargets, List<ObjectIdSet> excludeObjects)
+			Set<ObjectId> tagTargets, List<ObjectIdSet> excludeObjects,
+			Collection<Ref> deltaIslandRefs, DeltaSearchCache deltaSearches)
 			throws IOException {
 		checkCancelled();
 		File tmpPack = null;
@@ -1158,15 +1320,20 @@ private PackFile writePack(@NonNull Set<? extends ObjectId> want,
 			}
 			return Integer.signum(o1.hashCode() - o2.hashCode());
 		});
-		try (PackWriter pw = new PackWriter(
-				(pconfig == null) ? new PackConfig(repo) : pconfig,
-				repo.newObjectReader())) {
+		PackConfig cfg = (pconfig == null) ? new PackConfig(repo) : pconfig;
+		try (PackWriter pw = new PackWriter(cfg, repo.newObjectReader())) {
 			// prepare the PackWriter
 			pw.setDeltaBaseAsOffset(true);
 			pw.setReuseDeltaCommits(false);
 			if (tagTargets != null) {
 				pw.setTagTargets(tagTargets);
 			}
+			pw.setDeltaIslandRefs(deltaIslandRefs);
+			DeltaSearchCache searchCache = null;
+			if (deltaSearches != null) {
+				searchCache = new DeltaSearchCache(deltaSearches);
+				pw.setDeltaSearchCache(searchCache);
+			}
 			if (excludeObjects != null)
 				for (ObjectIdSet idx : excludeObjects)
 					pw.excludeObjects(idx);
@@ -1206,6 +1373,37 @@ private PackFile writePack(@NonNull Set<? extends ObjectId> want,
 				idxChannel.force(true);
 			}
 
+			if (cfg.isWriteReverseIndex()) {
+				File tmpRev = new File(packdir, tmpBase + ".rev_tmp"); //$NON-NLS-1$
+				tmpExts.put(REVERSE_INDEX, tmpRev);
+
+				if (!tmpRev.createNewFile())
+					throw new IOException(MessageFormat.format(
+							JGitText.get().cannotCreateIndexfile,
+							tmpRev.getPath()));
+
+				try (FileOutputStream fos = new FileOutputStream(tmpRev);
+						FileChannel revChannel = fos.getChannel();
+						OutputStream revStream = Channels
+								.newOutputStream(revChannel)) {
+					pw.writeReverseIndex(revStream);
+					revChannel.force(true);
+				}
+			}
+
+			if (searchCache != null) {
+				File tmpCache = new File(packdir, tmpBase + ".dcache_tmp"); //$NON-NLS-1$
+				tmpExts.put(DELTA_SEARCH_CACHE, tmpCache);
+
+				try (FileOutputStream fos = new FileOutputStream(tmpCache);
+						FileChannel cacheChannel = fos.getChannel();
+						OutputStream cacheStream = Channels
+								.newOutputStream(cacheChannel)) {
+					searchCache.write(cacheStream);
+					cacheChannel.force(true);
+				}
+			}
+
 			if (pw.prepareBitmapIndex(pm)) {
 				File tmpBitmapIdx = new File(packdir, tmpBase + ".bitmap_tmp"); //$NON-NLS-1$
 				tmpExts.put(BITMAP_INDEX, tmpBitmapIdx);
@@ -0,0 +1,332 @@
+/*
+ * Copyright (C) 2019, Google LLC.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.text.MessageFormat;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.lib.AbbreviatedObjectId;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * Support for the pack index v2 format, reading directly from a memory mapped
+ * copy of the file.
+ * <p>
+ * Unlike {@link PackIndexV2} nothing but the fan-out table is copied onto the
+ * heap, making the index available almost immediately after opening and
+ * leaving the operating system in charge of paging the tables in and out.
+ * As the tables are stored contiguously the nth object's name, CRC and offset
+ * can be found without consulting the fan-out table, which also speeds up the
+ * position based lookups done by {@link PackReverseIndex}.
+ */
+class MappedPackIndexV2 extends PackIndex {
+	private static final long IS_O64 = 1L << 31;
+
+	private static final int FANOUT = 256;
+
+	private static final int HEADER_LENGTH = 8;
+
+	private static final int FANOUT_LENGTH = FANOUT * 4;
+
+	private static final int TRAILER_LENGTH = 2 * Constants.OBJECT_ID_LENGTH;
+
+	private static final int ID_INTS = Constants.OBJECT_ID_LENGTH / 4;
+
+	private final ByteBuffer buf;
+
+	private final long[] fanoutTable;
+
+	private final int objectCnt;
+
+	private final int namesPos;
+
+	private final int crc32Pos;
+
+	private final int offset32Pos;
+
+	private final int offset64Pos;
+
+	private final int offset64Cnt;
+
+	/**
+	 * Map an index file.
+	 *
+	 * @param idxFile
+	 *            the index file, which must start with the version 2 header.
+	 * @return the index, or null if the file is too large to be mapped as a
+	 *         single buffer.
+	 * @throws IOException
+	 *             the file cannot be mapped or is corrupt.
+	 */
+	static MappedPackIndexV2 map(File idxFile) throws IOException {
+		ByteBuffer map;
+		try (FileChannel ch = FileChannel.open(idxFile.toPath())) {
+			long size = ch.size();
+			if (size > Integer.MAX_VALUE) {
+				return null;
+			}
+			try {
+				map = ch.map(MapMode.READ_ONLY, 0, size);
+			} catch (IOException ioe1) {
+				// Like PackFile.mmap, assume we ran out of virtual memory
+				// and try again once unreachable mappings are released.
+				System.gc();
+				System.runFinalization();
+				map = ch.map(MapMode.READ_ONLY, 0, size);
+			}
+		}
+		return new MappedPackIndexV2(map);
+	}
+
+	MappedPackIndexV2(ByteBuffer buf) throws IOException {
+		this.buf = buf;
+		int size = buf.limit();
+		if (size < HEADER_LENGTH + FANOUT_LENGTH + TRAILER_LENGTH) {
+			throw new IOException(JGitText.get().unexpectedEndOfInput);
+		}
+
+		fanoutTable = new long[FANOUT];
+		for (int k = 0; k < FANOUT; k++) {
+			fanoutTable[k] = buf.getInt(HEADER_LENGTH + k * 4) & 0xffffffffL;
+			long bucketCnt = k == 0 ? fanoutTable[k]
+					: fanoutTable[k] - fanoutTable[k - 1];
+			if (bucketCnt < 0) {
+				throw new IOException(MessageFormat.format(
+						JGitText.get().indexFileCorruptedNegativeBucketCount,
+						Long.valueOf(bucketCnt)));
+			}
+		}
+
+		long cnt = fanoutTable[FANOUT - 1];
+		long tables = cnt * (Constants.OBJECT_ID_LENGTH + 8);
+		namesPos = HEADER_LENGTH + FANOUT_LENGTH;
+		if (namesPos + tables + TRAILER_LENGTH > size) {
+			throw new IOException(JGitText.get().unexpectedEndOfInput);
+		}
+		objectCnt = (int) cnt;
+		crc32Pos = namesPos + objectCnt * Constants.OBJECT_ID_LENGTH;
+		offset32Pos = crc32Pos + objectCnt * 4;
+		offset64Pos = offset32Pos + objectCnt * 4;
+		offset64Cnt = (size - TRAILER_LENGTH - offset64Pos) / 8;
+
+		packChecksum = new byte[Constants.OBJECT_ID_LENGTH];
+		ByteBuffer trailer = buf.duplicate();
+		trailer.position(size - TRAILER_LENGTH);
+		trailer.get(packChecksum);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getObjectCount() {
+		return objectCnt;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getOffset64Count() {
+		return offset64Cnt;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public ObjectId getObjectId(long nthPosition) {
+		return ObjectId.fromRaw(readName((int) nthPosition));
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	long getOffset(long nthPosition) {
+		return offsetAt((int) nthPosition);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long findOffset(AnyObjectId objId) {
+		int nth = findPosition(objId);
+		if (nth < 0) {
+			return -1;
+		}
+		return offsetAt(nth);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long findCRC32(AnyObjectId objId) throws MissingObjectException {
+		int nth = findPosition(objId);
+		if (nth < 0) {
+			throw new MissingObjectException(objId.copy(), "unknown"); //$NON-NLS-1$
+		}
+		return buf.getInt(crc32Pos + nth * 4) & 0xffffffffL;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public boolean hasCRC32Support() {
+		return true;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Iterator<MutableEntry> iterator() {
+		return new EntriesIteratorMapped();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void resolve(Set<ObjectId> matches, AbbreviatedObjectId id,
+			int matchLimit) throws IOException {
+		int levelOne = id.getFirstByte();
+		int low = bucketStart(levelOne);
+		int high = (int) fanoutTable[levelOne];
+		int[] name = new int[ID_INTS];
+		while (low < high) {
+			int p = (low + high) >>> 1;
+			int cmp = id.prefixCompare(readName(p, name), 0);
+			if (cmp < 0) {
+				high = p;
+			} else if (cmp == 0) {
+				// We may have landed in the middle of the matches. Move
+				// backwards to the start of matches, then walk forwards.
+				int first = bucketStart(levelOne);
+				while (first < p
+						&& id.prefixCompare(readName(p - 1, name), 0) == 0) {
+					p--;
+				}
+				int max = (int) fanoutTable[levelOne];
+				for (; p < max
+						&& id.prefixCompare(readName(p, name), 0) == 0; p++) {
+					matches.add(ObjectId.fromRaw(name));
+					if (matches.size() > matchLimit) {
+						break;
+					}
+				}
+				return;
+			} else {
+				low = p + 1;
+			}
+		}
+	}
+
+	private int findPosition(AnyObjectId objId) {
+		int levelOne = objId.getFirstByte();
+		int low = bucketStart(levelOne);
+		int high = (int) fanoutTable[levelOne];
+		int[] name = new int[ID_INTS];
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			int cmp = objId.compareTo(readName(mid, name), 0);
+			if (cmp < 0) {
+				high = mid;
+			} else if (cmp == 0) {
+				return mid;
+			} else {
+				low = mid + 1;
+			}
+		}
+		return -1;
+	}
+
+	private int bucketStart(int levelOne) {
+		return levelOne == 0 ? 0 : (int) fanoutTable[levelOne - 1];
+	}
+
+	private long offsetAt(int nth) {
+		long p = buf.getInt(offset32Pos + nth * 4) & 0xffffffffL;
+		if ((p & IS_O64) != 0) {
+			return buf.getLong(offset64Pos + 8 * (int) (p & ~IS_O64));
+		}
+		return p;
+	}
+
+	private int[] readName(int nth) {
+		return readName(nth, new int[ID_INTS]);
+	}
+
+	private int[] readName(int nth, int[] dst) {
+		int p = namesPos + nth * Constants.OBJECT_ID_LENGTH;
+		for (int i = 0; i < ID_INTS; i++) {
+			dst[i] = buf.getInt(p + i * 4);
+		}
+		return dst;
+	}
+
+	private class EntriesIteratorMapped extends EntriesIterator {
+		final int[] name = new int[ID_INTS];
+
+		int nth = -1;
+
+		@Override
+		protected MutableEntry initEntry() {
+			return new MutableEntry() {
+				@Override
+				protected void ensureId() {
+					idBuffer.fromRaw(readName(nth, name));
+				}
+			};
+		}
+
+		@Override
+		public MutableEntry next() {
+			if (nth + 1 >= objectCnt) {
+				throw new NoSuchElementException();
+			}
+			nth++;
+			entry.offset = offsetAt(nth);
+			returnedNumber++;
+			return entry;
+		}
+	}
+
+}
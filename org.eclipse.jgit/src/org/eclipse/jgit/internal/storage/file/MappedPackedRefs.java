@@ -0,0 +1,462 @@
+/*
+ * Copyright (C) 2019, Google LLC.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.file;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.eclipse.jgit.lib.Constants.OBJECT_ID_STRING_LENGTH;
+import static org.eclipse.jgit.lib.Ref.Storage.PACKED;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.text.MessageFormat;
+
+import org.eclipse.jgit.annotations.Nullable;
+import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectIdRef;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.util.RawParseUtils;
+import org.eclipse.jgit.util.RefList;
+
+/**
+ * Memory mapped {@code packed-refs} file searched in place.
+ * <p>
+ * Parsing {@code packed-refs} allocates objects for every reference it
+ * contains, even if the caller is interested in a single reference. When
+ * {@code core.packedRefsMmap} is enabled {@link RefDirectory} maps the file
+ * instead and looks up references, or the range of references sharing a
+ * prefix, by binary search over its sorted lines, parsing only the lines it
+ * returns.
+ * <p>
+ * Binary search requires the lines to be sorted by reference name. This is
+ * trusted if the header declares the {@code sorted} trait, as written by C Git
+ * and JGit, and otherwise verified once by scanning the file without
+ * allocating references. Unsorted files are not {@link #isSearchable()
+ * searchable}.
+ * <p>
+ * Changes recorded in the {@link PackedRefsOverlay overlay} of the file are
+ * applied to the references found. When only the overlay changed the mapping
+ * of the file is reused. The file is hashed, once per mapping, only to check
+ * that an overlay applies to it, or to {@link #getId() identify} the content
+ * after it changed.
+ * <p>
+ * Some platforms (for example Windows) cannot replace a file while it is
+ * mapped, the option should not be enabled on them.
+ */
+class MappedPackedRefs {
+	private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+	/** Length of the "{id} " prefix of a reference line. */
+	private static final int NAME_OFFSET = OBJECT_ID_STRING_LENGTH + 1;
+
+	private final File file;
+
+	private final FileSnapshot snapshot;
+
+	private final FileSnapshot overlaySnapshot;
+
+	private final ByteBuffer buf;
+
+	/** Offset of the first reference line, after the header. */
+	private final int start;
+
+	private final boolean peeled;
+
+	private final boolean searchable;
+
+	@Nullable
+	private final PackedRefsOverlay overlay;
+
+	/** Id of the content of the file, computed when first needed. */
+	@Nullable
+	private volatile ObjectId baseId;
+
+	private MappedPackedRefs(File file, FileSnapshot snapshot,
+			FileSnapshot overlaySnapshot, ByteBuffer buf, int start,
+			boolean peeled, boolean searchable,
+			@Nullable PackedRefsOverlay overlay, @Nullable ObjectId baseId) {
+		this.file = file;
+		this.snapshot = snapshot;
+		this.overlaySnapshot = overlaySnapshot;
+		this.buf = buf;
+		this.start = start;
+		this.peeled = peeled;
+		this.searchable = searchable;
+		this.overlay = overlay;
+		this.baseId = baseId;
+	}
+
+	/**
+	 * Map a {@code packed-refs} file.
+	 *
+	 * @param file
+	 *            the {@code packed-refs} file; may not exist.
+	 * @param overlayFile
+	 *            the overlay of the {@code packed-refs} file; may not exist.
+	 * @param previous
+	 *            an earlier mapping of the file, reused if the file did not
+	 *            change since; {@code null} to always map the file.
+	 * @return the mapped file.
+	 * @throws java.io.IOException
+	 *             the file cannot be mapped or its overlay cannot be read.
+	 */
+	static MappedPackedRefs open(File file, File overlayFile,
+			@Nullable MappedPackedRefs previous) throws IOException {
+		if (previous != null && !previous.snapshot.isModified(file)) {
+			// The file did not change, only its overlay may have.
+			return previous.withOverlay(overlayFile);
+		}
+
+		FileSnapshot snapshot = FileSnapshot.save(file);
+		ByteBuffer buf;
+		ObjectId id = null;
+		try (FileChannel ch = FileChannel.open(file.toPath(),
+				StandardOpenOption.READ)) {
+			long size = ch.size();
+			if (size > Integer.MAX_VALUE) {
+				// Too large to be addressed by a single buffer.
+				return new MappedPackedRefs(file, snapshot,
+						FileSnapshot.save(overlayFile), EMPTY, 0, false, false,
+						null, null);
+			}
+			buf = size == 0 ? EMPTY
+					: ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+		} catch (NoSuchFileException noPackedRefs) {
+			buf = EMPTY;
+			// Same id as RefDirectory uses for a missing file.
+			id = ObjectId.zeroId();
+		}
+
+		int start = 0;
+		String traits = ""; //$NON-NLS-1$
+		if (buf.limit() > 0 && buf.get(0) == '#') {
+			start = lineEnd(buf, 0) + 1;
+			String header = decode(buf, 0, start - 1);
+			if (header.startsWith(RefDirectory.PACKED_REFS_HEADER)) {
+				traits = header.substring(
+						RefDirectory.PACKED_REFS_HEADER.length());
+			}
+		}
+		boolean peeled = traits.contains(RefDirectory.PACKED_REFS_PEELED);
+		boolean searchable = traits.contains(RefDirectory.PACKED_REFS_SORTED)
+				|| isSorted(buf, start);
+		return new MappedPackedRefs(file, snapshot, FileSnapshot.MISSING_FILE,
+				buf, Math.min(start, buf.limit()), peeled, searchable, null,
+				id).withOverlay(overlayFile);
+	}
+
+	// Get a mapping of the same file, with the current overlay.
+	private MappedPackedRefs withOverlay(File overlayFile) throws IOException {
+		FileSnapshot overlaySnapshot = FileSnapshot.save(overlayFile);
+		PackedRefsOverlay o = PackedRefsOverlay.read(overlayFile);
+		if (o != null && searchable && !o.getBaseId().equals(getBaseId())) {
+			// packed-refs was rewritten, the overlay is already folded.
+			o = null;
+		}
+		return new MappedPackedRefs(file, snapshot, overlaySnapshot, buf,
+				start, peeled, searchable, o, baseId);
+	}
+
+	/**
+	 * Get the id of the content, as {@code RefDirectory.PackedRefList} would
+	 * compute it.
+	 *
+	 * @return the id of the overlay if one applies, otherwise the id of the
+	 *         file.
+	 */
+	ObjectId getId() {
+		PackedRefsOverlay o = overlay;
+		return o != null ? o.getId() : getBaseId();
+	}
+
+	private ObjectId getBaseId() {
+		ObjectId id = baseId;
+		if (id == null) {
+			MessageDigest md = Constants.newMessageDigest();
+			md.update(buf.duplicate());
+			id = ObjectId.fromRaw(md.digest());
+			baseId = id;
+		}
+		return id;
+	}
+
+	/**
+	 * Whether the file or its overlay changed since they were mapped.
+	 *
+	 * @param overlayFile
+	 *            the overlay of the {@code packed-refs} file.
+	 * @return {@code true} if the file must be mapped again.
+	 */
+	boolean isModified(File overlayFile) {
+		return snapshot.isModified(file)
+				|| overlaySnapshot.isModified(overlayFile);
+	}
+
+	/**
+	 * Whether references can be looked up in place.
+	 *
+	 * @return {@code true} if the file is sorted and {@link #get(String)} may
+	 *         be used.
+	 */
+	boolean isSearchable() {
+		return searchable;
+	}
+
+	/**
+	 * Look up a packed reference.
+	 *
+	 * @param name
+	 *            name of the reference.
+	 * @return the reference, or {@code null} if it is not packed.
+	 * @throws java.io.IOException
+	 *             the file is corrupt.
+	 */
+	@Nullable
+	Ref get(String name) throws IOException {
+		PackedRefsOverlay o = overlay;
+		if (o != null) {
+			Ref e = o.getEntry(name);
+			if (e != null) {
+				return PackedRefsOverlay.isDeleted(e) ? null : e;
+			}
+		}
+
+		byte[] key = name.getBytes(UTF_8);
+		int low = start;
+		int high = buf.limit();
+		while (low < high) {
+			int rec = startOfRecord(low + (high - low) / 2);
+			int cmp = compare(rec, key);
+			if (cmp < 0) {
+				low = endOfRecord(rec);
+			} else if (cmp > 0) {
+				high = rec;
+			} else {
+				return parse(rec);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Get the packed references whose names start with a prefix.
+	 *
+	 * @param prefix
+	 *            prefix of the names of the references.
+	 * @return the matching references, sorted by name.
+	 * @throws java.io.IOException
+	 *             the file is corrupt.
+	 */
+	RefList<Ref> getRefsByPrefix(String prefix) throws IOException {
+		byte[] key = prefix.getBytes(UTF_8);
+		int low = start;
+		int high = buf.limit();
+		while (low < high) {
+			int rec = startOfRecord(low + (high - low) / 2);
+			if (compare(rec, key) < 0) {
+				low = endOfRecord(rec);
+			} else {
+				high = rec;
+			}
+		}
+
+		RefList.Builder<Ref> refs = new RefList.Builder<>();
+		for (int rec = low; rec < buf.limit() && hasPrefix(rec, key);
+				rec = endOfRecord(rec)) {
+			refs.add(parse(rec));
+		}
+		PackedRefsOverlay o = overlay;
+		if (o != null) {
+			return o.applyTo(refs.toRefList(), prefix);
+		}
+		return refs.toRefList();
+	}
+
+	private boolean hasPrefix(int rec, byte[] key) throws IOException {
+		int name = nameOffset(rec);
+		int end = lineEnd(buf, rec);
+		if (end - name < key.length) {
+			return false;
+		}
+		return compare(buf, name, name + key.length, key, 0, key.length) == 0;
+	}
+
+	private Ref parse(int rec) {
+		int end = lineEnd(buf, rec);
+		byte[] line = bytes(rec, end);
+		ObjectId id = ObjectId.fromString(line, 0);
+		String name = RawParseUtils.decode(UTF_8, line, NAME_OFFSET,
+				line.length);
+		int next = end + 1;
+		if (next + 1 + OBJECT_ID_STRING_LENGTH <= buf.limit()
+				&& buf.get(next) == '^') {
+			ObjectId peeledId = ObjectId.fromString(
+					bytes(next + 1, next + 1 + OBJECT_ID_STRING_LENGTH), 0);
+			return new ObjectIdRef.PeeledTag(PACKED, name, id, peeledId);
+		}
+		if (peeled) {
+			return new ObjectIdRef.PeeledNonTag(PACKED, name, id);
+		}
+		return new ObjectIdRef.Unpeeled(PACKED, name, id);
+	}
+
+	// Move back to the first byte of the reference line containing pos,
+	// skipping peeled lines.
+	private int startOfRecord(int pos) {
+		int p = pos;
+		while (p > start && (buf.get(p - 1) != '\n' || buf.get(p) == '^')) {
+			p--;
+		}
+		return p;
+	}
+
+	// Move forward to the first byte of the reference line following rec.
+	private int endOfRecord(int rec) {
+		int p = rec;
+		int end = buf.limit();
+		while (++p < end && (buf.get(p - 1) != '\n' || buf.get(p) == '^')) {
+			// Skip the line and its peeled lines.
+		}
+		return p;
+	}
+
+	// Compare the name of the reference line at rec with key.
+	private int compare(int rec, byte[] key) throws IOException {
+		return compare(buf, nameOffset(rec), lineEnd(buf, rec), key, 0,
+				key.length);
+	}
+
+	// Get the offset of the name in the reference line at rec.
+	private int nameOffset(int rec) throws IOException {
+		int end = lineEnd(buf, rec);
+		if (end - rec <= NAME_OFFSET || buf.get(rec + NAME_OFFSET - 1) != ' ') {
+			throw new IOException(MessageFormat.format(
+					JGitText.get().packedRefsCorruptionDetected,
+					file.getAbsolutePath()));
+		}
+		return rec + NAME_OFFSET;
+	}
+
+	private byte[] bytes(int from, int to) {
+		byte[] r = new byte[to - from];
+		ByteBuffer b = buf.duplicate();
+		b.position(from);
+		b.get(r);
+		return r;
+	}
+
+	private static int compare(ByteBuffer b, int aPos, int aEnd, byte[] key,
+			int bPos, int bEnd) {
+		while (aPos < aEnd && bPos < bEnd) {
+			int cmp = (b.get(aPos++) & 0xff) - (key[bPos++] & 0xff);
+			if (cmp != 0) {
+				return cmp;
+			}
+		}
+		return (aEnd - aPos) - (bEnd - bPos);
+	}
+
+	private static int lineEnd(ByteBuffer b, int pos) {
+		int p = pos;
+		int end = b.limit();
+		while (p < end && b.get(p) != '\n') {
+			p++;
+		}
+		return p;
+	}
+
+	private static String decode(ByteBuffer b, int from, int to) {
+		byte[] r = new byte[to - from];
+		ByteBuffer d = b.duplicate();
+		d.position(from);
+		d.get(r);
+		return RawParseUtils.decode(UTF_8, r);
+	}
+
+	// Check that the reference lines are well formed and sorted by name.
+	private static boolean isSorted(ByteBuffer b, int start) {
+		int prev = -1;
+		int prevEnd = -1;
+		int p = start;
+		int end = b.limit();
+		while (p < end) {
+			int e = lineEnd(b, p);
+			byte c = b.get(p);
+			if (c == '^') {
+				if (prev < 0) {
+					return false;
+				}
+			} else if (c == '#' || e - p <= NAME_OFFSET
+					|| b.get(p + NAME_OFFSET - 1) != ' ') {
+				return false;
+			} else {
+				int name = p + NAME_OFFSET;
+				if (prev >= 0 && compare(b, prev, prevEnd, b, name, e) >= 0) {
+					return false;
+				}
+				prev = name;
+				prevEnd = e;
+			}
+			p = e + 1;
+		}
+		return true;
+	}
+
+	private static int compare(ByteBuffer b, int aPos, int aEnd,
+			ByteBuffer c, int bPos, int bEnd) {
+		while (aPos < aEnd && bPos < bEnd) {
+			int cmp = (b.get(aPos++) & 0xff) - (c.get(bPos++) & 0xff);
+			if (cmp != 0) {
+				return cmp;
+			}
+		}
+		return (aEnd - aPos) - (bEnd - bPos);
+	}
+}
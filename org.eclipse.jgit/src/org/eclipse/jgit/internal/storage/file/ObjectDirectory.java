@@ -52,6 +52,7 @@
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
@@ -68,10 +69,16 @@
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicReference;
 
+import org.eclipse.jgit.annotations.Nullable;
 import org.eclipse.jgit.errors.CorruptObjectException;
 import org.eclipse.jgit.errors.PackInvalidException;
 import org.eclipse.jgit.errors.PackMismatchException;
 import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.internal.storage.commitgraph.CommitGraph;
+import org.eclipse.jgit.internal.storage.commitgraph.CommitGraphLoader;
+import org.eclipse.jgit.internal.storage.midx.MultiPackIndex;
+import org.eclipse.jgit.internal.storage.midx.MultiPackIndexLoader;
+import org.eclipse.jgit.internal.storage.midx.MultiPackIndexWriter;
 import org.eclipse.jgit.internal.storage.pack.ObjectToPack;
 import org.eclipse.jgit.internal.storage.pack.PackExt;
 import org.eclipse.jgit.internal.storage.pack.PackWriter;
@@ -80,9 +87,11 @@
 import org.eclipse.jgit.lib.Config;
 import org.eclipse.jgit.lib.ConfigConstants;
 import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.NullProgressMonitor;
 import org.eclipse.jgit.lib.ObjectDatabase;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ProgressMonitor;
 import org.eclipse.jgit.lib.RepositoryCache;
 import org.eclipse.jgit.lib.RepositoryCache.FileKey;
 import org.eclipse.jgit.util.FS;
@@ -115,6 +124,9 @@ public class ObjectDirectory extends FileObjectDatabase {
 	private static final PackList NO_PACKS = new PackList(
 			FileSnapshot.DIRTY, new PackFile[0]);
 
+	private static final CommitGraphSnapshot NO_COMMIT_GRAPH = new CommitGraphSnapshot(
+			FileSnapshot.MISSING_FILE, null);
+
 	/** Maximum number of candidates offered as resolutions of abbreviation. */
 	private static final int RESOLVE_ABBREV_LIMIT = 256;
 
@@ -132,6 +144,10 @@ public class ObjectDirectory extends FileObjectDatabase {
 
 	private final File alternatesFile;
 
+	private final File commitGraphFile;
+
+	private final File multiPackIndexFile;
+
 	private final FS fs;
 
 	private final AtomicReference<AlternateHandle[]> alternates;
@@ -146,6 +162,8 @@ public class ObjectDirectory extends FileObjectDatabase {
 
 	final AtomicReference<PackList> packList;
 
+	private final AtomicReference<CommitGraphSnapshot> commitGraph;
+
 	/**
 	 * Initialize a reference to an on-disk object directory.
 	 *
@@ -172,7 +190,10 @@ public ObjectDirectory(final Config cfg, final File dir,
 		packDirectory = new File(objects, "pack"); //$NON-NLS-1$
 		preservedDirectory = new File(packDirectory, "preserved"); //$NON-NLS-1$
 		alternatesFile = new File(infoDirectory, "alternates"); //$NON-NLS-1$
+		commitGraphFile = new File(infoDirectory, "commit-graph"); //$NON-NLS-1$
+		multiPackIndexFile = new File(packDirectory, "multi-pack-index"); //$NON-NLS-1$
 		packList = new AtomicReference<>(NO_PACKS);
+		commitGraph = new AtomicReference<>(NO_COMMIT_GRAPH);
 		unpackedObjectCache = new UnpackedObjectCache();
 		this.fs = fs;
 		this.shallowFile = shallowFile;
@@ -351,7 +372,18 @@ boolean hasPackedObject(AnyObjectId objectId) {
 		PackList pList;
 		do {
 			pList = packList.get();
-			for (PackFile p : pList.packs) {
+			PackFile[] search = pList.packs;
+			int pos = pList.findInMultiPackIndex(objectId);
+			if (pos >= 0) {
+				PackFile p = pList.getMultiPackIndexPack(pos);
+				if (p != null && !p.invalid()
+						&& !p.isCorrupt(pList.midx.getOffset(pos))) {
+					return true;
+				}
+			} else if (pList.midx != null) {
+				search = pList.uncovered;
+			}
+			for (PackFile p : search) {
 				try {
 					if (p.hasObject(objectId))
 						return true;
@@ -483,7 +515,29 @@ ObjectLoader openPackedObject(WindowCursor curs, AnyObjectId objectId) {
 		do {
 			SEARCH: for (;;) {
 				pList = packList.get();
-				for (PackFile p : pList.packs) {
+				PackFile[] search = pList.packs;
+				int pos = pList.findInMultiPackIndex(objectId);
+				if (pos >= 0) {
+					PackFile p = pList.getMultiPackIndexPack(pos);
+					if (p != null) {
+						try {
+							ObjectLoader ldr = p.get(curs,
+									pList.midx.getOffset(pos));
+							p.resetTransientErrorCount();
+							if (ldr != null)
+								return ldr;
+						} catch (PackMismatchException e) {
+							// Pack was modified; refresh the entire pack list.
+							if (searchPacksAgain(pList))
+								continue SEARCH;
+						} catch (IOException e) {
+							handlePackError(e, p);
+						}
+					}
+				} else if (pList.midx != null) {
+					search = pList.uncovered;
+				}
+				for (PackFile p : search) {
 					try {
 						ObjectLoader ldr = p.get(curs, objectId);
 						p.resetTransientErrorCount();
@@ -576,7 +630,29 @@ private long getPackedObjectSize(WindowCursor curs, AnyObjectId id) {
 		do {
 			SEARCH: for (;;) {
 				pList = packList.get();
-				for (PackFile p : pList.packs) {
+				PackFile[] search = pList.packs;
+				int pos = pList.findInMultiPackIndex(id);
+				if (pos >= 0) {
+					PackFile p = pList.getMultiPackIndexPack(pos);
+					if (p != null) {
+						try {
+							long len = p.getObjectSize(curs,
+									pList.midx.getOffset(pos));
+							p.resetTransientErrorCount();
+							if (0 <= len)
+								return len;
+						} catch (PackMismatchException e) {
+							// Pack was modified; refresh the entire pack list.
+							if (searchPacksAgain(pList))
+								continue SEARCH;
+						} catch (IOException e) {
+							handlePackError(e, p);
+						}
+					}
+				} else if (pList.midx != null) {
+					search = pList.uncovered;
+				}
+				for (PackFile p : search) {
 					try {
 						long len = p.getObjectSize(curs, id);
 						p.resetTransientErrorCount();
@@ -813,6 +889,135 @@ Set<ObjectId> getShallowCommits() throws IOException {
 		return shallowCommitsIds;
 	}
 
+	/**
+	 * Get the location of the commit-graph file.
+	 *
+	 * @return the location of the <code>info/commit-graph</code> file.
+	 */
+	public final File getCommitGraphFile() {
+		return commitGraphFile;
+	}
+
+	@Override
+	@Nullable
+	CommitGraph getCommitGraph() throws IOException {
+		if (!config.getBoolean(ConfigConstants.CONFIG_CORE_SECTION,
+				ConfigConstants.CONFIG_KEY_COMMIT_GRAPH, true)) {
+			return null;
+		}
+		// Parents recorded in the graph are wrong for shallow commits.
+		if (!getShallowCommits().isEmpty()) {
+			return null;
+		}
+
+		CommitGraphSnapshot o = commitGraph.get();
+		if (!o.snapshot.isModified(commitGraphFile)) {
+			return o.graph;
+		}
+
+		FileSnapshot snapshot = FileSnapshot.save(commitGraphFile);
+		CommitGraph graph = null;
+		try {
+			graph = CommitGraphLoader.open(commitGraphFile);
+		} catch (FileNotFoundException e) {
+			snapshot = FileSnapshot.MISSING_FILE;
+		} catch (IOException e) {
+			// A damaged commit-graph is only an optimization, walks fall
+			// back to parsing the commit objects.
+			LOG.warn(e.getMessage(), e);
+		}
+		commitGraph.compareAndSet(o, new CommitGraphSnapshot(snapshot, graph));
+		return graph;
+	}
+
+	/**
+	 * Get the location of the multi-pack-index file.
+	 *
+	 * @return the location of the <code>pack/multi-pack-index</code> file.
+	 */
+	public final File getMultiPackIndexFile() {
+		return multiPackIndexFile;
+	}
+
+	/**
+	 * Replace the multi-pack-index with the output of a writer.
+	 *
+	 * @param writer
+	 *            writer to which the packs to cover have been added.
+	 * @param pm
+	 *            progress monitor.
+	 * @throws IOException
+	 *             the multi-pack-index could not be locked or written.
+	 */
+	void writeMultiPackIndex(MultiPackIndexWriter writer, ProgressMonitor pm)
+			throws IOException {
+		LockFile lock = new LockFile(multiPackIndexFile);
+		if (!lock.lock()) {
+			throw new IOException(MessageFormat
+					.format(JGitText.get().cannotLock, multiPackIndexFile));
+		}
+		try {
+			commitMultiPackIndex(lock, writer, pm);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Add a newly created pack to an existing multi-pack-index.
+	 * <p>
+	 * The existing multi-pack-index is merged with the index of the new pack,
+	 * so the indexes of the packs it already covers are not read again. If
+	 * the repository has no multi-pack-index, or another process is updating
+	 * it, nothing is done and the pack is searched on its own.
+	 *
+	 * @param pack
+	 *            the new pack.
+	 */
+	void addToMultiPackIndex(PackFile pack) {
+		if (!config.getBoolean(ConfigConstants.CONFIG_CORE_SECTION,
+				ConfigConstants.CONFIG_KEY_MULTI_PACK_INDEX, true)
+				|| !multiPackIndexFile.exists()) {
+			return;
+		}
+		LockFile lock = new LockFile(multiPackIndexFile);
+		try {
+			if (!lock.lock()) {
+				return;
+			}
+			MultiPackIndex midx = MultiPackIndexLoader.open(multiPackIndexFile);
+			Set<String> live = new HashSet<>();
+			for (String name : midx.getPackNames()) {
+				if (new File(packDirectory, name).exists()) {
+					live.add(name);
+				}
+			}
+			MultiPackIndexWriter writer = new MultiPackIndexWriter();
+			writer.addPack(indexName(pack), pack.getIndex());
+			writer.addMultiPackIndex(midx, live);
+			commitMultiPackIndex(lock, writer, NullProgressMonitor.INSTANCE);
+		} catch (FileNotFoundException e) {
+			// Removed concurrently; a new one is written by the next GC.
+		} catch (IOException e) {
+			LOG.warn(e.getMessage(), e);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void commitMultiPackIndex(LockFile lock,
+			MultiPackIndexWriter writer, ProgressMonitor pm)
+			throws IOException {
+		lock.setFSync(true);
+		try (OutputStream out = lock.getOutputStream()) {
+			writer.write(pm, out);
+		}
+		if (!lock.commit()) {
+			throw new IOException(MessageFormat.format(
+					JGitText.get().cannotCommitWriteTo, multiPackIndexFile));
+		}
+	}
+
 	private void insertPack(PackFile pf) {
 		PackList o, n;
 		do {
@@ -832,7 +1037,7 @@ private void insertPack(PackFile pf) {
 			final PackFile[] newList = new PackFile[1 + oldList.length];
 			newList[0] = pf;
 			System.arraycopy(oldList, 0, newList, 1, oldList.length);
-			n = new PackList(o.snapshot, newList);
+			n = new PackList(o.snapshot, newList, o.midxSnapshot, o.midx);
 		} while (!packList.compareAndSet(o, n));
 	}
 
@@ -849,7 +1054,7 @@ private void removePack(PackFile deadPack) {
 			final PackFile[] newList = new PackFile[oldList.length - 1];
 			System.arraycopy(oldList, 0, newList, 0, j);
 			System.arraycopy(oldList, j + 1, newList, j, newList.length - j);
-			n = new PackList(o.snapshot, newList);
+			n = new PackList(o.snapshot, newList, o.midxSnapshot, o.midx);
 		} while (!packList.compareAndSet(o, n));
 		deadPack.close();
 	}
@@ -940,7 +1145,31 @@ private PackList scanPacksImpl(PackList old) {
 
 		final PackFile[] r = list.toArray(new PackFile[0]);
 		Arrays.sort(r, PackFile.SORT);
-		return new PackList(snapshot, r);
+		return newPackList(snapshot, r, old);
+	}
+
+	private PackList newPackList(FileSnapshot snapshot, PackFile[] packs,
+			PackList old) {
+		if (!config.getBoolean(ConfigConstants.CONFIG_CORE_SECTION,
+				ConfigConstants.CONFIG_KEY_MULTI_PACK_INDEX, true)) {
+			return new PackList(snapshot, packs);
+		}
+		FileSnapshot midxSnapshot = old.midxSnapshot;
+		MultiPackIndex midx = old.midx;
+		if (midxSnapshot.isModified(multiPackIndexFile)) {
+			midxSnapshot = FileSnapshot.save(multiPackIndexFile);
+			midx = null;
+			try {
+				midx = MultiPackIndexLoader.open(multiPackIndexFile);
+			} catch (FileNotFoundException e) {
+				midxSnapshot = FileSnapshot.MISSING_FILE;
+			} catch (IOException e) {
+				// A damaged multi-pack-index is only an optimization, the
+				// packs are searched one by one instead.
+				LOG.warn(e.getMessage(), e);
+			}
+		}
+		return new PackList(snapshot, packs, midxSnapshot, midx);
 	}
 
 	private static Map<String, PackFile> reuseMap(PackList old) {
@@ -1069,6 +1298,29 @@ public File fileFor(AnyObjectId objectId) {
 		return new File(new File(getDirectory(), d), f);
 	}
 
+	/**
+	 * Get the file name of the index of a pack, as recorded in the
+	 * multi-pack-index.
+	 *
+	 * @param pack
+	 *            the pack.
+	 * @return the name of the index file, e.g. {@code pack-1234.idx}.
+	 */
+	static String indexName(PackFile pack) {
+		return "pack-" + pack.getPackName() + '.' + INDEX.getExtension(); //$NON-NLS-1$
+	}
+
+	private static final class CommitGraphSnapshot {
+		final FileSnapshot snapshot;
+
+		final CommitGraph graph;
+
+		CommitGraphSnapshot(FileSnapshot snapshot, CommitGraph graph) {
+			this.snapshot = snapshot;
+			this.graph = graph;
+		}
+	}
+
 	static final class PackList {
 		/** State just before reading the pack directory. */
 		final FileSnapshot snapshot;
@@ -1076,9 +1328,69 @@ static final class PackList {
 		/** All known packs, sorted by {@link PackFile#SORT}. */
 		final PackFile[] packs;
 
+		/** State just before reading the multi-pack-index. */
+		final FileSnapshot midxSnapshot;
+
+		/** Multi-pack-index of the pack directory; null if there is none. */
+		final MultiPackIndex midx;
+
+		/** Known packs indexed by their multi-pack-index pack id. */
+		final PackFile[] midxPacks;
+
+		/** Known packs not covered by the multi-pack-index. */
+		final PackFile[] uncovered;
+
 		PackList(FileSnapshot monitor, PackFile[] packs) {
+			this(monitor, packs, FileSnapshot.MISSING_FILE, null);
+		}
+
+		PackList(FileSnapshot monitor, PackFile[] packs,
+				FileSnapshot midxSnapshot, MultiPackIndex midx) {
 			this.snapshot = monitor;
 			this.packs = packs;
+			this.midxSnapshot = midxSnapshot;
+			this.midx = midx;
+			if (midx == null) {
+				midxPacks = new PackFile[0];
+				uncovered = packs;
+				return;
+			}
+
+			String[] names = midx.getPackNames();
+			midxPacks = new PackFile[names.length];
+			List<PackFile> rest = new ArrayList<>();
+			for (PackFile p : packs) {
+				int id = Arrays.binarySearch(names, indexName(p));
+				if (id >= 0) {
+					midxPacks[id] = p;
+				} else {
+					rest.add(p);
+				}
+			}
+			uncovered = rest.toArray(new PackFile[0]);
+		}
+
+		/**
+		 * Find an object in the multi-pack-index.
+		 *
+		 * @param id
+		 *            the object to look for.
+		 * @return position of the object in {@link #midx}, or -1 if there is
+		 *         no multi-pack-index or it does not know the object.
+		 */
+		int findInMultiPackIndex(AnyObjectId id) {
+			return midx != null ? midx.findPosition(id) : -1;
+		}
+
+		/**
+		 * Get the pack holding an object found in the multi-pack-index.
+		 *
+		 * @param position
+		 *            position returned by {@link #findInMultiPackIndex}.
+		 * @return the pack, or null if the pack is no longer known.
+		 */
+		PackFile getMultiPackIndexPack(int position) {
+			return midxPacks[midx.getPackId(position)];
 		}
 	}
 
@@ -50,6 +50,8 @@
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.StandardCopyOption;
 import java.security.MessageDigest;
 import java.text.MessageFormat;
@@ -322,6 +324,14 @@ protected int readDatabase(byte[] dst, int pos, int cnt) throws IOException {
 		return out.read(dst, pos, cnt);
 	}
 
+	/** {@inheritDoc} */
+	@Override
+	protected PositionalReader newPositionalReader() {
+		FileChannel ch = out.getChannel();
+		return (position, dst, pos, cnt) -> ch
+				.read(ByteBuffer.wrap(dst, pos, cnt), position);
+	}
+
 	/** {@inheritDoc} */
 	@Override
 	protected boolean checkCRC(int oldCRC) {
@@ -0,0 +1,347 @@
+/*
+ * Copyright (C) 2019, Google LLC.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.file;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.DataInput;
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.MessageFormat;
+import java.util.Arrays;
+
+import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectIdOwnerMap;
+import org.eclipse.jgit.util.IO;
+import org.eclipse.jgit.util.NB;
+
+import com.googlecode.javaewah.EWAHCompressedBitmap;
+
+/**
+ * A layer of bitmaps stacked on top of the bitmap index of another pack.
+ * <p>
+ * Bitmap indexes are written when a pack is created by garbage collection.
+ * Commits created afterwards have no bitmaps, forcing reachability queries
+ * for recent tips to walk all history created since the last collection. A
+ * layer extends the bitmap index of the collected pack (the base) with the
+ * objects created since then and with bitmaps of recent commits, without
+ * rewriting the base pack.
+ * <p>
+ * Objects of the layer are numbered after the objects of the base, the first
+ * object of the layer has the position {@code base.getObjectCount()}. Bitmaps
+ * of the layer use these combined positions. Use
+ * {@link #layerOver(PackBitmapIndex)} to obtain a
+ * {@link org.eclipse.jgit.internal.storage.file.PackBitmapIndex} merging both
+ * layers.
+ *
+ * @see PackBitmapIndexLayerWriter
+ */
+public class PackBitmapIndexLayer {
+	static final byte[] MAGIC = { 'B', 'I', 'T', 'L' };
+
+	static final int VERSION = 1;
+
+	/**
+	 * Read a bitmap layer from a buffered stream.
+	 *
+	 * @param fd
+	 *            stream to read the layer from. The stream must be buffered
+	 *            as some small IOs are performed against the stream. The
+	 *            caller is responsible for closing the stream.
+	 * @return the layer.
+	 * @throws java.io.IOException
+	 *             the stream cannot be read or does not contain a valid
+	 *             bitmap layer.
+	 */
+	public static PackBitmapIndexLayer read(InputStream fd)
+			throws IOException {
+		return new PackBitmapIndexLayer(fd);
+	}
+
+	private final String baseName;
+
+	private final int baseObjectCount;
+
+	private final Entry[] objects;
+
+	private final ObjectIdOwnerMap<Entry> objectMap;
+
+	private final EWAHCompressedBitmap commits;
+
+	private final EWAHCompressedBitmap trees;
+
+	private final EWAHCompressedBitmap blobs;
+
+	private final EWAHCompressedBitmap tags;
+
+	private final ObjectIdOwnerMap<StoredBitmap> bitmaps;
+
+	private volatile Layered layered;
+
+	private PackBitmapIndexLayer(InputStream fd) throws IOException {
+		byte[] scratch = new byte[Constants.OBJECT_ID_LENGTH];
+		IO.readFully(fd, scratch, 0, 8);
+		for (int i = 0; i < MAGIC.length; i++) {
+			if (scratch[i] != MAGIC[i]) {
+				throw new IOException(MessageFormat.format(
+						JGitText.get().expectedGot, Arrays.toString(MAGIC),
+						Arrays.toString(Arrays.copyOf(scratch, MAGIC.length))));
+			}
+		}
+		int version = NB.decodeInt32(scratch, 4);
+		if (version != VERSION) {
+			throw new IOException(MessageFormat.format(
+					JGitText.get().unsupportedPackIndexVersion,
+					Integer.valueOf(version)));
+		}
+
+		SimpleDataInput dataInput = new SimpleDataInput(fd);
+		IO.readFully(fd, scratch, 0, 2);
+		byte[] name = new byte[NB.decodeUInt16(scratch, 0)];
+		IO.readFully(fd, name, 0, name.length);
+		baseName = new String(name, UTF_8);
+		baseObjectCount = dataInput.readInt();
+		int objectCount = dataInput.readInt();
+		int bitmapCount = dataInput.readInt();
+		if (baseObjectCount < 0 || objectCount < 0 || bitmapCount < 0
+				|| (long) baseObjectCount + objectCount > Integer.MAX_VALUE) {
+			throw new IOException(JGitText.get().indexFileIsTooLargeForJgit);
+		}
+
+		objects = new Entry[objectCount];
+		objectMap = new ObjectIdOwnerMap<>();
+		for (int i = 0; i < objectCount; i++) {
+			IO.readFully(fd, scratch, 0, scratch.length);
+			Entry e = new Entry(ObjectId.fromRaw(scratch),
+					baseObjectCount + i);
+			objects[i] = e;
+			objectMap.add(e);
+		}
+
+		commits = readBitmap(dataInput);
+		trees = readBitmap(dataInput);
+		blobs = readBitmap(dataInput);
+		tags = readBitmap(dataInput);
+
+		bitmaps = new ObjectIdOwnerMap<>();
+		for (int i = 0; i < bitmapCount; i++) {
+			IO.readFully(fd, scratch, 0, Constants.OBJECT_ID_LENGTH);
+			bitmaps.add(new StoredBitmap(ObjectId.fromRaw(scratch),
+					readBitmap(dataInput)));
+		}
+	}
+
+	private static EWAHCompressedBitmap readBitmap(DataInput dataInput)
+			throws IOException {
+		EWAHCompressedBitmap bitmap = new EWAHCompressedBitmap();
+		bitmap.deserialize(dataInput);
+		return bitmap;
+	}
+
+	/**
+	 * Get the name of the pack whose bitmap index this layer extends.
+	 *
+	 * @return the name of the pack whose bitmap index this layer extends.
+	 */
+	public String getBaseName() {
+		return baseName;
+	}
+
+	/**
+	 * Get the number of objects in the base bitmap index.
+	 *
+	 * @return the number of objects in the base bitmap index.
+	 */
+	public int getBaseObjectCount() {
+		return baseObjectCount;
+	}
+
+	/**
+	 * Get the number of objects added by this layer.
+	 *
+	 * @return the number of objects added by this layer.
+	 */
+	public int getObjectCount() {
+		return objects.length;
+	}
+
+	/**
+	 * Get the number of bitmaps stored in this layer.
+	 *
+	 * @return the number of bitmaps stored in this layer.
+	 */
+	public int getBitmapCount() {
+		return bitmaps.size();
+	}
+
+	/**
+	 * Whether this layer was written for a base bitmap index.
+	 *
+	 * @param name
+	 *            name of the base pack.
+	 * @param base
+	 *            bitmap index of the base pack.
+	 * @return {@code true} if this layer can be stacked on {@code base}.
+	 */
+	public boolean isLayerOf(String name, PackBitmapIndex base) {
+		return baseName.equals(name)
+				&& baseObjectCount == base.getObjectCount();
+	}
+
+	/**
+	 * Stack this layer on its base bitmap index.
+	 *
+	 * @param base
+	 *            bitmap index of the base pack, see
+	 *            {@link #isLayerOf(String, PackBitmapIndex)}.
+	 * @return bitmap index covering the objects and bitmaps of both.
+	 */
+	public PackBitmapIndex layerOver(PackBitmapIndex base) {
+		if (base.getObjectCount() != baseObjectCount) {
+			throw new IllegalArgumentException();
+		}
+		Layered l = layered;
+		if (l == null || l.base != base) {
+			l = new Layered(base);
+			layered = l;
+		}
+		return l;
+	}
+
+	/** A bitmap index merging a base index and this layer. */
+	final class Layered extends PackBitmapIndex {
+		final PackBitmapIndex base;
+
+		Layered(PackBitmapIndex base) {
+			this.base = base;
+		}
+
+		PackBitmapIndex getBase() {
+			return base;
+		}
+
+		@Override
+		public int findPosition(AnyObjectId objectId) {
+			int p = base.findPosition(objectId);
+			if (p >= 0) {
+				return p;
+			}
+			Entry e = objectMap.get(objectId);
+			return e != null ? e.position : -1;
+		}
+
+		@Override
+		public ObjectId getObject(int position)
+				throws IllegalArgumentException {
+			if (position < baseObjectCount) {
+				return base.getObject(position);
+			}
+			int i = position - baseObjectCount;
+			if (i >= objects.length) {
+				throw new IllegalArgumentException(MessageFormat.format(
+						JGitText.get().objectNotFound,
+						String.valueOf(position)));
+			}
+			return objects[i].toObjectId();
+		}
+
+		@Override
+		public EWAHCompressedBitmap ofObjectType(EWAHCompressedBitmap bitmap,
+				int type) {
+			EWAHCompressedBitmap r = base.ofObjectType(bitmap, type);
+			switch (type) {
+			case Constants.OBJ_COMMIT:
+				return r.or(commits.and(bitmap));
+			case Constants.OBJ_TREE:
+				return r.or(trees.and(bitmap));
+			case Constants.OBJ_BLOB:
+				return r.or(blobs.and(bitmap));
+			case Constants.OBJ_TAG:
+				return r.or(tags.and(bitmap));
+			}
+			throw new IllegalArgumentException();
+		}
+
+		@Override
+		public EWAHCompressedBitmap getBitmap(AnyObjectId objectId) {
+			EWAHCompressedBitmap b = base.getBitmap(objectId);
+			if (b != null) {
+				return b;
+			}
+			StoredBitmap sb = bitmaps.get(objectId);
+			return sb != null ? sb.bitmap : null;
+		}
+
+		@Override
+		public int getObjectCount() {
+			return baseObjectCount + objects.length;
+		}
+
+		@Override
+		public int getBitmapCount() {
+			return base.getBitmapCount() + bitmaps.size();
+		}
+	}
+
+	private static final class Entry extends ObjectIdOwnerMap.Entry {
+		final int position;
+
+		Entry(AnyObjectId id, int position) {
+			super(id);
+			this.position = position;
+		}
+	}
+
+	private static final class StoredBitmap extends ObjectIdOwnerMap.Entry {
+		final EWAHCompressedBitmap bitmap;
+
+		StoredBitmap(AnyObjectId id, EWAHCompressedBitmap bitmap) {
+			super(id);
+			this.bitmap = bitmap;
+		}
+	}
+}
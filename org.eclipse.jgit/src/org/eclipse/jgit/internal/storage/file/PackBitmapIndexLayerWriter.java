@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2019, Google LLC.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.file;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.internal.storage.file.BitmapIndexImpl.CompressedBitmap;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.revwalk.BitmapWalker;
+import org.eclipse.jgit.revwalk.ObjectWalk;
+import org.eclipse.jgit.revwalk.RevObject;
+
+import com.googlecode.javaewah.EWAHCompressedBitmap;
+
+/**
+ * Computes and writes a {@link PackBitmapIndexLayer}.
+ * <p>
+ * Bitmaps of the added commits are computed by walking history from each
+ * commit until commits covered by the base bitmap index are reached. Objects
+ * not known to the base index are appended to the layer in the order they
+ * are discovered.
+ */
+public class PackBitmapIndexLayerWriter {
+	private final PackBitmapIndex base;
+
+	private final String baseName;
+
+	private final BitmapIndexImpl index;
+
+	private final List<ObjectId> commits = new ArrayList<>();
+
+	private final List<EWAHCompressedBitmap> bitmaps = new ArrayList<>();
+
+	/**
+	 * Create a writer for a layer over a bitmap index.
+	 *
+	 * @param base
+	 *            bitmap index of the base pack.
+	 * @param baseName
+	 *            name of the base pack, used to match the layer with its
+	 *            base when reading.
+	 */
+	public PackBitmapIndexLayerWriter(PackBitmapIndex base, String baseName) {
+		this.base = base;
+		this.baseName = baseName;
+		this.index = new BitmapIndexImpl(base);
+	}
+
+	/**
+	 * Compute bitmaps for commits.
+	 * <p>
+	 * Objects which are not commits, commits already having a bitmap in the
+	 * base index and commits whose history is not complete are skipped.
+	 *
+	 * @param reader
+	 *            reader to walk history with.
+	 * @param tips
+	 *            commits to compute bitmaps for.
+	 * @param pm
+	 *            progress monitor, may be null.
+	 * @return number of bitmaps added.
+	 * @throws java.io.IOException
+	 *             history could not be read.
+	 */
+	public int addBitmaps(ObjectReader reader,
+			Collection<? extends AnyObjectId> tips, ProgressMonitor pm)
+			throws IOException {
+		if (pm == null) {
+			pm = NullProgressMonitor.INSTANCE;
+		}
+		int added = 0;
+		for (AnyObjectId tip : tips) {
+			if (base.getBitmap(tip) != null || commits.contains(tip)) {
+				continue;
+			}
+			// ObjectWalk.reset() leaves trees marked as seen, so each tip
+			// gets its own walk to collect its complete closure.
+			try (ObjectWalk ow = new ObjectWalk(reader)) {
+				RevObject obj = ow.parseAny(tip);
+				if (obj.getType() != Constants.OBJ_COMMIT) {
+					continue;
+				}
+				CompressedBitmap b = (CompressedBitmap) new BitmapWalker(ow,
+						index, pm).findObjects(Collections.singleton(obj),
+								null, false)
+						.build();
+				commits.add(obj.copy());
+				bitmaps.add(b.bitmap);
+				added++;
+			} catch (MissingObjectException e) {
+				// Only complete history can be described by a bitmap.
+			}
+		}
+		return added;
+	}
+
+	/**
+	 * Get the number of bitmaps added.
+	 *
+	 * @return the number of bitmaps added.
+	 */
+	public int getBitmapCount() {
+		return commits.size();
+	}
+
+	/**
+	 * Get the number of objects added by the layer.
+	 *
+	 * @return the number of objects added by the layer.
+	 */
+	public int getObjectCount() {
+		return index.getExtraObjectCount();
+	}
+
+	/**
+	 * Write the layer.
+	 *
+	 * @param dst
+	 *            stream to write the layer to.
+	 * @throws java.io.IOException
+	 *             the layer could not be written.
+	 */
+	public void write(OutputStream dst) throws IOException {
+		DigestOutputStream out = new DigestOutputStream(
+				dst instanceof BufferedOutputStream ? dst
+						: new BufferedOutputStream(dst),
+				Constants.newMessageDigest());
+		DataOutput dataOutput = new SimpleDataOutput(out);
+
+		int baseCount = base.getObjectCount();
+		int objectCount = index.getExtraObjectCount();
+		byte[] name = baseName.getBytes(UTF_8);
+		out.write(PackBitmapIndexLayer.MAGIC);
+		dataOutput.writeInt(PackBitmapIndexLayer.VERSION);
+		dataOutput.writeShort(name.length);
+		out.write(name);
+		dataOutput.writeInt(baseCount);
+		dataOutput.writeInt(objectCount);
+		dataOutput.writeInt(commits.size());
+
+		EWAHCompressedBitmap[] types = new EWAHCompressedBitmap[5];
+		for (int t = Constants.OBJ_COMMIT; t <= Constants.OBJ_TAG; t++) {
+			types[t] = new EWAHCompressedBitmap();
+		}
+		byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+		for (int i = 0; i < objectCount; i++) {
+			index.getExtraObject(i).copyRawTo(raw, 0);
+			out.write(raw);
+			types[index.getExtraObjectType(i)].set(baseCount + i);
+		}
+		for (int t = Constants.OBJ_COMMIT; t <= Constants.OBJ_TAG; t++) {
+			types[t].serialize(dataOutput);
+		}
+
+		for (int i = 0; i < commits.size(); i++) {
+			commits.get(i).copyRawTo(raw, 0);
+			out.write(raw);
+			bitmaps.get(i).serialize(dataOutput);
+		}
+
+		out.on(false);
+		out.write(out.getMessageDigest().digest());
+		out.flush();
+	}
+}
@@ -48,6 +48,7 @@
 import static org.eclipse.jgit.internal.storage.pack.PackExt.BITMAP_INDEX;
 import static org.eclipse.jgit.internal.storage.pack.PackExt.INDEX;
 import static org.eclipse.jgit.internal.storage.pack.PackExt.KEEP;
+import static org.eclipse.jgit.internal.storage.pack.PackExt.REVERSE_INDEX;
 
 import java.io.EOFException;
 import java.io.File;
@@ -55,7 +56,10 @@
 import java.io.IOException;
 import java.io.InterruptedIOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
 import java.nio.channels.FileChannel.MapMode;
 import java.nio.file.AccessDeniedException;
 import java.nio.file.NoSuchFileException;
@@ -93,6 +97,8 @@
 import org.eclipse.jgit.util.LongList;
 import org.eclipse.jgit.util.NB;
 import org.eclipse.jgit.util.RawParseUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * A Git version 2 pack file representation. A pack file contains Git objects in
@@ -100,6 +106,8 @@
  * objects are similar.
  */
 public class PackFile implements Iterable<PackIndex.MutableEntry> {
+	private final static Logger LOG = LoggerFactory.getLogger(PackFile.class);
+
 	/** Sorts PackFiles to be most recently created to least recently created. */
 	public static final Comparator<PackFile> SORT = (PackFile a,
 			PackFile b) -> b.packLastModified - a.packLastModified;
@@ -143,6 +151,8 @@ public class PackFile implements Iterable<PackIndex.MutableEntry> {
 
 	private PackReverseIndex reverseIdx;
 
+	private boolean invalidReverseIdx;
+
 	private PackBitmapIndex bitmapIdx;
 
 	/**
@@ -185,7 +195,8 @@ private PackIndex idx() throws IOException {
 						throw new PackInvalidException(packFile, invalidatingCause);
 					}
 					try {
-						idx = PackIndex.open(extFile(INDEX));
+						idx = PackIndex.open(extFile(INDEX),
+								WindowCache.isPackedIndexMMAP());
 
 						if (packChecksum == null) {
 							packChecksum = idx.packChecksum;
@@ -298,6 +309,10 @@ ObjectLoader get(WindowCursor curs, AnyObjectId id)
 		return 0 < offset && !isCorrupt(offset) ? load(curs, offset) : null;
 	}
 
+	ObjectLoader get(WindowCursor curs, long offset) throws IOException {
+		return !isCorrupt(offset) ? load(curs, offset) : null;
+	}
+
 	void resolve(Set<ObjectId> matches, AbbreviatedObjectId id, int matchLimit)
 			throws IOException {
 		idx().resolve(matches, id, matchLimit);
@@ -736,6 +751,53 @@ ByteArrayWindow read(long pos, int size) throws IOException {
 		}
 	}
 
+	ByteWindow read(long pos, int size, DirectBufferPool pool)
+			throws IOException {
+		FileChannel ch;
+		synchronized (readLock) {
+			if (invalid || fd == null) {
+				throw new PackInvalidException(packFile, invalidatingCause);
+			}
+			if (!fd.getChannel().isOpen()) {
+				// A thread interrupted during a positional read closes the
+				// channel together with the file. Reopen it, the pack itself
+				// is still fine.
+				fd = new RandomAccessFile(packFile, "r"); //$NON-NLS-1$
+			}
+			ch = fd.getChannel();
+			if (length < pos + size)
+				size = (int) (length - pos);
+		}
+
+		ByteBuffer buf = pool.acquire();
+		if (buf == null) {
+			// The pool reached its limit, fall back to a heap window.
+			return read(pos, size);
+		}
+		try {
+			buf.limit(size);
+			// Positional reads neither use nor move the file pointer, so
+			// they do not need to hold readLock and can run concurrently.
+			while (buf.hasRemaining()) {
+				if (ch.read(buf, pos + buf.position()) < 0) {
+					throw new EOFException(MessageFormat.format(
+							JGitText.get().packfileIsTruncated,
+							packFile.getPath()));
+				}
+			}
+		} catch (ClosedByInterruptException e) {
+			pool.release(buf);
+			InterruptedIOException ie = new InterruptedIOException();
+			ie.initCause(e);
+			throw ie;
+		} catch (IOException | RuntimeException e) {
+			pool.release(buf);
+			throw e;
+		}
+		buf.flip();
+		return new DirectByteBufferWindow(this, pos, buf, pool);
+	}
+
 	ByteWindow mmap(long pos, int size) throws IOException {
 		synchronized (readLock) {
 			if (length < pos + size)
@@ -1165,12 +1227,27 @@ synchronized PackBitmapIndex getBitmapIndex() throws IOException {
 	}
 
 	private synchronized PackReverseIndex getReverseIdx() throws IOException {
-		if (reverseIdx == null)
-			reverseIdx = new PackReverseIndex(idx());
+		if (reverseIdx == null) {
+			PackIndex idx = idx();
+			if (!invalidReverseIdx && hasExt(REVERSE_INDEX)) {
+				try {
+					reverseIdx = PackReverseIndex.open(extFile(REVERSE_INDEX),
+							idx);
+				} catch (FileNotFoundException e) {
+					// Removed by a concurrent gc; compute it instead.
+					invalidReverseIdx = true;
+				} catch (IOException e) {
+					LOG.warn(e.getMessage(), e);
+					invalidReverseIdx = true;
+				}
+			}
+			if (reverseIdx == null)
+				reverseIdx = new PackReverseIndex(idx);
+		}
 		return reverseIdx;
 	}
 
-	private boolean isCorrupt(long offset) {
+	boolean isCorrupt(long offset) {
 		LongList list = corruptObjects;
 		if (list == null)
 			return false;
@@ -95,9 +95,40 @@
 	 *             unrecognized data version, or unexpected data corruption.
 	 */
 	public static PackIndex open(File idxFile) throws IOException {
+		return open(idxFile, false);
+	}
+
+	/**
+	 * Open an existing pack <code>.idx</code> file for reading.
+	 * <p>
+	 * Like {@link #open(File)}, but version 2 indexes may be memory mapped
+	 * and searched in place instead of being copied onto the heap. Indexes
+	 * in the older version 1 format, or too large to be mapped as a single
+	 * buffer, are always read into memory.
+	 *
+	 * @param idxFile
+	 *            existing pack .idx to read.
+	 * @param mmap
+	 *            {@code true} to memory map version 2 indexes.
+	 * @return access implementation for the requested file.
+	 * @throws FileNotFoundException
+	 *             the file does not exist.
+	 * @throws java.io.IOException
+	 *             the file exists but could not be read due to security errors,
+	 *             unrecognized data version, or unexpected data corruption.
+	 * @since 5.4
+	 */
+	public static PackIndex open(File idxFile, boolean mmap)
+			throws IOException {
 		try (SilentFileInputStream fd = new SilentFileInputStream(
 				idxFile)) {
-				return read(fd);
+			if (mmap) {
+				PackIndex idx = openMapped(idxFile, fd);
+				if (idx != null) {
+					return idx;
+				}
+			}
+			return read(fd);
 		} catch (IOException ioe) {
 			throw new IOException(
 					MessageFormat.format(JGitText.get().unreadablePackIndex,
@@ -139,6 +170,21 @@ public static PackIndex read(InputStream fd) throws IOException,
 		return new PackIndexV1(fd, hdr);
 	}
 
+	private static PackIndex openMapped(File idxFile,
+			SilentFileInputStream fd) throws IOException {
+		final byte[] hdr = new byte[8];
+		IO.readFully(fd, hdr, 0, hdr.length);
+		PackIndex idx = null;
+		if (isTOC(hdr) && NB.decodeInt32(hdr, 4) == 2) {
+			idx = MappedPackIndexV2.map(idxFile);
+		}
+		if (idx == null) {
+			// Rewind so the caller can read the file into memory instead.
+			fd.getChannel().position(0);
+		}
+		return idx;
+	}
+
 	private static boolean isTOC(byte[] h) {
 		final byte[] toc = PackIndexWriter.TOC;
 		for (int i = 0; i < toc.length; i++)
@@ -296,7 +296,8 @@ public void flush() throws IOException {
 					realIdx), e);
 		}
 
-		db.openPack(realPack);
+		PackFile pack = db.openPack(realPack);
+		db.addToMultiPackIndex(pack);
 		rollback = false;
 		clear();
 	}
@@ -43,11 +43,20 @@
 
 package org.eclipse.jgit.internal.storage.file;
 
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.NoSuchFileException;
 import java.text.MessageFormat;
+import java.util.Arrays;
 
 import org.eclipse.jgit.errors.CorruptObjectException;
 import org.eclipse.jgit.internal.JGitText;
 import org.eclipse.jgit.internal.storage.file.PackIndex.MutableEntry;
+import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.ObjectId;
 
 /**
@@ -61,6 +70,17 @@
  * @see PackFile
  */
 public class PackReverseIndex {
+	/** Magic number of the on-disk reverse index, {@code "RIDX"}. */
+	static final int MAGIC = 0x52494458;
+
+	/** Version of the on-disk reverse index format. */
+	static final int VERSION = 1;
+
+	/** Hash function identifier used by the on-disk format for SHA-1. */
+	static final int OID_VERSION = 1;
+
+	static final int HEADER_LENGTH = 12;
+
 	/** Index we were created from, and that has our ObjectId data. */
 	private final PackIndex index;
 
@@ -78,9 +98,18 @@ public class PackReverseIndex {
 	 */
 	private final int[] offsetIndex;
 
-	/** Mapping from indices in offset order to indices in SHA-1 order. */
+	/**
+	 * Mapping from indices in offset order to indices in SHA-1 order; null if
+	 * the mapping is read from {@link #mapped}.
+	 */
 	private final int[] nth;
 
+	/** Memory mapped on-disk reverse index, used when {@link #nth} is null. */
+	private final ByteBuffer mapped;
+
+	/** Number of objects in the index. */
+	private final int cnt;
+
 	/**
 	 * Create reverse index from straight/forward pack index, by indexing all
 	 * its entries.
@@ -89,12 +118,22 @@ public class PackReverseIndex {
 	 *            forward index - entries to (reverse) index.
 	 */
 	public PackReverseIndex(PackIndex packIndex) {
-		index = packIndex;
+		this(packIndex, offsetsBySha1(packIndex));
+	}
 
-		final long cnt = index.getObjectCount();
-		if (cnt + 1 > Integer.MAX_VALUE)
-			throw new IllegalArgumentException(
-					JGitText.get().hugeIndexesAreNotSupportedByJgitYet);
+	/**
+	 * Create reverse index from the offsets of the objects in SHA-1 order.
+	 *
+	 * @param packIndex
+	 *            forward index the offsets were taken from; may be null if
+	 *            only {@link #getIndexPosition(int)} will be used.
+	 * @param offsetsBySha1
+	 *            offsets of the objects, in the order of the forward index.
+	 */
+	PackReverseIndex(PackIndex packIndex, long[] offsetsBySha1) {
+		index = packIndex;
+		mapped = null;
+		cnt = offsetsBySha1.length;
 
 		if (cnt == 0) {
 			bucketSize = Long.MAX_VALUE;
@@ -103,20 +142,15 @@ public PackReverseIndex(PackIndex packIndex) {
 			return;
 		}
 
-		final long[] offsetsBySha1 = new long[(int) cnt];
-
 		long maxOffset = 0;
-		int ith = 0;
-		for (MutableEntry me : index) {
-			final long o = me.getOffset();
-			offsetsBySha1[ith++] = o;
+		for (long o : offsetsBySha1) {
 			if (o > maxOffset)
 				maxOffset = o;
 		}
 
 		bucketSize = maxOffset / cnt + 1;
-		int[] bucketIndex = new int[(int) cnt];
-		int[] bucketValues = new int[(int) cnt + 1];
+		int[] bucketIndex = new int[cnt];
+		int[] bucketValues = new int[cnt + 1];
 		for (int oi = 0; oi < offsetsBySha1.length; oi++) {
 			final long o = offsetsBySha1[oi];
 			final int bucket = (int) (o / bucketSize);
@@ -147,6 +181,95 @@ public PackReverseIndex(PackIndex packIndex) {
 		}
 	}
 
+	private PackReverseIndex(PackIndex packIndex, ByteBuffer map, int cnt) {
+		index = packIndex;
+		mapped = map;
+		this.cnt = cnt;
+		nth = null;
+		bucketSize = Long.MAX_VALUE;
+		offsetIndex = new int[] { cnt };
+	}
+
+	private static long[] offsetsBySha1(PackIndex packIndex) {
+		final long cnt = packIndex.getObjectCount();
+		if (cnt + 1 > Integer.MAX_VALUE)
+			throw new IllegalArgumentException(
+					JGitText.get().hugeIndexesAreNotSupportedByJgitYet);
+
+		final long[] offsetsBySha1 = new long[(int) cnt];
+		int ith = 0;
+		for (MutableEntry me : packIndex) {
+			offsetsBySha1[ith++] = me.getOffset();
+		}
+		return offsetsBySha1;
+	}
+
+	/**
+	 * Open an on-disk reverse index written by {@link PackReverseIndexWriter}.
+	 * <p>
+	 * The file is memory mapped and searched in place, so opening it costs
+	 * neither the time to sort the offsets of all objects nor the heap
+	 * memory to hold the result.
+	 *
+	 * @param revFile
+	 *            the <code>.rev</code> file.
+	 * @param packIndex
+	 *            forward index of the same pack.
+	 * @return the reverse index.
+	 * @throws java.io.FileNotFoundException
+	 *             the file does not exist.
+	 * @throws java.io.IOException
+	 *             the file cannot be read, is corrupt, or does not match the
+	 *             forward index.
+	 */
+	static PackReverseIndex open(File revFile, PackIndex packIndex)
+			throws IOException {
+		ByteBuffer map;
+		try (FileChannel ch = FileChannel.open(revFile.toPath())) {
+			long cnt = packIndex.getObjectCount();
+			long expected = HEADER_LENGTH + cnt * 4
+					+ 2 * Constants.OBJECT_ID_LENGTH;
+			if (ch.size() != expected || expected > Integer.MAX_VALUE) {
+				throw new IOException(MessageFormat.format(
+						JGitText.get().corruptReverseIndex,
+						revFile.getAbsolutePath()));
+			}
+			map = ch.map(MapMode.READ_ONLY, 0, expected);
+		} catch (NoSuchFileException e) {
+			throw new FileNotFoundException(revFile.getPath());
+		}
+
+		if (map.getInt(0) != MAGIC) {
+			throw new IOException(MessageFormat.format(
+					JGitText.get().notAReverseIndex,
+					revFile.getAbsolutePath()));
+		}
+		int v = map.getInt(4);
+		if (v != VERSION) {
+			throw new IOException(MessageFormat.format(
+					JGitText.get().unsupportedReverseIndexVersion,
+					Integer.valueOf(v)));
+		}
+		int hashVersion = map.getInt(8);
+		if (hashVersion != OID_VERSION) {
+			throw new IOException(MessageFormat.format(
+					JGitText.get().unsupportedReverseIndexHashVersion,
+					Integer.valueOf(hashVersion)));
+		}
+
+		int cnt = (int) packIndex.getObjectCount();
+		byte[] packChecksum = new byte[Constants.OBJECT_ID_LENGTH];
+		ByteBuffer trailer = map.duplicate();
+		trailer.position(HEADER_LENGTH + cnt * 4);
+		trailer.get(packChecksum);
+		if (!Arrays.equals(packChecksum, packIndex.packChecksum)) {
+			throw new IOException(MessageFormat.format(
+					JGitText.get().reverseIndexDoesNotMatchPack,
+					revFile.getAbsolutePath()));
+		}
+		return new PackReverseIndex(packIndex, map, cnt);
+	}
+
 	/**
 	 * Search for object id with the specified start offset in this pack
 	 * (reverse) index.
@@ -159,7 +282,7 @@ public ObjectId findObject(long offset) {
 		final int ith = binarySearch(offset);
 		if (ith < 0)
 			return null;
-		return index.getObjectId(nth[ith]);
+		return index.getObjectId(nthAt(ith));
 	}
 
 	/**
@@ -186,9 +309,9 @@ public long findNextOffset(long offset, long maxOffset)
 							JGitText.get().cantFindObjectInReversePackIndexForTheSpecifiedOffset,
 							Long.valueOf(offset)));
 
-		if (ith + 1 == nth.length)
+		if (ith + 1 == cnt)
 			return maxOffset;
-		return index.getOffset(nth[ith + 1]);
+		return index.getOffset(nthAt(ith + 1));
 	}
 
 	int findPostion(long offset) {
@@ -201,7 +324,7 @@ private int binarySearch(long offset) {
 		int high = offsetIndex[bucket];
 		while (low < high) {
 			final int mid = (low + high) >>> 1;
-			final long o = index.getOffset(nth[mid]);
+			final long o = index.getOffset(nthAt(mid));
 			if (offset < o)
 				high = mid;
 			else if (offset == o)
@@ -213,6 +336,32 @@ else if (offset == o)
 	}
 
 	ObjectId findObjectByPosition(int nthPosition) {
-		return index.getObjectId(nth[nthPosition]);
+		return index.getObjectId(nthAt(nthPosition));
+	}
+
+	/**
+	 * Get the position in the forward index of an object.
+	 *
+	 * @param nthPosition
+	 *            position of the object in offset order.
+	 * @return position of the same object in SHA-1 order.
+	 */
+	int getIndexPosition(int nthPosition) {
+		return nthAt(nthPosition);
+	}
+
+	/**
+	 * Get the number of objects in this index.
+	 *
+	 * @return number of objects.
+	 */
+	int getObjectCount() {
+		return cnt;
+	}
+
+	private int nthAt(int nthPosition) {
+		if (nth != null)
+			return nth[nthPosition];
+		return mapped.getInt(HEADER_LENGTH + nthPosition * 4);
 	}
 }
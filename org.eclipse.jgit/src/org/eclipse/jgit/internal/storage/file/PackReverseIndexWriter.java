@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2019, Google LLC.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.file;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.util.List;
+
+import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.transport.PackedObjectInfo;
+import org.eclipse.jgit.util.NB;
+
+/**
+ * Creates the on-disk reverse index (<code>.rev</code>) of a pack.
+ * <p>
+ * The file lists, in the order the objects appear in the pack, the position
+ * of each object in the pack's <code>.idx</code>. Loading it allows
+ * {@link PackReverseIndex} to be used without sorting the offsets of all
+ * objects every time the pack is opened. The format is compatible with the
+ * one used by C Git.
+ */
+public class PackReverseIndexWriter {
+	private final DigestOutputStream out;
+
+	private final byte[] tmp = new byte[4];
+
+	/**
+	 * Create a writer for the version 1 reverse index format.
+	 *
+	 * @param dst
+	 *            the stream the reverse index will be written to. If not
+	 *            already buffered it will be automatically wrapped in a
+	 *            buffered stream. Callers are always responsible for closing
+	 *            the stream.
+	 */
+	public PackReverseIndexWriter(OutputStream dst) {
+		out = new DigestOutputStream(dst instanceof BufferedOutputStream ? dst
+				: new BufferedOutputStream(dst),
+				Constants.newMessageDigest());
+	}
+
+	/**
+	 * Write the reverse index of the objects of a pack.
+	 * <p>
+	 * After writing the stream passed to the constructor is flushed but
+	 * remains open.
+	 *
+	 * @param toStore
+	 *            all objects of the pack, in the order of the pack index. The
+	 *            caller must have previously sorted the list using
+	 *            {@link org.eclipse.jgit.transport.PackedObjectInfo}'s native
+	 *            {@link java.lang.Comparable} implementation.
+	 * @param packDataChecksum
+	 *            checksum signature of the entire pack data content.
+	 * @throws java.io.IOException
+	 *             an error occurred while writing to the output stream.
+	 */
+	public void write(List<? extends PackedObjectInfo> toStore,
+			byte[] packDataChecksum) throws IOException {
+		if (toStore.size() + 1L > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException(
+					JGitText.get().hugeIndexesAreNotSupportedByJgitYet);
+		}
+		long[] offsetsBySha1 = new long[toStore.size()];
+		int i = 0;
+		for (PackedObjectInfo oe : toStore) {
+			offsetsBySha1[i++] = oe.getOffset();
+		}
+		PackReverseIndex rev = new PackReverseIndex(null, offsetsBySha1);
+
+		writeInt(PackReverseIndex.MAGIC);
+		writeInt(PackReverseIndex.VERSION);
+		writeInt(PackReverseIndex.OID_VERSION);
+		for (int n = 0; n < offsetsBySha1.length; n++) {
+			writeInt(rev.getIndexPosition(n));
+		}
+		out.write(packDataChecksum);
+		out.on(false);
+		out.write(out.getMessageDigest().digest());
+		out.flush();
+	}
+
+	private void writeInt(int v) throws IOException {
+		NB.encodeInt32(tmp, 0, v);
+		out.write(tmp, 0, 4);
+	}
+}
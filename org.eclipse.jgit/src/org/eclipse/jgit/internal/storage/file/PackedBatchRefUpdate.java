@@ -209,7 +209,8 @@ public void execute(RevWalk walk, ProgressMonitor monitor,
 				lockFailure(pending.get(0), pending);
 				return;
 			}
-			// commitPackedRefs removes lock file (by renaming over real file).
+			// commitPackedRefs removes lock file (by renaming over real file,
+			// or unlocking it if only the overlay is written).
 			refdb.commitPackedRefs(packedRefsLock, newRefs, oldPackedList,
 					true);
 		} finally {
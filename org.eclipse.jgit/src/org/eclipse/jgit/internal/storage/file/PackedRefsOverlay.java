@@ -0,0 +1,414 @@
+/*
+ * Copyright (C) 2019, Google LLC.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.file;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.eclipse.jgit.lib.Ref.Storage.NEW;
+import static org.eclipse.jgit.lib.Ref.Storage.PACKED;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.text.MessageFormat;
+import java.util.Objects;
+
+import org.eclipse.jgit.annotations.Nullable;
+import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectIdRef;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefComparator;
+import org.eclipse.jgit.util.RefList;
+
+/**
+ * Sorted list of reference changes applied on top of {@code packed-refs}.
+ * <p>
+ * Rewriting {@code packed-refs} costs I/O proportional to the number of packed
+ * references, even if a single reference is deleted. When
+ * {@code core.packedRefsOverlay} is enabled {@link RefDirectory} records small
+ * changes in {@code packed-refs.overlay} instead. The overlay uses the
+ * {@code packed-refs} format, listing the new value of every changed reference
+ * and the zero id for deleted references. Readers merge it into the
+ * references read from {@code packed-refs}. Once the overlay grows too large
+ * it is folded into a rewritten {@code packed-refs} file.
+ * <p>
+ * The header of the overlay records the id of the {@code packed-refs} content
+ * it applies to. An overlay whose base does not match the current
+ * {@code packed-refs} file was already folded and is ignored.
+ * <p>
+ * Other Git implementations do not read the overlay, it should only be enabled
+ * for repositories accessed exclusively through JGit.
+ */
+class PackedRefsOverlay {
+	/** Name of the overlay file, next to {@code packed-refs}. */
+	static final String OVERLAY_FILE = Constants.PACKED_REFS + ".overlay"; //$NON-NLS-1$
+
+	/** Magic string denoting the header of an overlay file. */
+	static final String OVERLAY_HEADER = "# packed-refs overlay base "; //$NON-NLS-1$
+
+	/** Maximum number of entries before the overlay is folded. */
+	static final int MAX_ENTRIES = 1024;
+
+	private final ObjectId baseId;
+
+	private final RefList<Ref> entries;
+
+	private final ObjectId id;
+
+	private byte[] content;
+
+	/**
+	 * Create an overlay.
+	 *
+	 * @param baseId
+	 *            id of the {@code packed-refs} content the overlay applies to.
+	 * @param entries
+	 *            sorted changed references; deleted references have no
+	 *            ObjectId.
+	 */
+	PackedRefsOverlay(ObjectId baseId, RefList<Ref> entries) {
+		this.baseId = baseId;
+		this.entries = entries;
+		content = format(baseId, entries);
+		id = ObjectId.fromRaw(Constants.newMessageDigest().digest(content));
+	}
+
+	private PackedRefsOverlay(ObjectId baseId, RefList<Ref> entries,
+			ObjectId id) {
+		this.baseId = baseId;
+		this.entries = entries;
+		this.id = id;
+	}
+
+	/**
+	 * Get the id of the {@code packed-refs} content this overlay applies to.
+	 *
+	 * @return id of the base {@code packed-refs} content.
+	 */
+	ObjectId getBaseId() {
+		return baseId;
+	}
+
+	/**
+	 * Get the id of the overlay content.
+	 *
+	 * @return SHA-1 of the overlay file content.
+	 */
+	ObjectId getId() {
+		return id;
+	}
+
+	/**
+	 * Get the number of changed references.
+	 *
+	 * @return number of entries, including deletions.
+	 */
+	int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Get the file content of this overlay.
+	 *
+	 * @return the content to write to {@code packed-refs.overlay}.
+	 */
+	byte[] getContent() {
+		if (content == null) {
+			content = format(baseId, entries);
+		}
+		return content;
+	}
+
+	/**
+	 * Get the entry recorded for a reference.
+	 *
+	 * @param name
+	 *            name of the reference.
+	 * @return the new value of the reference, an entry without ObjectId if the
+	 *         reference was deleted, or {@code null} if the overlay does not
+	 *         change the reference.
+	 */
+	@Nullable
+	Ref getEntry(String name) {
+		return entries.get(name);
+	}
+
+	/**
+	 * Merge the overlay into the references of {@code packed-refs}.
+	 *
+	 * @param base
+	 *            references read from {@code packed-refs}.
+	 * @return the sorted list of current packed references.
+	 */
+	RefList<Ref> applyTo(RefList<Ref> base) {
+		return applyTo(base, ""); //$NON-NLS-1$
+	}
+
+	/**
+	 * Merge the overlay into a range of the references of {@code packed-refs}.
+	 *
+	 * @param base
+	 *            references read from {@code packed-refs} whose names start
+	 *            with {@code prefix}.
+	 * @param prefix
+	 *            prefix of the names of the references of interest.
+	 * @return the sorted list of current packed references whose names start
+	 *         with {@code prefix}.
+	 */
+	RefList<Ref> applyTo(RefList<Ref> base, String prefix) {
+		RefList.Builder<Ref> all = new RefList.Builder<>(
+				base.size() + entries.size());
+		int i = 0;
+		for (Ref e : entries) {
+			if (!e.getName().startsWith(prefix)) {
+				continue;
+			}
+			while (i < base.size()
+					&& RefComparator.compareTo(base.get(i), e) < 0) {
+				all.add(base.get(i++));
+			}
+			if (i < base.size()
+					&& RefComparator.compareTo(base.get(i), e) == 0) {
+				i++;
+			}
+			if (!isDeleted(e)) {
+				all.add(e);
+			}
+		}
+		while (i < base.size()) {
+			all.add(base.get(i++));
+		}
+		return all.toRefList();
+	}
+
+	/**
+	 * Record the changes between two lists of packed references.
+	 *
+	 * @param oldRefs
+	 *            the current packed references, this overlay applied.
+	 * @param newRefs
+	 *            the new packed references.
+	 * @return an overlay on the same base containing the entries of this
+	 *         overlay and the differences between {@code oldRefs} and
+	 *         {@code newRefs}.
+	 */
+	PackedRefsOverlay update(RefList<Ref> oldRefs, RefList<Ref> newRefs) {
+		RefList.Builder<Ref> changes = new RefList.Builder<>();
+		int i = 0;
+		for (Ref n : newRefs) {
+			while (i < oldRefs.size()
+					&& RefComparator.compareTo(oldRefs.get(i), n) < 0) {
+				changes.add(deleted(oldRefs.get(i++).getName()));
+			}
+			if (i < oldRefs.size()
+					&& RefComparator.compareTo(oldRefs.get(i), n) == 0) {
+				if (!same(oldRefs.get(i++), n)) {
+					changes.add(n);
+				}
+			} else {
+				changes.add(n);
+			}
+		}
+		while (i < oldRefs.size()) {
+			changes.add(deleted(oldRefs.get(i++).getName()));
+		}
+		if (changes.size() == 0) {
+			return this;
+		}
+
+		RefList.Builder<Ref> merged = new RefList.Builder<>(
+				entries.size() + changes.size());
+		int j = 0;
+		for (Ref e : entries) {
+			while (j < changes.size()
+					&& RefComparator.compareTo(changes.get(j), e) < 0) {
+				merged.add(changes.get(j++));
+			}
+			if (j < changes.size()
+					&& RefComparator.compareTo(changes.get(j), e) == 0) {
+				merged.add(changes.get(j++));
+			} else {
+				merged.add(e);
+			}
+		}
+		while (j < changes.size()) {
+			merged.add(changes.get(j++));
+		}
+		return new PackedRefsOverlay(baseId, merged.toRefList());
+	}
+
+	/**
+	 * Read an overlay file.
+	 *
+	 * @param file
+	 *            the {@code packed-refs.overlay} file.
+	 * @return the overlay, or {@code null} if the file does not exist.
+	 * @throws java.io.IOException
+	 *             the file cannot be read or is corrupt.
+	 */
+	@Nullable
+	static PackedRefsOverlay read(File file) throws IOException {
+		MessageDigest digest = Constants.newMessageDigest();
+		try (BufferedReader br = new BufferedReader(new InputStreamReader(
+				new DigestInputStream(new FileInputStream(file), digest),
+				UTF_8))) {
+			String p = br.readLine();
+			if (p == null || !p.startsWith(OVERLAY_HEADER)) {
+				throw corrupt(file);
+			}
+			p = p.substring(OVERLAY_HEADER.length());
+			boolean peeled = p.endsWith(RefDirectory.PACKED_REFS_PEELED);
+			if (peeled) {
+				p = p.substring(0, p.length()
+						- RefDirectory.PACKED_REFS_PEELED.length());
+			}
+			if (!ObjectId.isId(p)) {
+				throw corrupt(file);
+			}
+			ObjectId baseId = ObjectId.fromString(p);
+
+			RefList.Builder<Ref> entries = new RefList.Builder<>();
+			Ref last = null;
+			while ((p = br.readLine()) != null) {
+				if (p.isEmpty()) {
+					throw corrupt(file);
+				}
+				if (p.charAt(0) == '^') {
+					if (last == null || isDeleted(last)) {
+						throw new IOException(
+								JGitText.get().peeledLineBeforeRef);
+					}
+					last = new ObjectIdRef.PeeledTag(PACKED, last.getName(),
+							last.getObjectId(), ObjectId.fromString(p.substring(1)));
+					entries.set(entries.size() - 1, last);
+					continue;
+				}
+
+				int sp = p.indexOf(' ');
+				if (sp < 0) {
+					throw corrupt(file);
+				}
+				ObjectId id = ObjectId.fromString(p.substring(0, sp));
+				String name = p.substring(sp + 1);
+				if (id.equals(ObjectId.zeroId())) {
+					last = deleted(name);
+				} else if (peeled) {
+					last = new ObjectIdRef.PeeledNonTag(PACKED, name, id);
+				} else {
+					last = new ObjectIdRef.Unpeeled(PACKED, name, id);
+				}
+				entries.add(last);
+			}
+			entries.sort();
+			return new PackedRefsOverlay(baseId, entries.toRefList(),
+					ObjectId.fromRaw(digest.digest()));
+		} catch (FileNotFoundException noOverlay) {
+			if (file.exists()) {
+				throw noOverlay;
+			}
+			return null;
+		}
+	}
+
+	private static IOException corrupt(File file) {
+		return new IOException(MessageFormat.format(
+				JGitText.get().packedRefsCorruptionDetected,
+				file.getAbsolutePath()));
+	}
+
+	private static byte[] format(ObjectId baseId, RefList<Ref> entries) {
+		boolean peeled = true;
+		for (Ref r : entries) {
+			if (!isDeleted(r) && !r.isPeeled()) {
+				peeled = false;
+				break;
+			}
+		}
+
+		StringBuilder w = new StringBuilder();
+		w.append(OVERLAY_HEADER).append(baseId.name());
+		if (peeled) {
+			w.append(RefDirectory.PACKED_REFS_PEELED);
+		}
+		w.append('\n');
+		for (Ref r : entries) {
+			ObjectId id = r.getObjectId();
+			w.append(id != null ? id.name() : ObjectId.zeroId().name());
+			w.append(' ').append(r.getName()).append('\n');
+
+			ObjectId peeledObjectId = r.getPeeledObjectId();
+			if (id != null && peeledObjectId != null) {
+				w.append('^').append(peeledObjectId.name()).append('\n');
+			}
+		}
+		return Constants.encode(w.toString());
+	}
+
+	private static Ref deleted(String name) {
+		return new ObjectIdRef.Unpeeled(NEW, name, null);
+	}
+
+	/**
+	 * Whether an entry of the overlay denotes a deleted reference.
+	 *
+	 * @param r
+	 *            entry of the overlay.
+	 * @return {@code true} if the reference was deleted.
+	 */
+	static boolean isDeleted(Ref r) {
+		return r.getObjectId() == null;
+	}
+
+	private static boolean same(Ref a, Ref b) {
+		return Objects.equals(a.getObjectId(), b.getObjectId())
+				&& Objects.equals(a.getPeeledObjectId(), b.getPeeledObjectId())
+				&& a.isPeeled() == b.isPeeled();
+	}
+}
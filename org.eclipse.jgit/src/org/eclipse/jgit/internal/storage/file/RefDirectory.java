@@ -71,6 +71,7 @@
 import java.security.DigestInputStream;
 import java.security.MessageDigest;
 import java.text.MessageFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
@@ -91,6 +92,7 @@
 import org.eclipse.jgit.errors.ObjectWritingException;
 import org.eclipse.jgit.events.RefsChangedEvent;
 import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.lib.Config;
 import org.eclipse.jgit.lib.ConfigConstants;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.ObjectId;
@@ -142,6 +144,9 @@ public class RefDirectory extends RefDatabase {
 	/** If in the header, denotes the file has peeled data. */
 	public static final String PACKED_REFS_PEELED = " peeled"; //$NON-NLS-1$
 
+	/** If in the header, denotes the file is sorted by reference name. */
+	public static final String PACKED_REFS_SORTED = " sorted"; //$NON-NLS-1$
+
 	/** The names of the additional refs supported by this class */
 	private static final String[] additionalRefsNames = new String[] {
 			Constants.MERGE_HEAD, Constants.FETCH_HEAD, Constants.ORIG_HEAD,
@@ -159,6 +164,8 @@ public class RefDirectory extends RefDatabase {
 
 	final File packedRefsFile;
 
+	final File packedRefsOverlayFile;
+
 	final File logsDir;
 
 	final File logsRefsDir;
@@ -176,6 +183,18 @@ public class RefDirectory extends RefDatabase {
 	/** Immutable sorted list of packed references. */
 	final AtomicReference<PackedRefList> packedRefs = new AtomicReference<>();
 
+	/** Memory mapped packed references, if {@code core.packedRefsMmap} is set. */
+	private final AtomicReference<MappedPackedRefs> mappedPackedRefs = new AtomicReference<>();
+
+	/**
+	 * Id of the packed references last counted in {@link #modCnt}.
+	 * <p>
+	 * Both {@link #packedRefs} and {@link #mappedPackedRefs} may notice the
+	 * same change on disk, it is only counted once.
+	 */
+	private final AtomicReference<ObjectId> packedRefsId = new AtomicReference<>(
+			ObjectId.zeroId());
+
 	/**
 	 * Lock for coordinating operations within a single process that may contend
 	 * on the {@code packed-refs} file.
@@ -218,6 +237,8 @@ public class RefDirectory extends RefDatabase {
 		logsDir = fs.resolve(gitDir, LOGS);
 		logsRefsDir = fs.resolve(gitDir, LOGS + '/' + R_REFS);
 		packedRefsFile = fs.resolve(gitDir, PACKED_REFS);
+		packedRefsOverlayFile = fs.resolve(gitDir,
+				PackedRefsOverlay.OVERLAY_FILE);
 
 		looseRefs.set(RefList.<LooseRef> emptyList());
 		packedRefs.set(NO_PACKED_REFS);
@@ -265,6 +286,8 @@ public void close() {
 	private void clearReferences() {
 		looseRefs.set(RefList.<LooseRef> emptyList());
 		packedRefs.set(NO_PACKED_REFS);
+		mappedPackedRefs.set(null);
+		packedRefsId.set(NO_PACKED_REFS.id);
 	}
 
 	/** {@inheritDoc} */
@@ -321,7 +344,8 @@ private RefList<LooseRef> getLooseRefs() {
 	}
 
 	@Nullable
-	private Ref readAndResolve(String name, RefList<Ref> packed) throws IOException {
+	private Ref readAndResolve(String name, PackedRefLookup packed)
+			throws IOException {
 		try {
 			Ref ref = readRef(name, packed);
 			if (ref != null) {
@@ -345,7 +369,7 @@ private Ref readAndResolve(String name, RefList<Ref> packed) throws IOException
 	@Override
 	public Ref exactRef(String name) throws IOException {
 		try {
-			return readAndResolve(name, getPackedRefs());
+			return readAndResolve(name, getPackedRefLookup());
 		} finally {
 			fireRefsChanged();
 		}
@@ -356,7 +380,7 @@ public Ref exactRef(String name) throws IOException {
 	@NonNull
 	public Map<String, Ref> exactRef(String... refs) throws IOException {
 		try {
-			RefList<Ref> packed = getPackedRefs();
+			PackedRefLookup packed = getPackedRefLookup();
 			Map<String, Ref> result = new HashMap<>(refs.length);
 			for (String name : refs) {
 				Ref ref = readAndResolve(name, packed);
@@ -375,7 +399,7 @@ public Map<String, Ref> exactRef(String... refs) throws IOException {
 	@Nullable
 	public Ref firstExactRef(String... refs) throws IOException {
 		try {
-			RefList<Ref> packed = getPackedRefs();
+			PackedRefLookup packed = getPackedRefLookup();
 			for (String name : refs) {
 				Ref ref = readAndResolve(name, packed);
 				if (ref != null) {
@@ -409,7 +433,8 @@ public Map<String, Ref> getRefs(String prefix) throws IOException {
 		RefList.Builder<Ref> symbolic = scan.symbolic;
 		for (int idx = 0; idx < symbolic.size();) {
 			final Ref symbolicRef = symbolic.get(idx);
-			final Ref resolvedRef = resolve(symbolicRef, 0, prefix, loose, packed);
+			final Ref resolvedRef = resolve(symbolicRef, 0, prefix, loose,
+					packed::get);
 			if (resolvedRef != null && resolvedRef.getObjectId() != null) {
 				symbolic.set(idx, resolvedRef);
 				idx++;
@@ -428,6 +453,117 @@ public Map<String, Ref> getRefs(String prefix) throws IOException {
 		return new RefMap(prefix, packed, upcast(loose), symbolic.toRefList());
 	}
 
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * Only the loose references below the directory containing the prefix are
+	 * scanned, and only the range of packed references starting with the
+	 * prefix is considered. With {@code core.packedRefsMmap} set the range is
+	 * read from the memory mapped {@code packed-refs} file, without parsing
+	 * the other references.
+	 */
+	@Override
+	public List<Ref> getRefsByPrefix(String prefix) throws IOException {
+		if (!prefix.startsWith(R_REFS)) {
+			return super.getRefsByPrefix(prefix);
+		}
+		final RefList<LooseRef> oldLoose = looseRefs.get();
+		LooseScanner scan = new LooseScanner(oldLoose);
+		scan.scanPrefix(prefix);
+
+		RefList<LooseRef> loose;
+		if (scan.newLoose != null) {
+			scan.newLoose.sort();
+			loose = scan.newLoose.toRefList();
+			if (looseRefs.compareAndSet(oldLoose, loose))
+				modCnt.incrementAndGet();
+		} else
+			loose = oldLoose;
+
+		RefList<Ref> packed;
+		PackedRefLookup packedLookup;
+		MappedPackedRefs mapped = getMappedPackedRefs();
+		if (mapped != null) {
+			packed = mapped.getRefsByPrefix(prefix);
+			packedLookup = mapped::get;
+		} else {
+			PackedRefList all = getPackedRefs();
+			packed = range(all, prefix);
+			packedLookup = all::get;
+		}
+		fireRefsChanged();
+
+		RefList.Builder<Ref> symbolic = scan.symbolic;
+		for (int idx = 0; idx < symbolic.size();) {
+			final Ref symbolicRef = symbolic.get(idx);
+			final Ref resolvedRef = resolve(symbolicRef, 0, prefix, loose,
+					packedLookup);
+			if (resolvedRef != null && resolvedRef.getObjectId() != null) {
+				symbolic.set(idx, resolvedRef);
+				idx++;
+			} else {
+				// A broken symbolic reference, drop it like getRefs does.
+				symbolic.remove(idx);
+				final int toRemove = loose.find(symbolicRef.getName());
+				if (0 <= toRemove)
+					loose = loose.remove(toRemove);
+			}
+		}
+		symbolic.sort();
+		RefList<Ref> resolved = symbolic.toRefList();
+
+		List<Ref> result = new ArrayList<>();
+		int looseIdx = loose.find(prefix);
+		if (looseIdx < 0) {
+			looseIdx = -(looseIdx + 1);
+		}
+		int packedIdx = 0;
+		while (true) {
+			Ref l = null;
+			if (looseIdx < loose.size()
+					&& loose.get(looseIdx).getName().startsWith(prefix)) {
+				l = loose.get(looseIdx);
+			}
+			Ref p = packedIdx < packed.size() ? packed.get(packedIdx) : null;
+			if (l == null && p == null) {
+				break;
+			}
+
+			if (l == null) {
+				packedIdx++;
+				result.add(p);
+				continue;
+			}
+			if (p != null) {
+				int cmp = RefComparator.compareTo(l, p);
+				if (cmp > 0) {
+					packedIdx++;
+					result.add(p);
+					continue;
+				} else if (cmp == 0) {
+					packedIdx++;
+				}
+			}
+			looseIdx++;
+			Ref r = l.isSymbolic() ? resolved.get(l.getName()) : l;
+			if (r != null) {
+				result.add(r);
+			}
+		}
+		return Collections.unmodifiableList(result);
+	}
+
+	private static RefList<Ref> range(RefList<Ref> refs, String prefix) {
+		int idx = refs.find(prefix);
+		int start = idx < 0 ? -(idx + 1) : idx;
+		RefList.Builder<Ref> b = new RefList.Builder<>();
+		for (int i = start; i < refs.size()
+				&& refs.get(i).getName().startsWith(prefix); i++) {
+			b.add(refs.get(i));
+		}
+		return b.toRefList();
+	}
+
 	/** {@inheritDoc} */
 	@Override
 	public List<Ref> getAdditionalRefs() throws IOException {
@@ -468,33 +604,51 @@ void scan(String prefix) {
 					newLoose = curLoose.copy(curIdx);
 
 			} else if (prefix.startsWith(R_REFS) && prefix.endsWith("/")) { //$NON-NLS-1$
-				curIdx = -(curLoose.find(prefix) + 1);
-				File dir = new File(refsDir, prefix.substring(R_REFS.length()));
-				scanTree(prefix, dir);
-
-				// Skip over entries still within the prefix; these have
-				// been removed from the directory.
-				while (curIdx < curLoose.size()) {
-					if (!curLoose.get(curIdx).getName().startsWith(prefix))
-						break;
-					if (newLoose == null)
-						newLoose = curLoose.copy(curIdx);
-					curIdx++;
-				}
+				scanPrefix(prefix);
+			}
+		}
 
-				// Keep any entries outside of the prefix space, we
-				// do not know anything about their status.
-				if (newLoose != null) {
-					while (curIdx < curLoose.size())
-						newLoose.add(curLoose.get(curIdx++));
-				}
+		void scanPrefix(String prefix) {
+			// Only scan the directory containing the prefix, and in it only
+			// the entries starting with the last name component.
+			int idx = curLoose.find(prefix);
+			curIdx = idx < 0 ? -(idx + 1) : idx;
+			int lastSlash = prefix.lastIndexOf('/');
+			String dirPrefix = prefix.substring(0, lastSlash + 1);
+			File dir = new File(refsDir, dirPrefix.substring(R_REFS.length()));
+			scanTree(dirPrefix, dir, prefix.substring(lastSlash + 1));
+
+			// Skip over entries still within the prefix; these have been
+			// removed from the directory.
+			while (curIdx < curLoose.size()) {
+				if (!curLoose.get(curIdx).getName().startsWith(prefix))
+					break;
+				if (newLoose == null)
+					newLoose = curLoose.copy(curIdx);
+				curIdx++;
+			}
+
+			// Keep any entries outside of the prefix space, we do not know
+			// anything about their status.
+			if (newLoose != null) {
+				while (curIdx < curLoose.size())
+					newLoose.add(curLoose.get(curIdx++));
 			}
 		}
 
 		private boolean scanTree(String prefix, File dir) {
-			final String[] entries = dir.list(LockFile.FILTER);
+			return scanTree(prefix, dir, ""); //$NON-NLS-1$
+		}
+
+		private boolean scanTree(String prefix, File dir, String filter) {
+			String[] entries = dir.list(LockFile.FILTER);
 			if (entries == null) // not a directory or an I/O error
 				return false;
+			if (!filter.isEmpty()) {
+				entries = Arrays.stream(entries)
+						.filter(e -> e.startsWith(filter))
+						.toArray(String[]::new);
+			}
 			if (0 < entries.length) {
 				for (int i = 0; i < entries.length; ++i) {
 					String e = entries[i];
@@ -620,7 +774,7 @@ void storedSymbolicRef(RefDirectoryUpdate u, FileSnapshot snapshot,
 	public RefDirectoryUpdate newUpdate(String name, boolean detach)
 			throws IOException {
 		boolean detachingSymbolicRef = false;
-		final RefList<Ref> packed = getPackedRefs();
+		final PackedRefLookup packed = getPackedRefLookup();
 		Ref ref = readRef(name, packed);
 		if (ref != null)
 			ref = resolve(ref, 0, null, null, packed);
@@ -736,6 +890,31 @@ public void pack(List<String> refs) throws IOException {
 		pack(refs, Collections.emptyMap());
 	}
 
+	/**
+	 * Rewrite the {@code packed-refs} file including the changes recorded in
+	 * its overlay, and remove the overlay.
+	 *
+	 * @throws java.io.IOException
+	 *             packed-refs cannot be locked, read or written.
+	 */
+	void foldPackedRefsOverlay() throws IOException {
+		if (!packedRefsOverlayFile.exists()) {
+			return;
+		}
+		inProcessPackedRefsLock.lock();
+		try {
+			LockFile lck = lockPackedRefsOrThrow();
+			try {
+				PackedRefList packed = getPackedRefs();
+				writePackedRefs(lck, readPackedRefs(), packed, false);
+			} finally {
+				lck.unlock();
+			}
+		} finally {
+			inProcessPackedRefsLock.unlock();
+		}
+	}
+
 	PackedRefList pack(Map<String, LockFile> heldLocks) throws IOException {
 		return pack(heldLocks.keySet(), heldLocks);
 	}
@@ -761,7 +940,7 @@ private PackedRefList pack(Collection<String> refs,
 				// Iterate over all refs to be packed
 				boolean dirty = false;
 				for (String refName : refs) {
-					Ref oldRef = readRef(refName, cur);
+					Ref oldRef = readRef(refName, cur::get);
 					if (oldRef == null) {
 						continue; // A non-existent ref is already correctly packed.
 					}
@@ -906,7 +1085,8 @@ void log(boolean force, RefUpdate update, String msg, boolean deref)
 	}
 
 	private Ref resolve(final Ref ref, int depth, String prefix,
-			RefList<LooseRef> loose, RefList<Ref> packed) throws IOException {
+			RefList<LooseRef> loose, PackedRefLookup packed)
+			throws IOException {
 		if (ref.isSymbolic()) {
 			Ref dst = ref.getTarget();
 
@@ -917,10 +1097,11 @@ private Ref resolve(final Ref ref, int depth, String prefix,
 			// recent scan of the loose directory, use it.
 			if (loose != null && dst.getName().startsWith(prefix)) {
 				int idx;
+				Ref packedDst;
 				if (0 <= (idx = loose.find(dst.getName())))
 					dst = loose.get(idx);
-				else if (0 <= (idx = packed.find(dst.getName())))
-					dst = packed.get(idx);
+				else if ((packedDst = packed.get(dst.getName())) != null)
+					dst = packedDst;
 				else
 					return ref;
 			} else {
@@ -937,20 +1118,80 @@ else if (0 <= (idx = packed.find(dst.getName())))
 		return ref;
 	}
 
+	/**
+	 * Get a lookup of packed references by name.
+	 * <p>
+	 * With {@code core.packedRefsMmap} enabled references are searched in the
+	 * memory mapped {@code packed-refs} file, without parsing all of them.
+	 * Otherwise they are looked up in {@link #getPackedRefs()}.
+	 *
+	 * @return lookup of the current packed references.
+	 * @throws IOException
+	 *             packed-refs cannot be read.
+	 */
+	private PackedRefLookup getPackedRefLookup() throws IOException {
+		MappedPackedRefs mapped = getMappedPackedRefs();
+		if (mapped != null) {
+			return mapped::get;
+		}
+		return getPackedRefs()::get;
+	}
+
+	// Get the memory mapped packed-refs file if core.packedRefsMmap is set
+	// and the file can be searched.
+	@Nullable
+	private MappedPackedRefs getMappedPackedRefs() throws IOException {
+		Config cfg = getRepository().getConfig();
+		if (!cfg.getBoolean(ConfigConstants.CONFIG_CORE_SECTION,
+				ConfigConstants.CONFIG_KEY_PACKED_REFS_MMAP, false)) {
+			return null;
+		}
+		boolean trustFolderStat = cfg.getBoolean(
+				ConfigConstants.CONFIG_CORE_SECTION,
+				ConfigConstants.CONFIG_KEY_TRUSTFOLDERSTAT, true);
+		MappedPackedRefs cur = mappedPackedRefs.get();
+		MappedPackedRefs mapped = cur;
+		if (mapped == null || !trustFolderStat
+				|| mapped.isModified(packedRefsOverlayFile)) {
+			mapped = MappedPackedRefs.open(packedRefsFile,
+					packedRefsOverlayFile, trustFolderStat ? cur : null);
+			if (mappedPackedRefs.compareAndSet(cur, mapped)
+					&& mapped.isSearchable()) {
+				packedRefsChanged(mapped.getId());
+			}
+		}
+		return mapped.isSearchable() ? mapped : null;
+	}
+
+	// Count a modification if the packed references read from disk differ
+	// from the ones last counted.
+	private void packedRefsChanged(ObjectId id) {
+		if (!packedRefsId.getAndSet(id).equals(id)) {
+			modCnt.incrementAndGet();
+		}
+	}
+
 	PackedRefList getPackedRefs() throws IOException {
 		boolean trustFolderStat = getRepository().getConfig().getBoolean(
 				ConfigConstants.CONFIG_CORE_SECTION,
 				ConfigConstants.CONFIG_KEY_TRUSTFOLDERSTAT, true);
 
 		final PackedRefList curList = packedRefs.get();
+		final PackedRefList newList;
 		if (trustFolderStat && !curList.snapshot.isModified(packedRefsFile)) {
-			return curList;
+			if (!isPackedRefsOverlayEnabled() || !curList.overlaySnapshot
+					.isModified(packedRefsOverlayFile)) {
+				return curList;
+			}
+			// Only the overlay changed, packed-refs need not be parsed again.
+			PackedRefList overlaid = readPackedRefsOverlay(curList.base,
+					curList.snapshot, curList.baseId);
+			newList = overlaid != null ? overlaid : readPackedRefs();
+		} else {
+			newList = readPackedRefs();
 		}
-
-		final PackedRefList newList = readPackedRefs();
-		if (packedRefs.compareAndSet(curList, newList)
-				&& !curList.id.equals(newList.id)) {
-			modCnt.incrementAndGet();
+		if (packedRefs.compareAndSet(curList, newList)) {
+			packedRefsChanged(newList.id);
 		}
 		return newList;
 	}
@@ -958,6 +1199,8 @@ PackedRefList getPackedRefs() throws IOException {
 	private PackedRefList readPackedRefs() throws IOException {
 		int maxStaleRetries = 5;
 		int retries = 0;
+		int maxFoldRetries = 5;
+		int foldRetries = 0;
 		while (true) {
 			final FileSnapshot snapshot = FileSnapshot.save(packedRefsFile);
 			final MessageDigest digest = Constants.newMessageDigest();
@@ -966,8 +1209,19 @@ private PackedRefList readPackedRefs() throws IOException {
 							digest),
 					UTF_8))) {
 				try {
-					return new PackedRefList(parsePackedRefs(br), snapshot,
-							ObjectId.fromRaw(digest.digest()));
+					RefList<Ref> base = parsePackedRefs(br);
+					ObjectId baseId = ObjectId.fromRaw(digest.digest());
+					PackedRefList list = readPackedRefsOverlay(base, snapshot,
+							baseId);
+					if (list != null) {
+						return list;
+					}
+					if (foldRetries < maxFoldRetries) {
+						foldRetries++;
+						continue;
+					}
+					// The snapshot may be racily dirty, trust what was read.
+					return new PackedRefList(base, snapshot, baseId);
 				} catch (IOException e) {
 					if (FileUtils.isStaleFileHandleInCausalChain(e)
 							&& retries < maxStaleRetries) {
@@ -991,6 +1245,30 @@ private PackedRefList readPackedRefs() throws IOException {
 		}
 	}
 
+	// Apply the overlay to the references read from packed-refs. Returns
+	// null if overlays are enabled, the overlay does not match base and
+	// packed-refs changed since: a fold may have rewritten packed-refs and
+	// removed the overlay after base was read, so base may lack the folded
+	// changes.
+	@Nullable
+	private PackedRefList readPackedRefsOverlay(RefList<Ref> base,
+			FileSnapshot snapshot, ObjectId baseId) throws IOException {
+		FileSnapshot overlaySnapshot = FileSnapshot
+				.save(packedRefsOverlayFile);
+		PackedRefsOverlay overlay = PackedRefsOverlay
+				.read(packedRefsOverlayFile);
+		if (overlay == null || !overlay.getBaseId().equals(baseId)) {
+			if (isPackedRefsOverlayEnabled()
+					&& snapshot.isModified(packedRefsFile)) {
+				return null;
+			}
+			// The overlay is missing or already folded into packed-refs.
+			overlay = null;
+		}
+		return new PackedRefList(base, snapshot, baseId, overlay,
+				overlaySnapshot);
+	}
+
 	private RefList<Ref> parsePackedRefs(BufferedReader br)
 			throws IOException {
 		RefList.Builder<Ref> all = new RefList.Builder<>();
@@ -1049,9 +1327,111 @@ private static String copy(String src, int off, int end) {
 		return new StringBuilder(end - off).append(src, off, end).toString();
 	}
 
+	private boolean isPackedRefsOverlayEnabled() {
+		return getRepository().getConfig().getBoolean(
+				ConfigConstants.CONFIG_CORE_SECTION,
+				ConfigConstants.CONFIG_KEY_PACKED_REFS_OVERLAY, false);
+	}
+
 	PackedRefList commitPackedRefs(final LockFile lck, final RefList<Ref> refs,
 			final PackedRefList oldPackedList, boolean changed)
 			throws IOException {
+		if (isPackedRefsOverlayEnabled()) {
+			PackedRefList result = commitPackedRefsOverlay(lck, refs,
+					oldPackedList, changed);
+			if (result != null) {
+				return result;
+			}
+		}
+		return writePackedRefs(lck, refs, oldPackedList, changed);
+	}
+
+	// Record the changes to packed-refs in its overlay, leaving packed-refs
+	// untouched. Returns null if packed-refs must be rewritten instead
+	// because it or its overlay changed on disk, or the overlay would grow
+	// too large.
+	@Nullable
+	private PackedRefList commitPackedRefsOverlay(LockFile lck,
+			RefList<Ref> refs, PackedRefList oldPackedList, boolean changed)
+			throws IOException {
+		if (oldPackedList.snapshot.isModified(packedRefsFile)
+				|| !isOverlayCurrent(oldPackedList)) {
+			return null;
+		}
+		PackedRefsOverlay overlay = oldPackedList.overlay;
+		if (overlay == null) {
+			overlay = new PackedRefsOverlay(oldPackedList.baseId,
+					RefList.emptyList());
+		}
+		overlay = overlay.update(oldPackedList, refs);
+		if (overlay.size() > PackedRefsOverlay.MAX_ENTRIES
+				|| overlay.size() * 4 >= oldPackedList.base.size()) {
+			return null;
+		}
+
+		String name = packedRefsOverlayFile.getName();
+		LockFile overlayLck = new LockFile(packedRefsOverlayFile);
+		if (!overlayLck.lock()) {
+			return null;
+		}
+		try {
+			overlayLck.setFSync(true);
+			overlayLck.setNeedSnapshot(true);
+			try {
+				overlayLck.write(overlay.getContent());
+			} catch (IOException ioe) {
+				throw new ObjectWritingException(MessageFormat.format(
+						JGitText.get().unableToWrite, name), ioe);
+			}
+			try {
+				overlayLck.waitForStatChange();
+			} catch (InterruptedException e) {
+				throw new ObjectWritingException(MessageFormat
+						.format(JGitText.get().interruptedWriting, name));
+			}
+			if (!overlayLck.commit()) {
+				throw new ObjectWritingException(MessageFormat
+						.format(JGitText.get().unableToWrite, name));
+			}
+		} finally {
+			overlayLck.unlock();
+		}
+		// packed-refs itself is unchanged, release its lock.
+		lck.unlock();
+
+		PackedRefList newPackedList = new PackedRefList(oldPackedList.base,
+				oldPackedList.snapshot, oldPackedList.baseId, overlay,
+				overlayLck.getCommitSnapshot());
+		PackedRefList afterUpdate = packedRefs.updateAndGet(
+				p -> p.id.equals(oldPackedList.id) ? newPackedList : p);
+		if (!afterUpdate.id.equals(newPackedList.id)) {
+			throw new ObjectWritingException(
+					MessageFormat.format(JGitText.get().unableToWrite, name));
+		}
+		packedRefsId.set(newPackedList.id);
+		if (changed) {
+			modCnt.incrementAndGet();
+		}
+		return newPackedList;
+	}
+
+	private boolean isOverlayCurrent(PackedRefList packed) throws IOException {
+		if (!packed.overlaySnapshot.isModified(packedRefsOverlayFile)) {
+			return true;
+		}
+		// The snapshot may be racily clean, compare the small overlay content.
+		PackedRefsOverlay onDisk = PackedRefsOverlay
+				.read(packedRefsOverlayFile);
+		PackedRefsOverlay overlay = packed.overlay;
+		if (onDisk == null || !onDisk.getBaseId().equals(packed.baseId)) {
+			return overlay == null;
+		}
+		return overlay != null && onDisk.getId().equals(overlay.getId());
+	}
+
+	private PackedRefList writePackedRefs(final LockFile lck,
+			final RefList<Ref> refs, final PackedRefList oldPackedList,
+			boolean changed) throws IOException {
 		// Can't just return packedRefs.get() from this method; it might have been
 		// updated again after writePackedRefs() returns.
 		AtomicReference<PackedRefList> result = new AtomicReference<>();
@@ -1074,6 +1454,8 @@ protected void writeFile(String name, byte[] content)
 				}
 				if (!lck.commit())
 					throw new ObjectWritingException(MessageFormat.format(JGitText.get().unableToWrite, name));
+				// The overlay no longer matches packed-refs, drop it.
+				FileUtils.delete(packedRefsOverlayFile, FileUtils.SKIP_MISSING);
 
 				byte[] digest = Constants.newMessageDigest().digest(content);
 				PackedRefList newPackedList = new PackedRefList(
@@ -1094,6 +1476,7 @@ protected void writeFile(String name, byte[] content)
 					throw new ObjectWritingException(
 							MessageFormat.format(JGitText.get().unableToWrite, name));
 				}
+				packedRefsId.set(newPackedList.id);
 				if (changed) {
 					modCnt.incrementAndGet();
 				}
@@ -1103,7 +1486,8 @@ protected void writeFile(String name, byte[] content)
 		return result.get();
 	}
 
-	private Ref readRef(String name, RefList<Ref> packed) throws IOException {
+	private Ref readRef(String name, PackedRefLookup packed)
+			throws IOException {
 		final RefList<LooseRef> curList = looseRefs.get();
 		final int idx = curList.find(name);
 		if (0 <= idx) {
@@ -1379,16 +1763,44 @@ static void sleep(long ms) throws InterruptedIOException {
 		}
 	}
 
+	/** Lookup of packed references by name. */
+	@FunctionalInterface
+	private interface PackedRefLookup {
+		@Nullable
+		Ref get(String name) throws IOException;
+	}
+
 	static class PackedRefList extends RefList<Ref> {
 
 		private final FileSnapshot snapshot;
 
 		private final ObjectId id;
 
+		/** References read from packed-refs, without the overlay. */
+		private final RefList<Ref> base;
+
+		/** Id of the packed-refs content. */
+		private final ObjectId baseId;
+
+		@Nullable
+		private final PackedRefsOverlay overlay;
+
+		private final FileSnapshot overlaySnapshot;
+
 		private PackedRefList(RefList<Ref> src, FileSnapshot s, ObjectId i) {
-			super(src);
+			this(src, s, i, null, FileSnapshot.MISSING_FILE);
+		}
+
+		private PackedRefList(RefList<Ref> base, FileSnapshot s,
+				ObjectId baseId, @Nullable PackedRefsOverlay overlay,
+				FileSnapshot overlaySnapshot) {
+			super(overlay != null ? overlay.applyTo(base) : base);
 			snapshot = s;
-			id = i;
+			id = overlay != null ? overlay.getId() : baseId;
+			this.base = base;
+			this.baseId = baseId;
+			this.overlay = overlay;
+			this.overlaySnapshot = overlaySnapshot;
 		}
 	}
 
@@ -0,0 +1,583 @@
+/*
+ * Copyright (C) 2019, Google LLC.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.file;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Strongly referenced, sharded table of windows for the {@link WindowCache}.
+ * <p>
+ * Used instead of the SoftReference based table when the cache is configured
+ * with the {@code LRU} or {@code TINY_LFU} eviction policy. Windows are held
+ * by strong references and accounted by their size in bytes, so the cache
+ * never depends on the garbage collector to release memory and the JVM does
+ * not have to process soft references.
+ * <p>
+ * The table is split into a power of two number of shards, each owning an
+ * equal share of the byte limit. Lookups read the shard's hash table without
+ * taking any lock. Misses are serialized per {@code (PackFile,position)} by
+ * an array of load locks, so exactly one thread loads a window, and the
+ * loaded window is then added to its shard under the shard's lock.
+ * <p>
+ * The eviction order is maintained under the shard lock. Hits only
+ * {@link ReentrantLock#tryLock() try} to take the lock to record the access;
+ * under contention the access is dropped rather than making the reader wait,
+ * which keeps the policy approximate but the hit path non-blocking.
+ * <p>
+ * Windows are returned {@link ByteWindow#tryRetain() retained} for the
+ * caller, and the table releases its own reference when it drops a window,
+ * so windows recycling their storage are not reused while still being read.
+ */
+class ShardedWindowTable {
+	private final WindowCache cache;
+
+	private final Shard[] shards;
+
+	private final Object[] loadLocks;
+
+	/** Number of low hash bits selecting the shard. */
+	private final int shardBits;
+
+	private final int windowSizeShift;
+
+	private final int maxFiles;
+
+	ShardedWindowTable(WindowCache cache, int shardCount, int tableSize,
+			int lockCount, long maxBytes, int maxFiles, int windowSizeShift,
+			boolean tinyLfu) {
+		this.cache = cache;
+		this.windowSizeShift = windowSizeShift;
+		this.maxFiles = maxFiles;
+
+		int n = Integer.highestOneBit(Math.max(1, shardCount));
+		shardBits = Integer.numberOfTrailingZeros(n);
+		int windowSize = 1 << windowSizeShift;
+		long shardBytes = Math.max(maxBytes / n, windowSize);
+		int shardSlots = Math.max(1, tableSize / n);
+		shards = new Shard[n];
+		for (int i = 0; i < n; i++) {
+			shards[i] = tinyLfu
+					? new TinyLfuShard(shardSlots, shardBytes, shardBits,
+							windowSize)
+					: new LruShard(shardSlots, shardBytes, shardBits);
+		}
+		loadLocks = new Object[lockCount];
+		for (int i = 0; i < loadLocks.length; i++) {
+			loadLocks[i] = new Object();
+		}
+	}
+
+	ByteWindow getOrLoad(PackFile pack, long position) throws IOException {
+		int h = hash(pack, position);
+		Shard s = shards[h & (shards.length - 1)];
+		Node n = s.find(pack, position, h);
+		if (n != null && n.window.tryRetain()) {
+			s.hit(n);
+			cache.hit();
+			return n.window;
+		}
+
+		// All keys of a shard share the low bits used to select it.
+		synchronized (loadLocks[((h >>> shardBits) & Integer.MAX_VALUE)
+				% loadLocks.length]) {
+			n = s.find(pack, position, h);
+			if (n != null && n.window.tryRetain()) {
+				s.hit(n);
+				cache.hit();
+				return n.window;
+			}
+			n = new Node(pack, position, h, cache.load(pack, position));
+			// One reference for the table, one for the caller.
+			n.window.tryRetain();
+			s.lock.lock();
+			try {
+				s.insert(n);
+				cache.opened(pack, n.size);
+				while (s.isFull()) {
+					if (!evict(s, n)) {
+						break;
+					}
+				}
+			} finally {
+				s.lock.unlock();
+			}
+		}
+		if (maxFiles < cache.getOpenFiles()) {
+			closeFiles(n);
+		}
+		return n.window;
+	}
+
+	// Requires s.lock.
+	private boolean evict(Shard s, Node added) {
+		Node victim = s.evict(added);
+		if (victim == null) {
+			return false;
+		}
+		s.remove(victim);
+		victim.window.release();
+		cache.closed(victim.pack, victim.size);
+		cache.evicted();
+		return true;
+	}
+
+	private void closeFiles(Node added) {
+		// Files are shared by the windows of all shards, so every shard
+		// may need to give up windows. Take one shard lock at a time to
+		// avoid deadlocks with other threads.
+		boolean evicted;
+		do {
+			evicted = false;
+			for (Shard s : shards) {
+				if (cache.getOpenFiles() <= maxFiles) {
+					return;
+				}
+				s.lock.lock();
+				try {
+					evicted |= evict(s, added);
+				} finally {
+					s.lock.unlock();
+				}
+			}
+		} while (evicted);
+	}
+
+	void removeAll() {
+		removeIf(null);
+	}
+
+	void removeAll(PackFile pack) {
+		removeIf(pack);
+	}
+
+	private void removeIf(PackFile pack) {
+		for (Shard s : shards) {
+			s.lock.lock();
+			try {
+				for (int i = 0; i < s.table.length(); i++) {
+					for (Entry e = s.table.get(i); e != null; e = e.next) {
+						Node n = e.node;
+						if (pack == null || n.pack == pack) {
+							s.remove(n);
+							n.window.release();
+							cache.closed(n.pack, n.size);
+						}
+					}
+				}
+			} finally {
+				s.lock.unlock();
+			}
+		}
+	}
+
+	private int hash(PackFile pack, long position) {
+		int h = pack.hash + (int) (position >>> windowSizeShift);
+		// Spread the bits, the low bits select the shard and the bits above
+		// them the slot within the shard.
+		return h ^ (h >>> 16);
+	}
+
+	/** Immutable hash chain entry, allowing lock-free reads. */
+	private static final class Entry {
+		final Entry next;
+
+		final Node node;
+
+		Entry(Entry next, Node node) {
+			this.next = next;
+			this.node = node;
+		}
+	}
+
+	/** A cached window and its position in the eviction order. */
+	static final class Node {
+		final PackFile pack;
+
+		final long position;
+
+		final int hash;
+
+		final ByteWindow window;
+
+		final int size;
+
+		Node prev;
+
+		Node next;
+
+		/** Queue the node is linked into, null once it was removed. */
+		Queue queue;
+
+		Node(PackFile pack, long position, int hash, ByteWindow window) {
+			this.pack = pack;
+			this.position = position;
+			this.hash = hash;
+			this.window = window;
+			this.size = window.size();
+		}
+
+		/** Create the sentinel of a {@link Queue}. */
+		Node() {
+			this.pack = null;
+			this.position = 0;
+			this.hash = 0;
+			this.window = null;
+			this.size = 0;
+		}
+	}
+
+	/** Byte accounted, doubly linked queue from least to most recent. */
+	static final class Queue {
+		private final Node head = new Node();
+
+		long bytes;
+
+		Queue() {
+			head.prev = head;
+			head.next = head;
+		}
+
+		Node first() {
+			return head.next == head ? null : head.next;
+		}
+
+		void add(Node n) {
+			n.queue = this;
+			n.prev = head.prev;
+			n.next = head;
+			head.prev.next = n;
+			head.prev = n;
+			bytes += n.size;
+		}
+
+		void unlink(Node n) {
+			n.prev.next = n.next;
+			n.next.prev = n.prev;
+			n.prev = null;
+			n.next = null;
+			n.queue = null;
+			bytes -= n.size;
+		}
+
+		void moveToEnd(Node n) {
+			unlink(n);
+			add(n);
+		}
+	}
+
+	private abstract static class Shard {
+		final ReentrantLock lock = new ReentrantLock();
+
+		final AtomicReferenceArray<Entry> table;
+
+		final long maxBytes;
+
+		/** Hash bits already used to select this shard. */
+		private final int shardBits;
+
+		Shard(int slots, long maxBytes, int shardBits) {
+			this.table = new AtomicReferenceArray<>(slots);
+			this.maxBytes = maxBytes;
+			this.shardBits = shardBits;
+		}
+
+		Node find(PackFile pack, long position, int h) {
+			Entry e = table.get(slot(h));
+			for (; e != null; e = e.next) {
+				Node n = e.node;
+				if (n.pack == pack && n.position == position) {
+					return n;
+				}
+			}
+			return null;
+		}
+
+		void hit(Node n) {
+			if (lock.tryLock()) {
+				try {
+					if (n.queue != null) {
+						onHit(n);
+					}
+				} finally {
+					lock.unlock();
+				}
+			}
+		}
+
+		// Requires lock.
+		void insert(Node n) {
+			int s = slot(n.hash);
+			table.set(s, new Entry(table.get(s), n));
+			onInsert(n);
+		}
+
+		// Requires lock.
+		void remove(Node n) {
+			int s = slot(n.hash);
+			table.set(s, without(table.get(s), n));
+			if (n.queue != null) {
+				n.queue.unlink(n);
+			}
+		}
+
+		private int slot(int h) {
+			// Skip the bits shared by all keys of the shard, they would
+			// leave most slots unused.
+			return ((h >>> shardBits) & Integer.MAX_VALUE) % table.length();
+		}
+
+		private static Entry without(Entry e, Node n) {
+			if (e == null) {
+				return null;
+			}
+			if (e.node == n) {
+				return e.next;
+			}
+			Entry rest = without(e.next, n);
+			return rest == e.next ? e : new Entry(rest, e.node);
+		}
+
+		abstract boolean isFull();
+
+		abstract void onInsert(Node n);
+
+		abstract void onHit(Node n);
+
+		/**
+		 * Select the next node to evict.
+		 *
+		 * @param added
+		 *            the node just added, which must not be evicted.
+		 * @return the node to evict, or null if nothing else can be evicted.
+		 */
+		abstract Node evict(Node added);
+	}
+
+	/** Evicts the least recently used window. */
+	private static final class LruShard extends Shard {
+		private final Queue lru = new Queue();
+
+		LruShard(int slots, long maxBytes, int shardBits) {
+			super(slots, maxBytes, shardBits);
+		}
+
+		@Override
+		boolean isFull() {
+			return maxBytes < lru.bytes;
+		}
+
+		@Override
+		void onInsert(Node n) {
+			lru.add(n);
+		}
+
+		@Override
+		void onHit(Node n) {
+			lru.moveToEnd(n);
+		}
+
+		@Override
+		Node evict(Node added) {
+			Node n = lru.first();
+			return n == added ? null : n;
+		}
+	}
+
+	/**
+	 * Window TinyLFU: new windows enter a small LRU admission window. Windows
+	 * leaving it only enter the main segmented LRU if they were accessed more
+	 * frequently than the window the main LRU would evict for them, as
+	 * estimated by a {@link FrequencySketch}. This keeps one-off scans, such
+	 * as a single large clone, from flushing the hot set of the cache.
+	 */
+	private static final class TinyLfuShard extends Shard {
+		private final Queue window = new Queue();
+
+		private final Queue probation = new Queue();
+
+		private final Queue protect = new Queue();
+
+		private final long maxWindowBytes;
+
+		private final long maxProtectedBytes;
+
+		private final FrequencySketch sketch;
+
+		TinyLfuShard(int slots, long maxBytes, int shardBits,
+				int windowSize) {
+			super(slots, maxBytes, shardBits);
+			maxWindowBytes = Math.max(maxBytes / 100, windowSize);
+			maxProtectedBytes = (maxBytes - maxWindowBytes) * 4 / 5;
+			sketch = new FrequencySketch(
+					(int) Math.min(maxBytes / windowSize, 1 << 24));
+		}
+
+		@Override
+		boolean isFull() {
+			return maxBytes < window.bytes + probation.bytes + protect.bytes;
+		}
+
+		@Override
+		void onInsert(Node n) {
+			sketch.increment(n.hash);
+			window.add(n);
+		}
+
+		@Override
+		void onHit(Node n) {
+			sketch.increment(n.hash);
+			if (n.queue == probation) {
+				probation.unlink(n);
+				protect.add(n);
+				while (maxProtectedBytes < protect.bytes) {
+					Node demoted = protect.first();
+					protect.unlink(demoted);
+					probation.add(demoted);
+				}
+			} else {
+				n.queue.moveToEnd(n);
+			}
+		}
+
+		@Override
+		Node evict(Node added) {
+			Node candidate = null;
+			if (maxWindowBytes < window.bytes) {
+				candidate = window.first();
+				if (candidate == added) {
+					candidate = null;
+				}
+			}
+			Node victim = probation.first();
+			if (victim == null) {
+				victim = protect.first();
+			}
+			if (candidate == null) {
+				if (victim != null) {
+					return victim;
+				}
+				Node n = window.first();
+				return n == added ? null : n;
+			}
+			if (victim == null) {
+				window.unlink(candidate);
+				probation.add(candidate);
+				return evict(added);
+			}
+			if (sketch.frequency(candidate.hash) > sketch
+					.frequency(victim.hash)) {
+				window.unlink(candidate);
+				probation.add(candidate);
+				return victim;
+			}
+			return candidate;
+		}
+	}
+
+	/**
+	 * Count-min sketch of 4-bit counters estimating how often a window was
+	 * accessed recently. All counters are halved once the number of
+	 * increments reaches ten times the capacity, so the estimate ages.
+	 */
+	static final class FrequencySketch {
+		private static final long[] SEEDS = { 0xc3a5c85c97cb3127L,
+				0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL,
+				0xcbf29ce484222325L };
+
+		private static final long RESET_MASK = 0x7777777777777777L;
+
+		private final long[] table;
+
+		private final int sampleSize;
+
+		private int size;
+
+		FrequencySketch(int capacity) {
+			int n = Integer.highestOneBit(Math.max(capacity, 16) - 1) << 1;
+			table = new long[n];
+			sampleSize = 10 * Math.max(capacity, 16);
+		}
+
+		int frequency(int hash) {
+			int f = Integer.MAX_VALUE;
+			for (int i = 0; i < 4; i++) {
+				long counters = table[indexOf(hash, i)];
+				int c = (int) ((counters >>> counterShift(hash, i)) & 0xf);
+				f = Math.min(f, c);
+			}
+			return f;
+		}
+
+		void increment(int hash) {
+			boolean added = false;
+			for (int i = 0; i < 4; i++) {
+				int idx = indexOf(hash, i);
+				int shift = counterShift(hash, i);
+				if (((table[idx] >>> shift) & 0xf) != 0xf) {
+					table[idx] += 1L << shift;
+					added = true;
+				}
+			}
+			if (added && ++size == sampleSize) {
+				for (int i = 0; i < table.length; i++) {
+					table[i] = (table[i] >>> 1) & RESET_MASK;
+				}
+				size /= 2;
+			}
+		}
+
+		private int indexOf(int hash, int i) {
+			long h = (hash + SEEDS[i]) * SEEDS[i];
+			h += h >>> 32;
+			return ((int) h) & (table.length - 1);
+		}
+
+		private static int counterShift(int hash, int i) {
+			// Each long holds 16 counters; use a different one per row.
+			return ((((hash >>> (i << 3)) & 3) << 2) + i) << 2;
+		}
+	}
+}
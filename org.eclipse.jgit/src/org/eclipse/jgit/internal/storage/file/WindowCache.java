@@ -55,6 +55,9 @@
 
 import org.eclipse.jgit.internal.JGitText;
 import org.eclipse.jgit.storage.file.WindowCacheConfig;
+import org.eclipse.jgit.storage.file.WindowCacheConfig.EvictionPolicy;
+import org.eclipse.jgit.storage.file.WindowCacheStatsMXBean;
+import org.eclipse.jgit.util.Monitoring;
 
 /**
  * Caches slices of a {@link org.eclipse.jgit.internal.storage.file.PackFile} in
@@ -122,6 +125,15 @@
  * objects in parallel. This means that the cache can be temporarily over limit,
  * especially if the nominated eviction thread is being starved relative to the
  * other threads.
+ * <p>
+ * The above describes the default
+ * {@link org.eclipse.jgit.storage.file.WindowCacheConfig.EvictionPolicy#SOFT_LRU}
+ * policy. The other policies hold windows by strong references in a
+ * {@link ShardedWindowTable} instead, reusing the loading and resource
+ * accounting of this class. Windows read into pooled direct buffers
+ * ({@link org.eclipse.jgit.storage.file.WindowCacheConfig#isPackedGitDirect()})
+ * always use a strongly referenced table, as their buffers have to be
+ * returned to the pool when they are evicted.
  */
 public class WindowCache {
 	private static final int bits(int newSize) {
@@ -134,10 +146,16 @@ private static final int bits(int newSize) {
 
 	private static final Random rng = new Random();
 
+	private static final WindowCacheStatsRecorder statsRecorder = new WindowCacheStatsRecorder();
+
+	private static boolean statsRegistered;
+
 	private static volatile WindowCache cache;
 
 	private static volatile int streamFileThreshold;
 
+	private static volatile boolean packedIndexMMAP;
+
 	static {
 		reconfigure(new WindowCacheConfig());
 	}
@@ -164,13 +182,36 @@ public static void reconfigure(WindowCacheConfig cfg) {
 			oc.removeAll();
 		cache = nc;
 		streamFileThreshold = cfg.getStreamFileThreshold();
+		packedIndexMMAP = cfg.isPackedIndexMMAP();
 		DeltaBaseCache.reconfigure(cfg);
+		if (cfg.getExposeStatsViaJmx()) {
+			registerStats();
+		}
+	}
+
+	private static synchronized void registerStats() {
+		if (!statsRegistered) {
+			Monitoring.registerMBean(statsRecorder, "WindowCacheStats"); //$NON-NLS-1$
+			statsRegistered = true;
+		}
+	}
+
+	/**
+	 * @return the statistics of the cache, accumulated across
+	 *         reconfigurations.
+	 */
+	public static WindowCacheStatsMXBean getStats() {
+		return statsRecorder;
 	}
 
 	static int getStreamFileThreshold() {
 		return streamFileThreshold;
 	}
 
+	static boolean isPackedIndexMMAP() {
+		return packedIndexMMAP;
+	}
+
 	/**
 	 * @return the cached instance.
 	 */
@@ -206,9 +247,15 @@ static final void purge(PackFile pack) {
 	/** Access clock for loose LRU. */
 	private final AtomicLong clock;
 
-	/** Hash bucket directory; entries are chained below. */
+	/**
+	 * Hash bucket directory; entries are chained below. Null if
+	 * {@link #sharded} is used instead.
+	 */
 	private final AtomicReferenceArray<Entry> table;
 
+	/** Strongly referenced table, if the policy is not SOFT_LRU. */
+	private final ShardedWindowTable sharded;
+
 	/** Locks to prevent concurrent loads for same (PackFile,position). */
 	private final Lock[] locks;
 
@@ -224,6 +271,12 @@ static final void purge(PackFile pack) {
 
 	private final boolean mmap;
 
+	/**
+	 * Pool of direct buffers to read windows into, or {@code null} if windows
+	 * are read into heap arrays or memory mapped.
+	 */
+	private final DirectBufferPool directPool;
+
 	private final int windowSizeShift;
 
 	private final int windowSize;
@@ -242,7 +295,12 @@ private WindowCache(WindowCacheConfig cfg) {
 
 		queue = new ReferenceQueue<>();
 		clock = new AtomicLong(1);
-		table = new AtomicReferenceArray<>(tableSize);
+		// Pooled direct buffers must be handed back to the pool on eviction,
+		// which the garbage collector does not do for soft references.
+		boolean direct = cfg.isPackedGitDirect() && !cfg.isPackedGitMMAP();
+		boolean soft = cfg.getEvictionPolicy() == EvictionPolicy.SOFT_LRU
+				&& !direct;
+		table = soft ? new AtomicReferenceArray<>(tableSize) : null;
 		locks = new Lock[lockCount];
 		for (int i = 0; i < locks.length; i++)
 			locks[i] = new Lock();
@@ -262,6 +320,13 @@ else if (eb < 4)
 		mmap = cfg.isPackedGitMMAP();
 		windowSizeShift = bits(cfg.getPackedGitWindowSize());
 		windowSize = 1 << windowSizeShift;
+		if (direct) {
+			long directLimit = cfg.getPackedGitDirectLimit();
+			directPool = new DirectBufferPool(windowSize,
+					directLimit > 0 ? directLimit : cfg.getPackedGitLimit());
+		} else {
+			directPool = null;
+		}
 
 		openFiles = new AtomicInteger();
 		openBytes = new AtomicLong();
@@ -270,6 +335,18 @@ else if (eb < 4)
 			throw new IllegalArgumentException(JGitText.get().openFilesMustBeAtLeast1);
 		if (maxBytes < windowSize)
 			throw new IllegalArgumentException(JGitText.get().windowSizeMustBeLesserThanLimit);
+
+		if (soft) {
+			sharded = null;
+		} else {
+			// Enough shards to spread the load of all processors, but each
+			// should still be able to hold a reasonable number of windows.
+			int shards = 4 * Runtime.getRuntime().availableProcessors();
+			shards = (int) Math.min(shards, maxBytes / windowSize / 16);
+			sharded = new ShardedWindowTable(this, shards, tableSize,
+					lockCount, maxBytes, maxFiles, windowSizeShift,
+					cfg.getEvictionPolicy() == EvictionPolicy.TINY_LFU);
+		}
 	}
 
 	/**
@@ -286,33 +363,44 @@ public long getOpenBytes() {
 		return openBytes.get();
 	}
 
+	DirectBufferPool getDirectBufferPool() {
+		return directPool;
+	}
+
 	private int hash(int packHash, long off) {
 		return packHash + (int) (off >>> windowSizeShift);
 	}
 
-	private ByteWindow load(PackFile pack, long offset)
+	ByteWindow load(PackFile pack, long offset)
 			throws IOException {
+		long startTime = System.nanoTime();
 		if (pack.beginWindowCache())
 			openFiles.incrementAndGet();
 		try {
+			ByteWindow w;
 			if (mmap)
-				return pack.mmap(offset, windowSize);
-			return pack.read(offset, windowSize);
+				w = pack.mmap(offset, windowSize);
+			else if (directPool != null)
+				w = pack.read(offset, windowSize, directPool);
+			else
+				w = pack.read(offset, windowSize);
+			statsRecorder.recordLoadSuccess(System.nanoTime() - startTime);
+			return w;
 		} catch (IOException | RuntimeException | Error e) {
 			close(pack);
+			statsRecorder.recordLoadFailure(System.nanoTime() - startTime);
 			throw e;
 		}
 	}
 
 	private Ref createRef(PackFile p, long o, ByteWindow v) {
 		final Ref ref = new Ref(p, o, v, queue);
-		openBytes.addAndGet(ref.size);
+		opened(p, ref.size);
 		return ref;
 	}
 
 	private void clear(Ref ref) {
-		openBytes.addAndGet(-ref.size);
-		close(ref.pack);
+		closed(ref.pack, ref.size);
 	}
 
 	private void close(PackFile pack) {
@@ -320,6 +408,25 @@ private void close(PackFile pack) {
 			openFiles.decrementAndGet();
 	}
 
+	void opened(PackFile pack, int size) {
+		openBytes.addAndGet(size);
+		statsRecorder.recordOpenBytes(pack, size);
+	}
+
+	void closed(PackFile pack, int size) {
+		openBytes.addAndGet(-size);
+		statsRecorder.recordOpenBytes(pack, -size);
+		close(pack);
+	}
+
+	void hit() {
+		statsRecorder.recordHit();
+	}
+
+	void evicted() {
+		statsRecorder.recordEviction();
+	}
+
 	private boolean isFull() {
 		return maxFiles < openFiles.get() || maxBytes < openBytes.get();
 	}
@@ -356,6 +463,9 @@ private static int lockCount(WindowCacheConfig cfg) {
 	 */
 	private ByteWindow getOrLoad(PackFile pack, long position)
 			throws IOException {
+		if (sharded != null)
+			return sharded.getOrLoad(pack, position);
+
 		final int slot = slot(pack, position);
 		final Entry e1 = table.get(slot);
 		ByteWindow v = scan(e1, pack, position);
@@ -400,6 +510,7 @@ private ByteWindow scan(Entry n, PackFile pack, long position) {
 				final ByteWindow v = r.get();
 				if (v != null) {
 					hit(r);
+					statsRecorder.recordHit();
 					return v;
 				}
 				n.kill();
@@ -440,6 +551,7 @@ private void evict() {
 				}
 			}
 			if (old != null) {
+				statsRecorder.recordEviction();
 				old.kill();
 				gc();
 				final Entry e1 = table.get(slot);
@@ -459,6 +571,10 @@ private void evict() {
 	 * running may cause resource accounting failures.
 	 */
 	private void removeAll() {
+		if (sharded != null) {
+			sharded.removeAll();
+			return;
+		}
 		for (int s = 0; s < tableSize; s++) {
 			Entry e1;
 			do {
@@ -482,6 +598,10 @@ private void removeAll() {
 	 *            the file to purge all entries of.
 	 */
 	private void removeAll(PackFile pack) {
+		if (sharded != null) {
+			sharded.removeAll(pack);
+			return;
+		}
 		for (int s = 0; s < tableSize; s++) {
 			final Entry e1 = table.get(s);
 			boolean hasDead = false;
@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2019, Google LLC.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.file;
+
+import java.io.File;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.eclipse.jgit.storage.file.WindowCacheStatsMXBean;
+
+/**
+ * Records the statistics of the {@link WindowCache}.
+ * <p>
+ * All counters are {@link LongAdder}s, so recording from many threads does
+ * not contend on a single memory location. Hits are only counted; the more
+ * expensive per-repository accounting is done when windows are loaded or
+ * released. A repository is forgotten once none of its windows is open.
+ */
+class WindowCacheStatsRecorder implements WindowCacheStatsMXBean {
+	/** Number of histogram buckets; the last one collects slower loads. */
+	static final int HISTOGRAM_BUCKETS = 25;
+
+	private final LongAdder hitCount = new LongAdder();
+
+	private final LongAdder missCount = new LongAdder();
+
+	private final LongAdder loadSuccessCount = new LongAdder();
+
+	private final LongAdder loadFailureCount = new LongAdder();
+
+	private final LongAdder totalLoadTime = new LongAdder();
+
+	private final LongAdder evictionCount = new LongAdder();
+
+	private final LongAdder[] loadTimeHistogram;
+
+	private final ConcurrentHashMap<File, Long> openBytesPerRepository = new ConcurrentHashMap<>();
+
+	WindowCacheStatsRecorder() {
+		loadTimeHistogram = new LongAdder[HISTOGRAM_BUCKETS];
+		for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+			loadTimeHistogram[i] = new LongAdder();
+		}
+	}
+
+	void recordHit() {
+		hitCount.increment();
+	}
+
+	void recordLoadSuccess(long nanos) {
+		missCount.increment();
+		loadSuccessCount.increment();
+		recordLoadTime(nanos);
+	}
+
+	void recordLoadFailure(long nanos) {
+		missCount.increment();
+		loadFailureCount.increment();
+		recordLoadTime(nanos);
+	}
+
+	private void recordLoadTime(long nanos) {
+		totalLoadTime.add(nanos);
+		long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+		int bucket = 64 - Long.numberOfLeadingZeros(micros);
+		loadTimeHistogram[Math.min(bucket, HISTOGRAM_BUCKETS - 1)]
+				.increment();
+	}
+
+	void recordEviction() {
+		evictionCount.increment();
+	}
+
+	void recordOpenBytes(PackFile pack, int delta) {
+		// The pack directory's parent is the repository's object directory.
+		File objects = pack.getPackFile().getParentFile().getParentFile();
+		openBytesPerRepository.compute(objects, (k, v) -> {
+			long bytes = (v != null ? v.longValue() : 0) + delta;
+			return bytes != 0 ? Long.valueOf(bytes) : null;
+		});
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int getOpenFileCount() {
+		return WindowCache.getInstance().getOpenFiles();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getOpenByteCount() {
+		return WindowCache.getInstance().getOpenBytes();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Map<String, Long> getOpenByteCountPerRepository() {
+		Map<String, Long> result = new TreeMap<>();
+		for (Map.Entry<File, Long> e : openBytesPerRepository.entrySet()) {
+			if (e.getValue().longValue() > 0) {
+				result.put(e.getKey().getPath(), e.getValue());
+			}
+		}
+		return result;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getHitCount() {
+		return hitCount.sum();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getMissCount() {
+		return missCount.sum();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public double getHitRatio() {
+		long hits = hitCount.sum();
+		long total = hits + missCount.sum();
+		return total == 0 ? 1.0 : (double) hits / total;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getLoadSuccessCount() {
+		return loadSuccessCount.sum();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getLoadFailureCount() {
+		return loadFailureCount.sum();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getTotalLoadTime() {
+		return totalLoadTime.sum();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public double getAverageLoadTime() {
+		long loads = loadSuccessCount.sum() + loadFailureCount.sum();
+		return loads == 0 ? 0.0 : (double) totalLoadTime.sum() / loads;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long[] getLoadTimeHistogram() {
+		long[] result = new long[HISTOGRAM_BUCKETS];
+		for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+			result[i] = loadTimeHistogram[i].sum();
+		}
+		return result;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getEvictionCount() {
+		return evictionCount.sum();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void resetCounters() {
+		hitCount.reset();
+		missCount.reset();
+		loadSuccessCount.reset();
+		loadFailureCount.reset();
+		totalLoadTime.reset();
+		evictionCount.reset();
+		for (LongAdder a : loadTimeHistogram) {
+			a.reset();
+		}
+	}
+}
@@ -58,6 +58,8 @@
 import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.errors.StoredObjectRepresentationNotAvailableException;
 import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.internal.storage.commitgraph.CommitGraph;
+import org.eclipse.jgit.internal.storage.commitgraph.CommitGraphProvider;
 import org.eclipse.jgit.internal.storage.pack.CachedPack;
 import org.eclipse.jgit.internal.storage.pack.ObjectReuseAsIs;
 import org.eclipse.jgit.internal.storage.pack.ObjectToPack;
@@ -76,7 +78,8 @@
 import org.eclipse.jgit.lib.ProgressMonitor;
 
 /** Active handle to a ByteWindow. */
-final class WindowCursor extends ObjectReader implements ObjectReuseAsIs {
+final class WindowCursor extends ObjectReader
+		implements ObjectReuseAsIs, CommitGraphProvider {
 	/** Temporary buffer large enough for at least one raw object id. */
 	final byte[] tempId = new byte[Constants.OBJECT_ID_LENGTH];
 
@@ -84,6 +87,9 @@ final class WindowCursor extends ObjectReader implements ObjectReuseAsIs {
 
 	private ByteWindow window;
 
+	/** Input handed to {@link #inf} by windows not backed by an array. */
+	private byte[] inflaterInput;
+
 	private DeltaBaseCache baseCache;
 
 	@Nullable
@@ -127,6 +133,13 @@ public BitmapIndex getBitmapIndex() throws IOException {
 		return null;
 	}
 
+	/** {@inheritDoc} */
+	@Override
+	@Nullable
+	public CommitGraph getCommitGraph() throws IOException {
+		return db.getCommitGraph();
+	}
+
 	/** {@inheritDoc} */
 	@Override
 	public Collection<CachedPack> getCachedPacksAndUpdate(
@@ -311,8 +324,10 @@ void copyPackAsIs(final PackFile pack, final long length,
 	int inflate(final PackFile pack, long position, final byte[] dstbuf,
 			boolean headerOnly) throws IOException, DataFormatException {
 		prepareInflater();
+		if (inflaterInput == null)
+			inflaterInput = new byte[8192];
 		pin(pack, position);
-		position += window.setInput(position, inf);
+		position += window.setInput(position, inf, inflaterInput);
 		for (int dstoff = 0;;) {
 			int n = inf.inflate(dstbuf, dstoff, dstbuf.length - dstoff);
 			dstoff += n;
@@ -320,7 +335,7 @@ int inflate(final PackFile pack, long position, final byte[] dstbuf,
 				return dstoff;
 			if (inf.needsInput()) {
 				pin(pack, position);
-				position += window.setInput(position, inf);
+				position += window.setInput(position, inf, inflaterInput);
 			} else if (n == 0)
 				throw new DataFormatException();
 		}
@@ -357,6 +372,8 @@ void pin(PackFile pack, long position)
 			// it again.
 			//
 			window = null;
+			if (w != null)
+				w.release();
 			window = WindowCache.get(pack, position);
 		}
 	}
@@ -375,7 +392,10 @@ public ObjectInserter getCreatedFromInserter() {
 	 */
 	@Override
 	public void close() {
+		final ByteWindow w = window;
 		window = null;
+		if (w != null)
+			w.release();
 		baseCache = null;
 		try {
 			InflaterCache.release(inf);
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2019, Google LLC.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.midx;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * The multi-pack-index maps every object of a set of packs to the pack and
+ * offset it is stored at.
+ * <p>
+ * A single binary search in the multi-pack-index replaces probing the index
+ * of every pack in turn. Objects are identified by their position, which is
+ * the index of their {@link org.eclipse.jgit.lib.ObjectId} in the sorted
+ * list of all objects stored in the file. Packs are identified by their
+ * position in {@link #getPackNames()}.
+ *
+ * @see <a href=
+ *      "https://git-scm.com/docs/multi-pack-index">multi-pack-index</a>
+ */
+public interface MultiPackIndex {
+	/**
+	 * Get the names of the pack indexes covered by this multi-pack-index.
+	 *
+	 * @return the file names (e.g. {@code pack-1234.idx}) of the covered
+	 *         pack indexes, sorted by name. The position of a name is the
+	 *         pack id returned by {@link #getPackId(int)}.
+	 */
+	String[] getPackNames();
+
+	/**
+	 * Find the position of an object in the multi-pack-index.
+	 *
+	 * @param id
+	 *            the object to look for.
+	 * @return the position of the object, or -1 if the object is not stored
+	 *         in any of the covered packs.
+	 */
+	int findPosition(AnyObjectId id);
+
+	/**
+	 * Get the object id stored at a position.
+	 *
+	 * @param position
+	 *            position in the multi-pack-index.
+	 * @return the object id.
+	 */
+	ObjectId getObjectId(int position);
+
+	/**
+	 * Get the pack holding the object stored at a position.
+	 *
+	 * @param position
+	 *            position in the multi-pack-index.
+	 * @return index into {@link #getPackNames()}.
+	 */
+	int getPackId(int position);
+
+	/**
+	 * Get the offset of the object stored at a position within its pack.
+	 *
+	 * @param position
+	 *            position in the multi-pack-index.
+	 * @return offset of the object in the pack {@link #getPackId(int)}.
+	 */
+	long getOffset(int position);
+
+	/**
+	 * Get the number of objects stored in the multi-pack-index.
+	 *
+	 * @return the number of objects.
+	 */
+	int getObjectCount();
+}
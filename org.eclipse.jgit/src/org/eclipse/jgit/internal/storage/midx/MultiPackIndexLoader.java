@@ -0,0 +1,290 @@
+/*
+ * Copyright (C) 2019, Google LLC.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.midx;
+
+import static org.eclipse.jgit.internal.storage.midx.MultiPackIndexConstants.CHUNK_ID_LARGE_OFFSETS;
+import static org.eclipse.jgit.internal.storage.midx.MultiPackIndexConstants.CHUNK_ID_OBJECT_OFFSETS;
+import static org.eclipse.jgit.internal.storage.midx.MultiPackIndexConstants.CHUNK_ID_OID_FANOUT;
+import static org.eclipse.jgit.internal.storage.midx.MultiPackIndexConstants.CHUNK_ID_OID_LOOKUP;
+import static org.eclipse.jgit.internal.storage.midx.MultiPackIndexConstants.CHUNK_ID_PACKFILE_NAMES;
+import static org.eclipse.jgit.internal.storage.midx.MultiPackIndexConstants.CHUNK_LOOKUP_WIDTH;
+import static org.eclipse.jgit.internal.storage.midx.MultiPackIndexConstants.FANOUT;
+import static org.eclipse.jgit.internal.storage.midx.MultiPackIndexConstants.FANOUT_LENGTH;
+import static org.eclipse.jgit.internal.storage.midx.MultiPackIndexConstants.HEADER_LENGTH;
+import static org.eclipse.jgit.internal.storage.midx.MultiPackIndexConstants.LARGE_OFFSET_MASK;
+import static org.eclipse.jgit.internal.storage.midx.MultiPackIndexConstants.LARGE_OFFSET_WIDTH;
+import static org.eclipse.jgit.internal.storage.midx.MultiPackIndexConstants.MIDX_SIGNATURE;
+import static org.eclipse.jgit.internal.storage.midx.MultiPackIndexConstants.MIDX_VERSION;
+import static org.eclipse.jgit.internal.storage.midx.MultiPackIndexConstants.OBJECT_OFFSETS_WIDTH;
+import static org.eclipse.jgit.internal.storage.midx.MultiPackIndexConstants.OFFSET_IN_LARGE_CHUNK;
+import static org.eclipse.jgit.internal.storage.midx.MultiPackIndexConstants.OID_HASH_VERSION;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.util.IO;
+import org.eclipse.jgit.util.NB;
+import org.eclipse.jgit.util.RawParseUtils;
+import org.eclipse.jgit.util.io.SilentFileInputStream;
+
+/**
+ * The loader returns the representation of the multi-pack-index file
+ * content.
+ */
+public class MultiPackIndexLoader {
+	/**
+	 * Open an existing multi-pack-index file for reading.
+	 * <p>
+	 * The file is not held open by the returned instance.
+	 *
+	 * @param midxFile
+	 *            existing multi-pack-index to read.
+	 * @return the multi-pack-index data.
+	 * @throws FileNotFoundException
+	 *             the file does not exist.
+	 * @throws java.io.IOException
+	 *             the file exists but could not be read due to security
+	 *             errors, unrecognized data version, or unexpected data
+	 *             corruption.
+	 */
+	public static MultiPackIndex open(File midxFile) throws IOException {
+		try (SilentFileInputStream fd = new SilentFileInputStream(
+				midxFile)) {
+			return read(fd);
+		} catch (FileNotFoundException e) {
+			throw e;
+		} catch (IOException ioe) {
+			throw new IOException(
+					MessageFormat.format(JGitText.get().unreadableMultiPackIndex,
+							midxFile.getAbsolutePath()),
+					ioe);
+		}
+	}
+
+	/**
+	 * Read an existing multi-pack-index file from a buffered stream.
+	 *
+	 * @param fd
+	 *            stream to read the multi-pack-index file from. The stream
+	 *            must be buffered as some small IOs are performed against the
+	 *            stream. The caller is responsible for closing the stream.
+	 * @return the multi-pack-index data.
+	 * @throws java.io.IOException
+	 *             the stream cannot be read, or does not contain a supported
+	 *             multi-pack-index.
+	 */
+	public static MultiPackIndex read(InputStream fd) throws IOException {
+		byte[] hdr = new byte[HEADER_LENGTH];
+		IO.readFully(fd, hdr, 0, hdr.length);
+
+		if (NB.decodeInt32(hdr, 0) != MIDX_SIGNATURE) {
+			throw new IOException(JGitText.get().notAMultiPackIndex);
+		}
+		int v = hdr[4];
+		if (v != MIDX_VERSION) {
+			throw new IOException(MessageFormat.format(
+					JGitText.get().unsupportedMultiPackIndexVersion,
+					Integer.valueOf(v)));
+		}
+		int hashVersion = hdr[5];
+		if (hashVersion != OID_HASH_VERSION) {
+			throw new IOException(MessageFormat.format(
+					JGitText.get().unsupportedMultiPackIndexHashVersion,
+					Integer.valueOf(hashVersion)));
+		}
+		int numberOfChunks = hdr[6] & 0xff;
+		// hdr[7] is the number of base multi-pack-index files, always 0.
+		int numberOfPacks = NB.decodeInt32(hdr, 8);
+
+		byte[] lookup = new byte[(numberOfChunks + 1) * CHUNK_LOOKUP_WIDTH];
+		IO.readFully(fd, lookup, 0, lookup.length);
+
+		byte[] packNames = null;
+		byte[] oidFanout = null;
+		byte[] oidLookup = null;
+		byte[] objectOffsets = null;
+		byte[] largeOffsets = null;
+
+		long pos = HEADER_LENGTH + lookup.length;
+		for (int i = 0; i < numberOfChunks; i++) {
+			int p = i * CHUNK_LOOKUP_WIDTH;
+			int id = NB.decodeInt32(lookup, p);
+			long start = NB.decodeInt64(lookup, p + 4);
+			long end = NB.decodeInt64(lookup, p + 4 + CHUNK_LOOKUP_WIDTH);
+			if (start < pos || end < start) {
+				throw corrupt(id);
+			}
+			IO.skipFully(fd, start - pos);
+			long len = end - start;
+
+			switch (id) {
+			case CHUNK_ID_PACKFILE_NAMES:
+				packNames = readChunk(fd, id, packNames, len);
+				break;
+			case CHUNK_ID_OID_FANOUT:
+				oidFanout = readChunk(fd, id, oidFanout, len);
+				break;
+			case CHUNK_ID_OID_LOOKUP:
+				oidLookup = readChunk(fd, id, oidLookup, len);
+				break;
+			case CHUNK_ID_OBJECT_OFFSETS:
+				objectOffsets = readChunk(fd, id, objectOffsets, len);
+				break;
+			case CHUNK_ID_LARGE_OFFSETS:
+				largeOffsets = readChunk(fd, id, largeOffsets, len);
+				break;
+			default:
+				// Optional chunks written by newer versions of Git (e.g.
+				// the reverse index) are not needed.
+				IO.skipFully(fd, len);
+				break;
+			}
+			pos = end;
+		}
+
+		if (packNames == null) {
+			throw chunkNeeded(CHUNK_ID_PACKFILE_NAMES);
+		}
+		if (oidFanout == null) {
+			throw chunkNeeded(CHUNK_ID_OID_FANOUT);
+		}
+		if (oidLookup == null) {
+			throw chunkNeeded(CHUNK_ID_OID_LOOKUP);
+		}
+		if (objectOffsets == null) {
+			throw chunkNeeded(CHUNK_ID_OBJECT_OFFSETS);
+		}
+
+		String[] names = parsePackNames(packNames, numberOfPacks);
+
+		if (oidFanout.length != FANOUT_LENGTH) {
+			throw corrupt(CHUNK_ID_OID_FANOUT);
+		}
+		int[] fanout = new int[FANOUT];
+		for (int k = 0; k < FANOUT; k++) {
+			fanout[k] = NB.decodeInt32(oidFanout, k * 4);
+		}
+		int cnt = fanout[FANOUT - 1];
+		if (cnt < 0 || oidLookup.length != (long) cnt
+				* Constants.OBJECT_ID_LENGTH) {
+			throw corrupt(CHUNK_ID_OID_LOOKUP);
+		}
+		if (objectOffsets.length != (long) cnt * OBJECT_OFFSETS_WIDTH) {
+			throw corrupt(CHUNK_ID_OBJECT_OFFSETS);
+		}
+		validateOffsets(objectOffsets, names.length, largeOffsets);
+		return new MultiPackIndexV1(names, fanout, oidLookup, objectOffsets,
+				largeOffsets);
+	}
+
+	private static String[] parsePackNames(byte[] buf, int numberOfPacks)
+			throws IOException {
+		List<String> names = new ArrayList<>(numberOfPacks);
+		int p = 0;
+		while (p < buf.length && buf[p] != 0) {
+			int end = RawParseUtils.next(buf, p, '\0');
+			names.add(RawParseUtils.decode(buf, p, end - 1));
+			p = end;
+		}
+		if (names.size() != numberOfPacks) {
+			throw corrupt(CHUNK_ID_PACKFILE_NAMES);
+		}
+		return names.toArray(new String[0]);
+	}
+
+	private static void validateOffsets(byte[] objectOffsets, int packCnt,
+			byte[] largeOffsets) throws IOException {
+		int largeCnt = largeOffsets != null
+				? largeOffsets.length / LARGE_OFFSET_WIDTH
+				: 0;
+		for (int p = 0; p < objectOffsets.length; p += OBJECT_OFFSETS_WIDTH) {
+			int packId = NB.decodeInt32(objectOffsets, p);
+			if (packId < 0 || packId >= packCnt) {
+				throw corrupt(CHUNK_ID_OBJECT_OFFSETS);
+			}
+			int v = NB.decodeInt32(objectOffsets, p + 4);
+			if ((v & OFFSET_IN_LARGE_CHUNK) != 0
+					&& (v & LARGE_OFFSET_MASK) >= largeCnt) {
+				throw corrupt(CHUNK_ID_LARGE_OFFSETS);
+			}
+		}
+	}
+
+	private static byte[] readChunk(InputStream fd, int id, byte[] current,
+			long len) throws IOException {
+		if (current != null) {
+			throw new IOException(MessageFormat.format(
+					JGitText.get().multiPackIndexChunkRepeated,
+					Integer.toHexString(id)));
+		}
+		if (len > Integer.MAX_VALUE - 8) { // http://stackoverflow.com/a/8381338
+			throw new IOException(
+					JGitText.get().multiPackIndexFileIsTooLargeForJgit);
+		}
+		byte[] buf = new byte[(int) len];
+		IO.readFully(fd, buf, 0, buf.length);
+		return buf;
+	}
+
+	private static IOException chunkNeeded(int id) {
+		return new IOException(MessageFormat.format(
+				JGitText.get().multiPackIndexChunkNeeded,
+				Integer.toHexString(id)));
+	}
+
+	private static IOException corrupt(int id) {
+		return new IOException(MessageFormat.format(
+				JGitText.get().corruptMultiPackIndex, Integer.toHexString(id)));
+	}
+
+	private MultiPackIndexLoader() {
+	}
+}
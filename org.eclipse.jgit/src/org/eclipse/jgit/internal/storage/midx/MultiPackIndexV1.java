@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2019, Google LLC.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.midx;
+
+import static org.eclipse.jgit.internal.storage.midx.MultiPackIndexConstants.LARGE_OFFSET_MASK;
+import static org.eclipse.jgit.internal.storage.midx.MultiPackIndexConstants.LARGE_OFFSET_WIDTH;
+import static org.eclipse.jgit.internal.storage.midx.MultiPackIndexConstants.OBJECT_OFFSETS_WIDTH;
+import static org.eclipse.jgit.internal.storage.midx.MultiPackIndexConstants.OFFSET_IN_LARGE_CHUNK;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.util.NB;
+
+/**
+ * Support for the multi-pack-index v1 format.
+ */
+class MultiPackIndexV1 implements MultiPackIndex {
+	private final String[] packNames;
+
+	private final int[] fanout;
+
+	private final byte[] oidLookup;
+
+	private final byte[] objectOffsets;
+
+	private final byte[] largeOffsets;
+
+	MultiPackIndexV1(String[] packNames, int[] fanout, byte[] oidLookup,
+			byte[] objectOffsets, byte[] largeOffsets) {
+		this.packNames = packNames;
+		this.fanout = fanout;
+		this.oidLookup = oidLookup;
+		this.objectOffsets = objectOffsets;
+		this.largeOffsets = largeOffsets;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String[] getPackNames() {
+		return packNames;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int findPosition(AnyObjectId id) {
+		int levelOne = id.getFirstByte();
+		int low = levelOne == 0 ? 0 : fanout[levelOne - 1];
+		int high = fanout[levelOne];
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			int cmp = id.compareTo(oidLookup, mid * Constants.OBJECT_ID_LENGTH);
+			if (cmp < 0) {
+				high = mid;
+			} else if (cmp == 0) {
+				return mid;
+			} else {
+				low = mid + 1;
+			}
+		}
+		return -1;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public ObjectId getObjectId(int position) {
+		return ObjectId.fromRaw(oidLookup,
+				position * Constants.OBJECT_ID_LENGTH);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int getPackId(int position) {
+		return NB.decodeInt32(objectOffsets, position * OBJECT_OFFSETS_WIDTH);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getOffset(int position) {
+		int v = NB.decodeInt32(objectOffsets,
+				position * OBJECT_OFFSETS_WIDTH + 4);
+		if ((v & OFFSET_IN_LARGE_CHUNK) == 0) {
+			return v;
+		}
+		return NB.decodeInt64(largeOffsets,
+				(v & LARGE_OFFSET_MASK) * LARGE_OFFSET_WIDTH);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int getObjectCount() {
+		return fanout[fanout.length - 1];
+	}
+}
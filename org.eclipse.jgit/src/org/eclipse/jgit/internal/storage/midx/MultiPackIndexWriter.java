@@ -0,0 +1,410 @@
+/*
+ * Copyright (C) 2019, Google LLC.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.midx;
+
+import static org.eclipse.jgit.internal.storage.midx.MultiPackIndexConstants.CHUNK_ID_LARGE_OFFSETS;
+import static org.eclipse.jgit.internal.storage.midx.MultiPackIndexConstants.CHUNK_ID_OBJECT_OFFSETS;
+import static org.eclipse.jgit.internal.storage.midx.MultiPackIndexConstants.CHUNK_ID_OID_FANOUT;
+import static org.eclipse.jgit.internal.storage.midx.MultiPackIndexConstants.CHUNK_ID_OID_LOOKUP;
+import static org.eclipse.jgit.internal.storage.midx.MultiPackIndexConstants.CHUNK_ID_PACKFILE_NAMES;
+import static org.eclipse.jgit.internal.storage.midx.MultiPackIndexConstants.CHUNK_LOOKUP_WIDTH;
+import static org.eclipse.jgit.internal.storage.midx.MultiPackIndexConstants.FANOUT;
+import static org.eclipse.jgit.internal.storage.midx.MultiPackIndexConstants.FANOUT_LENGTH;
+import static org.eclipse.jgit.internal.storage.midx.MultiPackIndexConstants.HEADER_LENGTH;
+import static org.eclipse.jgit.internal.storage.midx.MultiPackIndexConstants.LARGE_OFFSET_MASK;
+import static org.eclipse.jgit.internal.storage.midx.MultiPackIndexConstants.LARGE_OFFSET_WIDTH;
+import static org.eclipse.jgit.internal.storage.midx.MultiPackIndexConstants.MIDX_SIGNATURE;
+import static org.eclipse.jgit.internal.storage.midx.MultiPackIndexConstants.MIDX_VERSION;
+import static org.eclipse.jgit.internal.storage.midx.MultiPackIndexConstants.OBJECT_OFFSETS_WIDTH;
+import static org.eclipse.jgit.internal.storage.midx.MultiPackIndexConstants.OFFSET_IN_LARGE_CHUNK;
+import static org.eclipse.jgit.internal.storage.midx.MultiPackIndexConstants.OID_HASH_VERSION;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.TreeSet;
+
+import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.internal.storage.file.PackIndex;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.util.NB;
+
+/**
+ * Writes a multi-pack-index formatted file.
+ * <p>
+ * The objects of all added pack indexes are merged into a single sorted
+ * table. An object stored in more than one pack is attributed to the pack
+ * that was added first, so callers should add the preferred (usually the
+ * most recent) packs first.
+ * <p>
+ * An existing multi-pack-index can be added as a source as well. This lets a
+ * new pack be appended to the multi-pack-index without reading the indexes of
+ * all the packs it already covers.
+ */
+public class MultiPackIndexWriter {
+	private final List<Source> sources = new ArrayList<>();
+
+	private final TreeSet<String> packNames = new TreeSet<>();
+
+	/**
+	 * Add a pack to the multi-pack-index.
+	 *
+	 * @param indexName
+	 *            file name of the pack index, e.g. {@code pack-1234.idx}.
+	 * @param index
+	 *            the pack index.
+	 */
+	public void addPack(String indexName, PackIndex index) {
+		if (packNames.add(indexName)) {
+			sources.add(new PackSource(sources.size(), indexName, index));
+		}
+	}
+
+	/**
+	 * Add the packs covered by an existing multi-pack-index.
+	 * <p>
+	 * Packs already added with {@link #addPack(String, PackIndex)} are
+	 * skipped.
+	 *
+	 * @param midx
+	 *            the existing multi-pack-index.
+	 * @param keep
+	 *            names of the covered packs which still exist. Objects of
+	 *            other packs are not carried over.
+	 */
+	public void addMultiPackIndex(MultiPackIndex midx,
+			Collection<String> keep) {
+		String[] names = midx.getPackNames();
+		String[] kept = new String[names.length];
+		boolean any = false;
+		for (int i = 0; i < names.length; i++) {
+			if (keep.contains(names[i]) && packNames.add(names[i])) {
+				kept[i] = names[i];
+				any = true;
+			}
+		}
+		if (any) {
+			sources.add(new MidxSource(sources.size(), midx, kept));
+		}
+	}
+
+	/**
+	 * Get the number of packs added to the writer.
+	 *
+	 * @return the number of packs the multi-pack-index will cover.
+	 */
+	public int getPackCount() {
+		return packNames.size();
+	}
+
+	/**
+	 * Write the multi-pack-index.
+	 *
+	 * @param pm
+	 *            progress monitor to report the number of objects written.
+	 * @param dst
+	 *            stream to write the multi-pack-index to. The stream is not
+	 *            closed.
+	 * @throws java.io.IOException
+	 *             a pack index could not be read or the stream could not be
+	 *             written.
+	 */
+	public void write(ProgressMonitor pm, OutputStream dst)
+			throws IOException {
+		String[] names = packNames.toArray(new String[0]);
+		for (Source s : sources) {
+			s.assignPackIds(names);
+		}
+
+		int[] fanout = new int[FANOUT];
+		int[] counts = new int[2]; // objects, large offsets
+		merge((id, packId, offset) -> {
+			fanout[id.getFirstByte()]++;
+			counts[0]++;
+			if (offset > LARGE_OFFSET_MASK) {
+				counts[1]++;
+			}
+		});
+		for (int i = 1; i < FANOUT; i++) {
+			fanout[i] += fanout[i - 1];
+		}
+		int objectCnt = counts[0];
+		int largeCnt = counts[1];
+
+		byte[] nameChunk = encodePackNames(names);
+		DigestOutputStream out = new DigestOutputStream(
+				dst instanceof BufferedOutputStream ? dst
+						: new BufferedOutputStream(dst),
+				Constants.newMessageDigest());
+		int numChunks = largeCnt > 0 ? 5 : 4;
+		byte[] tmp = new byte[HEADER_LENGTH];
+		NB.encodeInt32(tmp, 0, MIDX_SIGNATURE);
+		tmp[4] = MIDX_VERSION;
+		tmp[5] = OID_HASH_VERSION;
+		tmp[6] = (byte) numChunks;
+		tmp[7] = 0; // number of base multi-pack-index files
+		NB.encodeInt32(tmp, 8, names.length);
+		out.write(tmp, 0, HEADER_LENGTH);
+
+		long offset = HEADER_LENGTH + (numChunks + 1) * CHUNK_LOOKUP_WIDTH;
+		offset = writeChunkLookup(out, CHUNK_ID_PACKFILE_NAMES, offset,
+				nameChunk.length);
+		offset = writeChunkLookup(out, CHUNK_ID_OID_FANOUT, offset,
+				FANOUT_LENGTH);
+		offset = writeChunkLookup(out, CHUNK_ID_OID_LOOKUP, offset,
+				(long) objectCnt * Constants.OBJECT_ID_LENGTH);
+		offset = writeChunkLookup(out, CHUNK_ID_OBJECT_OFFSETS, offset,
+				(long) objectCnt * OBJECT_OFFSETS_WIDTH);
+		if (largeCnt > 0) {
+			offset = writeChunkLookup(out, CHUNK_ID_LARGE_OFFSETS, offset,
+					(long) largeCnt * LARGE_OFFSET_WIDTH);
+		}
+		writeChunkLookup(out, 0, offset, 0);
+
+		out.write(nameChunk);
+		for (int n : fanout) {
+			NB.encodeInt32(tmp, 0, n);
+			out.write(tmp, 0, 4);
+		}
+
+		pm.beginTask(JGitText.get().writingOutMultiPackIndex, objectCnt);
+		merge((id, packId, off) -> id.copyRawTo(out));
+
+		int[] nextLarge = new int[1];
+		merge((id, packId, off) -> {
+			NB.encodeInt32(tmp, 0, packId);
+			if (off > LARGE_OFFSET_MASK) {
+				NB.encodeInt32(tmp, 4, OFFSET_IN_LARGE_CHUNK | nextLarge[0]++);
+			} else {
+				NB.encodeInt32(tmp, 4, (int) off);
+			}
+			out.write(tmp, 0, OBJECT_OFFSETS_WIDTH);
+			pm.update(1);
+		});
+
+		if (largeCnt > 0) {
+			merge((id, packId, off) -> {
+				if (off > LARGE_OFFSET_MASK) {
+					NB.encodeInt64(tmp, 0, off);
+					out.write(tmp, 0, LARGE_OFFSET_WIDTH);
+				}
+			});
+		}
+
+		out.on(false);
+		out.write(out.getMessageDigest().digest());
+		out.flush();
+		pm.endTask();
+	}
+
+	// Visits every object of all sources once, in object id order.
+	private void merge(Visitor v) throws IOException {
+		PriorityQueue<Source> queue = new PriorityQueue<>(
+				Math.max(1, sources.size()), (a, b) -> {
+					int cmp = a.id.compareTo(b.id);
+					return cmp != 0 ? cmp
+							: Integer.compare(a.priority, b.priority);
+				});
+		for (Source s : sources) {
+			s.start();
+			if (s.next()) {
+				queue.add(s);
+			}
+		}
+		ObjectId last = null;
+		while (!queue.isEmpty()) {
+			Source s = queue.poll();
+			if (last == null || !last.equals(s.id)) {
+				v.accept(s.id, s.packId, s.offset);
+				last = s.id;
+			}
+			if (s.next()) {
+				queue.add(s);
+			}
+		}
+	}
+
+	private static byte[] encodePackNames(String[] names)
+			throws IOException {
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		for (String n : names) {
+			buf.write(Constants.encode(n));
+			buf.write(0);
+		}
+		// Git pads the chunk to keep the following chunks aligned.
+		while (buf.size() % 4 != 0) {
+			buf.write(0);
+		}
+		return buf.toByteArray();
+	}
+
+	private static long writeChunkLookup(OutputStream out, int id,
+			long offset, long length) throws IOException {
+		byte[] buf = new byte[CHUNK_LOOKUP_WIDTH];
+		NB.encodeInt32(buf, 0, id);
+		NB.encodeInt64(buf, 4, offset);
+		out.write(buf);
+		return offset + length;
+	}
+
+	@FunctionalInterface
+	private interface Visitor {
+		void accept(AnyObjectId id, int packId, long offset)
+				throws IOException;
+	}
+
+	/** Sorted stream of the objects of one input. */
+	private abstract static class Source {
+		final int priority;
+
+		ObjectId id;
+
+		int packId;
+
+		long offset;
+
+		Source(int priority) {
+			this.priority = priority;
+		}
+
+		abstract void assignPackIds(String[] names);
+
+		abstract void start();
+
+		abstract boolean next();
+	}
+
+	private static class PackSource extends Source {
+		private final String name;
+
+		private final PackIndex index;
+
+		private Iterator<PackIndex.MutableEntry> itr;
+
+		PackSource(int priority, String name, PackIndex index) {
+			super(priority);
+			this.name = name;
+			this.index = index;
+		}
+
+		@Override
+		void assignPackIds(String[] names) {
+			packId = Arrays.binarySearch(names, name);
+		}
+
+		@Override
+		void start() {
+			itr = index.iterator();
+		}
+
+		@Override
+		boolean next() {
+			if (!itr.hasNext()) {
+				return false;
+			}
+			PackIndex.MutableEntry e = itr.next();
+			id = e.toObjectId();
+			offset = e.getOffset();
+			return true;
+		}
+	}
+
+	private static class MidxSource extends Source {
+		private final MultiPackIndex midx;
+
+		private final String[] kept;
+
+		private int[] packIds;
+
+		private int position;
+
+		MidxSource(int priority, MultiPackIndex midx, String[] kept) {
+			super(priority);
+			this.midx = midx;
+			this.kept = kept;
+		}
+
+		@Override
+		void assignPackIds(String[] names) {
+			packIds = new int[kept.length];
+			for (int i = 0; i < kept.length; i++) {
+				packIds[i] = kept[i] != null
+						? Arrays.binarySearch(names, kept[i])
+						: -1;
+			}
+		}
+
+		@Override
+		void start() {
+			position = 0;
+		}
+
+		@Override
+		boolean next() {
+			int cnt = midx.getObjectCount();
+			while (position < cnt) {
+				int p = position++;
+				int newId = packIds[midx.getPackId(p)];
+				if (newId >= 0) {
+					id = midx.getObjectId(p);
+					packId = newId;
+					offset = midx.getOffset(p);
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2019, Google LLC.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.pack;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RecursiveAction;
+
+import org.eclipse.jgit.annotations.Nullable;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.ThreadSafeProgressMonitor;
+import org.eclipse.jgit.storage.pack.PackConfig;
+
+/**
+ * Delta search over a range of the object list, run in a
+ * {@link java.util.concurrent.ForkJoinPool}.
+ * <p>
+ * Ranges whose estimated cost exceeds the share of a single task are split
+ * in two halves of about the same cost, always at a path boundary so objects
+ * of the same path are searched in the same window. Idle threads of the pool
+ * steal the pending halves, keeping all threads busy until the end of the
+ * search even if a few paths hold most of the large objects.
+ */
+final class DeltaForkJoinTask extends RecursiveAction {
+	private static final long serialVersionUID = 1L;
+
+	/** Number of tasks per thread the search is split into at most. */
+	private static final int TASKS_PER_THREAD = 8;
+
+	static final class Block {
+		final PackConfig config;
+		final DeltaIslands islands;
+		final DeltaSearchCache searchCache;
+		final ObjectReader templateReader;
+		final DeltaCache dc;
+		final ThreadSafeProgressMonitor pm;
+		final ObjectToPack[] list;
+
+		/** Cost of the objects before each index, relative to beginIndex. */
+		private final long[] cost;
+		private final int beginIndex;
+		private final int minObjects;
+		private final long maxCost;
+		private final Map<Long, Long> busyTime = new ConcurrentHashMap<>();
+
+		/** Set once the search is abandoned; tasks not started return. */
+		private volatile boolean cancelled;
+
+		long totalWeight;
+		long bytesPerUnit;
+
+		Block(int threads, PackConfig config, @Nullable DeltaIslands islands,
+				@Nullable DeltaSearchCache searchCache, ObjectReader reader,
+				DeltaCache dc, ThreadSafeProgressMonitor pm,
+				ObjectToPack[] list, int begin, int end) {
+			this.config = config;
+			this.islands = islands;
+			this.searchCache = searchCache;
+			this.templateReader = reader;
+			this.dc = dc;
+			this.pm = pm;
+			this.list = list;
+			this.beginIndex = begin;
+
+			// Searching an object compares it with every entry of the
+			// window, so its cost grows with its size times the window.
+			int window = config.getDeltaSearchWindowSize();
+			cost = new long[end - begin + 1];
+			for (int i = begin; i < end; i++) {
+				int w = DeltaTask.getAdjustedWeight(list[i]);
+				totalWeight += w;
+				cost[i - begin + 1] = cost[i - begin] + (long) w * window;
+			}
+			minObjects = 2 * window;
+			maxCost = Math.max(1,
+					cost[end - begin] / ((long) threads * TASKS_PER_THREAD));
+
+			bytesPerUnit = 1;
+			while (DeltaTask.MAX_METER <= (totalWeight / bytesPerUnit)) {
+				bytesPerUnit <<= 10;
+			}
+		}
+
+		void cancel() {
+			cancelled = true;
+		}
+
+		int cost() {
+			int d = (int) (totalWeight / bytesPerUnit);
+			if (totalWeight % bytesPerUnit != 0)
+				d++;
+			return d;
+		}
+
+		/**
+		 * Get the time each thread spent searching for deltas.
+		 *
+		 * @return busy time in milliseconds of every thread which ran at
+		 *         least one task.
+		 */
+		long[] getBusyTimes() {
+			return busyTime.values().stream()
+					.mapToLong(t -> t.longValue() / 1000000).toArray();
+		}
+
+		private long cost(int begin, int end) {
+			return cost[end - beginIndex] - cost[begin - beginIndex];
+		}
+
+		private int split(int begin, int end) {
+			// Find the first object past half of the cost of the range.
+			long half = cost[begin - beginIndex] + cost(begin, end) / 2;
+			int lo = begin + 1;
+			int hi = end - 1;
+			while (lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if (cost[mid - beginIndex] < half)
+					lo = mid + 1;
+				else
+					hi = mid;
+			}
+
+			// Move the split point to the nearest path boundary.
+			for (int n = lo; n < end; n++) {
+				if (list[n].getPathHash() != list[n - 1].getPathHash())
+					return n;
+			}
+			for (int p = lo - 1; begin < p; p--) {
+				if (list[p].getPathHash() != list[p - 1].getPathHash())
+					return p;
+			}
+			return -1;
+		}
+
+		private void search(int begin, int end) throws IOException {
+			long start = System.nanoTime();
+			try (ObjectReader or = templateReader.newReader()) {
+				new DeltaWindow(config, dc, islands, searchCache, or, pm,
+						bytesPerUnit, list, begin, end).search();
+			} finally {
+				busyTime.merge(Long.valueOf(Thread.currentThread().getId()),
+						Long.valueOf(System.nanoTime() - start), Long::sum);
+			}
+		}
+	}
+
+	private final Block block;
+	private final int beginIndex;
+	private final int endIndex;
+
+	DeltaForkJoinTask(Block b, int begin, int end) {
+		this.block = b;
+		this.beginIndex = begin;
+		this.endIndex = end;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	protected void compute() {
+		if (block.cancelled) {
+			return;
+		}
+		if (block.maxCost < block.cost(beginIndex, endIndex)
+				&& block.minObjects < endIndex - beginIndex) {
+			int split = block.split(beginIndex, endIndex);
+			if (0 < split) {
+				invokeAll(new DeltaForkJoinTask(block, beginIndex, split),
+						new DeltaForkJoinTask(block, split, endIndex));
+				return;
+			}
+		}
+		try {
+			block.search(beginIndex, endIndex);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2019, Google LLC.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.pack;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectIdOwnerMap;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.revwalk.ObjectWalk;
+import org.eclipse.jgit.revwalk.RevObject;
+
+/**
+ * Delta islands: groups of references whose objects should only be stored as
+ * deltas against objects reachable from the same group.
+ * <p>
+ * Islands are defined by regular expressions matched against reference names
+ * (git's {@code pack.island}). References matching an expression with the
+ * same captured groups form one island, named after the groups joined by
+ * {@code '-'}. If several expressions match a name the last one is used.
+ * <p>
+ * An object may be stored as a delta against a base only if the base is
+ * reachable from every island the object is reachable from. Objects outside
+ * of all islands may use any base. A pack written for a single island then
+ * never needs a base from another island, so its deltas can be reused as is.
+ */
+final class DeltaIslands {
+	private final ObjectIdOwnerMap<Entry> objects = new ObjectIdOwnerMap<>();
+
+	/** Interned island sets, objects in the same islands share their set. */
+	private final Map<BitSet, BitSet> sets = new HashMap<>();
+
+	private DeltaIslands() {
+		// Use compute().
+	}
+
+	/**
+	 * Group references into islands.
+	 *
+	 * @param patterns
+	 *            regular expressions defining the islands.
+	 * @param refs
+	 *            references to group.
+	 * @return tips of each island, by island name.
+	 */
+	static Map<String, List<ObjectId>> groupRefs(List<String> patterns,
+			Collection<Ref> refs) {
+		List<Pattern> compiled = new ArrayList<>(patterns.size());
+		for (String p : patterns) {
+			compiled.add(Pattern.compile(p));
+		}
+
+		Map<String, List<ObjectId>> islands = new LinkedHashMap<>();
+		for (Ref r : refs) {
+			ObjectId id = r.getObjectId();
+			if (id == null) {
+				continue;
+			}
+			for (int i = compiled.size() - 1; i >= 0; i--) {
+				Matcher m = compiled.get(i).matcher(r.getName());
+				if (m.find()) {
+					islands.computeIfAbsent(islandName(m),
+							n -> new ArrayList<>()).add(id);
+					break;
+				}
+			}
+		}
+		return islands;
+	}
+
+	private static String islandName(Matcher m) {
+		StringBuilder name = new StringBuilder();
+		for (int g = 1; g <= m.groupCount(); g++) {
+			if (m.group(g) == null) {
+				continue;
+			}
+			if (name.length() > 0) {
+				name.append('-');
+			}
+			name.append(m.group(g));
+		}
+		return name.toString();
+	}
+
+	/**
+	 * Find the islands of the objects of a pack.
+	 * <p>
+	 * Walks the history of every island once.
+	 *
+	 * @param reader
+	 *            reader for the objects.
+	 * @param patterns
+	 *            regular expressions defining the islands.
+	 * @param refs
+	 *            references to group into islands.
+	 * @param inPack
+	 *            objects of the pack; islands are only recorded for them.
+	 * @return the islands of the objects.
+	 * @throws IOException
+	 *             an object could not be read.
+	 */
+	static DeltaIslands compute(ObjectReader reader, List<String> patterns,
+			Collection<Ref> refs, ObjectIdOwnerMap<ObjectToPack> inPack)
+			throws IOException {
+		DeltaIslands islands = new DeltaIslands();
+		int island = 0;
+		for (List<ObjectId> tips : groupRefs(patterns, refs).values()) {
+			islands.mark(reader, island++, tips, inPack);
+		}
+		return islands;
+	}
+
+	private void mark(ObjectReader reader, int island, List<ObjectId> tips,
+			ObjectIdOwnerMap<ObjectToPack> inPack) throws IOException {
+		try (ObjectWalk walk = new ObjectWalk(reader)) {
+			for (ObjectId tip : tips) {
+				try {
+					walk.markStart(walk.parseAny(tip));
+				} catch (MissingObjectException e) {
+					// Broken references do not contribute objects.
+				}
+			}
+			RevObject o;
+			while ((o = walk.next()) != null) {
+				mark(o, island, inPack);
+			}
+			while ((o = walk.nextObject()) != null) {
+				mark(o, island, inPack);
+			}
+		}
+	}
+
+	private void mark(RevObject o, int island,
+			ObjectIdOwnerMap<ObjectToPack> inPack) {
+		if (!inPack.contains(o)) {
+			return;
+		}
+		Entry e = objects.get(o);
+		if (e == null) {
+			e = new Entry(o);
+			objects.add(e);
+		} else if (e.islands.get(island)) {
+			return;
+		}
+
+		BitSet s = new BitSet();
+		if (e.islands != null) {
+			s.or(e.islands);
+		}
+		s.set(island);
+		BitSet interned = sets.putIfAbsent(s, s);
+		e.islands = interned != null ? interned : s;
+	}
+
+	/**
+	 * Whether an object may be stored as a delta against a base.
+	 * <p>
+	 * Safe to call from multiple threads.
+	 *
+	 * @param target
+	 *            the object to store as a delta.
+	 * @param base
+	 *            the candidate base.
+	 * @return true if the base is in every island of {@code target}.
+	 */
+	boolean canDelta(AnyObjectId target, AnyObjectId base) {
+		Entry t = objects.get(target);
+		if (t == null) {
+			return true;
+		}
+		Entry b = objects.get(base);
+		if (b == null) {
+			return false;
+		}
+		BitSet ti = t.islands;
+		BitSet bi = b.islands;
+		if (ti == bi) {
+			return true;
+		}
+		for (int i = ti.nextSetBit(0); i >= 0; i = ti.nextSetBit(i + 1)) {
+			if (!bi.get(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static final class Entry extends ObjectIdOwnerMap.Entry {
+		BitSet islands;
+
+		Entry(AnyObjectId id) {
+			super(id);
+		}
+	}
+}
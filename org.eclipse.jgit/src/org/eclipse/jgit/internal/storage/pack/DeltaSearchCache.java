@@ -0,0 +1,270 @@
+/*
+ * Copyright (C) 2019, Google LLC.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.pack;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectIdOwnerMap;
+import org.eclipse.jgit.util.IO;
+import org.eclipse.jgit.util.NB;
+
+/**
+ * Delta bases selected by earlier delta searches.
+ * <p>
+ * Searching the delta window is the most expensive part of a repack, and for
+ * unchanged objects it usually finds the same base as the previous repack.
+ * {@link PackWriter} records the base it selects for every object in the
+ * cache. A writer using a cache loaded with earlier results tries the
+ * recorded base first and, if the base is still in the window with the same
+ * size and yields a delta, skips the search for the object.
+ * <p>
+ * Entries are identified by the object and base ids and their inflated sizes.
+ * The results recorded by a writer are saved with {@link #write(OutputStream)}
+ * and read back by {@link #load(InputStream)}, typically from a file stored
+ * next to the pack.
+ * <p>
+ * Lookups and recording are thread-safe, loading is not.
+ */
+public class DeltaSearchCache {
+	private static final int MAGIC = 0x44534348; // "DSCH"
+
+	private static final int VERSION = 1;
+
+	private static final int HEADER_LENGTH = 12;
+
+	private static final int ENTRY_LENGTH = 2 * Constants.OBJECT_ID_LENGTH
+			+ 8;
+
+	private final ObjectIdOwnerMap<Entry> previous;
+
+	private final ObjectIdOwnerMap<Entry> recorded = new ObjectIdOwnerMap<>();
+
+	private final AtomicLong hits = new AtomicLong();
+
+	private final AtomicLong misses = new AtomicLong();
+
+	/** Create an empty cache. */
+	public DeltaSearchCache() {
+		previous = new ObjectIdOwnerMap<>();
+	}
+
+	/**
+	 * Create a cache offering the results loaded into another cache.
+	 * <p>
+	 * The new cache shares the loaded entries of {@code other}, but records
+	 * and counts its own results. This allows several packs to be written
+	 * from the results loaded once.
+	 *
+	 * @param other
+	 *            cache whose loaded entries are used.
+	 */
+	public DeltaSearchCache(DeltaSearchCache other) {
+		previous = other.previous;
+	}
+
+	/**
+	 * Add the entries stored in a stream to the results available to
+	 * lookups.
+	 * <p>
+	 * Must not be called while a writer uses this cache.
+	 *
+	 * @param in
+	 *            stream holding a cache written by
+	 *            {@link #write(OutputStream)}. The caller is responsible for
+	 *            closing the stream.
+	 * @throws java.io.IOException
+	 *             the stream cannot be read or is not a valid cache.
+	 */
+	public void load(InputStream in) throws IOException {
+		MessageDigest md = Constants.newMessageDigest();
+		byte[] hdr = new byte[HEADER_LENGTH];
+		IO.readFully(in, hdr, 0, hdr.length);
+		if (NB.decodeInt32(hdr, 0) != MAGIC) {
+			throw new IOException(JGitText.get().notADeltaSearchCache);
+		}
+		int version = NB.decodeInt32(hdr, 4);
+		if (version != VERSION) {
+			throw new IOException(MessageFormat.format(
+					JGitText.get().unsupportedDeltaSearchCacheVersion,
+					Integer.valueOf(version)));
+		}
+		int cnt = NB.decodeInt32(hdr, 8);
+		if (cnt < 0) {
+			throw new IOException(JGitText.get().corruptDeltaSearchCache);
+		}
+		md.update(hdr);
+
+		List<Entry> entries = new ArrayList<>(cnt);
+		byte[] buf = new byte[ENTRY_LENGTH];
+		for (int i = 0; i < cnt; i++) {
+			IO.readFully(in, buf, 0, buf.length);
+			md.update(buf);
+			int p = 2 * Constants.OBJECT_ID_LENGTH;
+			entries.add(new Entry(ObjectId.fromRaw(buf, 0),
+					NB.decodeInt32(buf, p),
+					ObjectId.fromRaw(buf, Constants.OBJECT_ID_LENGTH),
+					NB.decodeInt32(buf, p + 4)));
+		}
+
+		byte[] sum = new byte[Constants.OBJECT_ID_LENGTH];
+		IO.readFully(in, sum, 0, sum.length);
+		if (!Arrays.equals(sum, md.digest())) {
+			throw new IOException(JGitText.get().corruptDeltaSearchCache);
+		}
+		for (Entry e : entries) {
+			previous.addIfAbsent(e);
+		}
+	}
+
+	/**
+	 * Write the results recorded in this cache.
+	 * <p>
+	 * Entries loaded from earlier results are not written, so the stream
+	 * only covers the objects searched by the writers using this cache.
+	 *
+	 * @param dst
+	 *            destination stream. The caller is responsible for closing
+	 *            the stream.
+	 * @throws java.io.IOException
+	 *             the stream cannot be written.
+	 */
+	public void write(OutputStream dst) throws IOException {
+		List<Entry> entries;
+		synchronized (recorded) {
+			entries = new ArrayList<>(recorded.size());
+			for (Entry e : recorded) {
+				entries.add(e);
+			}
+		}
+		Collections.sort(entries);
+
+		DigestOutputStream out = new DigestOutputStream(
+				dst instanceof BufferedOutputStream ? dst
+						: new BufferedOutputStream(dst),
+				Constants.newMessageDigest());
+		byte[] buf = new byte[Math.max(HEADER_LENGTH, ENTRY_LENGTH)];
+		NB.encodeInt32(buf, 0, MAGIC);
+		NB.encodeInt32(buf, 4, VERSION);
+		NB.encodeInt32(buf, 8, entries.size());
+		out.write(buf, 0, HEADER_LENGTH);
+		for (Entry e : entries) {
+			int p = 2 * Constants.OBJECT_ID_LENGTH;
+			e.copyRawTo(buf, 0);
+			e.base.copyRawTo(buf, Constants.OBJECT_ID_LENGTH);
+			NB.encodeInt32(buf, p, e.size);
+			NB.encodeInt32(buf, p + 4, e.baseSize);
+			out.write(buf, 0, ENTRY_LENGTH);
+		}
+		out.on(false);
+		out.write(out.getMessageDigest().digest());
+		out.flush();
+	}
+
+	/**
+	 * Get the number of objects whose recorded base was used.
+	 *
+	 * @return number of objects whose delta base came from this cache.
+	 */
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	/**
+	 * Get the number of objects searched without a usable recorded base.
+	 *
+	 * @return number of objects which had to be searched in the window.
+	 */
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	Entry lookup(AnyObjectId id) {
+		return previous.get(id);
+	}
+
+	void hit() {
+		hits.incrementAndGet();
+	}
+
+	void miss() {
+		misses.incrementAndGet();
+	}
+
+	void record(AnyObjectId id, int size, AnyObjectId base, int baseSize) {
+		Entry e = new Entry(id, size, base, baseSize);
+		synchronized (recorded) {
+			recorded.addIfAbsent(e);
+		}
+	}
+
+	static final class Entry extends ObjectIdOwnerMap.Entry {
+		final int size;
+
+		final ObjectId base;
+
+		final int baseSize;
+
+		Entry(AnyObjectId id, int size, AnyObjectId base, int baseSize) {
+			super(id);
+			this.size = size;
+			this.base = base.copy();
+			this.baseSize = baseSize;
+		}
+	}
+}
@@ -51,6 +51,7 @@
 import java.util.List;
 import java.util.concurrent.Callable;
 
+import org.eclipse.jgit.annotations.Nullable;
 import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.lib.ThreadSafeProgressMonitor;
 import org.eclipse.jgit.storage.pack.PackConfig;
@@ -64,6 +65,8 @@ static final class Block {
 		final List<DeltaTask> tasks;
 		final int threads;
 		final PackConfig config;
+		final DeltaIslands islands;
+		final DeltaSearchCache searchCache;
 		final ObjectReader templateReader;
 		final DeltaCache dc;
 		final ThreadSafeProgressMonitor pm;
@@ -74,12 +77,16 @@ static final class Block {
 		private long totalWeight;
 		long bytesPerUnit;
 
-		Block(int threads, PackConfig config, ObjectReader reader,
-				DeltaCache dc, ThreadSafeProgressMonitor pm,
-				ObjectToPack[] list, int begin, int end) {
+		Block(int threads, PackConfig config, @Nullable DeltaIslands islands,
+				@Nullable DeltaSearchCache searchCache,
+				ObjectReader reader, DeltaCache dc,
+				ThreadSafeProgressMonitor pm, ObjectToPack[] list, int begin,
+				int end) {
 			this.tasks = new ArrayList<>(threads);
 			this.threads = threads;
 			this.config = config;
+			this.islands = islands;
+			this.searchCache = searchCache;
 			this.templateReader = reader;
 			this.dc = dc;
 			this.pm = pm;
@@ -315,7 +322,7 @@ public Object call() throws Exception {
 
 	DeltaWindow initWindow(Slice s) {
 		DeltaWindow w = new DeltaWindow(block.config, block.dc,
-				or, block.pm, block.bytesPerUnit,
+				block.islands, block.searchCache, or, block.pm, block.bytesPerUnit,
 				block.list, s.beginIndex, s.endIndex);
 		synchronized (this) {
 			dw = w;
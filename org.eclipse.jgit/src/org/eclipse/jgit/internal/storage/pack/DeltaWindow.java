@@ -48,6 +48,7 @@
 import java.io.OutputStream;
 import java.util.zip.Deflater;
 
+import org.eclipse.jgit.annotations.Nullable;
 import org.eclipse.jgit.errors.IncorrectObjectTypeException;
 import org.eclipse.jgit.errors.LargeObjectException;
 import org.eclipse.jgit.errors.MissingObjectException;
@@ -62,6 +63,8 @@ final class DeltaWindow {
 
 	private final PackConfig config;
 	private final DeltaCache deltaCache;
+	private final DeltaIslands islands;
+	private final DeltaSearchCache searchCache;
 	private final ObjectReader reader;
 	private final ProgressMonitor monitor;
 	private final long bytesPerUnit;
@@ -93,11 +96,13 @@ final class DeltaWindow {
 	/** Used to compress cached deltas. */
 	private Deflater deflater;
 
-	DeltaWindow(PackConfig pc, DeltaCache dc, ObjectReader or,
-			ProgressMonitor pm, long bpu,
-			ObjectToPack[] in, int beginIndex, int endIndex) {
+	DeltaWindow(PackConfig pc, DeltaCache dc, @Nullable DeltaIslands di,
+			@Nullable DeltaSearchCache sc, ObjectReader or, ProgressMonitor pm,
+			long bpu, ObjectToPack[] in, int beginIndex, int endIndex) {
 		config = pc;
 		deltaCache = dc;
+		islands = di;
+		searchCache = sc;
 		reader = or;
 		monitor = pm;
 		bytesPerUnit = bpu;
@@ -213,18 +218,38 @@ else if (ent.buffer != null)
 	}
 
 	private void searchInWindow() throws IOException {
-		// Loop through the window backwards, considering every entry.
-		// This lets us look at the bigger objects that came before.
-		for (DeltaWindowEntry src = res.prev; src != res; src = src.prev) {
-			if (src.empty())
-				break;
-			if (delta(src) /* == NEXT_SRC */)
-				continue;
+		// If an earlier search chose a base still in the window, try it
+		// first. When it yields a delta the rest of the window is skipped.
+		DeltaWindowEntry cached = cachedBase();
+		if (cached != null && delta(cached) == NEXT_RES) {
 			bestBase = null;
 			deltaBuf = null;
 			return;
 		}
 
+		if (cached != null && bestBase != null) {
+			if (searchCache != null)
+				searchCache.hit();
+		} else {
+			if (searchCache != null)
+				searchCache.miss();
+
+			// Loop through the window backwards, considering every entry.
+			// This lets us look at the bigger objects that came before.
+			// The cached base was already tried above.
+			for (DeltaWindowEntry src = res.prev; src != res; src = src.prev) {
+				if (src.empty())
+					break;
+				if (src == cached)
+					continue;
+				if (delta(src) /* == NEXT_SRC */)
+					continue;
+				bestBase = null;
+				deltaBuf = null;
+				return;
+			}
+		}
+
 		// We couldn't find a suitable delta for this object, but it may
 		// still be able to act as a base for another one.
 		if (bestBase == null) {
@@ -253,6 +278,8 @@ private void searchInWindow() throws IOException {
 		resObj.setDeltaDepth(depth);
 		resObj.clearReuseAsIs();
 		cacheDelta(srcObj, resObj);
+		if (searchCache != null)
+			searchCache.record(resObj, res.size(), srcObj, bestBase.size());
 
 		if (depth < maxDepth) {
 			// Reorder the window so that the best base will be tested
@@ -266,6 +293,21 @@ private void searchInWindow() throws IOException {
 		deltaBuf = null;
 	}
 
+	private DeltaWindowEntry cachedBase() {
+		if (searchCache == null)
+			return null;
+		DeltaSearchCache.Entry e = searchCache.lookup(res.object);
+		if (e == null || e.size != res.size())
+			return null;
+		for (DeltaWindowEntry src = res.prev; src != res; src = src.prev) {
+			if (src.empty())
+				break;
+			if (e.base.equals(src.object) && e.baseSize == src.size())
+				return src;
+		}
+		return null;
+	}
+
 	private boolean delta(DeltaWindowEntry src)
 			throws IOException {
 		// If the sizes are radically different, this is a bad pairing.
@@ -276,6 +318,11 @@ private boolean delta(DeltaWindowEntry src)
 		if (msz <= 8) // Nearly impossible to fit useful delta.
 			return NEXT_SRC;
 
+		// Do not base the object on one outside of its delta islands.
+		if (islands != null && !src.object.isEdge()
+				&& !islands.canDelta(res.object, src.object))
+			return NEXT_SRC;
+
 		// If we have to insert a lot to make this work, find another.
 		if (res.size() - src.size() > msz)
 			return NEXT_SRC;
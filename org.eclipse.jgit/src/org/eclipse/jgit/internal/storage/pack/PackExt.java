@@ -61,9 +61,18 @@ public class PackExt {
 	/** A pack bitmap index file extension. */
 	public static final PackExt BITMAP_INDEX = newPackExt("bitmap"); //$NON-NLS-1$
 
+	/** A pack reverse index file extension. */
+	public static final PackExt REVERSE_INDEX = newPackExt("rev"); //$NON-NLS-1$
+
 	/** A reftable file. */
 	public static final PackExt REFTABLE = newPackExt("ref"); //$NON-NLS-1$
 
+	/** A bitmap layer extending the bitmap index of another pack. */
+	public static final PackExt INCREMENTAL_BITMAP_INDEX = newPackExt("ibitmap"); //$NON-NLS-1$
+
+	/** Delta bases selected while writing the pack. */
+	public static final PackExt DELTA_SEARCH_CACHE = newPackExt("dcache"); //$NON-NLS-1$
+
 	/**
 	 * Get all of the PackExt values.
 	 *
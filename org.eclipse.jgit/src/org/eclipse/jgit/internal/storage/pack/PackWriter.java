@@ -55,6 +55,7 @@
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.lang.ref.WeakReference;
 import java.security.MessageDigest;
 import java.text.MessageFormat;
@@ -73,7 +74,7 @@
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.zip.CRC32;
@@ -92,6 +93,7 @@
 import org.eclipse.jgit.internal.storage.file.PackBitmapIndexBuilder;
 import org.eclipse.jgit.internal.storage.file.PackBitmapIndexWriterV1;
 import org.eclipse.jgit.internal.storage.file.PackIndexWriter;
+import org.eclipse.jgit.internal.storage.file.PackReverseIndexWriter;
 import org.eclipse.jgit.lib.AnyObjectId;
 import org.eclipse.jgit.lib.AsyncObjectSizeQueue;
 import org.eclipse.jgit.lib.BatchingProgressMonitor;
@@ -106,18 +108,21 @@
 import org.eclipse.jgit.lib.ObjectLoader;
 import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.lib.ThreadSafeProgressMonitor;
 import org.eclipse.jgit.revwalk.AsyncRevObjectQueue;
 import org.eclipse.jgit.revwalk.BitmapWalker;
 import org.eclipse.jgit.revwalk.DepthWalk;
 import org.eclipse.jgit.revwalk.ObjectWalk;
+import org.eclipse.jgit.revwalk.RevBlob;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevFlag;
 import org.eclipse.jgit.revwalk.RevObject;
 import org.eclipse.jgit.revwalk.RevSort;
 import org.eclipse.jgit.revwalk.RevTag;
 import org.eclipse.jgit.revwalk.RevTree;
+import org.eclipse.jgit.revwalk.filter.ObjectFilter;
 import org.eclipse.jgit.storage.pack.PackConfig;
 import org.eclipse.jgit.storage.pack.PackStatistics;
 import org.eclipse.jgit.transport.FilterSpec;
@@ -244,6 +249,12 @@ public static Iterable<PackWriter> getInstances() {
 
 	private Set<ObjectId> tagTargets = NONE;
 
+	private Collection<Ref> deltaIslandRefs;
+
+	private DeltaIslands deltaIslands;
+
+	private DeltaSearchCache deltaSearchCache;
+
 	private Set<? extends ObjectId> excludeFromBitmapSelection = NONE;
 
 	private ObjectIdSet[] excludeInPacks;
@@ -303,6 +314,9 @@ public static Iterable<PackWriter> getInstances() {
 
 	private CRC32 crc32;
 
+	/** True while objects are written during a background delta search. */
+	private boolean searchingDeltas;
+
 	private ObjectCountCallback callback;
 
 	private FilterSpec filterSpec = FilterSpec.NO_FILTER;
@@ -625,6 +639,37 @@ public void setTagTargets(Set<ObjectId> objects) {
 		tagTargets = objects;
 	}
 
+	/**
+	 * Set the references grouped into delta islands.
+	 * <p>
+	 * If {@link PackConfig#getDeltaIslands()} defines islands, the references
+	 * are grouped by these patterns and objects are only stored as deltas
+	 * against bases reachable from the same islands, whether the delta is
+	 * reused or found by the delta search.
+	 *
+	 * @param refs
+	 *            all references of the repository, or null to not use delta
+	 *            islands.
+	 */
+	public void setDeltaIslandRefs(Collection<Ref> refs) {
+		deltaIslandRefs = refs;
+	}
+
+	/**
+	 * Set the cache of delta bases selected by earlier searches.
+	 * <p>
+	 * The delta search tries the base recorded for an object before
+	 * searching the window, and records the bases it selects. A cache
+	 * should be used by a single writer, its hit and miss counts are
+	 * reported in the statistics of the writer.
+	 *
+	 * @param cache
+	 *            the cache, or null to search every object in the window.
+	 */
+	public void setDeltaSearchCache(DeltaSearchCache cache) {
+		deltaSearchCache = cache;
+	}
+
 	/**
 	 * Configure this pack for a shallow clone.
 	 *
@@ -1038,6 +1083,33 @@ public void writeIndex(OutputStream indexStream) throws IOException {
 		stats.timeWriting += System.currentTimeMillis() - writeStart;
 	}
 
+	/**
+	 * Create a reverse index file to match the pack file just written.
+	 * <p>
+	 * Called after
+	 * {@link #writePack(ProgressMonitor, ProgressMonitor, OutputStream)}.
+	 * Like the index, the reverse index is only useful for local pack
+	 * storage.
+	 *
+	 * @param reverseIndexStream
+	 *            output for the reverse index data. Caller is responsible for
+	 *            closing this stream.
+	 * @throws java.io.IOException
+	 *             the reverse index data could not be written to the supplied
+	 *             stream.
+	 * @since 5.4
+	 */
+	public void writeReverseIndex(OutputStream reverseIndexStream)
+			throws IOException {
+		if (isIndexDisabled())
+			throw new IOException(JGitText.get().cachedPacksPreventsIndexCreation);
+
+		long writeStart = System.currentTimeMillis();
+		new PackReverseIndexWriter(reverseIndexStream).write(sortByName(),
+				packcsum);
+		stats.timeWriting += System.currentTimeMillis() - writeStart;
+	}
+
 	/**
 	 * Create a bitmap index file to match the pack file just written.
 	 * <p>
@@ -1080,7 +1152,16 @@ private List<ObjectToPack> sortByName() {
 
 	private void beginPhase(PackingPhase phase, ProgressMonitor monitor,
 			long cnt) {
-		state.phase = phase;
+		beginPhase(phase, monitor, cnt, false);
+	}
+
+	// A background search must not publish its phase, the writing thread
+	// already entered the WRITING phase.
+	private void beginPhase(PackingPhase phase, ProgressMonitor monitor,
+			long cnt, boolean background) {
+		if (!background) {
+			state.phase = phase;
+		}
 		String task;
 		switch (phase) {
 		case COUNTING:
@@ -1164,10 +1245,19 @@ public void writePack(ProgressMonitor compressMonitor,
 					TimeUnit.MILLISECONDS);
 		}
 
+		if (deltaIslandRefs != null && !config.getDeltaIslands().isEmpty()
+				&& (reuseDeltas || config.isDeltaCompress()))
+			deltaIslands = DeltaIslands.compute(reader,
+					config.getDeltaIslands(), deltaIslandRefs, objectsMap);
 		if (needSearchForReuse)
 			searchForReuse(compressMonitor);
-		if (config.isDeltaCompress())
-			searchForDeltas(compressMonitor);
+		PipelinedDeltaSearch pipeline = null;
+		if (config.isDeltaCompress()) {
+			if (config.isPipelinedWrite())
+				pipeline = startDeltaSearch();
+			else
+				searchForDeltas(compressMonitor);
+		}
 
 		crc32 = new CRC32();
 		final PackOutputStream out = new PackOutputStream(
@@ -1187,6 +1277,10 @@ public void writePack(ProgressMonitor compressMonitor,
 			out.writeFileHeader(PACK_VERSION_GENERATED, objCnt);
 			out.flush();
 
+			if (pipeline != null) {
+				pipeline.writeReadyObjects(out);
+				pipeline = null;
+			}
 			writeObjects(out);
 			if (!edgeObjects.isEmpty() || !cachedPacks.isEmpty()) {
 				for (PackStatistics.ObjectType.Accumulator typeStat : stats.objectTypes) {
@@ -1207,6 +1301,8 @@ public void writePack(ProgressMonitor compressMonitor,
 			writeChecksum(out);
 			out.flush();
 		} finally {
+			if (pipeline != null)
+				pipeline.cancel();
 			stats.timeWriting = System.currentTimeMillis() - writeStart;
 			stats.depth = depth;
 
@@ -1338,15 +1434,24 @@ private void searchForDeltas(ProgressMonitor monitor)
 		// really benefit from delta compression. Consequently just don't
 		// bother examining those types here.
 		//
-		ObjectToPack[] list = new ObjectToPack[
-				  objectsLists[OBJ_TREE].size()
-				+ objectsLists[OBJ_BLOB].size()
-				+ edgeObjects.size()];
+		ObjectToPack[] list = newDeltaSearchList();
 		int cnt = 0;
 		cnt = findObjectsNeedingDelta(list, cnt, OBJ_TREE);
 		cnt = findObjectsNeedingDelta(list, cnt, OBJ_BLOB);
 		if (cnt == 0)
 			return;
+		sizeAndSearchForDeltas(monitor, reader, list, cnt, false);
+	}
+
+	private ObjectToPack[] newDeltaSearchList() {
+		return new ObjectToPack[objectsLists[OBJ_TREE].size()
+				+ objectsLists[OBJ_BLOB].size() + edgeObjects.size()];
+	}
+
+	private void sizeAndSearchForDeltas(ProgressMonitor monitor,
+			ObjectReader or, ObjectToPack[] list, int cnt, boolean background)
+			throws MissingObjectException, IncorrectObjectTypeException,
+			IOException {
 		int nonEdgeCnt = cnt;
 
 		// Queue up any edge objects that we might delta against.  We won't
@@ -1366,8 +1471,8 @@ private void searchForDeltas(ProgressMonitor monitor)
 		// abort with an exception if we actually had to have it.
 		//
 		final long sizingStart = System.currentTimeMillis();
-		beginPhase(PackingPhase.GETTING_SIZES, monitor, cnt);
-		AsyncObjectSizeQueue<ObjectToPack> sizeQueue = reader.getObjectSize(
+		beginPhase(PackingPhase.GETTING_SIZES, monitor, cnt, background);
+		AsyncObjectSizeQueue<ObjectToPack> sizeQueue = or.getObjectSize(
 				Arrays.<ObjectToPack> asList(list).subList(0, cnt), false);
 		try {
 			final long limit = Math.min(
@@ -1457,15 +1562,116 @@ private void searchForDeltas(ProgressMonitor monitor)
 			return;
 
 		final long searchStart = System.currentTimeMillis();
-		searchForDeltas(monitor, list, cnt);
+		searchForDeltas(monitor, or, list, cnt, background);
 		stats.deltaSearchNonEdgeObjects = nonEdgeCnt;
 		stats.timeCompressing = System.currentTimeMillis() - searchStart;
+		if (deltaSearchCache != null) {
+			stats.deltaSearchCacheHits = deltaSearchCache.getHitCount();
+			stats.deltaSearchCacheMisses = deltaSearchCache.getMissCount();
+		}
 
 		for (int i = 0; i < cnt; i++)
 			if (!list[i].isEdge() && list[i].isDeltaRepresentation())
 				stats.deltasFound++;
 	}
 
+	@Nullable
+	private PipelinedDeltaSearch startDeltaSearch() {
+		ObjectToPack[] list = newDeltaSearchList();
+		int cnt = 0;
+		cnt = findObjectsNeedingDelta(list, cnt, OBJ_TREE);
+		cnt = findObjectsNeedingDelta(list, cnt, OBJ_BLOB);
+		if (cnt == 0)
+			return null;
+		return new PipelinedDeltaSearch(list, cnt);
+	}
+
+	private static boolean isOutsideDeltaSearch(ObjectToPack otp) {
+		// An object can be written before the delta search completes if
+		// neither the object nor any base of its reused delta chain is
+		// considered by the search.
+		for (;;) {
+			int type = otp.getType();
+			if ((type == OBJ_TREE || type == OBJ_BLOB)
+					&& !otp.isDoNotDelta() && !otp.isDeltaRepresentation())
+				return false;
+			ObjectToPack base = otp.getDeltaBase();
+			if (base == null || base.isEdge())
+				return true;
+			otp = base;
+		}
+	}
+
+	/**
+	 * Delta search running while other objects are written.
+	 * <p>
+	 * The search runs on the threads shared by all pack writers, see
+	 * {@link PackWorkers}, and not on the configured executor: it waits for
+	 * delta tasks which may be scheduled on that executor. It does not
+	 * report progress to the compress monitor, as the monitors may write to
+	 * the same stream as the pack.
+	 */
+	private class PipelinedDeltaSearch {
+		private final List<List<ObjectToPack>> ready = new ArrayList<>(4);
+
+		private final Future<?> search;
+
+		PipelinedDeltaSearch(ObjectToPack[] list, int cnt) {
+			// Select the objects to write early before the search starts
+			// changing the representation of the others.
+			for (int type : new int[] { OBJ_COMMIT, OBJ_TAG, OBJ_TREE,
+					OBJ_BLOB }) {
+				List<ObjectToPack> r = new ArrayList<>();
+				for (ObjectToPack otp : objectsLists[type]) {
+					if (isOutsideDeltaSearch(otp))
+						r.add(otp);
+				}
+				ready.add(r);
+			}
+
+			search = PackWorkers.getExecutor().submit(() -> {
+				try (ObjectReader or = reader.newReader()) {
+					sizeAndSearchForDeltas(NullProgressMonitor.INSTANCE, or,
+							list, cnt, true);
+				}
+				return null;
+			});
+		}
+
+		void writeReadyObjects(PackOutputStream out) throws IOException {
+			searchingDeltas = true;
+			try {
+				for (List<ObjectToPack> r : ready)
+					writeObjects(out, r);
+			} finally {
+				searchingDeltas = false;
+			}
+
+			try {
+				search.get();
+			} catch (InterruptedException e) {
+				throw new IOException(
+						JGitText.get().packingCancelledDuringObjectsWriting,
+						e);
+			} catch (ExecutionException e) {
+				Throwable err = e.getCause();
+				if (err instanceof Error)
+					throw (Error) err;
+				if (err instanceof RuntimeException)
+					throw (RuntimeException) err;
+				if (err instanceof IOException)
+					throw (IOException) err;
+				throw new IOException(err.getMessage(), err);
+			} finally {
+				cancel();
+			}
+		}
+
+		void cancel() {
+			search.cancel(true);
+		}
+	}
+
 	private int findObjectsNeedingDelta(ObjectToPack[] list, int cnt, int type) {
 		for (ObjectToPack otp : objectsLists[type]) {
 			if (otp.isDoNotDelta()) // delta is disabled for this path
@@ -1490,20 +1696,21 @@ private void reselectNonDelta(ObjectToPack otp) throws IOException {
 	}
 
 	private void searchForDeltas(final ProgressMonitor monitor,
-			final ObjectToPack[] list, final int cnt)
-			throws MissingObjectException, IncorrectObjectTypeException,
+			final ObjectReader or, final ObjectToPack[] list, final int cnt,
+			boolean background) throws MissingObjectException, IncorrectObjectTypeException,
 			LargeObjectException, IOException {
 		int threads = config.getThreads();
 		if (threads == 0)
 			threads = Runtime.getRuntime().availableProcessors();
 		if (threads <= 1 || cnt <= config.getDeltaSearchWindowSize())
-			singleThreadDeltaSearch(monitor, list, cnt);
+			singleThreadDeltaSearch(monitor, or, list, cnt, background);
 		else
-			parallelDeltaSearch(monitor, list, cnt, threads);
+			parallelDeltaSearch(monitor, or, list, cnt, threads, background);
 	}
 
 	private void singleThreadDeltaSearch(ProgressMonitor monitor,
-			ObjectToPack[] list, int cnt) throws IOException {
+			ObjectReader or, ObjectToPack[] list, int cnt, boolean background)
+			throws IOException {
 		long totalWeight = 0;
 		for (int i = 0; i < cnt; i++) {
 			ObjectToPack o = list[i];
@@ -1517,48 +1724,38 @@ private void singleThreadDeltaSearch(ProgressMonitor monitor,
 		if (totalWeight % bytesPerUnit != 0)
 			cost++;
 
-		beginPhase(PackingPhase.COMPRESSING, monitor, cost);
-		new DeltaWindow(config, new DeltaCache(config), reader,
-				monitor, bytesPerUnit,
+		beginPhase(PackingPhase.COMPRESSING, monitor, cost, background);
+		new DeltaWindow(config, new DeltaCache(config), deltaIslands,
+				deltaSearchCache, or, monitor, bytesPerUnit,
 				list, 0, cnt).search();
 		endPhase(monitor);
 	}
 
-	private void parallelDeltaSearch(ProgressMonitor monitor,
-			ObjectToPack[] list, int cnt, int threads) throws IOException {
+	private void parallelDeltaSearch(ProgressMonitor monitor, ObjectReader or,
+			ObjectToPack[] list, int cnt, int threads, boolean background)
+			throws IOException {
+		Executor executor = config.getExecutor();
+		if (executor == null || executor instanceof ForkJoinPool) {
+			forkJoinDeltaSearch(monitor, or, list, cnt, threads,
+					(ForkJoinPool) executor, background);
+			return;
+		}
+
 		DeltaCache dc = new ThreadSafeDeltaCache(config);
 		ThreadSafeProgressMonitor pm = new ThreadSafeProgressMonitor(monitor);
 		DeltaTask.Block taskBlock = new DeltaTask.Block(threads, config,
-				reader, dc, pm,
+				deltaIslands, deltaSearchCache, or, dc, pm,
 				list, 0, cnt);
 		taskBlock.partitionTasks();
-		beginPhase(PackingPhase.COMPRESSING, monitor, taskBlock.cost());
+		beginPhase(PackingPhase.COMPRESSING, monitor, taskBlock.cost(),
+				background);
 		pm.startWorkers(taskBlock.tasks.size());
 
-		Executor executor = config.getExecutor();
 		final List<Throwable> errors =
 				Collections.synchronizedList(new ArrayList<>(threads));
 		if (executor instanceof ExecutorService) {
 			// Caller supplied us a service, use it directly.
 			runTasks((ExecutorService) executor, pm, taskBlock, errors);
-		} else if (executor == null) {
-			// Caller didn't give us a way to run the tasks, spawn up a
-			// temporary thread pool and make sure it tears down cleanly.
-			ExecutorService pool = Executors.newFixedThreadPool(threads);
-			try {
-				runTasks(pool, pm, taskBlock, errors);
-			} finally {
-				pool.shutdown();
-				for (;;) {
-					try {
-						if (pool.awaitTermination(60, TimeUnit.SECONDS))
-							break;
-					} catch (InterruptedException e) {
-						throw new IOException(
-								JGitText.get().packingCancelledDuringObjectsWriting);
-					}
-				}
-			}
 		} else {
 			// The caller gave us an executor, but it might not do
 			// asynchronous execution.  Wrap everything and hope it
@@ -1600,6 +1797,61 @@ private void parallelDeltaSearch(ProgressMonitor monitor,
 		endPhase(monitor);
 	}
 
+	private void forkJoinDeltaSearch(ProgressMonitor monitor, ObjectReader or,
+			ObjectToPack[] list, int cnt, int threads,
+			@Nullable ForkJoinPool executor, boolean background)
+			throws IOException {
+		DeltaCache dc = new ThreadSafeDeltaCache(config);
+		ThreadSafeProgressMonitor pm = new ThreadSafeProgressMonitor(monitor);
+		DeltaForkJoinTask.Block block = new DeltaForkJoinTask.Block(threads,
+				config, deltaIslands, deltaSearchCache, or, dc, pm,
+				list, 0, cnt);
+		beginPhase(PackingPhase.COMPRESSING, monitor, block.cost(),
+				background);
+		pm.startWorkers(1);
+
+		// Without a pool from the caller, use a temporary one so the
+		// search is not limited by the parallelism of the common pool.
+		ForkJoinPool pool = executor != null ? executor
+				: new ForkJoinPool(threads);
+		Future<?> search = null;
+		try {
+			search = pool.submit(() -> {
+				try {
+					new DeltaForkJoinTask(block, 0, cnt).invoke();
+				} finally {
+					pm.endWorker();
+				}
+			});
+			pm.waitForCompletion();
+			search.get();
+		} catch (InterruptedException ie) {
+			// Tasks of a fork join search cannot be interrupted, stop the
+			// ones which did not start yet.
+			block.cancel();
+			if (search != null)
+				search.cancel(true);
+			if (executor == null)
+				pool.shutdownNow();
+			throw new IOException(
+					JGitText.get().packingCancelledDuringObjectsWriting, ie);
+		} catch (ExecutionException failed) {
+			Throwable err = failed.getCause();
+			if (err instanceof UncheckedIOException)
+				throw ((UncheckedIOException) err).getCause();
+			if (err instanceof Error)
+				throw (Error) err;
+			if (err instanceof RuntimeException)
+				throw (RuntimeException) err;
+			throw new IOException(err.getMessage(), err);
+		} finally {
+			if (executor == null)
+				pool.shutdown();
+		}
+		stats.deltaSearchBusyTimes = block.getBusyTimes();
+		endPhase(monitor);
+	}
+
 	private static void runTasks(ExecutorService pool,
 			ThreadSafeProgressMonitor pm,
 			DeltaTask.Block tb, List<Throwable> errors) throws IOException {
@@ -1687,6 +1939,12 @@ private void writeObjectImpl(PackOutputStream out, ObjectToPack otp)
 			} catch (StoredObjectRepresentationNotAvailableException gone) {
 				if (otp.getOffset() == out.length()) {
 					otp.setOffset(0);
+					if (searchingDeltas) {
+						// A reused delta might now be based on an object
+						// the background delta search is still working on.
+						reselectNonDelta(otp);
+						continue;
+					}
 					otp.clearDeltaBase();
 					otp.clearReuseAsIs();
 					reuseSupport.selectObjectRepresentation(this,
@@ -1927,12 +2185,23 @@ private void findObjectsToPack(@NonNull ProgressMonitor countingMonitor,
 		for (RevObject obj : haveObjs)
 			walker.markUninteresting(obj);
 
+		ParallelObjectCounter counter = null;
+		int countingThreads = getCountingThreads(walker, have);
+		if (countingThreads > 1) {
+			counter = new ParallelObjectCounter(reader, countingThreads,
+					config.getExecutor());
+			addWantedObjects(counter, walker, wantObjs, want,
+					countingMonitor);
+		}
+
 		final int maxBases = config.getDeltaSearchWindowSize();
 		Set<RevTree> baseTrees = new HashSet<>();
 		BlockList<RevCommit> commits = new BlockList<>();
 		Set<ObjectId> roots = new HashSet<>();
 		RevCommit c;
 		while ((c = walker.next()) != null) {
+			if (counter != null && !c.has(RevFlag.UNINTERESTING))
+				counter.addTree(c.getTree());
 			if (exclude(c))
 				continue;
 			if (c.has(RevFlag.UNINTERESTING)) {
@@ -1990,7 +2259,14 @@ private void findObjectsToPack(@NonNull ProgressMonitor countingMonitor,
 		}
 		commits = null;
 
-		if (thin && !baseTrees.isEmpty()) {
+		if (counter != null) {
+			for (ParallelObjectCounter.Found o : counter
+					.count(countingMonitor)) {
+				if (!exclude(o)) {
+					filterAndAddObject(o, o.type, o.pathHash, want);
+				}
+			}
+		} else if (thin && !baseTrees.isEmpty()) {
 			BaseSearch bases = new BaseSearch(countingMonitor, baseTrees, //
 					objectsMap, edgeObjects, reader);
 			RevObject o;
@@ -2031,6 +2307,46 @@ private void findObjectsToPack(@NonNull ProgressMonitor countingMonitor,
 		stats.bitmapIndexMisses = -1;
 	}
 
+	private int getCountingThreads(ObjectWalk walker,
+			Set<? extends ObjectId> have) {
+		if (!config.isParallelCounting() || !have.isEmpty() || thin
+				|| shallowPack || walker instanceof DepthWalk.ObjectWalk
+				|| filterSpec.getTreeDepthLimit() >= 0
+				|| walker.getObjectFilter() != ObjectFilter.ALL)
+			return 1;
+		int threads = config.getThreads();
+		if (threads <= 0)
+			threads = Runtime.getRuntime().availableProcessors();
+		return threads;
+	}
+
+	private void addWantedObjects(ParallelObjectCounter counter,
+			ObjectWalk walker, List<RevObject> wantObjs,
+			Set<? extends ObjectId> want, ProgressMonitor countingMonitor)
+			throws IOException {
+		// Commits are found by the commit walk, tags and the trees or blobs
+		// wanted directly are handled here like ObjectWalk.markStart() does.
+		for (RevObject o : wantObjs) {
+			while (o instanceof RevTag && !o.has(RevFlag.UNINTERESTING)) {
+				if (counter.markSeen(o) && !exclude(o)) {
+					filterAndAddObject(o, OBJ_TAG, 0, want);
+					countingMonitor.update(1);
+				}
+				o = ((RevTag) o).getObject();
+				walker.parseHeaders(o);
+			}
+			if (o.has(RevFlag.UNINTERESTING)) {
+				continue;
+			} else if (o instanceof RevTree) {
+				counter.addTree(o);
+			} else if (o instanceof RevBlob && counter.markSeen(o)
+					&& !exclude(o)) {
+				filterAndAddObject(o, OBJ_BLOB, 0, want);
+				countingMonitor.update(1);
+			}
+		}
+	}
+
 	private void findObjectsToPackUsingBitmaps(
 			BitmapWalker bitmapWalker, Set<? extends ObjectId> want,
 			Set<? extends ObjectId> have)
@@ -2214,7 +2530,12 @@ public void select(ObjectToPack otp, StoredObjectRepresentation next) {
 		if (nFmt == PACK_DELTA && reuseDeltas && reuseDeltaFor(otp)) {
 			ObjectId baseId = next.getDeltaBase();
 			ObjectToPack ptr = objectsMap.get(baseId);
-			if (ptr != null && !ptr.isEdge()) {
+			if (ptr != null && !ptr.isEdge() && deltaIslands != null
+					&& !deltaIslands.canDelta(otp, ptr)) {
+				// The stored delta crosses islands, keep any other
+				// representation and let the delta search find a base.
+				return;
+			} else if (ptr != null && !ptr.isEdge()) {
 				otp.setDeltaBase(ptr);
 				otp.setReuseAsIs();
 			} else if (thin && have(ptr, baseId)) {
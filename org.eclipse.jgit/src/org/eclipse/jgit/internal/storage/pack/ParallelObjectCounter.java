@@ -0,0 +1,338 @@
+/*
+ * Copyright (C) 2019, Google LLC.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.pack;
+
+import static org.eclipse.jgit.lib.Constants.OBJ_BLOB;
+import static org.eclipse.jgit.lib.Constants.OBJ_COMMIT;
+import static org.eclipse.jgit.lib.Constants.OBJ_TREE;
+
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jgit.annotations.Nullable;
+import org.eclipse.jgit.errors.CorruptObjectException;
+import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.lib.ThreadSafeProgressMonitor;
+import org.eclipse.jgit.treewalk.CanonicalTreeParser;
+import org.eclipse.jgit.util.BlockList;
+
+/**
+ * Finds the trees and blobs reachable from a set of trees using multiple
+ * threads.
+ * <p>
+ * Trees waiting to be read are kept in a deque shared by all workers. Each
+ * worker reads trees with its own {@link ObjectReader} and queues the subtrees
+ * it is the first to see. Objects are deduplicated through a concurrent set,
+ * so every object is reported once, with the path hash of the first path a
+ * worker found it at.
+ */
+final class ParallelObjectCounter {
+	private static final byte[] NO_PATH = {};
+
+	/** Queued once no tree is left to read, and kept at the head. */
+	private static final Tree DONE = new Tree(ObjectId.zeroId(), NO_PATH, 0);
+
+	private final ObjectReader reader;
+
+	private final int threads;
+
+	@Nullable
+	private final Executor executor;
+
+	private final Set<ObjectId> seen = ConcurrentHashMap.newKeySet();
+
+	private final LinkedBlockingDeque<Tree> queue = new LinkedBlockingDeque<>();
+
+	/** Trees queued or being read; the traversal is done at zero. */
+	private final AtomicInteger pending = new AtomicInteger();
+
+	private final List<Throwable> errors = Collections
+			.synchronizedList(new ArrayList<>());
+
+	private volatile boolean failed;
+
+	ParallelObjectCounter(ObjectReader reader, int threads,
+			@Nullable Executor executor) {
+		this.reader = reader;
+		this.threads = threads;
+		this.executor = executor;
+	}
+
+	/**
+	 * Mark an object found outside of the traversed trees.
+	 *
+	 * @param id
+	 *            the object.
+	 * @return true if the object was not seen before.
+	 */
+	boolean markSeen(AnyObjectId id) {
+		return seen.add(id.copy());
+	}
+
+	/**
+	 * Add a root tree to traverse.
+	 *
+	 * @param tree
+	 *            the tree; it is reported with a path hash of 0.
+	 */
+	void addTree(AnyObjectId tree) {
+		ObjectId id = tree.copy();
+		if (seen.add(id)) {
+			pending.incrementAndGet();
+			queue.addLast(new Tree(id, NO_PATH, 0));
+		}
+	}
+
+	/**
+	 * Traverse all trees added so far.
+	 *
+	 * @param monitor
+	 *            progress monitor, updated once per object found.
+	 * @return trees and blobs found, including the root trees.
+	 * @throws IOException
+	 *             a tree could not be read.
+	 */
+	List<Found> count(ProgressMonitor monitor) throws IOException {
+		if (queue.isEmpty()) {
+			return Collections.emptyList();
+		}
+
+		ThreadSafeProgressMonitor pm = new ThreadSafeProgressMonitor(monitor);
+		List<Worker> workers = new ArrayList<>(threads);
+		for (int i = 0; i < threads; i++) {
+			workers.add(new Worker(pm));
+		}
+		pm.startWorkers(threads);
+
+		Executor e = executor;
+		if (e == null) {
+			e = PackWorkers.getExecutor();
+		}
+		try {
+			for (Worker w : workers) {
+				e.execute(w);
+			}
+			pm.waitForCompletion();
+		} catch (InterruptedException ie) {
+			stop();
+			throw new IOException(
+					JGitText.get().packingCancelledDuringObjectsWriting, ie);
+		}
+
+		if (!errors.isEmpty()) {
+			Throwable err = errors.get(0);
+			if (err instanceof Error)
+				throw (Error) err;
+			if (err instanceof RuntimeException)
+				throw (RuntimeException) err;
+			if (err instanceof IOException)
+				throw (IOException) err;
+			throw new IOException(err.getMessage(), err);
+		}
+
+		List<Found> found = new BlockList<>();
+		for (Worker w : workers) {
+			found.addAll(w.found);
+		}
+		return found;
+	}
+
+	private Tree next() throws InterruptedException {
+		if (failed) {
+			return null;
+		}
+		Tree t = queue.takeFirst();
+		if (t == DONE) {
+			// Leave it for the other workers.
+			queue.addFirst(DONE);
+			return null;
+		}
+		return t;
+	}
+
+	private void stop() {
+		failed = true;
+		queue.addFirst(DONE);
+	}
+
+	static int pathHash(byte[] path, int end) {
+		// Same hash as ObjectWalk.getPathHashCode(): the last 16 bytes of
+		// the path, ignoring spaces.
+		int hash = 0;
+		for (int ptr = Math.max(0, end - 16); ptr < end; ptr++) {
+			byte c = path[ptr];
+			if (c != ' ')
+				hash = (hash >>> 2) + (c << 24);
+		}
+		return hash;
+	}
+
+	/** A tree or blob found by the traversal. */
+	static final class Found extends ObjectId {
+		final int type;
+
+		final int pathHash;
+
+		Found(AnyObjectId id, int type, int pathHash) {
+			super(id);
+			this.type = type;
+			this.pathHash = pathHash;
+		}
+	}
+
+	private static final class Tree {
+		final ObjectId id;
+
+		final byte[] path;
+
+		final int pathHash;
+
+		Tree(ObjectId id, byte[] path, int pathHash) {
+			this.id = id;
+			this.path = path;
+			this.pathHash = pathHash;
+		}
+	}
+
+	private final class Worker implements Runnable {
+		private final ThreadSafeProgressMonitor pm;
+
+		final BlockList<Found> found = new BlockList<>();
+
+		private final CanonicalTreeParser parser = new CanonicalTreeParser();
+
+		private byte[] pathBuf = new byte[256];
+
+		Worker(ThreadSafeProgressMonitor pm) {
+			this.pm = pm;
+		}
+
+		@Override
+		public void run() {
+			try (ObjectReader or = reader.newReader()) {
+				Tree t;
+				while ((t = next()) != null) {
+					try {
+						visit(or, t);
+					} finally {
+						if (pending.decrementAndGet() == 0) {
+							queue.addLast(DONE);
+						}
+					}
+				}
+			} catch (Throwable err) {
+				errors.add(err);
+				stop();
+			} finally {
+				pm.endWorker();
+			}
+		}
+
+		private void visit(ObjectReader or, Tree t) throws IOException {
+			found.add(new Found(t.id, OBJ_TREE, t.pathHash));
+			pm.update(1);
+
+			byte[] raw = or.open(t.id, OBJ_TREE).getCachedBytes();
+			for (parser.reset(raw); !parser.eof(); parser.next()) {
+				int type = parser.getEntryFileMode().getObjectType();
+				if (type == OBJ_COMMIT) {
+					// Gitlinks point to commits of another repository.
+					continue;
+				} else if (type != OBJ_TREE && type != OBJ_BLOB) {
+					throw new CorruptObjectException(MessageFormat.format(
+							JGitText.get().corruptObjectInvalidMode3,
+							String.format("%o", //$NON-NLS-1$
+									Integer.valueOf(parser.getEntryRawMode())),
+							parser.getEntryObjectId().name(),
+							parser.getEntryPathString(), t.id));
+				}
+
+				ObjectId id = parser.getEntryObjectId();
+				if (!seen.add(id)) {
+					continue;
+				}
+				int len = appendPath(t.path);
+				int hash = pathHash(pathBuf, len);
+				if (type == OBJ_TREE) {
+					pending.incrementAndGet();
+					queue.addFirst(
+							new Tree(id, Arrays.copyOf(pathBuf, len), hash));
+				} else {
+					found.add(new Found(id, OBJ_BLOB, hash));
+					pm.update(1);
+				}
+			}
+		}
+
+		private int appendPath(byte[] dir) {
+			int nameLen = parser.getEntryPathLength();
+			int len = dir.length + nameLen + (dir.length > 0 ? 1 : 0);
+			if (pathBuf.length < len) {
+				pathBuf = new byte[Math.max(len, pathBuf.length * 2)];
+			}
+			int p = 0;
+			if (dir.length > 0) {
+				System.arraycopy(dir, 0, pathBuf, 0, dir.length);
+				p = dir.length;
+				pathBuf[p++] = '/';
+			}
+			System.arraycopy(parser.getEntryPathBuffer(), 0, pathBuf, p,
+					nameLen);
+			return len;
+		}
+	}
+}
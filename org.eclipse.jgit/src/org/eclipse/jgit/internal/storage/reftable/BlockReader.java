@@ -104,6 +104,38 @@ class BlockReader {
 	private int nameLen;
 	private int valueType;
 
+	/**
+	 * Create a reader sharing the immutable content of this block.
+	 * <p>
+	 * The returned reader is positioned at the first key of the block and has
+	 * its own cursor state, it can be used concurrently with this reader.
+	 *
+	 * @return a new reader of the same block.
+	 */
+	BlockReader copy() {
+		BlockReader b = new BlockReader();
+		b.blockType = blockType;
+		b.endPosition = endPosition;
+		b.truncated = truncated;
+		b.buf = buf;
+		b.bufLen = bufLen;
+		b.ptr = keysStart;
+		b.keysStart = keysStart;
+		b.keysEnd = keysEnd;
+		b.restartCnt = restartCnt;
+		b.restartTbl = restartTbl;
+		return b;
+	}
+
+	/**
+	 * Get the number of bytes of memory retained by this block.
+	 *
+	 * @return the number of bytes of memory retained by this block.
+	 */
+	int memorySize() {
+		return buf.length;
+	}
+
 	byte type() {
 		return blockType;
 	}
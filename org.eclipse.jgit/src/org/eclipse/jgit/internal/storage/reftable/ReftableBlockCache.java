@@ -0,0 +1,438 @@
+/*
+ * Copyright (C) 2019, Google LLC.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.reftable;
+
+import static org.eclipse.jgit.internal.storage.reftable.ReftableConstants.INDEX_BLOCK_TYPE;
+import static org.eclipse.jgit.internal.storage.reftable.ReftableConstants.LOG_BLOCK_TYPE;
+import static org.eclipse.jgit.internal.storage.reftable.ReftableConstants.OBJ_BLOCK_TYPE;
+import static org.eclipse.jgit.internal.storage.reftable.ReftableConstants.REF_BLOCK_TYPE;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jgit.annotations.Nullable;
+
+/**
+ * Caches blocks of reftables in memory.
+ * <p>
+ * Blocks are stored after parsing, and in the case of log blocks after
+ * inflating, so a hit avoids both the read from the
+ * {@link org.eclipse.jgit.internal.storage.io.BlockSource} and the decoding.
+ * One cache is usually shared by all {@link ReftableReader}s of a process,
+ * which lets the index blocks of frequently used tables stay in memory while
+ * bounding the memory used by all tables together.
+ * <p>
+ * Blocks are keyed by the identity of the table given to the readers, so
+ * readers of the same table share its blocks. The blocks of a table are
+ * dropped once its last reader is closed.
+ * <p>
+ * The least recently used blocks are evicted when the cache exceeds its
+ * limit. Hit, miss and eviction counts are kept for each type of block.
+ * <p>
+ * This class is thread-safe.
+ */
+public class ReftableBlockCache {
+	/** Default limit of the cache, in bytes. */
+	public static final long DEFAULT_LIMIT = 8 * 1024 * 1024;
+
+	private static final byte[] BLOCK_TYPES = { REF_BLOCK_TYPE,
+			OBJ_BLOCK_TYPE, LOG_BLOCK_TYPE, INDEX_BLOCK_TYPE };
+
+	private static volatile ReftableBlockCache cache = new ReftableBlockCache(
+			DEFAULT_LIMIT);
+
+	/**
+	 * Replace the shared cache with a new cache.
+	 * <p>
+	 * Readers already open keep using the cache they were created with.
+	 *
+	 * @param limit
+	 *            maximum number of bytes held by the new cache.
+	 * @throws java.lang.IllegalArgumentException
+	 *             the limit is not positive.
+	 */
+	public static void reconfigure(long limit) {
+		cache = new ReftableBlockCache(limit);
+	}
+
+	/**
+	 * Get the shared cache.
+	 *
+	 * @return the shared cache.
+	 */
+	public static ReftableBlockCache getInstance() {
+		return cache;
+	}
+
+	private final long limit;
+
+	private final LinkedHashMap<Key, BlockReader> blocks;
+
+	private final Map<Object, Table> tables = new HashMap<>();
+
+	private long liveBytes;
+
+	private final AtomicLong[] statHit = newCounters();
+
+	private final AtomicLong[] statMiss = newCounters();
+
+	private final AtomicLong[] statEvict = newCounters();
+
+	/**
+	 * Create a new cache.
+	 *
+	 * @param limit
+	 *            maximum number of bytes held by the cache.
+	 * @throws java.lang.IllegalArgumentException
+	 *             the limit is not positive.
+	 */
+	public ReftableBlockCache(long limit) {
+		if (limit <= 0) {
+			throw new IllegalArgumentException();
+		}
+		this.limit = limit;
+		this.blocks = new LinkedHashMap<>(16, 0.75f, true);
+	}
+
+	/**
+	 * Get the maximum number of bytes held by the cache.
+	 *
+	 * @return the maximum number of bytes held by the cache.
+	 */
+	public long getLimit() {
+		return limit;
+	}
+
+	/**
+	 * Get the number of bytes currently held by the cache.
+	 *
+	 * @return the number of bytes currently held by the cache.
+	 */
+	public synchronized long getCurrentSize() {
+		return liveBytes;
+	}
+
+	/**
+	 * Get 0..100, defining how full the cache is.
+	 *
+	 * @return 0..100, defining how full the cache is.
+	 */
+	public long getFillPercentage() {
+		return getCurrentSize() * 100 / limit;
+	}
+
+	/**
+	 * Get the number of blocks currently held by the cache.
+	 *
+	 * @return the number of blocks currently held by the cache.
+	 */
+	public synchronized int getBlockCount() {
+		return blocks.size();
+	}
+
+	/**
+	 * Get number of requests for blocks in the cache.
+	 *
+	 * @return number of requests for blocks in the cache.
+	 */
+	public long getHitCount() {
+		return sum(statHit);
+	}
+
+	/**
+	 * Get number of requests for blocks in the cache, for one type of block.
+	 *
+	 * @param blockType
+	 *            type of the block, one of {@code 'r'}, {@code 'o'},
+	 *            {@code 'g'} or {@code 'i'}.
+	 * @return number of requests for blocks of this type in the cache.
+	 */
+	public long getHitCount(byte blockType) {
+		return statHit[typeIndex(blockType)].get();
+	}
+
+	/**
+	 * Get number of requests for blocks not in the cache.
+	 *
+	 * @return number of requests for blocks not in the cache.
+	 */
+	public long getMissCount() {
+		return sum(statMiss);
+	}
+
+	/**
+	 * Get number of requests for blocks not in the cache, for one type of
+	 * block.
+	 *
+	 * @param blockType
+	 *            type of the block, one of {@code 'r'}, {@code 'o'},
+	 *            {@code 'g'} or {@code 'i'}.
+	 * @return number of requests for blocks of this type not in the cache.
+	 */
+	public long getMissCount(byte blockType) {
+		return statMiss[typeIndex(blockType)].get();
+	}
+
+	/**
+	 * Get total number of requests (hit + miss).
+	 *
+	 * @return total number of requests (hit + miss).
+	 */
+	public long getTotalRequestCount() {
+		return getHitCount() + getMissCount();
+	}
+
+	/**
+	 * Get 0..100, the percentage of requests served from the cache.
+	 *
+	 * @return 0..100, the percentage of requests served from the cache.
+	 */
+	public long getHitRatio() {
+		long hit = getHitCount();
+		long total = hit + getMissCount();
+		return total == 0 ? 0 : hit * 100 / total;
+	}
+
+	/**
+	 * Get number of evictions performed due to the cache being full.
+	 *
+	 * @return number of evictions performed due to the cache being full.
+	 */
+	public long getEvictions() {
+		return sum(statEvict);
+	}
+
+	/**
+	 * Get number of evictions performed due to the cache being full, for one
+	 * type of block.
+	 *
+	 * @param blockType
+	 *            type of the block, one of {@code 'r'}, {@code 'o'},
+	 *            {@code 'g'} or {@code 'i'}.
+	 * @return number of evictions of blocks of this type.
+	 */
+	public long getEvictions(byte blockType) {
+		return statEvict[typeIndex(blockType)].get();
+	}
+
+	/**
+	 * Look up a block.
+	 *
+	 * @param table
+	 *            identity of the table.
+	 * @param pos
+	 *            position of the block in the table.
+	 * @return a reader of the block positioned at its first key, or
+	 *         {@code null} if the block is not cached.
+	 */
+	@Nullable
+	BlockReader get(Object table, long pos) {
+		BlockReader b;
+		synchronized (this) {
+			b = blocks.get(new Key(table, pos));
+		}
+		if (b == null) {
+			return null;
+		}
+		statHit[statIndex(b.type())].incrementAndGet();
+		return b.copy();
+	}
+
+	/**
+	 * Register a reader of a table.
+	 *
+	 * @param table
+	 *            identity of the table.
+	 */
+	synchronized void open(Object table) {
+		Table t = tables.get(table);
+		if (t == null) {
+			t = new Table();
+			tables.put(table, t);
+		}
+		t.readers++;
+	}
+
+	/**
+	 * Add a block read from a table.
+	 * <p>
+	 * Readers are never shared, the cache keeps its own copy of the block.
+	 * Blocks of tables without an open reader are not kept.
+	 *
+	 * @param table
+	 *            identity of the table.
+	 * @param pos
+	 *            position of the block in the table.
+	 * @param block
+	 *            block which was just read.
+	 */
+	void put(Object table, long pos, BlockReader block) {
+		int type = statIndex(block.type());
+		if (type < 0) {
+			// The header of an empty table, there is nothing to cache.
+			return;
+		}
+		statMiss[type].incrementAndGet();
+		int size = block.memorySize();
+		if (size > limit) {
+			return;
+		}
+		BlockReader copy = block.copy();
+		synchronized (this) {
+			Table t = tables.get(table);
+			if (t == null) {
+				return;
+			}
+			Key key = new Key(table, pos);
+			BlockReader old = blocks.put(key, copy);
+			if (old != null) {
+				liveBytes -= old.memorySize();
+			}
+			t.blocks.add(key);
+			liveBytes += size;
+			Iterator<Map.Entry<Key, BlockReader>> i = blocks.entrySet()
+					.iterator();
+			while (liveBytes > limit && i.hasNext()) {
+				Map.Entry<Key, BlockReader> e = i.next();
+				i.remove();
+				Key k = e.getKey();
+				tables.get(k.table).blocks.remove(k);
+				BlockReader b = e.getValue();
+				liveBytes -= b.memorySize();
+				statEvict[statIndex(b.type())].incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * Release a reader of a table.
+	 * <p>
+	 * The blocks of the table are dropped when its last reader is released.
+	 *
+	 * @param table
+	 *            identity of the table.
+	 */
+	synchronized void release(Object table) {
+		Table t = tables.get(table);
+		if (t == null || --t.readers > 0) {
+			return;
+		}
+		tables.remove(table);
+		for (Key k : t.blocks) {
+			BlockReader b = blocks.remove(k);
+			if (b != null) {
+				liveBytes -= b.memorySize();
+			}
+		}
+	}
+
+	private static AtomicLong[] newCounters() {
+		AtomicLong[] r = new AtomicLong[BLOCK_TYPES.length];
+		for (int i = 0; i < r.length; i++) {
+			r[i] = new AtomicLong();
+		}
+		return r;
+	}
+
+	private static long sum(AtomicLong[] counters) {
+		long n = 0;
+		for (AtomicLong c : counters) {
+			n += c.get();
+		}
+		return n;
+	}
+
+	private static int typeIndex(byte blockType) {
+		int i = statIndex(blockType);
+		if (i < 0) {
+			throw new IllegalArgumentException();
+		}
+		return i;
+	}
+
+	private static int statIndex(byte blockType) {
+		for (int i = 0; i < BLOCK_TYPES.length; i++) {
+			if (BLOCK_TYPES[i] == blockType) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static final class Table {
+		int readers;
+
+		final Set<Key> blocks = new HashSet<>();
+	}
+
+	private static final class Key {
+		final Object table;
+
+		final long pos;
+
+		Key(Object table, long pos) {
+			this.table = table;
+			this.pos = pos;
+		}
+
+		@Override
+		public int hashCode() {
+			return table.hashCode() * 31 + Long.hashCode(pos);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (o instanceof Key) {
+				Key k = (Key) o;
+				return pos == k.pos && table.equals(k.table);
+			}
+			return false;
+		}
+	}
+}
@@ -50,6 +50,7 @@
 import static org.eclipse.jgit.internal.storage.reftable.ReftableConstants.FILE_HEADER_LEN;
 import static org.eclipse.jgit.internal.storage.reftable.ReftableConstants.INDEX_BLOCK_TYPE;
 import static org.eclipse.jgit.internal.storage.reftable.ReftableConstants.LOG_BLOCK_TYPE;
+import static org.eclipse.jgit.internal.storage.reftable.ReftableConstants.OBJ_BLOCK_TYPE;
 import static org.eclipse.jgit.internal.storage.reftable.ReftableConstants.REF_BLOCK_TYPE;
 import static org.eclipse.jgit.internal.storage.reftable.ReftableConstants.VERSION_1;
 import static org.eclipse.jgit.internal.storage.reftable.ReftableConstants.isFileHeaderMagic;
@@ -61,6 +62,7 @@
 import java.util.Arrays;
 import java.util.zip.CRC32;
 
+import org.eclipse.jgit.annotations.Nullable;
 import org.eclipse.jgit.internal.JGitText;
 import org.eclipse.jgit.internal.storage.io.BlockSource;
 import org.eclipse.jgit.internal.storage.reftable.BlockWriter.LogEntry;
@@ -77,10 +79,20 @@
  * <p>
  * {@code ReftableReader} is not thread-safe. Concurrent readers need their own
  * instance to read from the same file.
+ * <p>
+ * Readers created with a {@link ReftableBlockCache} keep the blocks they read
+ * in that cache, so the index blocks walked by repeated seeks, and the blocks
+ * found by them, are read and decoded only once while they stay cached.
+ * Readers without a cache only retain the index blocks they read.
  */
 public class ReftableReader extends Reftable {
 	private final BlockSource src;
 
+	@Nullable
+	private final ReftableBlockCache cache;
+
+	private final Object table;
+
 	private int blockSize = -1;
 	private long minUpdateIndex;
 	private long maxUpdateIndex;
@@ -108,7 +120,31 @@ public class ReftableReader extends Reftable {
 	 *            the file content to read.
 	 */
 	public ReftableReader(BlockSource src) {
+		this(src, null, src);
+	}
+
+	/**
+	 * Initialize a new reftable reader using a block cache.
+	 *
+	 * @param src
+	 *            the file content to read.
+	 * @param cache
+	 *            cache holding the blocks read from the file, usually
+	 *            {@link ReftableBlockCache#getInstance()}; {@code null} to
+	 *            only retain index blocks within this reader.
+	 * @param table
+	 *            identity of the table in the cache. Readers of the same
+	 *            table share its cached blocks, so tables with different
+	 *            content must not use equal identities.
+	 */
+	public ReftableReader(BlockSource src, @Nullable ReftableBlockCache cache,
+			Object table) {
 		this.src = src;
+		this.cache = cache;
+		this.table = table;
+		if (cache != null) {
+			cache.open(table);
+		}
 	}
 
 	/**
@@ -204,7 +240,7 @@ public RefCursor seekRefsWithPrefix(String prefix) throws IOException {
 	public RefCursor byObjectId(AnyObjectId id) throws IOException {
 		initObjIndex();
 		ObjCursorImpl i = new ObjCursorImpl(refEnd, id);
-		if (objIndex != null) {
+		if (objIndex != null || objPosition > 0) {
 			i.initSeek();
 		} else {
 			i.initScan();
@@ -260,7 +296,9 @@ private BlockReader seek(byte blockType, byte[] key, BlockReader idx,
 
 	private BlockReader binarySearch(byte blockType, byte[] key,
 			long startPos, long endPos) throws IOException {
-		if (blockSize == 0) {
+		if (blockSize == 0 || blockType == LOG_BLOCK_TYPE) {
+			// Log blocks are compressed and not aligned; without an index
+			// the writer stored all log records in a single block.
 			BlockReader b = readBlock(startPos, endPos);
 			if (blockType != b.type()) {
 				return null;
@@ -270,7 +308,7 @@ private BlockReader binarySearch(byte blockType, byte[] key,
 		}
 
 		int low = (int) (startPos / blockSize);
-		int end = blocksIn(startPos, endPos);
+		int end = low + blocksIn(startPos, endPos);
 		BlockReader block = null;
 		do {
 			int mid = (low + end) >>> 1;
@@ -397,10 +435,22 @@ private void initLogIndex() throws IOException {
 	}
 
 	private BlockReader readIndex(long pos) throws IOException {
+		ReftableBlockCache c = cache;
+		if (c != null) {
+			BlockReader b = c.get(table, pos);
+			if (b != null) {
+				b.verifyIndex();
+				return b;
+			}
+		}
+
 		int sz = readBlockLen(pos);
 		BlockReader i = new BlockReader();
 		i.readBlock(src, pos, sz);
 		i.verifyIndex();
+		if (c != null) {
+			c.put(table, pos, i);
+		}
 		return i;
 	}
 
@@ -426,7 +476,13 @@ private int readBlockLen(long pos) throws IOException {
 	}
 
 	private BlockReader readBlock(long pos, long end) throws IOException {
-		if (indexCache != null) {
+		ReftableBlockCache c = cache;
+		if (c != null) {
+			BlockReader b = c.get(table, pos);
+			if (b != null) {
+				return b;
+			}
+		} else if (indexCache != null) {
 			BlockReader b = indexCache.get(pos);
 			if (b != null) {
 				return b;
@@ -442,7 +498,14 @@ private BlockReader readBlock(long pos, long end) throws IOException {
 
 		BlockReader b = new BlockReader();
 		b.readBlock(src, pos, sz);
-		if (b.type() == INDEX_BLOCK_TYPE && !b.truncated()) {
+		if (b.truncated()) {
+			// Only part of an index block larger than the block size was
+			// read; it is still good enough for a sequential scan.
+			return b;
+		}
+		if (c != null) {
+			c.put(table, pos, b);
+		} else if (b.type() == INDEX_BLOCK_TYPE) {
 			if (indexCache == null) {
 				indexCache = new LongMap<>();
 			}
@@ -470,6 +533,10 @@ public long size() throws IOException {
 	/** {@inheritDoc} */
 	@Override
 	public void close() throws IOException {
+		ReftableBlockCache c = cache;
+		if (c != null) {
+			c.release(table);
+		}
 		src.close();
 	}
 
@@ -613,16 +680,12 @@ void initSeek() throws IOException {
 			match.copyRawTo(rawId, 0);
 			byte[] key = Arrays.copyOf(rawId, objIdLen);
 
-			BlockReader b = objIndex;
-			do {
-				if (b.seekKey(key) > 0) {
-					blockPos = EMPTY_LONG_LIST;
-					return;
-				}
-				long pos = b.readPositionFromIndex();
-				b = readBlock(pos, objEnd);
-			} while (b.type() == INDEX_BLOCK_TYPE);
-			b.seekKey(key);
+			BlockReader b = seek(OBJ_BLOCK_TYPE, key, objIndex, objPosition,
+					objEnd);
+			if (b == null) {
+				blockPos = EMPTY_LONG_LIST;
+				return;
+			}
 			while (b.next()) {
 				b.parseKey();
 				if (b.match(key, false)) {
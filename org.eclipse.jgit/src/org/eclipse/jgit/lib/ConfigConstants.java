@@ -426,6 +426,20 @@ public final class ConfigConstants {
 	 */
 	public static final String CONFIG_KEY_STREAM_BUFFER = "streamBuffer";
 
+	/**
+	 * The "prefetchDepth" key
+	 *
+	 * @since 5.4
+	 */
+	public static final String CONFIG_KEY_PREFETCH_DEPTH = "prefetchDepth";
+
+	/**
+	 * The "prefetchThreads" key
+	 *
+	 * @since 5.4
+	 */
+	public static final String CONFIG_KEY_PREFETCH_THREADS = "prefetchThreads";
+
 	/**
 	 * The "streamRatio" key
 	 * @since 4.0
@@ -476,4 +490,88 @@ public final class ConfigConstants {
 	 * @since 5.2
 	 */
 	public static final String CONFIG_KEY_LOG_OUTPUT_ENCODING = "logOutputEncoding";
+
+	/**
+	 * The "commitGraph" key
+	 *
+	 * @since 5.4
+	 */
+	public static final String CONFIG_KEY_COMMIT_GRAPH = "commitGraph";
+
+	/**
+	 * The "writeCommitGraph" key
+	 *
+	 * @since 5.4
+	 */
+	public static final String CONFIG_KEY_WRITE_COMMIT_GRAPH = "writeCommitGraph";
+
+	/**
+	 * The "multiPackIndex" key
+	 *
+	 * @since 5.4
+	 */
+	public static final String CONFIG_KEY_MULTI_PACK_INDEX = "multiPackIndex";
+
+	/**
+	 * The "writeMultiPackIndex" key
+	 *
+	 * @since 5.4
+	 */
+	public static final String CONFIG_KEY_WRITE_MULTI_PACK_INDEX = "writeMultiPackIndex";
+
+	/**
+	 * The "sha1Implementation" key
+	 *
+	 * @since 5.4
+	 */
+	public static final String CONFIG_KEY_SHA1_IMPLEMENTATION = "sha1Implementation";
+
+	/**
+	 * The "extensions" section
+	 *
+	 * @since 5.4
+	 */
+	public static final String CONFIG_EXTENSIONS_SECTION = "extensions";
+
+	/**
+	 * The "refStorage" key
+	 *
+	 * @since 5.4
+	 */
+	public static final String CONFIG_KEY_REF_STORAGE = "refStorage";
+
+	/**
+	 * The "reftable" value of the "refStorage" key
+	 *
+	 * @since 5.4
+	 */
+	public static final String CONFIG_REF_STORAGE_REFTABLE = "reftable";
+
+	/**
+	 * The "init" section
+	 *
+	 * @since 5.4
+	 */
+	public static final String CONFIG_INIT_SECTION = "init";
+
+	/**
+	 * The "defaultRefFormat" key
+	 *
+	 * @since 5.4
+	 */
+	public static final String CONFIG_KEY_DEFAULT_REF_FORMAT = "defaultRefFormat";
+
+	/**
+	 * The "packedRefsOverlay" key in the "core" section
+	 *
+	 * @since 5.4
+	 */
+	public static final String CONFIG_KEY_PACKED_REFS_OVERLAY = "packedRefsOverlay";
+
+	/**
+	 * The "packedRefsMmap" key in the "core" section
+	 *
+	 * @since 5.4
+	 */
+	public static final String CONFIG_KEY_PACKED_REFS_MMAP = "packedRefsMmap";
 }
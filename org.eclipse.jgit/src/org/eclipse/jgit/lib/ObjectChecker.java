@@ -1274,4 +1274,28 @@ public List<GitmoduleEntry> getGitsubmodules() {
 	public void reset() {
 		gitsubmodules.clear();
 	}
+
+	/**
+	 * Create a checker with the same configuration as this instance.
+	 * <p>
+	 * The new checker keeps its own invocation-specific state, so it can check
+	 * objects concurrently with this instance. The ".gitmodules" files it
+	 * encounters are only reported by its own {@link #getGitsubmodules()}.
+	 * <p>
+	 * The default implementation returns a plain {@code ObjectChecker}, without
+	 * the checks added by subclasses.
+	 *
+	 * @return a new checker with the same skip list, ignored errors and
+	 *         platform settings.
+	 * @since 5.4
+	 */
+	public ObjectChecker newChecker() {
+		ObjectChecker c = new ObjectChecker();
+		c.errors = EnumSet.copyOf(errors);
+		c.skipList = skipList;
+		c.allowInvalidPersonIdent = allowInvalidPersonIdent;
+		c.windows = windows;
+		c.macosx = macosx;
+		return c;
+	}
 }
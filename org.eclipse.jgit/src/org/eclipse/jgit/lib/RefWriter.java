@@ -169,12 +169,12 @@ public void writePackedRefs() throws IOException {
 		}
 
 		final StringWriter w = new StringWriter();
-		if (peeled) {
-			w.write(RefDirectory.PACKED_REFS_HEADER);
-			if (peeled)
-				w.write(RefDirectory.PACKED_REFS_PEELED);
-			w.write('\n');
-		}
+		w.write(RefDirectory.PACKED_REFS_HEADER);
+		if (peeled)
+			w.write(RefDirectory.PACKED_REFS_PEELED);
+		// The references are always written in sorted order.
+		w.write(RefDirectory.PACKED_REFS_SORTED);
+		w.write('\n');
 
 		final char[] tmp = new char[Constants.OBJECT_ID_STRING_LENGTH];
 		for (Ref r : refs) {
@@ -75,6 +75,7 @@ class MergeBaseGenerator extends Generator {
 
 	private final RevWalk walker;
 	private final DateRevQueue pending;
+	private final int minGeneration;
 
 	private int branchMask;
 	private int recarryTest;
@@ -87,6 +88,7 @@ class MergeBaseGenerator extends Generator {
 	MergeBaseGenerator(RevWalk w) {
 		walker = w;
 		pending = new DateRevQueue();
+		minGeneration = w.mergeBaseMinGeneration;
 	}
 
 	void init(AbstractRevQueue p) throws IOException {
@@ -149,6 +151,11 @@ private RevCommit _next() throws MissingObjectException,
 			for (RevCommit p : c.parents) {
 				if ((p.flags & IN_PENDING) != 0)
 					continue;
+				if (minGeneration > 0
+						&& walker.getGeneration(p) < minGeneration) {
+					// p cannot reach any commit the caller is asking about.
+					continue;
+				}
 				if ((p.flags & PARSED) == 0)
 					p.parseHeaders(walker);
 				p.flags |= IN_PENDING;
@@ -43,15 +43,22 @@
 package org.eclipse.jgit.revwalk;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 import org.eclipse.jgit.errors.IncorrectObjectTypeException;
 import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.internal.storage.commitgraph.CommitGraph;
 
 /**
  * Checks the reachability walking the graph from the starters towards the
  * target.
+ * <p>
+ * If the repository has a commit-graph covering all targets, the walk starts
+ * at the starters instead and never descends below the smallest generation
+ * number of the targets, as no such commit can lead to a target.
  *
  * @since 5.5
  */
@@ -81,6 +88,11 @@ public Optional<RevCommit> areAllReachable(Collection<RevCommit> targets,
 					throws MissingObjectException, IncorrectObjectTypeException,
 					IOException {
 		walk.reset();
+		int minGeneration = minGeneration(targets);
+		if (minGeneration != CommitGraph.GENERATION_UNKNOWN) {
+			return walkByGeneration(targets, starters, minGeneration);
+		}
+
 		if (topoSort) {
 			walk.sort(RevSort.TOPO);
 		}
@@ -95,4 +107,79 @@ public Optional<RevCommit> areAllReachable(Collection<RevCommit> targets,
 
 		return Optional.ofNullable(walk.next());
 	}
+
+	private int minGeneration(Collection<RevCommit> targets)
+			throws IOException {
+		int min = CommitGraph.GENERATION_UNKNOWN;
+		for (RevCommit target : targets) {
+			int gen = walk.getGeneration(target);
+			if (gen == CommitGraph.GENERATION_UNKNOWN) {
+				return gen;
+			}
+			min = Math.min(min, gen);
+		}
+		return min;
+	}
+
+	private Optional<RevCommit> walkByGeneration(
+			Collection<RevCommit> targets, Collection<RevCommit> starters,
+			int minGeneration) throws MissingObjectException,
+			IncorrectObjectTypeException, IOException {
+		int reached = walk.allocFlag();
+		int target = walk.allocFlag();
+		List<RevCommit> flagged = new ArrayList<>();
+		try {
+			int remaining = 0;
+			for (RevCommit t : targets) {
+				if ((t.flags & target) == 0) {
+					t.flags |= target;
+					flagged.add(t);
+					remaining++;
+				}
+			}
+
+			FIFORevQueue queue = new FIFORevQueue();
+			for (RevCommit s : starters) {
+				if (reach(s, reached, minGeneration, flagged, queue)
+						&& (s.flags & target) != 0) {
+					remaining--;
+				}
+			}
+			RevCommit c;
+			while (remaining > 0 && (c = queue.next()) != null) {
+				walk.parseHeaders(c);
+				for (RevCommit p : c.parents) {
+					if (reach(p, reached, minGeneration, flagged, queue)
+							&& (p.flags & target) != 0) {
+						remaining--;
+					}
+				}
+			}
+
+			for (RevCommit t : targets) {
+				if ((t.flags & reached) == 0) {
+					return Optional.of(t);
+				}
+			}
+			return Optional.empty();
+		} finally {
+			int mask = reached | target;
+			for (RevCommit c : flagged) {
+				c.flags &= ~mask;
+			}
+			walk.freeFlag(mask);
+		}
+	}
+
+	private boolean reach(RevCommit c, int reached, int minGeneration,
+			List<RevCommit> flagged, FIFORevQueue queue) throws IOException {
+		if ((c.flags & reached) != 0
+				|| walk.getGeneration(c) < minGeneration) {
+			return false;
+		}
+		c.flags |= reached;
+		flagged.add(c);
+		queue.add(c);
+		return true;
+	}
 }
@@ -58,6 +58,7 @@
 import org.eclipse.jgit.annotations.Nullable;
 import org.eclipse.jgit.errors.IncorrectObjectTypeException;
 import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.internal.storage.commitgraph.CommitGraph;
 import org.eclipse.jgit.lib.AnyObjectId;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.MutableObjectId;
@@ -141,6 +142,12 @@ public static RevCommit parse(RevWalk rw, byte[] raw) throws IOException {
 
 	int inDegree;
 
+	/**
+	 * Generation number from the commit-graph, or 0 if it has not been looked
+	 * up yet; see {@link RevWalk#getGeneration(RevCommit)}.
+	 */
+	int generation;
+
 	private byte[] buffer;
 
 	/**
@@ -156,6 +163,18 @@ protected RevCommit(AnyObjectId id) {
 	@Override
 	void parseHeaders(RevWalk walk) throws MissingObjectException,
 			IncorrectObjectTypeException, IOException {
+		// The commit-graph has no message, so it can only be used when the
+		// caller does not expect the body to be available after parsing.
+		if (!walk.isRetainBody()) {
+			CommitGraph graph = walk.commitGraph();
+			if (graph != null) {
+				int graphPos = graph.findGraphPosition(this);
+				if (graphPos >= 0) {
+					parseInGraph(walk, graph, graphPos);
+					return;
+				}
+			}
+		}
 		parseCanonical(walk, walk.getCachedBytes(this));
 	}
 
@@ -226,6 +245,37 @@ void parseCanonical(RevWalk walk, byte[] raw) throws IOException {
 		flags |= PARSED;
 	}
 
+	private void parseInGraph(RevWalk walk, CommitGraph graph, int graphPos)
+			throws IOException {
+		if (!walk.shallowCommitsInitialized) {
+			walk.initializeShallowCommits(this);
+		}
+
+		CommitGraph.CommitData data = graph.getCommitData(graphPos);
+		tree = walk.lookupTree(data.getTree());
+
+		if (parents == null) {
+			int[] pos = data.getParents();
+			if (pos.length == 0) {
+				parents = NO_PARENTS;
+			} else {
+				RevCommit[] pList = new RevCommit[pos.length];
+				for (int i = 0; i < pos.length; i++) {
+					pList[i] = walk.lookupCommit(graph.getObjectId(pos[i]));
+				}
+				parents = pList;
+			}
+		}
+
+		// In 2038 commitTime will overflow unless it is changed to long.
+		commitTime = (int) data.getCommitTime();
+
+		int gen = data.getGeneration();
+		generation = gen != CommitGraph.GENERATION_NOT_COMPUTED ? gen
+				: CommitGraph.GENERATION_UNKNOWN;
+		flags |= PARSED;
+	}
+
 	/** {@inheritDoc} */
 	@Override
 	public final int getType() {
@@ -61,6 +61,8 @@
 import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.errors.RevWalkException;
 import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.internal.storage.commitgraph.CommitGraph;
+import org.eclipse.jgit.internal.storage.commitgraph.CommitGraphProvider;
 import org.eclipse.jgit.lib.AnyObjectId;
 import org.eclipse.jgit.lib.AsyncObjectLoaderQueue;
 import org.eclipse.jgit.lib.Constants;
@@ -202,6 +204,17 @@ public class RevWalk implements Iterable<RevCommit>, AutoCloseable {
 
 	boolean shallowCommitsInitialized;
 
+	private boolean commitGraphLoaded;
+
+	@Nullable
+	private CommitGraph commitGraph;
+
+	/**
+	 * Commits with a known generation below this are not walked when
+	 * computing merge bases; 0 walks all of history.
+	 */
+	int mergeBaseMinGeneration;
+
 	/**
 	 * Create a new revision walker for a given repository.
 	 *
@@ -411,6 +424,18 @@ public boolean isMergedInto(RevCommit base, RevCommit tip)
 		try {
 			finishDelayedFreeFlags();
 			reset(~freeFlags & APP_FLAGS);
+
+			// A commit can only reach commits with a smaller generation, so
+			// history below the generation of base can be skipped and an
+			// older tip cannot contain base at all.
+			int baseGeneration = getGeneration(base);
+			if (baseGeneration != CommitGraph.GENERATION_UNKNOWN) {
+				if (baseGeneration > getGeneration(tip)) {
+					return false;
+				}
+				mergeBaseMinGeneration = baseGeneration;
+			}
+
 			filter = RevFilter.MERGE_BASE;
 			treeFilter = TreeFilter.ALL;
 			markStart(tip);
@@ -423,6 +448,7 @@ public boolean isMergedInto(RevCommit base, RevCommit tip)
 		} finally {
 			filter = oldRF;
 			treeFilter = oldTF;
+			mergeBaseMinGeneration = 0;
 		}
 	}
 
@@ -929,6 +955,53 @@ private RevObject parseNew(AnyObjectId id, ObjectLoader ldr)
 		return r;
 	}
 
+	/**
+	 * Get the commit-graph of the repository, loading it on first use.
+	 *
+	 * @return the commit-graph, or null if the reader does not provide one.
+	 * @throws IOException
+	 *             the commit-graph could not be read.
+	 */
+	@Nullable
+	CommitGraph commitGraph() throws IOException {
+		if (!commitGraphLoaded) {
+			if (reader instanceof CommitGraphProvider) {
+				commitGraph = ((CommitGraphProvider) reader).getCommitGraph();
+			}
+			commitGraphLoaded = true;
+		}
+		return commitGraph;
+	}
+
+	/**
+	 * Get the generation number of a commit from the commit-graph.
+	 * <p>
+	 * The commit does not need to be parsed. The result is cached in the
+	 * commit, so repeated calls during a walk are cheap.
+	 *
+	 * @param c
+	 *            the commit.
+	 * @return the generation number, or
+	 *         {@link CommitGraph#GENERATION_UNKNOWN} if the commit is not in
+	 *         the commit-graph or the graph has no generation for it.
+	 * @throws IOException
+	 *             the commit-graph could not be read.
+	 */
+	int getGeneration(RevCommit c) throws IOException {
+		int gen = c.generation;
+		if (gen == CommitGraph.GENERATION_NOT_COMPUTED) {
+			CommitGraph graph = commitGraph();
+			gen = graph != null
+					? graph.getGeneration(graph.findGraphPosition(c))
+					: CommitGraph.GENERATION_UNKNOWN;
+			if (gen == CommitGraph.GENERATION_NOT_COMPUTED) {
+				gen = CommitGraph.GENERATION_UNKNOWN;
+			}
+			c.generation = gen;
+		}
+		return gen;
+	}
+
 	byte[] getCachedBytes(RevObject obj) throws LargeObjectException,
 			MissingObjectException, IncorrectObjectTypeException, IOException {
 		return getCachedBytes(obj, reader.open(obj, obj.getType()));
@@ -1334,6 +1407,8 @@ public void dispose() {
 		queue = new DateRevQueue();
 		pending = new StartGenerator(this);
 		shallowCommitsInitialized = false;
+		commitGraphLoaded = false;
+		commitGraph = null;
 	}
 
 	/**
@@ -57,6 +57,36 @@ public class WindowCacheConfig {
 	/** 1024 {@link #KB} (number of bytes in one mebibyte/megabyte) */
 	public static final int MB = 1024 * KB;
 
+	/**
+	 * Policy used by the window cache to decide which windows to evict.
+	 *
+	 * @since 5.4
+	 */
+	public enum EvictionPolicy {
+		/**
+		 * Windows are held by SoftReferences in a fixed size table, and a
+		 * loose least recently used order is approximated by sampling a
+		 * random part of the table. The garbage collector may also evict
+		 * windows when heap memory gets low.
+		 */
+		SOFT_LRU,
+
+		/**
+		 * Windows are held by strong references in a sharded table, and each
+		 * shard evicts its least recently used windows once it holds more
+		 * than its share of {@link WindowCacheConfig#getPackedGitLimit()}.
+		 */
+		LRU,
+
+		/**
+		 * Like {@link #LRU}, but windows are only kept after leaving a small
+		 * admission window if they are estimated to be accessed more often
+		 * than the window they would replace (Window TinyLFU). Protects the
+		 * frequently used windows from scans of large packs.
+		 */
+		TINY_LFU;
+	}
+
 	private int packedGitOpenFiles;
 
 	private long packedGitLimit;
@@ -65,6 +95,16 @@ public class WindowCacheConfig {
 
 	private boolean packedGitMMAP;
 
+	private boolean packedIndexMMAP;
+
+	private boolean packedGitDirect;
+
+	private long packedGitDirectLimit;
+
+	private EvictionPolicy evictionPolicy;
+
+	private boolean exposeStatsViaJmx;
+
 	private int deltaBaseCacheLimit;
 
 	private int streamFileThreshold;
@@ -77,6 +117,11 @@ public WindowCacheConfig() {
 		packedGitLimit = 10 * MB;
 		packedGitWindowSize = 8 * KB;
 		packedGitMMAP = false;
+		packedIndexMMAP = false;
+		packedGitDirect = false;
+		packedGitDirectLimit = 0;
+		evictionPolicy = EvictionPolicy.SOFT_LRU;
+		exposeStatsViaJmx = true;
 		deltaBaseCacheLimit = 10 * MB;
 		streamFileThreshold = PackConfig.DEFAULT_BIG_FILE_THRESHOLD;
 	}
@@ -169,6 +214,138 @@ public void setPackedGitMMAP(boolean usemmap) {
 		packedGitMMAP = usemmap;
 	}
 
+	/**
+	 * Whether to use Java NIO virtual memory mapping for pack indexes
+	 *
+	 * @return {@code true} if pack <code>.idx</code> files are memory mapped
+	 *         and searched in place; false reads each index into heap
+	 *         memory when the pack is first accessed. <b>Default false.</b>
+	 * @since 5.4
+	 */
+	public boolean isPackedIndexMMAP() {
+		return packedIndexMMAP;
+	}
+
+	/**
+	 * Set whether to enable use of Java NIO virtual memory mapping for pack
+	 * indexes
+	 *
+	 * @param usemmap
+	 *            {@code true} memory maps pack <code>.idx</code> files and
+	 *            searches them in place; false reads each index into heap
+	 *            memory.
+	 * @since 5.4
+	 */
+	public void setPackedIndexMMAP(boolean usemmap) {
+		packedIndexMMAP = usemmap;
+	}
+
+	/**
+	 * Whether windows are read into pooled direct buffers
+	 *
+	 * @return {@code true} if windows are read with positional
+	 *         {@link java.nio.channels.FileChannel} reads into direct
+	 *         {@link java.nio.ByteBuffer}s allocated outside of the Java heap
+	 *         and recycled when windows are evicted. Ignored if
+	 *         {@link #isPackedGitMMAP()} is set. <b>Default false.</b>
+	 * @since 5.4
+	 */
+	public boolean isPackedGitDirect() {
+		return packedGitDirect;
+	}
+
+	/**
+	 * Set whether windows are read into pooled direct buffers
+	 * <p>
+	 * Direct buffers have to be returned to their pool on eviction, so the
+	 * cache then uses the {@link EvictionPolicy#LRU} policy in place of
+	 * {@link EvictionPolicy#SOFT_LRU}.
+	 *
+	 * @param direct
+	 *            {@code true} reads windows into pooled direct buffers;
+	 *            false reads them into heap arrays or memory maps them.
+	 * @since 5.4
+	 */
+	public void setPackedGitDirect(boolean direct) {
+		packedGitDirect = direct;
+	}
+
+	/**
+	 * Get the maximum number of bytes allocated for direct buffers.
+	 *
+	 * @return maximum number of bytes of direct memory used to hold windows
+	 *         if {@link #isPackedGitDirect()} is set. Windows loaded once the
+	 *         limit is reached are read into the heap instead. A value
+	 *         {@code <= 0} uses {@link #getPackedGitLimit()}. <b>Default is
+	 *         0.</b>
+	 * @since 5.4
+	 */
+	public long getPackedGitDirectLimit() {
+		return packedGitDirectLimit;
+	}
+
+	/**
+	 * Set the maximum number of bytes allocated for direct buffers.
+	 *
+	 * @param newLimit
+	 *            maximum number of bytes of direct memory used to hold
+	 *            windows, independent of the heap size; {@code <= 0} uses
+	 *            {@link #getPackedGitLimit()}.
+	 * @since 5.4
+	 */
+	public void setPackedGitDirectLimit(long newLimit) {
+		packedGitDirectLimit = newLimit;
+	}
+
+	/**
+	 * Get the policy used to evict windows from the cache.
+	 *
+	 * @return the eviction policy. <b>Default is
+	 *         {@link EvictionPolicy#SOFT_LRU}.</b>
+	 * @since 5.4
+	 */
+	public EvictionPolicy getEvictionPolicy() {
+		return evictionPolicy;
+	}
+
+	/**
+	 * Set the policy used to evict windows from the cache.
+	 *
+	 * @param policy
+	 *            the eviction policy.
+	 * @since 5.4
+	 */
+	public void setEvictionPolicy(EvictionPolicy policy) {
+		evictionPolicy = policy;
+	}
+
+	/**
+	 * Whether the cache statistics are registered as a JMX MBean
+	 *
+	 * @return {@code true} if the statistics are registered as the
+	 *         {@code org.eclipse.jgit:type=WindowCacheStats} MBean when this
+	 *         configuration is installed. <b>Default true.</b>
+	 * @since 5.4
+	 */
+	public boolean getExposeStatsViaJmx() {
+		return exposeStatsViaJmx;
+	}
+
+	/**
+	 * Set whether the cache statistics are registered as a JMX MBean
+	 * <p>
+	 * Once registered the MBean stays registered for the lifetime of the
+	 * class loader.
+	 *
+	 * @param expose
+	 *            {@code true} to register the statistics when this
+	 *            configuration is installed.
+	 * @since 5.4
+	 */
+	public void setExposeStatsViaJmx(boolean expose) {
+		exposeStatsViaJmx = expose;
+	}
+
 	/**
 	 * Get maximum number of bytes to cache in delta base cache for inflated,
 	 * recently accessed objects, without delta chains.
@@ -235,6 +412,16 @@ public WindowCacheConfig fromConfig(Config rc) {
 				"core", null, "packedgitwindowsize", getPackedGitWindowSize())); //$NON-NLS-1$ //$NON-NLS-2$
 		setPackedGitMMAP(rc.getBoolean(
 				"core", null, "packedgitmmap", isPackedGitMMAP())); //$NON-NLS-1$ //$NON-NLS-2$
+		setPackedIndexMMAP(rc.getBoolean(
+				"core", null, "packedindexmmap", isPackedIndexMMAP())); //$NON-NLS-1$ //$NON-NLS-2$
+		setPackedGitDirect(rc.getBoolean(
+				"core", null, "packedgitdirect", isPackedGitDirect())); //$NON-NLS-1$ //$NON-NLS-2$
+		setPackedGitDirectLimit(rc.getLong(
+				"core", null, "packedgitdirectlimit", getPackedGitDirectLimit())); //$NON-NLS-1$ //$NON-NLS-2$
+		setEvictionPolicy(rc.getEnum("core", null, "packedgitevictionpolicy", //$NON-NLS-1$ //$NON-NLS-2$
+				getEvictionPolicy()));
+		setExposeStatsViaJmx(rc.getBoolean("jmx", "windowcachestats", //$NON-NLS-1$ //$NON-NLS-2$
+				getExposeStatsViaJmx()));
 		setDeltaBaseCacheLimit(rc.getInt(
 				"core", null, "deltabasecachelimit", getDeltaBaseCacheLimit())); //$NON-NLS-1$ //$NON-NLS-2$
 
@@ -65,4 +65,18 @@ public static int getOpenFiles() {
 	public static long getOpenBytes() {
 		return WindowCache.getInstance().getOpenBytes();
 	}
+
+	/**
+	 * Get the statistics of the cache.
+	 * <p>
+	 * The same statistics are registered as the
+	 * {@code org.eclipse.jgit:type=WindowCacheStats} MBean unless
+	 * {@link WindowCacheConfig#setExposeStatsViaJmx(boolean)} was disabled.
+	 *
+	 * @return the hit, miss, load and eviction statistics of the cache.
+	 * @since 5.4
+	 */
+	public static WindowCacheStatsMXBean getStats() {
+		return WindowCache.getStats();
+	}
 }
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2019, Google LLC.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.storage.file;
+
+import java.util.Map;
+
+/**
+ * Statistics of the {@link org.eclipse.jgit.internal.storage.file.WindowCache}
+ * exposed via JMX.
+ * <p>
+ * Counters accumulate across reconfigurations of the cache until
+ * {@link #resetCounters()} is invoked.
+ *
+ * @since 5.4
+ */
+public interface WindowCacheStatsMXBean {
+	/**
+	 * Get the number of open files.
+	 *
+	 * @return the number of open files.
+	 */
+	int getOpenFileCount();
+
+	/**
+	 * Get the number of bytes held by the cache.
+	 *
+	 * @return the number of open bytes.
+	 */
+	long getOpenByteCount();
+
+	/**
+	 * Get the number of bytes held by the cache for each repository.
+	 *
+	 * @return number of open bytes, keyed by the path of the object directory
+	 *         the cached packs belong to.
+	 */
+	Map<String, Long> getOpenByteCountPerRepository();
+
+	/**
+	 * Get the number of times a window was found in the cache.
+	 *
+	 * @return number of cache hits.
+	 */
+	long getHitCount();
+
+	/**
+	 * Get the number of times a window was not found in the cache and had to
+	 * be loaded.
+	 *
+	 * @return number of cache misses.
+	 */
+	long getMissCount();
+
+	/**
+	 * Get the ratio of requests which were cache hits.
+	 *
+	 * @return {@code hitCount / (hitCount + missCount)}, or 1.0 if no request
+	 *         was made.
+	 */
+	double getHitRatio();
+
+	/**
+	 * Get the number of windows loaded successfully.
+	 *
+	 * @return number of successful loads.
+	 */
+	long getLoadSuccessCount();
+
+	/**
+	 * Get the number of windows which failed to load.
+	 *
+	 * @return number of failed loads.
+	 */
+	long getLoadFailureCount();
+
+	/**
+	 * Get the total time spent loading windows.
+	 *
+	 * @return total load time in nanoseconds.
+	 */
+	long getTotalLoadTime();
+
+	/**
+	 * Get the average time spent loading a window.
+	 *
+	 * @return average load time in nanoseconds.
+	 */
+	double getAverageLoadTime();
+
+	/**
+	 * Get the distribution of the time spent loading windows.
+	 * <p>
+	 * Entry {@code i} counts the loads which took less than
+	 * <code>2<sup>i</sup></code> microseconds but not less than
+	 * <code>2<sup>i-1</sup></code>; the last entry counts all slower loads.
+	 *
+	 * @return load time histogram.
+	 */
+	long[] getLoadTimeHistogram();
+
+	/**
+	 * Get the number of windows evicted to stay within the configured
+	 * limits.
+	 *
+	 * @return number of evictions.
+	 */
+	long getEvictionCount();
+
+	/**
+	 * Reset all counters. Does not affect the open file and byte counts.
+	 */
+	void resetCounters();
+}
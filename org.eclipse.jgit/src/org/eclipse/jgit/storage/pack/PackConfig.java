@@ -44,6 +44,9 @@
 
 package org.eclipse.jgit.storage.pack;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.Executor;
 import java.util.zip.Deflater;
 
@@ -144,6 +147,38 @@ public class PackConfig {
 	 */
 	public static final int DEFAULT_INDEX_VERSION = 2;
 
+	/**
+	 * Default value of the parallel counting option: {@value}
+	 *
+	 * @see #setParallelCounting(boolean)
+	 * @since 5.4
+	 */
+	public static final boolean DEFAULT_PARALLEL_COUNTING = false;
+
+	/**
+	 * Default value of the pipelined write option: {@value}
+	 *
+	 * @see #setPipelinedWrite(boolean)
+	 * @since 5.4
+	 */
+	public static final boolean DEFAULT_PIPELINED_WRITE = false;
+
+	/**
+	 * Default value of the cache delta search option: {@value}
+	 *
+	 * @see #setCacheDeltaSearch(boolean)
+	 * @since 5.4
+	 */
+	public static final boolean DEFAULT_CACHE_DELTA_SEARCH = false;
+
+	/**
+	 * Default value of the write reverse index option: {@value}
+	 *
+	 * @see #setWriteReverseIndex(boolean)
+	 * @since 5.4
+	 */
+	public static final boolean DEFAULT_WRITE_REVERSE_INDEX = true;
+
 	/**
 	 * Default value of the build bitmaps option: {@value}
 	 *
@@ -242,8 +277,16 @@ public class PackConfig {
 
 	private Executor executor;
 
+	private boolean parallelCounting = DEFAULT_PARALLEL_COUNTING;
+
+	private boolean pipelinedWrite = DEFAULT_PIPELINED_WRITE;
+
+	private boolean cacheDeltaSearch = DEFAULT_CACHE_DELTA_SEARCH;
+
 	private int indexVersion = DEFAULT_INDEX_VERSION;
 
+	private boolean writeReverseIndex = DEFAULT_WRITE_REVERSE_INDEX;
+
 	private boolean buildBitmaps = DEFAULT_BUILD_BITMAPS;
 
 	private int bitmapContiguousCommitCount = DEFAULT_BITMAP_CONTIGUOUS_COMMIT_COUNT;
@@ -262,6 +305,8 @@ public class PackConfig {
 
 	private boolean singlePack;
 
+	private List<String> deltaIslands = Collections.emptyList();
+
 	/**
 	 * Create a default configuration.
 	 */
@@ -316,7 +361,11 @@ public PackConfig(PackConfig cfg) {
 		this.bigFileThreshold = cfg.bigFileThreshold;
 		this.threads = cfg.threads;
 		this.executor = cfg.executor;
+		this.parallelCounting = cfg.parallelCounting;
+		this.pipelinedWrite = cfg.pipelinedWrite;
+		this.cacheDeltaSearch = cfg.cacheDeltaSearch;
 		this.indexVersion = cfg.indexVersion;
+		this.writeReverseIndex = cfg.writeReverseIndex;
 		this.buildBitmaps = cfg.buildBitmaps;
 		this.bitmapContiguousCommitCount = cfg.bitmapContiguousCommitCount;
 		this.bitmapRecentCommitCount = cfg.bitmapRecentCommitCount;
@@ -326,6 +375,7 @@ public PackConfig(PackConfig cfg) {
 		this.bitmapInactiveBranchAgeInDays = cfg.bitmapInactiveBranchAgeInDays;
 		this.cutDeltaChains = cfg.cutDeltaChains;
 		this.singlePack = cfg.singlePack;
+		this.deltaIslands = cfg.deltaIslands;
 	}
 
 	/**
@@ -589,6 +639,43 @@ public void setSinglePack(boolean single) {
 		singlePack = single;
 	}
 
+	/**
+	 * Get the regular expressions defining delta islands.
+	 *
+	 * Default setting: no islands
+	 *
+	 * @return the regular expressions defining delta islands; empty if delta
+	 *         islands are not used.
+	 * @since 5.4
+	 */
+	public List<String> getDeltaIslands() {
+		return deltaIslands;
+	}
+
+	/**
+	 * Set the regular expressions defining delta islands.
+	 *
+	 * Like git's {@code pack.island}, each expression is matched against the
+	 * names of the references of the repository. References matching an
+	 * expression with the same captured groups belong to the same island. An
+	 * object is only stored as a delta against a base reachable from all
+	 * islands the object is reachable from, so that forks sharing an object
+	 * store can each be served by reusing deltas as is.
+	 *
+	 * Islands are only used by writers given the references to group, for
+	 * example during garbage collection.
+	 *
+	 * Default setting: no islands
+	 *
+	 * @param patterns
+	 *            the regular expressions; empty to disable delta islands.
+	 * @since 5.4
+	 */
+	public void setDeltaIslands(List<String> patterns) {
+		deltaIslands = Collections.unmodifiableList(Arrays.asList(
+				patterns.toArray(new String[0])));
+	}
+
 	/**
 	 * Get the number of objects to try when looking for a delta base.
 	 *
@@ -810,6 +897,11 @@ public Executor getExecutor() {
 	 * executor, the caller must set {@link #setThreads(int)} to enable threaded
 	 * delta search.
 	 *
+	 * If the executor is a {@link java.util.concurrent.ForkJoinPool}, or no
+	 * executor is set, the delta search is split into tasks of similar cost
+	 * which idle threads steal from busy ones. Other executors receive one job
+	 * per thread.
+	 *
 	 * @param executor
 	 *            executor to use for threads. Set to null to create a temporary
 	 *            executor just for the writer.
@@ -818,6 +910,111 @@ public void setExecutor(Executor executor) {
 		this.executor = executor;
 	}
 
+	/**
+	 * True if trees are traversed by multiple threads while counting objects.
+	 *
+	 * Default setting: {@value #DEFAULT_PARALLEL_COUNTING}
+	 *
+	 * @return true if objects are counted in parallel.
+	 * @since 5.4
+	 */
+	public boolean isParallelCounting() {
+		return parallelCounting;
+	}
+
+	/**
+	 * Set whether trees are traversed by multiple threads while counting
+	 * objects.
+	 *
+	 * When a pack is written without the help of a bitmap index, the writer
+	 * has to read every tree reachable from the wanted commits. In parallel
+	 * mode the trees are split between {@link #getThreads()} workers, run on
+	 * {@link #getExecutor()} if set. The order of the trees and blobs in the
+	 * pack then depends on the scheduling of the workers.
+	 *
+	 * Parallel counting is only used for packs without uninteresting
+	 * objects (such as clones) which are neither thin, shallow nor filtered
+	 * by tree depth; other packs are counted by a single thread.
+	 *
+	 * Default setting: {@value #DEFAULT_PARALLEL_COUNTING}
+	 *
+	 * @param parallelCounting
+	 *            whether to count objects in parallel.
+	 * @since 5.4
+	 */
+	public void setParallelCounting(boolean parallelCounting) {
+		this.parallelCounting = parallelCounting;
+	}
+
+	/**
+	 * True if the writer starts sending objects while searching for deltas.
+	 *
+	 * Default setting: {@value #DEFAULT_PIPELINED_WRITE}
+	 *
+	 * @return true if the pack is written while deltas are searched.
+	 * @since 5.4
+	 */
+	public boolean isPipelinedWrite() {
+		return pipelinedWrite;
+	}
+
+	/**
+	 * Set whether the writer starts sending objects while searching for
+	 * deltas.
+	 *
+	 * By default the delta search completes before the first object is
+	 * written, leaving the output stream idle for a long time on large
+	 * packs. In pipelined mode the delta search runs in the background while
+	 * commits, annotated tags and objects excluded from the search (reused
+	 * deltas and objects which are never compressed as delta) are written.
+	 * The remaining objects follow once the search completes.
+	 *
+	 * The compress monitor passed to the writer receives no progress in
+	 * pipelined mode, as the monitors may share the output stream of the
+	 * pack. The search runs on threads shared by all writers, the
+	 * configured executor only runs its delta tasks.
+	 *
+	 * Default setting: {@value #DEFAULT_PIPELINED_WRITE}
+	 *
+	 * @param pipelinedWrite
+	 *            whether to write objects while searching for deltas.
+	 * @since 5.4
+	 */
+	public void setPipelinedWrite(boolean pipelinedWrite) {
+		this.pipelinedWrite = pipelinedWrite;
+	}
+
+	/**
+	 * True if garbage collection remembers the delta bases it selected.
+	 *
+	 * Default setting: {@value #DEFAULT_CACHE_DELTA_SEARCH}
+	 *
+	 * @return true if delta search results are cached across repacks.
+	 * @since 5.4
+	 */
+	public boolean isCacheDeltaSearch() {
+		return cacheDeltaSearch;
+	}
+
+	/**
+	 * Set whether garbage collection remembers the delta bases it selected.
+	 *
+	 * When enabled, the delta base chosen for each object is stored in a
+	 * <code>.dcache</code> file next to the pack. The next repack tries that
+	 * base first and, if it still yields a delta, skips searching the rest
+	 * of the window for the object. This mostly helps repacks which do not
+	 * reuse existing deltas.
+	 *
+	 * Default setting: {@value #DEFAULT_CACHE_DELTA_SEARCH}
+	 *
+	 * @param cacheDeltaSearch
+	 *            whether to cache delta search results across repacks.
+	 * @since 5.4
+	 */
+	public void setCacheDeltaSearch(boolean cacheDeltaSearch) {
+		this.cacheDeltaSearch = cacheDeltaSearch;
+	}
+
 	/**
 	 * Get the pack index file format version this instance creates.
 	 *
@@ -845,6 +1042,37 @@ public void setIndexVersion(int version) {
 		indexVersion = version;
 	}
 
+	/**
+	 * True if a reverse index (<code>.rev</code>) is written next to the
+	 * pack index.
+	 *
+	 * Default setting: {@value #DEFAULT_WRITE_REVERSE_INDEX}
+	 *
+	 * @return true if the reverse index is written.
+	 * @since 5.4
+	 */
+	public boolean isWriteReverseIndex() {
+		return writeReverseIndex;
+	}
+
+	/**
+	 * Set whether a reverse index (<code>.rev</code>) is written next to the
+	 * pack index.
+	 *
+	 * The reverse index lists the objects in pack order, sparing readers
+	 * from sorting all offsets of the pack when they need to find the end
+	 * of an object, for example when reusing it or using bitmaps.
+	 *
+	 * Default setting: {@value #DEFAULT_WRITE_REVERSE_INDEX}
+	 *
+	 * @param writeReverseIndex
+	 *            whether to write the reverse index.
+	 * @since 5.4
+	 */
+	public void setWriteReverseIndex(boolean writeReverseIndex) {
+		this.writeReverseIndex = writeReverseIndex;
+	}
+
 	/**
 	 * True if writer is allowed to build bitmaps for indexes.
 	 *
@@ -1052,9 +1280,17 @@ public void fromConfig(Config rc) {
 		setCompressionLevel(rc.getInt("pack", "compression", //$NON-NLS-1$ //$NON-NLS-2$
 				rc.getInt("core", "compression", getCompressionLevel()))); //$NON-NLS-1$ //$NON-NLS-2$
 		setIndexVersion(rc.getInt("pack", "indexversion", getIndexVersion())); //$NON-NLS-1$ //$NON-NLS-2$
+		setWriteReverseIndex(rc.getBoolean(
+				"pack", "writereverseindex", isWriteReverseIndex())); //$NON-NLS-1$ //$NON-NLS-2$
 		setBigFileThreshold(rc.getInt(
 				"core", "bigfilethreshold", getBigFileThreshold())); //$NON-NLS-1$ //$NON-NLS-2$
 		setThreads(rc.getInt("pack", "threads", getThreads())); //$NON-NLS-1$ //$NON-NLS-2$
+		setParallelCounting(rc.getBoolean(
+				"pack", "parallelcounting", isParallelCounting())); //$NON-NLS-1$ //$NON-NLS-2$
+		setPipelinedWrite(rc.getBoolean(
+				"pack", "pipelinedwrite", isPipelinedWrite())); //$NON-NLS-1$ //$NON-NLS-2$
+		setCacheDeltaSearch(rc.getBoolean(
+				"pack", "cachedeltasearch", isCacheDeltaSearch())); //$NON-NLS-1$ //$NON-NLS-2$
 
 		// These variables aren't standardized
 		//
@@ -1083,6 +1319,9 @@ public void fromConfig(Config rc) {
 		setBitmapInactiveBranchAgeInDays(
 				rc.getInt("pack", "bitmapinactivebranchageindays", //$NON-NLS-1$ //$NON-NLS-2$
 						getBitmapInactiveBranchAgeInDays()));
+		String[] islands = rc.getStringList("pack", null, "island"); //$NON-NLS-1$ //$NON-NLS-2$
+		if (islands.length > 0)
+			setDeltaIslands(Arrays.asList(islands));
 	}
 
 	/** {@inheritDoc} */
@@ -1097,8 +1336,12 @@ public String toString() {
 		b.append(", deltaCacheLimit=").append(getDeltaCacheLimit()); //$NON-NLS-1$
 		b.append(", compressionLevel=").append(getCompressionLevel()); //$NON-NLS-1$
 		b.append(", indexVersion=").append(getIndexVersion()); //$NON-NLS-1$
+		b.append(", writeReverseIndex=").append(isWriteReverseIndex()); //$NON-NLS-1$
 		b.append(", bigFileThreshold=").append(getBigFileThreshold()); //$NON-NLS-1$
 		b.append(", threads=").append(getThreads()); //$NON-NLS-1$
+		b.append(", parallelCounting=").append(isParallelCounting()); //$NON-NLS-1$
+		b.append(", pipelinedWrite=").append(isPipelinedWrite()); //$NON-NLS-1$
+		b.append(", cacheDeltaSearch=").append(isCacheDeltaSearch()); //$NON-NLS-1$
 		b.append(", reuseDeltas=").append(isReuseDeltas()); //$NON-NLS-1$
 		b.append(", reuseObjects=").append(isReuseObjects()); //$NON-NLS-1$
 		b.append(", deltaCompress=").append(isDeltaCompress()); //$NON-NLS-1$
@@ -1116,6 +1359,7 @@ public String toString() {
 		b.append(", bitmapInactiveBranchAge=") //$NON-NLS-1$
 				.append(getBitmapInactiveBranchAgeInDays());
 		b.append(", singlePack=").append(getSinglePack()); //$NON-NLS-1$
+		b.append(", deltaIslands=").append(getDeltaIslands()); //$NON-NLS-1$
 		return b.toString();
 	}
 }
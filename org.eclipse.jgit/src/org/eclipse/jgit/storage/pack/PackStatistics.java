@@ -227,6 +227,37 @@ public static class Accumulator {
 		 */
 		public int deltasFound;
 
+		/**
+		 * Number of objects whose delta base was taken from the delta search
+		 * cache.
+		 *
+		 * @since 5.4
+		 */
+		public long deltaSearchCacheHits;
+
+		/**
+		 * Number of objects searched for a delta base without a usable entry
+		 * in the delta search cache.
+		 *
+		 * @since 5.4
+		 */
+		public long deltaSearchCacheMisses;
+
+		/**
+		 * Time in ms each thread of a parallel delta search spent searching.
+		 *
+		 * @since 5.4
+		 */
+		public long[] deltaSearchBusyTimes = {};
+
+		/**
+		 * Whether the pack was replayed from a cache of generated packs
+		 * instead of being generated.
+		 *
+		 * @since 5.4
+		 */
+		public boolean packCacheHit;
+
 		/** The total count of objects in the pack. */
 		public long totalObjects;
 
@@ -421,6 +452,58 @@ public int getDeltasFound() {
 		return statistics.deltasFound;
 	}
 
+	/**
+	 * Get number of objects whose delta base was taken from the delta search
+	 * cache, sparing the search through the delta window.
+	 *
+	 * @return number of delta search cache hits; 0 if no cache was used.
+	 * @since 5.4
+	 */
+	public long getDeltaSearchCacheHits() {
+		return statistics.deltaSearchCacheHits;
+	}
+
+	/**
+	 * Get number of objects searched for a delta base without a usable entry
+	 * in the delta search cache.
+	 *
+	 * @return number of delta search cache misses; 0 if no cache was used.
+	 * @since 5.4
+	 */
+	public long getDeltaSearchCacheMisses() {
+		return statistics.deltaSearchCacheMisses;
+	}
+
+	/**
+	 * Whether the pack was replayed from a cache of generated packs.
+	 * <p>
+	 * Only {@link #getTotalBytes()}, {@link #getTimeWriting()} and the
+	 * negotiation statistics are set for replayed packs, the pack was not
+	 * generated so there are no object counts or generation timings.
+	 *
+	 * @return {@code true} if the pack was replayed from a cache.
+	 * @since 5.4
+	 */
+	public boolean isPackCacheHit() {
+		return statistics.packCacheHit;
+	}
+
+	/**
+	 * Get the time each thread of a parallel delta search spent searching.
+	 * <p>
+	 * Dividing a value by {@link #getTimeCompressing()} gives the utilization
+	 * of the thread. Only reported by the fork/join scheduler, used unless
+	 * the pack configuration supplies an executor other than a
+	 * {@link java.util.concurrent.ForkJoinPool}.
+	 *
+	 * @return busy time in milliseconds of every thread which searched for
+	 *         deltas; empty if the search did not run in parallel.
+	 * @since 5.4
+	 */
+	public long[] getDeltaSearchBusyTimes() {
+		return statistics.deltaSearchBusyTimes;
+	}
+
 	/**
 	 * Get total number of objects output.
 	 *
@@ -624,6 +707,11 @@ public double getTransferRate() {
 	 * @return formatted message string for display to clients.
 	 */
 	public String getMessage() {
+		if (statistics.packCacheHit) {
+			return MessageFormat.format(
+					JGitText.get().packWriterStatisticsCached,
+					Long.valueOf(statistics.totalBytes));
+		}
 		return MessageFormat.format(JGitText.get().packWriterStatistics,
 				Long.valueOf(statistics.totalObjects),
 				Long.valueOf(statistics.totalDeltas),
@@ -819,6 +819,8 @@ private void receivePack(final ProgressMonitor monitor,
 			PackParser parser = ins.newPackParser(input);
 			parser.setAllowThin(thinPack);
 			parser.setObjectChecker(transport.getObjectChecker());
+			parser.setIndexThreads(local.getConfig().get(TransferConfig.KEY)
+					.getIndexThreads());
 			parser.setLockMessage(lockMessage);
 			packLock = parser.parse(monitor);
 			ins.flush();
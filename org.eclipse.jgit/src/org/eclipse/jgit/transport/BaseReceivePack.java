@@ -267,6 +267,9 @@ public Set<String> getCapabilities() {
 	/** Git object size limit */
 	private long maxObjectSizeLimit;
 
+	/** Number of threads resolving the deltas of the received pack. */
+	private final int indexThreads;
+
 	/** Total pack size limit */
 	private long maxPackSizeLimit = -1;
 
@@ -318,6 +321,7 @@ protected BaseReceivePack(Repository into) {
 
 		TransferConfig tc = db.getConfig().get(TransferConfig.KEY);
 		objectChecker = tc.newReceiveObjectChecker();
+		indexThreads = tc.getIndexThreads();
 
 		ReceiveConfig rc = db.getConfig().get(ReceiveConfig::new);
 		allowCreates = rc.allowCreates;
@@ -1474,6 +1478,7 @@ private void receivePack() throws IOException {
 			parser.setObjectChecker(objectChecker);
 			parser.setLockMessage(lockMsg);
 			parser.setMaxObjectSizeLimit(maxObjectSizeLimit);
+			parser.setIndexThreads(indexThreads);
 			packLock = parser.parse(receiving, resolving);
 			packSize = Long.valueOf(parser.getPackSize());
 			stats = parser.getReceivedPackStatistics();
@@ -198,6 +198,8 @@ protected void doFetch(final ProgressMonitor monitor,
 				PackParser parser = ins.newPackParser(bin);
 				parser.setAllowThin(true);
 				parser.setObjectChecker(transport.getObjectChecker());
+				parser.setIndexThreads(transport.local.getConfig()
+						.get(TransferConfig.KEY).getIndexThreads());
 				parser.setLockMessage(lockMessage);
 				packLock = parser.parse(NullProgressMonitor.INSTANCE);
 				ins.flush();
@@ -0,0 +1,329 @@
+/*
+ * Copyright (C) 2019, Google LLC.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.transport;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.util.FileUtils;
+
+/**
+ * {@link UploadPackCache} storing packs as files in a local directory.
+ * <p>
+ * The total size of the cached packs is bounded, the least recently used
+ * packs are deleted first when the limit is exceeded. Packs found in the
+ * directory when the cache is created are reused, which allows restarting a
+ * server without losing the cache.
+ *
+ * @since 5.4
+ */
+public class FileUploadPackCache extends UploadPackCache {
+	private static final String PACK_SUFFIX = ".pack"; //$NON-NLS-1$
+
+	private static final String TMP_PREFIX = "incoming_"; //$NON-NLS-1$
+
+	private static final String TMP_SUFFIX = ".tmp"; //$NON-NLS-1$
+
+	private final File directory;
+
+	private final long maxSize;
+
+	/** Size of each cached pack, in least recently used order. */
+	private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(
+			16, 0.75f, true);
+
+	private long size;
+
+	/** Incremented by {@link #invalidate()} to reject packs being written. */
+	private long generation;
+
+	/**
+	 * Create a cache.
+	 *
+	 * @param directory
+	 *            directory to store the packs in. Created if it does not
+	 *            exist. The directory should be used exclusively by this cache.
+	 * @param maxSize
+	 *            maximum number of bytes of all cached packs.
+	 * @throws IOException
+	 *             the directory could not be created or listed.
+	 */
+	public FileUploadPackCache(File directory, long maxSize)
+			throws IOException {
+		this.directory = directory;
+		this.maxSize = maxSize;
+		FileUtils.mkdirs(directory, true);
+		load();
+	}
+
+	/**
+	 * Get the directory the packs are stored in.
+	 *
+	 * @return the directory the packs are stored in.
+	 */
+	public File getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * Get the maximum number of bytes of all cached packs.
+	 *
+	 * @return the maximum number of bytes of all cached packs.
+	 */
+	public long getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * Get the number of bytes of all cached packs.
+	 *
+	 * @return the number of bytes of all cached packs.
+	 */
+	public synchronized long getSize() {
+		return size;
+	}
+
+	/**
+	 * Get the number of cached packs.
+	 *
+	 * @return the number of cached packs.
+	 */
+	public synchronized int getCount() {
+		return entries.size();
+	}
+
+	private synchronized void load() throws IOException {
+		File[] files = directory.listFiles();
+		if (files == null) {
+			throw new FileNotFoundException(directory.getPath());
+		}
+		Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+		for (File f : files) {
+			String n = f.getName();
+			if (n.startsWith(TMP_PREFIX) && n.endsWith(TMP_SUFFIX)) {
+				// Left over by a writer which did not finish.
+				FileUtils.delete(f, FileUtils.IGNORE_ERRORS);
+			} else if (n.endsWith(PACK_SUFFIX)) {
+				String name = n.substring(0,
+						n.length() - PACK_SUFFIX.length());
+				if (ObjectId.isId(name)) {
+					entries.put(name, Long.valueOf(f.length()));
+					size += f.length();
+				}
+			}
+		}
+		evict();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public InputStream open(Key key) throws IOException {
+		String name = key.name();
+		synchronized (this) {
+			if (entries.get(name) == null) {
+				return null;
+			}
+		}
+		try {
+			return new FileInputStream(file(name));
+		} catch (FileNotFoundException e) {
+			remove(name);
+			return null;
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Writer newWriter(Key key) throws IOException {
+		long gen;
+		synchronized (this) {
+			gen = generation;
+		}
+		File tmp = File.createTempFile(TMP_PREFIX, TMP_SUFFIX, directory);
+		return new FileWriter(key.name(), tmp, gen);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public synchronized void invalidate() {
+		generation++;
+		for (String name : entries.keySet()) {
+			delete(file(name));
+		}
+		entries.clear();
+		size = 0;
+	}
+
+	private synchronized void remove(String name) {
+		Long len = entries.remove(name);
+		if (len != null) {
+			size -= len.longValue();
+		}
+	}
+
+	private synchronized boolean add(String name, File tmp, long len,
+			long gen) throws IOException {
+		if (gen != generation || len > maxSize) {
+			return false;
+		}
+		FileUtils.rename(tmp, file(name), StandardCopyOption.ATOMIC_MOVE);
+		Long old = entries.put(name, Long.valueOf(len));
+		if (old != null) {
+			size -= old.longValue();
+		}
+		size += len;
+		evict();
+		return true;
+	}
+
+	private void evict() {
+		Iterator<Map.Entry<String, Long>> i = entries.entrySet().iterator();
+		while (size > maxSize && i.hasNext()) {
+			Map.Entry<String, Long> e = i.next();
+			delete(file(e.getKey()));
+			size -= e.getValue().longValue();
+			i.remove();
+		}
+	}
+
+	private File file(String name) {
+		return new File(directory, name + PACK_SUFFIX);
+	}
+
+	private static void delete(File f) {
+		try {
+			FileUtils.delete(f,
+					FileUtils.SKIP_MISSING | FileUtils.IGNORE_ERRORS);
+		} catch (IOException e) {
+			// Ignored, IGNORE_ERRORS does not throw.
+		}
+	}
+
+	private class FileWriter extends Writer {
+		private final String name;
+
+		private final File tmp;
+
+		private final long gen;
+
+		private final OutputStream out;
+
+		private long length;
+
+		private boolean done;
+
+		FileWriter(String name, File tmp, long gen) throws IOException {
+			this.name = name;
+			this.tmp = tmp;
+			this.gen = gen;
+			this.out = new FileOutputStream(tmp);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			if (!done) {
+				out.write(b);
+				length++;
+				checkLength();
+			}
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (!done) {
+				out.write(b, off, len);
+				length += len;
+				checkLength();
+			}
+		}
+
+		private void checkLength() throws IOException {
+			if (length > maxSize) {
+				// The pack cannot be cached, stop writing it to disk.
+				close();
+			}
+		}
+
+		@Override
+		public void commit() throws IOException {
+			if (done) {
+				return;
+			}
+			done = true;
+			try {
+				out.close();
+				if (!add(name, tmp, length, gen)) {
+					delete(tmp);
+				}
+			} catch (IOException e) {
+				delete(tmp);
+				throw e;
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (!done) {
+				done = true;
+				try {
+					out.close();
+				} finally {
+					delete(tmp);
+				}
+			}
+		}
+	}
+}
@@ -47,6 +47,7 @@
 
 import java.io.EOFException;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.InputStream;
 import java.security.MessageDigest;
 import java.text.MessageFormat;
@@ -54,16 +55,24 @@
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
 import java.util.zip.DataFormatException;
 import java.util.zip.Inflater;
 
+import org.eclipse.jgit.annotations.Nullable;
 import org.eclipse.jgit.errors.CorruptObjectException;
 import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.errors.TooLargeObjectInPackException;
 import org.eclipse.jgit.internal.JGitText;
 import org.eclipse.jgit.internal.storage.file.PackLock;
 import org.eclipse.jgit.internal.storage.pack.BinaryDelta;
+import org.eclipse.jgit.internal.storage.pack.PackWorkers;
 import org.eclipse.jgit.lib.AnyObjectId;
 import org.eclipse.jgit.lib.BatchingProgressMonitor;
 import org.eclipse.jgit.lib.BlobObjectChecker;
@@ -80,6 +89,7 @@
 import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.lib.ObjectStream;
 import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.lib.ThreadSafeProgressMonitor;
 import org.eclipse.jgit.util.BlockList;
 import org.eclipse.jgit.util.IO;
 import org.eclipse.jgit.util.LongMap;
@@ -189,6 +199,9 @@ public static enum Source {
 	/** Git object size limit */
 	private long maxObjectSizeLimit;
 
+	/** Number of threads resolving deltas; 0 for one per processor. */
+	private int indexThreads = 1;
+
 	private final ReceivedPackStatistics.Builder stats =
 			new ReceivedPackStatistics.Builder();
 
@@ -436,6 +449,35 @@ public void setMaxObjectSizeLimit(long limit) {
 		maxObjectSizeLimit = limit;
 	}
 
+	/**
+	 * Get the number of threads used to resolve deltas.
+	 *
+	 * @return number of threads used to resolve deltas; 0 uses one thread per
+	 *         available processor.
+	 * @since 5.4
+	 */
+	public int getIndexThreads() {
+		return indexThreads;
+	}
+
+	/**
+	 * Set the number of threads used to resolve deltas.
+	 * <p>
+	 * Deltas are only resolved by more than one thread if the implementation
+	 * supports {@link #newPositionalReader() positional reads} of the
+	 * stored objects; otherwise the setting is ignored. Each thread resolves
+	 * the delta chains of a different base object, so threads work in
+	 * parallel when the pack has many bases with deltas.
+	 *
+	 * @param threads
+	 *            number of threads; 0 uses one thread per available processor,
+	 *            1 resolves all deltas on the calling thread.
+	 * @since 5.4
+	 */
+	public void setIndexThreads(int threads) {
+		indexThreads = threads;
+	}
+
 	/**
 	 * Get the number of objects in the stream.
 	 * <p>
@@ -631,6 +673,17 @@ private void processDeltas(ProgressMonitor resolving) throws IOException {
 
 	private void resolveDeltas(ProgressMonitor progress)
 			throws IOException {
+		int threads = indexThreads;
+		if (threads <= 0)
+			threads = Runtime.getRuntime().availableProcessors();
+		if (threads > 1 && entryCount > 1) {
+			PositionalReader reader = newPositionalReader();
+			if (reader != null) {
+				new ParallelDeltaResolver(progress, reader).run(threads);
+				return;
+			}
+		}
+
 		final int last = entryCount;
 		for (int i = 0; i < last; i++) {
 			resolveDeltas(entries[i], progress);
@@ -712,7 +765,7 @@ private void resolveDeltas(DeltaVisit visit, final int type,
 
 			verifySafeObject(tempObjectId, type, visit.data);
 			if (isCheckObjectCollisions() && readCurs.has(tempObjectId)) {
-				checkObjectCollision(tempObjectId, type, visit.data);
+				checkObjectCollision(readCurs, tempObjectId, type, visit.data);
 			}
 
 			PackedObjectInfo oe;
@@ -1132,18 +1185,24 @@ private void whole(long pos, int type, long sz)
 	protected void verifySafeObject(final AnyObjectId id, final int type,
 			final byte[] data) throws CorruptObjectException {
 		if (objCheck != null) {
-			try {
-				objCheck.check(id, type, data);
-			} catch (CorruptObjectException e) {
-				if (e.getErrorType() != null) {
-					throw e;
-				}
-				throw new CorruptObjectException(
-						MessageFormat.format(JGitText.get().invalidObject,
-								Constants.typeString(type), id.name(),
-								e.getMessage()),
-						e);
+			verifySafeObject(objCheck, id, type, data);
+		}
+	}
+
+	private static void verifySafeObject(ObjectChecker checker,
+			AnyObjectId id, int type, byte[] data)
+			throws CorruptObjectException {
+		try {
+			checker.check(id, type, data);
+		} catch (CorruptObjectException e) {
+			if (e.getErrorType() != null) {
+				throw e;
 			}
+			throw new CorruptObjectException(
+					MessageFormat.format(JGitText.get().invalidObject,
+							Constants.typeString(type), id.name(),
+							e.getMessage()),
+					e);
 		}
 	}
 
@@ -1188,10 +1247,10 @@ private void checkObjectCollision(PackedObjectInfo obj)
 		}
 	}
 
-	private void checkObjectCollision(AnyObjectId obj, int type, byte[] data)
-			throws IOException {
+	private static void checkObjectCollision(ObjectReader curs,
+			AnyObjectId obj, int type, byte[] data) throws IOException {
 		try {
-			final ObjectLoader ldr = readCurs.open(obj, type);
+			final ObjectLoader ldr = curs.open(obj, type);
 			final byte[] existingData = ldr.getCachedBytes(data.length);
 			if (!Arrays.equals(data, existingData)) {
 				throw new IOException(MessageFormat.format(
@@ -1529,6 +1588,32 @@ protected abstract ObjectTypeAndSize seekDatabase(UnresolvedDelta delta,
 	protected abstract int readDatabase(byte[] dst, int pos, int cnt)
 			throws IOException;
 
+	/**
+	 * Create a reader of the stored objects supporting concurrent reads.
+	 * <p>
+	 * Deltas can only be resolved by multiple threads (see
+	 * {@link #setIndexThreads(int)}) if stored objects can be read back
+	 * concurrently. The reader is only used while resolving deltas, after all
+	 * objects have been stored.
+	 * <p>
+	 * Implementations returning a reader accept that, while deltas are
+	 * resolved by multiple threads, {@link #onInflatedObjectData} is invoked
+	 * concurrently, and objects resolved from deltas are checked by the
+	 * {@link #setObjectChecker(ObjectChecker) object checker} without calling
+	 * {@link #verifySafeObject}.
+	 *
+	 * @return a reader of the stored objects, or {@code null} if the
+	 *         implementation cannot read them concurrently. The default
+	 *         implementation returns {@code null}.
+	 * @throws java.io.IOException
+	 *             the database cannot be accessed.
+	 * @since 5.4
+	 */
+	@Nullable
+	protected PositionalReader newPositionalReader() throws IOException {
+		return null;
+	}
+
 	/**
 	 * Check the current CRC matches the expected value.
 	 * <p>
@@ -1750,6 +1835,381 @@ private void addObjectAndTrack(PackedObjectInfo oe) {
 			newObjectIds.add(oe);
 	}
 
+	/**
+	 * Reads the stored objects at arbitrary positions.
+	 * <p>
+	 * Unlike {@link PackParser#readDatabase(byte[], int, int)} reads do not
+	 * use the position of {@code seekDatabase}, and must be safe to call from
+	 * multiple threads at the same time. The parser computes and checks the
+	 * CRC of the data read itself, without calling
+	 * {@link PackParser#onObjectHeader(Source, byte[], int, int)},
+	 * {@link PackParser#onObjectData(Source, byte[], int, int)} or
+	 * {@link PackParser#checkCRC(int)}.
+	 *
+	 * @since 5.4
+	 */
+	@FunctionalInterface
+	protected interface PositionalReader {
+		/**
+		 * Read from the database at a position.
+		 *
+		 * @param position
+		 *            position in the stored pack to read from.
+		 * @param dst
+		 *            buffer to copy data into.
+		 * @param pos
+		 *            position within {@code dst} to start copying data into.
+		 * @param cnt
+		 *            ideal target number of bytes to read. Actual read length
+		 *            may be shorter.
+		 * @return number of bytes stored, or -1 at the end of the stored
+		 *         data.
+		 * @throws java.io.IOException
+		 *             the database cannot be accessed.
+		 */
+		int read(long position, byte[] dst, int pos, int cnt)
+				throws IOException;
+	}
+
+	/**
+	 * Resolves the delta trees of different base objects concurrently.
+	 * <p>
+	 * Workers claim the bases in the order the sequential resolver visits
+	 * them. Reading, inflating and applying deltas, hashing and checking the
+	 * results runs in parallel, using the {@link PositionalReader} and a
+	 * private inflater, object reader and object checker per worker. Only the
+	 * bookkeeping of the resolved objects is serialized by {@link #lock}.
+	 */
+	private class ParallelDeltaResolver {
+		private final Object lock = new Object();
+
+		/** Serializes checks if the object checker cannot be copied. */
+		private final Object checkLock = new Object();
+
+		private final ProgressMonitor progress;
+
+		private final PositionalReader reader;
+
+		private final int last;
+
+		private final AtomicInteger nextBase = new AtomicInteger();
+
+		private volatile boolean failed;
+
+		ParallelDeltaResolver(ProgressMonitor progress,
+				PositionalReader reader) {
+			this.progress = progress;
+			this.reader = reader;
+			this.last = entryCount;
+		}
+
+		void run(int threads) throws IOException {
+			ThreadSafeProgressMonitor pm = new ThreadSafeProgressMonitor(
+					progress);
+			ExecutorService pool = PackWorkers.getExecutor();
+			List<Worker> workers = new ArrayList<>(threads);
+			List<Future<Void>> futures = new ArrayList<>(threads);
+			boolean done = false;
+			try {
+				pm.startWorkers(threads);
+				for (int i = 0; i < threads; i++) {
+					Worker w = new Worker(pm);
+					workers.add(w);
+					futures.add(pool.submit(w));
+				}
+				pm.waitForCompletion();
+				for (Future<Void> f : futures)
+					f.get();
+				done = true;
+			} catch (InterruptedException e) {
+				throw new InterruptedIOException(
+						JGitText.get().downloadCancelledDuringIndexing);
+			} catch (ExecutionException e) {
+				Throwable err = e.getCause();
+				if (err instanceof Error)
+					throw (Error) err;
+				if (err instanceof RuntimeException)
+					throw (RuntimeException) err;
+				if (err instanceof IOException)
+					throw (IOException) err;
+				throw new IOException(err.getMessage(), err);
+			} finally {
+				if (!done) {
+					failed = true;
+					for (Future<Void> f : futures)
+						f.cancel(true);
+				}
+			}
+
+			ObjectChecker oc = objCheck;
+			if (oc != null) {
+				for (Worker w : workers) {
+					ObjectChecker wc = w.checker;
+					if (wc != null && wc != oc)
+						oc.getGitsubmodules().addAll(wc.getGitsubmodules());
+				}
+			}
+		}
+
+		private class Worker implements Callable<Void> {
+			private final ThreadSafeProgressMonitor pm;
+
+			private final byte[] readBuf = new byte[BUFFER_SIZE];
+
+			private final byte[] tail = new byte[64];
+
+			private final CRC32 crc = new CRC32();
+
+			private final SHA1 hasher = SHA1.newInstance();
+
+			private final MutableObjectId id = new MutableObjectId();
+
+			private final ObjectTypeAndSize info = new ObjectTypeAndSize();
+
+			/**
+			 * Copy of the parser's checker, or the parser's checker itself
+			 * if it is a subclass which has to be called under
+			 * {@link #checkLock}.
+			 */
+			@Nullable
+			final ObjectChecker checker;
+
+			private Inflater inf;
+
+			private ObjectReader curs;
+
+			Worker(ThreadSafeProgressMonitor pm) {
+				this.pm = pm;
+				ObjectChecker oc = objCheck;
+				if (oc != null && oc.getClass() == ObjectChecker.class) {
+					checker = oc.newChecker();
+				} else {
+					checker = oc;
+				}
+			}
+
+			@Override
+			public Void call() throws IOException {
+				inf = InflaterCache.get();
+				try {
+					if (isCheckObjectCollisions())
+						curs = objectDatabase.newReader();
+					for (;;) {
+						int i = nextBase.getAndIncrement();
+						if (last <= i || failed)
+							return null;
+						if (pm.isCancelled())
+							throw new IOException(JGitText
+									.get().downloadCancelledDuringIndexing);
+
+						PackedObjectInfo oe;
+						UnresolvedDelta children;
+						synchronized (lock) {
+							oe = entries[i];
+							children = firstChildOf(oe);
+						}
+						if (children != null)
+							resolve(oe, children);
+					}
+				} catch (IOException | RuntimeException | Error e) {
+					failed = true;
+					throw e;
+				} finally {
+					InflaterCache.release(inf);
+					inf = null;
+					if (curs != null) {
+						curs.close();
+						curs = null;
+					}
+					pm.endWorker();
+				}
+			}
+
+			private void resolve(PackedObjectInfo oe, UnresolvedDelta children)
+					throws IOException {
+				DeltaVisit visit = new DeltaVisit();
+				visit.nextChild = children;
+				visit.data = read(oe.getOffset(), oe.getCRC());
+				visit.id = oe;
+				final int type = info.type;
+				switch (type) {
+				case Constants.OBJ_COMMIT:
+				case Constants.OBJ_TREE:
+				case Constants.OBJ_BLOB:
+				case Constants.OBJ_TAG:
+					break;
+				default:
+					throw new IOException(MessageFormat.format(
+							JGitText.get().unknownObjectType,
+							Integer.valueOf(type)));
+				}
+				synchronized (lock) {
+					stats.addDeltaObject(type);
+				}
+
+				visit = visit.next();
+				do {
+					byte[] delta = read(visit.delta.position, visit.delta.crc);
+					switch (info.type) {
+					case Constants.OBJ_OFS_DELTA:
+					case Constants.OBJ_REF_DELTA:
+						break;
+					default:
+						throw new IOException(MessageFormat.format(
+								JGitText.get().unknownObjectType,
+								Integer.valueOf(info.type)));
+					}
+					checkIfTooLarge(type, BinaryDelta.getResultSize(delta));
+
+					visit.data = BinaryDelta.apply(visit.parent.data, delta);
+					delta = null;
+
+					SHA1 objectDigest = hasher.reset();
+					objectDigest.update(Constants.encodedTypeString(type));
+					objectDigest.update((byte) ' ');
+					objectDigest.update(Constants.encodeASCII(visit.data.length));
+					objectDigest.update((byte) 0);
+					objectDigest.update(visit.data);
+					objectDigest.digest(id);
+
+					check(type, visit.data);
+					if (curs != null && curs.has(id)) {
+						checkObjectCollision(curs, id, type, visit.data);
+					}
+
+					PackedObjectInfo e;
+					synchronized (lock) {
+						e = newInfo(id, visit.delta, visit.parent.id);
+					}
+					e.setOffset(visit.delta.position);
+					e.setType(type);
+					onInflatedObjectData(e, type, visit.data);
+					synchronized (lock) {
+						addObjectAndTrack(e);
+						visit.nextChild = firstChildOf(e);
+					}
+					visit.id = e;
+					pm.update(1);
+					visit = visit.next();
+				} while (visit != null);
+			}
+
+			private void check(int type, byte[] data)
+					throws CorruptObjectException {
+				ObjectChecker c = checker;
+				if (c == null) {
+					return;
+				}
+				if (c != objCheck) {
+					verifySafeObject(c, id, type, data);
+				} else {
+					synchronized (checkLock) {
+						verifySafeObject(c, id, type, data);
+					}
+				}
+			}
+
+			// Reads and inflates the object at position into a new array,
+			// leaving its type and size in info.
+			private byte[] read(long position, int expectedCRC)
+					throws IOException {
+				int n = fill(position);
+				int p = 0;
+				int c = readBuf[p++] & 0xff;
+				info.type = (c >> 4) & 7;
+				long sz = c & 15;
+				int shift = 4;
+				while ((c & 0x80) != 0) {
+					c = readBuf[p++] & 0xff;
+					sz += ((long) (c & 0x7f)) << shift;
+					shift += 7;
+				}
+				info.size = sz;
+				if (info.type == Constants.OBJ_OFS_DELTA) {
+					do {
+						c = readBuf[p++] & 0xff;
+					} while ((c & 128) != 0);
+				} else if (info.type == Constants.OBJ_REF_DELTA) {
+					p += Constants.OBJECT_ID_LENGTH;
+				}
+				if (n < p)
+					throw new EOFException(
+							JGitText.get().packfileIsTruncatedNoParam);
+
+				crc.reset();
+				crc.update(readBuf, 0, p);
+				byte[] dst = new byte[(int) sz];
+				int dstoff = 0;
+				int len = n - p;
+				inf.reset();
+				inf.setInput(readBuf, p, len);
+				try {
+					for (;;) {
+						int r;
+						if (dstoff < dst.length) {
+							r = inf.inflate(dst, dstoff, dst.length - dstoff);
+							dstoff += r;
+						} else {
+							// Pump the trailing checksum into the inflater.
+							r = inf.inflate(tail, 0, tail.length);
+							if (r != 0)
+								throw wrongDecompressedLength();
+						}
+						if (inf.finished()) {
+							crc.update(readBuf, p, len - inf.getRemaining());
+							break;
+						}
+						if (inf.needsInput()) {
+							crc.update(readBuf, p, len);
+							position += n;
+							n = fill(position);
+							if (n <= 0)
+								throw new EOFException(JGitText
+										.get().packfileIsTruncatedNoParam);
+							p = 0;
+							len = n;
+							inf.setInput(readBuf, 0, len);
+						} else if (r == 0) {
+							throw new CorruptObjectException(
+									MessageFormat.format(
+											JGitText.get().packfileCorruptionDetected,
+											JGitText.get().unknownZlibError));
+						}
+					}
+				} catch (DataFormatException dfe) {
+					throw new CorruptObjectException(MessageFormat.format(
+							JGitText.get().packfileCorruptionDetected,
+							dfe.getMessage()));
+				}
+				if (dstoff != dst.length)
+					throw wrongDecompressedLength();
+				if ((int) crc.getValue() != expectedCRC)
+					throw new IOException(MessageFormat.format(
+							JGitText.get().corruptionDetectedReReadingAt,
+							Long.valueOf(position)));
+				return dst;
+			}
+
+			private int fill(long position) throws IOException {
+				int n = 0;
+				while (n < readBuf.length) {
+					int r = reader.read(position + n, readBuf, n,
+							readBuf.length - n);
+					if (r <= 0)
+						break;
+					n += r;
+				}
+				return n;
+			}
+		}
+	}
+
+	private static CorruptObjectException wrongDecompressedLength() {
+		return new CorruptObjectException(MessageFormat.format(
+				JGitText.get().packfileCorruptionDetected,
+				JGitText.get().wrongDecompressedLength));
+	}
+
 	private class InflaterStream extends InputStream {
 		private final Inflater inf;
 
@@ -62,8 +62,8 @@
 import org.eclipse.jgit.util.SystemReader;
 
 /**
- * The standard "transfer", "fetch", "protocol", "receive", and "uploadpack"
- * configuration parameters.
+ * The standard "transfer", "fetch", "protocol", "receive", "uploadpack" and
+ * "pack.indexThreads" configuration parameters.
  */
 public class TransferConfig {
 	private static final String FSCK = "fsck"; //$NON-NLS-1$
@@ -131,6 +131,7 @@ static ProtocolVersion parse(@Nullable String name) {
 	private final boolean allowTipSha1InWant;
 	private final boolean allowReachableSha1InWant;
 	private final boolean allowFilter;
+	private final int indexThreads;
 	final @Nullable ProtocolVersion protocolVersion;
 	final String[] hideRefs;
 
@@ -210,6 +211,7 @@ public TransferConfig(Config rc) {
 				"uploadpack", "allowfilter", false);
 		protocolVersion = ProtocolVersion.parse(rc.getString("protocol", null, "version"));
 		hideRefs = rc.getStringList("uploadpack", null, "hiderefs");
+		indexThreads = rc.getInt("pack", "indexthreads", 1);
 	}
 
 	/**
@@ -283,6 +285,18 @@ public boolean isAllowFilter() {
 		return allowFilter;
 	}
 
+	/**
+	 * Get the number of threads resolving the deltas of received packs
+	 *
+	 * @return number of threads {@link PackParser} uses to resolve deltas; 0
+	 *         uses one thread per available processor. Read from
+	 *         {@code pack.indexThreads}, default 1.
+	 * @since 5.4
+	 */
+	public int getIndexThreads() {
+		return indexThreads;
+	}
+
 	/**
 	 * @return true if clients are allowed to specify a "want-ref" line
 	 * @since 5.1
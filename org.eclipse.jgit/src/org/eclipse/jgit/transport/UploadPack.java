@@ -72,6 +72,7 @@
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.UncheckedIOException;
+import java.security.MessageDigest;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -307,6 +308,9 @@ public Set<String> getOptions() {
 	/** Hook for taking post upload actions. */
 	private PostUploadHook postUploadHook = PostUploadHook.NULL;
 
+	/** Cache of generated packs, may be null. */
+	private UploadPackCache packCache;
+
 	/** Caller user agent */
 	String userAgent;
 
@@ -659,6 +663,36 @@ public void setPostUploadHook(@Nullable PostUploadHook hook) {
 		postUploadHook = hook != null ? hook : PostUploadHook.NULL;
 	}
 
+	/**
+	 * Get the cache of generated packs.
+	 *
+	 * @return the cache of generated packs, or {@code null} if packs are
+	 *         always generated.
+	 * @since 5.4
+	 */
+	@Nullable
+	public UploadPackCache getPackCache() {
+		return packCache;
+	}
+
+	/**
+	 * Set the cache of generated packs.
+	 * <p>
+	 * Packs sent to clients are stored in the cache and replayed to clients
+	 * sending an identical request, skipping object counting, selection and
+	 * compression. The {@link PackStatistics} of replayed packs, also passed
+	 * to the {@link PostUploadHook}, are
+	 * {@link PackStatistics#isPackCacheHit() marked} as such and only count
+	 * the bytes sent.
+	 *
+	 * @param cache
+	 *            the cache; if null packs are always generated.
+	 * @since 5.4
+	 */
+	public void setPackCache(@Nullable UploadPackCache cache) {
+		packCache = cache;
+	}
+
 	/**
 	 * Set the configuration used by the pack generator.
 	 *
@@ -2128,6 +2162,29 @@ private void sendPack(final boolean sideband,
 			throw noPack;
 		}
 
+		UploadPackCache.Key cacheKey = null;
+		if (packCache != null) {
+			cacheKey = packCacheKey(req, allTags, deepenNots);
+			long writeStart = System.currentTimeMillis();
+			long bytes = sendCachedPack(cacheKey, packOut);
+			if (bytes >= 0) {
+				accumulator.packCacheHit = true;
+				accumulator.totalBytes = bytes;
+				accumulator.timeWriting = System.currentTimeMillis()
+						- writeStart;
+				statistics = new PackStatistics(accumulator);
+				if (msgOut != NullOutputStream.INSTANCE) {
+					String msg = statistics.getMessage() + '\n';
+					msgOut.write(Constants.encode(msg));
+					msgOut.flush();
+				}
+				postUploadHook.onPostUpload(statistics);
+				if (sideband)
+					pckOut.end();
+				return;
+			}
+		}
+
 		PackConfig cfg = packConfig;
 		if (cfg == null)
 			cfg = new PackConfig(db);
@@ -2135,6 +2192,7 @@ private void sendPack(final boolean sideband,
 										// block, and is closed there
 		final PackWriter pw = new PackWriter(cfg, walk.getObjectReader(),
 				accumulator);
+		UploadPackCache.Writer cacheWriter = null;
 		try {
 			pw.setIndexDisabled(true);
 			if (req.getFilterSpec().isNoOp()) {
@@ -2228,7 +2286,17 @@ else if (ref.getName().startsWith(Constants.R_HEADS))
 				}
 			}
 
-			pw.writePack(pm, NullProgressMonitor.INSTANCE, packOut);
+			if (cacheKey != null) {
+				cacheWriter = packCache.newWriter(cacheKey);
+			}
+			if (cacheWriter != null) {
+				CachingOutputStream out = new CachingOutputStream(packOut,
+						cacheWriter);
+				pw.writePack(pm, NullProgressMonitor.INSTANCE, out);
+				out.commit();
+			} else {
+				pw.writePack(pm, NullProgressMonitor.INSTANCE, packOut);
+			}
 
 			if (msgOut != NullOutputStream.INSTANCE) {
 				String msg = pw.getStatistics().getMessage() + '\n';
@@ -2242,12 +2310,156 @@ else if (ref.getName().startsWith(Constants.R_HEADS))
 				postUploadHook.onPostUpload(statistics);
 			}
 			pw.close();
+			if (cacheWriter != null) {
+				cacheWriter.close();
+			}
 		}
 
 		if (sideband)
 			pckOut.end();
 	}
 
+	// Returns the number of bytes sent, or -1 if the pack is not cached.
+	private long sendCachedPack(UploadPackCache.Key key,
+			OutputStream packOut) throws IOException {
+		try (InputStream in = packCache.open(key)) {
+			if (in == null) {
+				return -1;
+			}
+			byte[] buf = new byte[8192];
+			long total = 0;
+			int n;
+			while ((n = in.read(buf)) > 0) {
+				packOut.write(buf, 0, n);
+				total += n;
+			}
+			packOut.flush();
+			return total;
+		}
+	}
+
+	// The key covers everything which determines the objects in the pack and
+	// their encoding: the wanted and common objects, the shallow state of the
+	// client, the filter and the capabilities altering the pack. If the client
+	// asked for tags to be included the advertised tags are part of the key,
+	// as they decide which annotated tags are added.
+	@SuppressWarnings("nls")
+	private UploadPackCache.Key packCacheKey(FetchRequest req,
+			@Nullable Collection<Ref> allTags, List<ObjectId> deepenNots) {
+		StringBuilder b = new StringBuilder();
+		for (ObjectId id : sorted(wantIds)) {
+			b.append("want ").append(id.name()).append('\n');
+		}
+		for (ObjectId id : sorted(commonBase)) {
+			b.append("have ").append(id.name()).append('\n');
+		}
+		for (ObjectId id : sorted(req.getClientShallowCommits())) {
+			b.append("shallow ").append(id.name()).append('\n');
+		}
+		for (ObjectId id : sorted(deepenNots)) {
+			b.append("deepen-not ").append(id.name()).append('\n');
+		}
+		b.append("depth ").append(req.getDepth()).append('\n');
+		b.append("deepen-since ").append(req.getDeepenSince()).append('\n');
+		b.append("filter ").append(req.getFilterSpec().getBlobLimit())
+				.append(' ').append(req.getFilterSpec().getTreeDepthLimit())
+				.append('\n');
+
+		Set<String> caps = req.getClientCapabilities();
+		for (String cap : new String[] { OPTION_OFS_DELTA, OPTION_THIN_PACK,
+				OPTION_INCLUDE_TAG }) {
+			if (caps.contains(cap)) {
+				b.append("capability ").append(cap).append('\n');
+			}
+		}
+		if (caps.contains(OPTION_INCLUDE_TAG) && allTags != null) {
+			List<Ref> tags = new ArrayList<>(allTags);
+			tags.sort((x, y) -> x.getName().compareTo(y.getName()));
+			for (Ref r : tags) {
+				ObjectId id = r.getObjectId();
+				if (id != null) {
+					b.append("tag ").append(r.getName()).append(' ')
+							.append(id.name()).append('\n');
+				}
+			}
+		}
+
+		MessageDigest md = Constants.newMessageDigest();
+		md.update(Constants.encode(b.toString()));
+		return new UploadPackCache.Key(ObjectId.fromRaw(md.digest()));
+	}
+
+	private static List<ObjectId> sorted(Collection<? extends ObjectId> ids) {
+		List<ObjectId> r = new ArrayList<>(ids);
+		Collections.sort(r);
+		return r;
+	}
+
+	/**
+	 * Writes the pack to the client and to the pack cache.
+	 * <p>
+	 * Failures of the cache do not abort sending the pack, the pack is simply
+	 * not cached.
+	 */
+	private static class CachingOutputStream extends OutputStream {
+		private final OutputStream out;
+
+		private UploadPackCache.Writer cache;
+
+		CachingOutputStream(OutputStream out, UploadPackCache.Writer cache) {
+			this.out = out;
+			this.cache = cache;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			if (cache != null) {
+				try {
+					cache.write(b);
+				} catch (IOException e) {
+					abandon();
+				}
+			}
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			if (cache != null) {
+				try {
+					cache.write(b, off, len);
+				} catch (IOException e) {
+					abandon();
+				}
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			out.flush();
+		}
+
+		void commit() {
+			if (cache != null) {
+				try {
+					cache.commit();
+				} catch (IOException e) {
+					// The pack was sent, it is just not cached.
+				}
+			}
+		}
+
+		private void abandon() {
+			try {
+				cache.close();
+			} catch (IOException e) {
+				// Ignored, the pack is not cached.
+			}
+			cache = null;
+		}
+	}
+
 	private static void findSymrefs(
 			final RefAdvertiser adv, final Map<String, Ref> refs) {
 		Ref head = refs.get(Constants.HEAD);
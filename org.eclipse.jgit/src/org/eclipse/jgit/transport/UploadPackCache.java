@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2019, Google LLC.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.eclipse.jgit.annotations.Nullable;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * Cache of pack streams generated by {@link UploadPack}.
+ * <p>
+ * When many clients fetch the same objects with the same capabilities (for
+ * example CI systems cloning the same branch tip) UploadPack would count,
+ * select and compress the same objects over and over again. With a cache set
+ * through {@link UploadPack#setPackCache(UploadPackCache)} the first fetch
+ * stores the generated pack and later identical fetches replay it.
+ * <p>
+ * Entries are identified by a {@link Key} computed from the objects the client
+ * wants and has, its shallow state, filter and the capabilities affecting the
+ * pack content. Entries do not depend on the pack configuration of the
+ * repository; callers changing it should {@link #invalidate()} the cache.
+ * <p>
+ * Implementations must be thread-safe, a single cache is typically shared by
+ * all UploadPack instances serving a repository.
+ *
+ * @since 5.4
+ */
+public abstract class UploadPackCache {
+	/**
+	 * Open a cached pack.
+	 *
+	 * @param key
+	 *            key of the pack.
+	 * @return stream of the pack data, starting with the pack header, or
+	 *         {@code null} if the pack is not cached.
+	 * @throws IOException
+	 *             the cache could not be read.
+	 */
+	@Nullable
+	public abstract InputStream open(Key key) throws IOException;
+
+	/**
+	 * Start storing a pack in the cache.
+	 *
+	 * @param key
+	 *            key of the pack.
+	 * @return writer receiving the pack data, or {@code null} if the pack
+	 *         should not be cached.
+	 * @throws IOException
+	 *             the cache could not be written.
+	 */
+	@Nullable
+	public abstract Writer newWriter(Key key) throws IOException;
+
+	/**
+	 * Discard all cached packs.
+	 * <p>
+	 * Packs being written while the cache is invalidated must not be added to
+	 * the cache afterwards.
+	 */
+	public abstract void invalidate();
+
+	/** Receives a pack which is added to the cache once complete. */
+	public abstract static class Writer extends OutputStream {
+		/**
+		 * Add the pack written so far to the cache.
+		 * <p>
+		 * A writer closed without calling this method must discard the data
+		 * written to it.
+		 *
+		 * @throws IOException
+		 *             the pack could not be stored.
+		 */
+		public abstract void commit() throws IOException;
+	}
+
+	/** Identity of a cached pack. */
+	public static final class Key {
+		private final ObjectId id;
+
+		/**
+		 * Create a key.
+		 *
+		 * @param id
+		 *            SHA-1 of the canonical description of the request.
+		 */
+		public Key(AnyObjectId id) {
+			this.id = id.copy();
+		}
+
+		/**
+		 * Get the SHA-1 of the canonical description of the request.
+		 *
+		 * @return the SHA-1 of the canonical description of the request.
+		 */
+		public ObjectId getId() {
+			return id;
+		}
+
+		/**
+		 * Get the name of this key.
+		 *
+		 * @return the key as hex string, suitable as file name.
+		 */
+		public String name() {
+			return id.name();
+		}
+
+		@Override
+		public int hashCode() {
+			return id.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof Key && id.equals(((Key) o).id);
+		}
+
+		@SuppressWarnings("nls")
+		@Override
+		public String toString() {
+			return "UploadPackCache.Key[" + id.name() + "]";
+		}
+	}
+}
@@ -885,6 +885,8 @@ void downloadPack(ProgressMonitor monitor) throws IOException {
 				PackParser parser = inserter.newPackParser(s.in);
 				parser.setAllowThin(false);
 				parser.setObjectChecker(objCheck);
+				parser.setIndexThreads(local.getConfig()
+						.get(TransferConfig.KEY).getIndexThreads());
 				parser.setLockMessage(lockMessage);
 				PackLock lock = parser.parse(monitor);
 				if (lock != null)
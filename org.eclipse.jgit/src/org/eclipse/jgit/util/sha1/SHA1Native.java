@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2019, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.util.sha1;
+
+import java.security.MessageDigest;
+
+import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.MutableObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * SHA1 implementation using the JDK's {@link MessageDigest}.
+ * <p>
+ * Hashes faster than {@link SHA1Java} on JVMs providing SHA intrinsics, but
+ * does not detect collision attacks. Enabling collision detection switches to
+ * a new {@link SHA1Java}.
+ */
+class SHA1Native extends SHA1 {
+	private final MessageDigest md;
+
+	/** Whether data was added since the digest was last reset. */
+	private boolean updated;
+
+	SHA1Native() {
+		md = Constants.newMessageDigest();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void update(byte b) {
+		md.update(b);
+		updated = true;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void update(byte[] in) {
+		md.update(in);
+		updated = true;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void update(byte[] in, int p, int len) {
+		md.update(in, p, len);
+		updated = true;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public byte[] digest() {
+		updated = false;
+		return md.digest();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public ObjectId toObjectId() {
+		updated = false;
+		return ObjectId.fromRaw(md.digest());
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void digest(MutableObjectId id) {
+		updated = false;
+		id.fromRaw(md.digest());
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public SHA1 reset() {
+		md.reset();
+		updated = false;
+		return this;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public SHA1 setDetectCollision(boolean detect) {
+		if (!detect) {
+			return this;
+		}
+		if (updated) {
+			throw new IllegalStateException(
+					JGitText.get().sha1CollisionDetectionAfterUpdate);
+		}
+		return new SHA1Java().setDetectCollision(true);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public boolean hasCollision() {
+		return false;
+	}
+}